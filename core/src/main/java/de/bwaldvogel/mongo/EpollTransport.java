@@ -0,0 +1,56 @@
+package de.bwaldvogel.mongo;
+
+import java.net.SocketAddress;
+import java.util.concurrent.ThreadFactory;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
+
+/**
+ * Keeps all references to the optional netty-transport-native-epoll
+ * dependency, so that it is only loaded if epoll is enabled.
+ */
+final class EpollTransport {
+
+    private EpollTransport() {
+    }
+
+    static void ensureAvailability() {
+        try {
+            Epoll.ensureAvailability();
+        } catch (NoClassDefFoundError e) {
+            throw new IllegalStateException("netty-transport-native-epoll is not on the classpath", e);
+        } catch (UnsatisfiedLinkError e) {
+            throw new IllegalStateException("epoll is not available", e);
+        }
+    }
+
+    static EventLoopGroup newEventLoopGroup(int numberOfThreads, ThreadFactory threadFactory) {
+        return new EpollEventLoopGroup(numberOfThreads, threadFactory);
+    }
+
+    static void configure(ServerBootstrap bootstrap, boolean reusePort) {
+        bootstrap//
+                .channel(EpollServerSocketChannel.class)//
+                .option(EpollChannelOption.SO_REUSEPORT, Boolean.valueOf(reusePort))//
+                .childOption(EpollChannelOption.EPOLL_MODE, EpollMode.EDGE_TRIGGERED);
+    }
+
+    static boolean isDomainSocketAddress(SocketAddress socketAddress) {
+        return socketAddress instanceof DomainSocketAddress;
+    }
+
+    static void configureDomainSocket(ServerBootstrap bootstrap) {
+        bootstrap//
+                .channel(EpollServerDomainSocketChannel.class)//
+                .childOption(EpollChannelOption.EPOLL_MODE, EpollMode.EDGE_TRIGGERED);
+    }
+
+}
@@ -0,0 +1,98 @@
+package de.bwaldvogel.mongo;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+
+import javax.net.SocketFactory;
+
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.local.LocalAddress;
+
+/**
+ * Creates sockets that connect to a server that was bound with
+ * {@link MongoServer#bindLocal(String)}, so that a client in the same JVM
+ * talks to the server without TCP. The host and port that the client
+ * connects to are ignored. Example for the synchronous Java driver:
+ *
+ * <pre>
+ * LocalAddress address = server.bindLocal("test");
+ * MongoClientOptions options = MongoClientOptions.builder()
+ *     .socketFactory(new LocalSocketFactory(address))
+ *     .build();
+ * MongoClient client = new MongoClient(new ServerAddress(), options);
+ * </pre>
+ */
+public class LocalSocketFactory extends SocketFactory {
+
+    private static EventLoopGroup defaultEventLoopGroup;
+
+    private final LocalAddress serverAddress;
+    private final EventLoopGroup eventLoopGroup;
+
+    /**
+     * Uses a single daemon thread that is shared by all factories to pass the
+     * data of the sockets to the server.
+     */
+    public LocalSocketFactory(LocalAddress serverAddress) {
+        this(serverAddress, getDefaultEventLoopGroup());
+    }
+
+    public LocalSocketFactory(LocalAddress serverAddress, EventLoopGroup eventLoopGroup) {
+        this.serverAddress = serverAddress;
+        this.eventLoopGroup = eventLoopGroup;
+    }
+
+    private static synchronized EventLoopGroup getDefaultEventLoopGroup() {
+        if (defaultEventLoopGroup == null) {
+            defaultEventLoopGroup = new DefaultEventLoopGroup(1, new MongoThreadFactory("mongo-local-client", true));
+        }
+        return defaultEventLoopGroup;
+    }
+
+    public LocalAddress getServerAddress() {
+        return serverAddress;
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        return new LocalSocket(new LocalSocketImpl(serverAddress, eventLoopGroup));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        Socket socket = createSocket();
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        return createSocket(host, port);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        Socket socket = createSocket();
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+            throws IOException {
+        return createSocket(address, port);
+    }
+
+    private static class LocalSocket extends Socket {
+
+        LocalSocket(LocalSocketImpl socketImpl) throws SocketException {
+            super(socketImpl);
+        }
+
+    }
+
+}
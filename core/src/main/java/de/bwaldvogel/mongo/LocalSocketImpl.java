@@ -0,0 +1,296 @@
+package de.bwaldvogel.mongo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketImpl;
+import java.net.SocketOptions;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+
+/**
+ * A client socket that is connected to a {@link LocalAddress} instead of a
+ * network address. Received buffers are queued until the blocking
+ * {@link InputStream} consumes them.
+ */
+class LocalSocketImpl extends SocketImpl {
+
+    private final LocalAddress serverAddress;
+    private final EventLoopGroup eventLoopGroup;
+
+    private final Object lock = new Object();
+    private final Queue<ByteBuf> received = new ArrayDeque<>();
+    private boolean inputClosed;
+
+    private volatile Channel channel;
+    private volatile int soTimeout;
+
+    LocalSocketImpl(LocalAddress serverAddress, EventLoopGroup eventLoopGroup) {
+        this.serverAddress = serverAddress;
+        this.eventLoopGroup = eventLoopGroup;
+    }
+
+    @Override
+    protected void create(boolean stream) throws IOException {
+        if (!stream) {
+            throw new SocketException("Datagram sockets are not supported");
+        }
+    }
+
+    @Override
+    protected void connect(String host, int port) throws IOException {
+        connect(new InetSocketAddress(host, port), 0);
+    }
+
+    @Override
+    protected void connect(InetAddress address, int port) throws IOException {
+        connect(new InetSocketAddress(address, port), 0);
+    }
+
+    @Override
+    protected void connect(SocketAddress socketAddress, int timeout) throws IOException {
+        // the requested address is only informational; the socket always connects to the local server address
+        if (socketAddress instanceof InetSocketAddress) {
+            InetSocketAddress inetSocketAddress = (InetSocketAddress) socketAddress;
+            this.address = inetSocketAddress.getAddress();
+            this.port = inetSocketAddress.getPort();
+        }
+
+        ChannelFuture connectFuture = new Bootstrap()//
+                .group(eventLoopGroup)//
+                .channel(LocalChannel.class)//
+                .handler(new ReceiveHandler())//
+                .connect(serverAddress);
+
+        if (timeout > 0) {
+            if (!connectFuture.awaitUninterruptibly(timeout)) {
+                connectFuture.cancel(false);
+                throw new SocketTimeoutException("connect to " + serverAddress + " timed out");
+            }
+        } else {
+            connectFuture.awaitUninterruptibly();
+        }
+        if (!connectFuture.isSuccess()) {
+            ConnectException exception = new ConnectException("Failed to connect to " + serverAddress);
+            exception.initCause(connectFuture.cause());
+            throw exception;
+        }
+        channel = connectFuture.channel();
+    }
+
+    @Override
+    protected void bind(InetAddress host, int port) throws IOException {
+        throw new SocketException("Binding is not supported");
+    }
+
+    @Override
+    protected void listen(int backlog) throws IOException {
+        throw new SocketException("Listening is not supported");
+    }
+
+    @Override
+    protected void accept(SocketImpl s) throws IOException {
+        throw new SocketException("Accepting is not supported");
+    }
+
+    @Override
+    protected InputStream getInputStream() throws IOException {
+        return new LocalInputStream();
+    }
+
+    @Override
+    protected OutputStream getOutputStream() throws IOException {
+        return new LocalOutputStream();
+    }
+
+    @Override
+    protected int available() throws IOException {
+        synchronized (lock) {
+            int available = 0;
+            for (ByteBuf buffer : received) {
+                available += buffer.readableBytes();
+            }
+            return available;
+        }
+    }
+
+    @Override
+    protected void close() throws IOException {
+        if (channel != null) {
+            channel.close().syncUninterruptibly();
+        }
+        closeInput();
+    }
+
+    @Override
+    protected void sendUrgentData(int data) throws IOException {
+        throw new SocketException("Urgent data is not supported");
+    }
+
+    @Override
+    public void setOption(int optionId, Object value) throws SocketException {
+        if (optionId == SocketOptions.SO_TIMEOUT) {
+            soTimeout = ((Integer) value).intValue();
+        }
+        // other options have no meaning for in-process channels
+    }
+
+    @Override
+    public Object getOption(int optionId) throws SocketException {
+        switch (optionId) {
+            case SocketOptions.SO_TIMEOUT:
+                return Integer.valueOf(soTimeout);
+            case SocketOptions.TCP_NODELAY:
+                return Boolean.TRUE;
+            case SocketOptions.SO_KEEPALIVE:
+            case SocketOptions.SO_OOBINLINE:
+            case SocketOptions.SO_REUSEADDR:
+                return Boolean.FALSE;
+            case SocketOptions.SO_LINGER:
+                return Integer.valueOf(-1);
+            default:
+                return null;
+        }
+    }
+
+    private void closeInput() {
+        synchronized (lock) {
+            inputClosed = true;
+            for (ByteBuf buffer : received) {
+                buffer.release();
+            }
+            received.clear();
+            lock.notifyAll();
+        }
+    }
+
+    private Channel getActiveChannel() throws SocketException {
+        Channel activeChannel = channel;
+        if (activeChannel == null || !activeChannel.isActive()) {
+            throw new SocketException("Socket is closed");
+        }
+        return activeChannel;
+    }
+
+    private class ReceiveHandler extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ByteBuf buffer = (ByteBuf) msg;
+            synchronized (lock) {
+                if (inputClosed) {
+                    buffer.release();
+                    return;
+                }
+                received.add(buffer);
+                lock.notifyAll();
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            synchronized (lock) {
+                // buffers that were already received can still be read
+                inputClosed = true;
+                lock.notifyAll();
+            }
+        }
+
+    }
+
+    private class LocalInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            synchronized (lock) {
+                long deadline = soTimeout > 0 ? System.currentTimeMillis() + soTimeout : 0;
+                while (received.isEmpty()) {
+                    if (inputClosed) {
+                        return -1;
+                    }
+                    long waitMillis = 0;
+                    if (deadline > 0) {
+                        waitMillis = deadline - System.currentTimeMillis();
+                        if (waitMillis <= 0) {
+                            throw new SocketTimeoutException("Read timed out");
+                        }
+                    }
+                    try {
+                        lock.wait(waitMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SocketException("Interrupted while reading");
+                    }
+                }
+                ByteBuf buffer = received.peek();
+                int n = Math.min(len, buffer.readableBytes());
+                buffer.readBytes(b, off, n);
+                if (!buffer.isReadable()) {
+                    received.remove().release();
+                }
+                return n;
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            return LocalSocketImpl.this.available();
+        }
+
+    }
+
+    private class LocalOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        /**
+         * Passes the bytes to the event loop, where the writes of the calling
+         * thread are handled in order. While the channel is not writable, the
+         * call blocks until the write completed, so that the outbound buffer
+         * cannot grow without bound.
+         */
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            Channel activeChannel = getActiveChannel();
+            ChannelFuture writeFuture = activeChannel.writeAndFlush(Unpooled.copiedBuffer(b, off, len));
+            if (!activeChannel.isWritable()) {
+                writeFuture.awaitUninterruptibly();
+            }
+            if (writeFuture.isDone() && !writeFuture.isSuccess()) {
+                throw new IOException("Failed to write to " + serverAddress, writeFuture.cause());
+            }
+        }
+
+    }
+
+}
@@ -3,6 +3,7 @@ package de.bwaldvogel.mongo;
 import java.util.List;
 
 import de.bwaldvogel.mongo.backend.Index;
+import de.bwaldvogel.mongo.backend.IndexKey;
 import de.bwaldvogel.mongo.bson.Document;
 import de.bwaldvogel.mongo.exception.MongoServerException;
 
@@ -14,7 +15,13 @@ public interface MongoCollection<P> {
 
     String getCollectionName();
 
-    void addIndex(Index<P> index);
+    void addIndex(Index<P> index) throws MongoServerException;
+
+    /**
+     * @return the index with exactly the given keys and directions or
+     *         {@code null} if the collection has no such index
+     */
+    Index<P> getIndex(List<IndexKey> keys);
 
     void addDocument(Document document) throws MongoServerException;
 
@@ -38,12 +45,37 @@ public interface MongoCollection<P> {
 
     Document findAndModify(Document query) throws MongoServerException;
 
+    /**
+     * Explains how a query is executed: whether an index or a collection scan
+     * is used and the stages the documents pass.
+     *
+     * @param executionStats
+     *            whether to execute the query and to report the number of
+     *            examined keys and documents and the time spent per stage
+     */
+    Document explain(Document query, Document orderBy, Document projection, int numberToSkip, int numberToReturn,
+            boolean executionStats) throws MongoServerException;
+
     int count(Document query, int skip, int limit) throws MongoServerException;
 
     int count() throws MongoServerException;
 
     int getNumIndexes();
 
+    /**
+     * @return the query, sort and projection of one query per cached query
+     *         shape
+     */
+    List<Document> getPlanCacheQueryShapes();
+
+    void clearPlanCache();
+
+    /**
+     * Removes the cached plan of the shape of the given query, sort and
+     * projection.
+     */
+    void clearPlanCache(Document query, Document sort, Document projection);
+
     void drop() throws MongoServerException;
 
     void renameTo(String newDatabaseName, String newCollectionName) throws MongoServerException;
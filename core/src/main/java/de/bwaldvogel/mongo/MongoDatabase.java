@@ -28,6 +28,8 @@ public interface MongoDatabase {
 
     MongoCollection<?> resolveCollection(String collectionName, boolean throwIfNotFound) throws MongoServerException;
 
+    MongoCollection<?> resolveOrCreateCollection(String collectionName) throws MongoServerException;
+
     void drop() throws MongoServerException;
 
     void dropCollection(String collectionName) throws MongoServerException;
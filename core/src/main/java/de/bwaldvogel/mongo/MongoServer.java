@@ -2,14 +2,20 @@ package de.bwaldvogel.mongo;
 
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.bwaldvogel.mongo.backend.CursorRegistry;
+import de.bwaldvogel.mongo.wire.CompressorRegistry;
 import de.bwaldvogel.mongo.wire.MongoDatabaseHandler;
 import de.bwaldvogel.mongo.wire.MongoExceptionHandler;
 import de.bwaldvogel.mongo.wire.MongoWireEncoder;
+import de.bwaldvogel.mongo.wire.MongoWireMessageEncoder;
 import de.bwaldvogel.mongo.wire.MongoWireProtocolHandler;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
@@ -18,65 +24,238 @@ import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.util.concurrent.ScheduledFuture;
 
 public class MongoServer {
 
     private static final Logger log = LoggerFactory.getLogger(MongoServer.class);
 
+    private static final long MAX_CURSOR_TIMEOUT_CHECK_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final int MAX_CONSOLIDATED_FLUSHES = 256;
+
     private final MongoBackend backend;
 
+    private final MongoServerOptions options;
+
+    private final CursorRegistry cursorRegistry;
+
+    private final Semaphore connectionPermits;
+
     private EventLoopGroup bossGroup;
 
     private EventLoopGroup workerGroup;
 
+    private ScheduledFuture<?> cursorTimeoutCheck;
+
     private ChannelGroup channelGroup;
 
-    private Channel channel;
+    private final List<Channel> channels = new ArrayList<>();
 
     public MongoServer(MongoBackend backend) {
+        this(backend, MongoServerOptions.builder().build());
+    }
+
+    public MongoServer(MongoBackend backend, MongoServerOptions options) {
         this.backend = backend;
+        this.options = options;
+        this.cursorRegistry = new CursorRegistry(options.getCursorTimeoutMillis());
+        this.connectionPermits = options.getMaxConnections() > 0 ? new Semaphore(options.getMaxConnections()) : null;
+    }
+
+    public MongoServerOptions getOptions() {
+        return options;
     }
 
     public void bind(String hostname, int port) {
         bind(new InetSocketAddress(hostname, port));
     }
 
+    /**
+     * Starts the server on the given address. Besides an
+     * {@link InetSocketAddress}, this can be a Unix domain socket address
+     * ({@code io.netty.channel.unix.DomainSocketAddress}), which requires the
+     * native epoll transport. The epoll transport is then used even if it is
+     * not {@link MongoServerOptions.Builder#epollEnabled(boolean) enabled}.
+     *
+     * @param socketAddress
+     *            the address to listen on
+     */
     public void bind(SocketAddress socketAddress) {
+        // only resolve the optional epoll classes if the address is not an IP address
+        boolean domainSocket = !(socketAddress instanceof InetSocketAddress)
+                && EpollTransport.isDomainSocketAddress(socketAddress);
+        if (domainSocket && options.isSharedEventLoopGroup()) {
+            throw new IllegalStateException("Unix domain sockets are not supported by the shared event loop group");
+        }
+        boolean epoll = options.isEpollEnabled() || domainSocket;
+        int reusePortAcceptors = domainSocket ? 1 : options.getReusePortAcceptors();
+        createEventLoopGroups(epoll);
+        try {
+            ServerBootstrap bootstrap = createServerBootstrap();
+            bootstrap.option(ChannelOption.SO_BACKLOG, Integer.valueOf(options.getBacklog()));
+            if (!domainSocket) {
+                bootstrap.childOption(ChannelOption.TCP_NODELAY, Boolean.TRUE);
+            }
 
-        bossGroup = new NioEventLoopGroup(0, new MongoThreadFactory("mongo-server-boss"));
-        workerGroup = new NioEventLoopGroup(0, new MongoThreadFactory("mongo-server-worker"));
-        channelGroup = new DefaultChannelGroup("mongodb-channels", workerGroup.next());
+            if (options.getReceiveBufferSize() > 0) {
+                // also set on the server socket to allow TCP window scaling
+                Integer receiveBufferSize = Integer.valueOf(options.getReceiveBufferSize());
+                bootstrap.option(ChannelOption.SO_RCVBUF, receiveBufferSize);
+                bootstrap.childOption(ChannelOption.SO_RCVBUF, receiveBufferSize);
+            }
+            if (options.getSendBufferSize() > 0) {
+                bootstrap.childOption(ChannelOption.SO_SNDBUF, Integer.valueOf(options.getSendBufferSize()));
+            }
 
-        try {
-            ServerBootstrap bootstrap = new ServerBootstrap();
-            bootstrap//
-                    .group(bossGroup, workerGroup)//
-                    .channel(NioServerSocketChannel.class)//
-                    .option(ChannelOption.SO_BACKLOG, 100)//
-                    .localAddress(socketAddress)//
-                    .childOption(ChannelOption.TCP_NODELAY, Boolean.TRUE)//
-                    .childHandler(new ChannelInitializer<SocketChannel>() {
-                        @Override
-                        public void initChannel(SocketChannel ch) throws Exception {
-                            ch.pipeline().addLast(new MongoWireEncoder());
-                            ch.pipeline().addLast(new MongoWireProtocolHandler());
-                            ch.pipeline().addLast(new MongoDatabaseHandler(backend, channelGroup));
-                            ch.pipeline().addLast(new MongoExceptionHandler());
-                        }
-                    });
+            if (domainSocket) {
+                EpollTransport.configureDomainSocket(bootstrap);
+            } else if (epoll) {
+                EpollTransport.configure(bootstrap, reusePortAcceptors > 1);
+            } else {
+                bootstrap.channel(NioServerSocketChannel.class);
+            }
+
+            Channel channel = bootstrap.bind(socketAddress).syncUninterruptibly().channel();
+            channels.add(channel);
+            // the first bind resolves a random port
+            for (int i = 1; i < reusePortAcceptors; i++) {
+                channels.add(bootstrap.bind(channel.localAddress()).syncUninterruptibly().channel());
+            }
+
+            started();
+        } catch (RuntimeException e) {
+            shutdownNow();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts the server for clients in the same JVM only. Clients connect
+     * through Netty's in-process {@link LocalChannel} instead of TCP, for
+     * example with the Java driver and a {@link LocalSocketFactory}. The
+     * socket related options are not used.
+     *
+     * @param name
+     *            the name of the local address
+     * @return the local address the server was bound to
+     */
+    public LocalAddress bindLocal(String name) {
+        return bindLocal(new LocalAddress(name));
+    }
 
-            channel = bootstrap.bind().syncUninterruptibly().channel();
+    /**
+     * Starts the server for clients in the same JVM on a random local
+     * address.
+     *
+     * @see #bindLocal(String)
+     */
+    public LocalAddress bindLocal() {
+        return bindLocal(LocalAddress.ANY);
+    }
 
-            log.info("started {}", this);
+    private LocalAddress bindLocal(LocalAddress localAddress) {
+        createEventLoopGroups(options.isEpollEnabled());
+        try {
+            ServerBootstrap bootstrap = createServerBootstrap().channel(LocalServerChannel.class);
+            Channel channel = bootstrap.bind(localAddress).syncUninterruptibly().channel();
+            channels.add(channel);
+            started();
+            return (LocalAddress) channel.localAddress();
         } catch (RuntimeException e) {
             shutdownNow();
             throw e;
         }
     }
 
+    private void createEventLoopGroups(boolean epoll) {
+        if (epoll) {
+            EpollTransport.ensureAvailability();
+        }
+        if (options.getEventLoopGroup() != null) {
+            bossGroup = options.getEventLoopGroup();
+            workerGroup = bossGroup;
+        } else if (options.isSharedEventLoopGroup()) {
+            bossGroup = SharedEventLoopGroup.INSTANCE.acquire();
+            workerGroup = bossGroup;
+        } else if (epoll) {
+            int bossThreads = options.getBossThreads() > 0 ? options.getBossThreads() : options.getReusePortAcceptors();
+            bossGroup = EpollTransport.newEventLoopGroup(bossThreads, new MongoThreadFactory("mongo-server-boss"));
+            workerGroup = EpollTransport.newEventLoopGroup(options.getWorkerThreads(),
+                    new MongoThreadFactory("mongo-server-worker"));
+        } else {
+            bossGroup = new NioEventLoopGroup(options.getBossThreads(), new MongoThreadFactory("mongo-server-boss"));
+            workerGroup = new NioEventLoopGroup(options.getWorkerThreads(), new MongoThreadFactory("mongo-server-worker"));
+        }
+        channelGroup = new DefaultChannelGroup("mongodb-channels", workerGroup.next());
+    }
+
+    private ServerBootstrap createServerBootstrap() {
+        ServerBootstrap bootstrap = new ServerBootstrap();
+        bootstrap//
+                .group(bossGroup, workerGroup)//
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    public void initChannel(Channel ch) throws Exception {
+                        if (!acquireConnectionPermit(ch)) {
+                            return;
+                        }
+                        if (options.isFlushConsolidation()) {
+                            // replies of requests that are handled on another thread are
+                            // written outside of a read, so they are consolidated as well
+                            boolean consolidateWhenNoReadInProgress = options.getRequestExecutor() != null;
+                            ch.pipeline().addLast(new FlushConsolidationHandler(
+                                    MAX_CONSOLIDATED_FLUSHES,
+                                    consolidateWhenNoReadInProgress));
+                        }
+                        CompressorRegistry compressorRegistry = options.getCompressorRegistry();
+                        ch.pipeline().addLast(new MongoWireEncoder(compressorRegistry));
+                        ch.pipeline().addLast(new MongoWireMessageEncoder(compressorRegistry));
+                        ch.pipeline().addLast(new MongoWireProtocolHandler(compressorRegistry));
+                        ch.pipeline().addLast(new MongoDatabaseHandler(backend, channelGroup, cursorRegistry,
+                                compressorRegistry, options.getRequestExecutor()));
+                        ch.pipeline().addLast(new MongoExceptionHandler());
+                    }
+                });
+
+        if (options.getWriteBufferWaterMark() != null) {
+            bootstrap.childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, options.getWriteBufferWaterMark());
+        }
+        if (options.getAllocator() != null) {
+            bootstrap.option(ChannelOption.ALLOCATOR, options.getAllocator());
+            bootstrap.childOption(ChannelOption.ALLOCATOR, options.getAllocator());
+        }
+        return bootstrap;
+    }
+
+    private void started() {
+        long checkInterval = Math.min(cursorRegistry.getCursorTimeoutMillis(), MAX_CURSOR_TIMEOUT_CHECK_INTERVAL_MILLIS);
+        cursorTimeoutCheck = workerGroup.scheduleAtFixedRate(cursorRegistry::closeTimedOutCursors, checkInterval,
+                checkInterval, TimeUnit.MILLISECONDS);
+
+        log.info("started {}", this);
+    }
+
+    private boolean acquireConnectionPermit(Channel channel) {
+        if (connectionPermits == null) {
+            return true;
+        }
+        if (!connectionPermits.tryAcquire()) {
+            log.warn("rejecting {}: maximum of {} connections reached", channel,
+                    Integer.valueOf(options.getMaxConnections()));
+            channel.close();
+            return false;
+        }
+        channel.closeFuture().addListener(future -> connectionPermits.release());
+        return true;
+    }
+
     /**
      * starts and binds the server on a local random port
      *
@@ -92,9 +271,12 @@ public class MongoServer {
      *         not listening
      */
     public InetSocketAddress getLocalAddress() {
-        if (channel == null)
+        if (channels.isEmpty())
+            return null;
+        SocketAddress localAddress = channels.get(0).localAddress();
+        if (!(localAddress instanceof InetSocketAddress))
             return null;
-        return (InetSocketAddress) channel.localAddress();
+        return (InetSocketAddress) localAddress;
     }
 
     /**
@@ -106,12 +288,31 @@ public class MongoServer {
     public void shutdown() {
         stopListenting();
 
-        // Shut down all event loops to terminate all threads.
-        bossGroup.shutdownGracefully(0, 5, TimeUnit.SECONDS);
-        workerGroup.shutdownGracefully(0, 5, TimeUnit.SECONDS);
+        if (cursorTimeoutCheck != null) {
+            cursorTimeoutCheck.cancel(false);
+            cursorTimeoutCheck = null;
+        }
 
-        bossGroup.terminationFuture().syncUninterruptibly();
-        workerGroup.terminationFuture().syncUninterruptibly();
+        if (options.getEventLoopGroup() != null || options.isSharedEventLoopGroup()) {
+            // the event loops are not ours to terminate
+            if (channelGroup != null) {
+                channelGroup.close().syncUninterruptibly();
+            }
+            if (options.isSharedEventLoopGroup() && bossGroup != null) {
+                SharedEventLoopGroup.INSTANCE.release(bossGroup);
+            }
+        } else if (bossGroup != null) {
+            // Shut down all event loops to terminate all threads.
+            bossGroup.shutdownGracefully(0, 5, TimeUnit.SECONDS);
+            workerGroup.shutdownGracefully(0, 5, TimeUnit.SECONDS);
+
+            bossGroup.terminationFuture().syncUninterruptibly();
+            workerGroup.terminationFuture().syncUninterruptibly();
+        }
+        bossGroup = null;
+        workerGroup = null;
+
+        cursorRegistry.clear();
 
         backend.close();
 
@@ -122,10 +323,12 @@ public class MongoServer {
      * Closes the server socket. No new clients are accepted afterwards.
      */
     public void stopListenting() {
-        if (channel != null) {
+        if (!channels.isEmpty()) {
             log.info("closing server channel");
-            channel.close().syncUninterruptibly();
-            channel = null;
+            for (Channel channel : channels) {
+                channel.close().syncUninterruptibly();
+            }
+            channels.clear();
         }
     }
 
@@ -141,6 +344,9 @@ public class MongoServer {
     }
 
     private void closeClients() {
+        if (channelGroup == null) {
+            return;
+        }
         int numClients = channelGroup.size();
         if (numClients > 0) {
             log.warn("Closing {} clients", numClients);
@@ -152,9 +358,13 @@ public class MongoServer {
     public String toString() {
         StringBuilder sb = new StringBuilder(getClass().getSimpleName());
         sb.append("(");
-        InetSocketAddress socketAddress = getLocalAddress();
-        if (socketAddress != null) {
-            sb.append("port: ").append(socketAddress.getPort());
+        if (!channels.isEmpty()) {
+            SocketAddress socketAddress = channels.get(0).localAddress();
+            if (socketAddress instanceof InetSocketAddress) {
+                sb.append("port: ").append(((InetSocketAddress) socketAddress).getPort());
+            } else if (socketAddress != null) {
+                sb.append(socketAddress);
+            }
         }
         sb.append(")");
         return sb.toString();
@@ -0,0 +1,380 @@
+package de.bwaldvogel.mongo;
+
+import java.util.concurrent.Executor;
+
+import de.bwaldvogel.mongo.backend.CursorRegistry;
+import de.bwaldvogel.mongo.wire.CompressorRegistry;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
+
+/**
+ * Network and resource settings of a {@link MongoServer}. Use
+ * {@link #builder()} to create an instance. All settings have defaults, so
+ * only those that differ need to be set:
+ *
+ * <pre>
+ * MongoServerOptions options = MongoServerOptions.builder()
+ *     .bossThreads(1)
+ *     .workerThreads(2)
+ *     .maxConnections(100)
+ *     .build();
+ * MongoServer server = new MongoServer(new MemoryBackend(), options);
+ * </pre>
+ */
+public class MongoServerOptions {
+
+    public static final int DEFAULT_BACKLOG = 100;
+
+    private final int bossThreads;
+    private final int workerThreads;
+    private final EventLoopGroup eventLoopGroup;
+    private final boolean sharedEventLoopGroup;
+    private final int backlog;
+    private final int receiveBufferSize;
+    private final int sendBufferSize;
+    private final WriteBufferWaterMark writeBufferWaterMark;
+    private final ByteBufAllocator allocator;
+    private final int maxConnections;
+    private final boolean epollEnabled;
+    private final int reusePortAcceptors;
+    private final Executor requestExecutor;
+    private final long cursorTimeoutMillis;
+    private final CompressorRegistry compressorRegistry;
+    private final boolean flushConsolidation;
+
+    private MongoServerOptions(Builder builder) {
+        this.bossThreads = builder.bossThreads;
+        this.workerThreads = builder.workerThreads;
+        this.eventLoopGroup = builder.eventLoopGroup;
+        this.sharedEventLoopGroup = builder.sharedEventLoopGroup;
+        this.backlog = builder.backlog;
+        this.receiveBufferSize = builder.receiveBufferSize;
+        this.sendBufferSize = builder.sendBufferSize;
+        this.writeBufferWaterMark = builder.writeBufferWaterMark;
+        this.allocator = builder.allocator;
+        this.maxConnections = builder.maxConnections;
+        this.epollEnabled = builder.epollEnabled;
+        this.reusePortAcceptors = builder.reusePortAcceptors;
+        this.requestExecutor = builder.requestExecutor;
+        this.cursorTimeoutMillis = builder.cursorTimeoutMillis;
+        this.compressorRegistry = builder.compressorRegistry != null ? builder.compressorRegistry : new CompressorRegistry();
+        this.flushConsolidation = builder.flushConsolidation;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getBossThreads() {
+        return bossThreads;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public EventLoopGroup getEventLoopGroup() {
+        return eventLoopGroup;
+    }
+
+    public boolean isSharedEventLoopGroup() {
+        return sharedEventLoopGroup;
+    }
+
+    public int getBacklog() {
+        return backlog;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    public WriteBufferWaterMark getWriteBufferWaterMark() {
+        return writeBufferWaterMark;
+    }
+
+    public ByteBufAllocator getAllocator() {
+        return allocator;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public boolean isEpollEnabled() {
+        return epollEnabled;
+    }
+
+    public int getReusePortAcceptors() {
+        return reusePortAcceptors;
+    }
+
+    public Executor getRequestExecutor() {
+        return requestExecutor;
+    }
+
+    public long getCursorTimeoutMillis() {
+        return cursorTimeoutMillis;
+    }
+
+    public CompressorRegistry getCompressorRegistry() {
+        return compressorRegistry;
+    }
+
+    public boolean isFlushConsolidation() {
+        return flushConsolidation;
+    }
+
+    public static class Builder {
+
+        private int bossThreads;
+        private int workerThreads;
+        private EventLoopGroup eventLoopGroup;
+        private boolean sharedEventLoopGroup;
+        private int backlog = DEFAULT_BACKLOG;
+        private int receiveBufferSize;
+        private int sendBufferSize;
+        private WriteBufferWaterMark writeBufferWaterMark;
+        private ByteBufAllocator allocator;
+        private int maxConnections;
+        private boolean epollEnabled;
+        private int reusePortAcceptors = 1;
+        private Executor requestExecutor;
+        private long cursorTimeoutMillis = CursorRegistry.DEFAULT_CURSOR_TIMEOUT_MILLIS;
+        private CompressorRegistry compressorRegistry;
+        private boolean flushConsolidation = true;
+
+        private Builder() {
+        }
+
+        /**
+         * @param bossThreads
+         *            the number of threads that accept connections or 0 to
+         *            use Netty's default of twice the number of cores. With
+         *            {@link #reusePortAcceptors(int) SO_REUSEPORT acceptors},
+         *            0 means one thread per acceptor.
+         */
+        public Builder bossThreads(int bossThreads) {
+            this.bossThreads = requireNonNegative(bossThreads, "number of boss threads");
+            return this;
+        }
+
+        /**
+         * @param workerThreads
+         *            the number of threads that handle the IO of the
+         *            connections or 0 to use Netty's default of twice the
+         *            number of cores
+         */
+        public Builder workerThreads(int workerThreads) {
+            this.workerThreads = requireNonNegative(workerThreads, "number of worker threads");
+            return this;
+        }
+
+        /**
+         * Accepts and handles the connections on the given event loop group
+         * instead of creating new boss and worker groups on
+         * {@link MongoServer#bind()}. The group is not shut down by the
+         * server. With {@link #epollEnabled(boolean) epoll}, the group must
+         * be an {@code EpollEventLoopGroup}.
+         *
+         * @param eventLoopGroup
+         *            the group or null to create the groups of the server
+         */
+        public Builder eventLoopGroup(EventLoopGroup eventLoopGroup) {
+            this.eventLoopGroup = eventLoopGroup;
+            return this;
+        }
+
+        /**
+         * Accepts and handles the connections on an event loop group that is
+         * shared by all servers of the JVM that enable this option. Binding
+         * and shutting down such servers does not start or stop threads,
+         * which is much faster if many servers are started in the same JVM,
+         * for example one per test. The threads of the shared group are
+         * daemon threads and they are stopped a few seconds after the last
+         * server using them was shut down. A server that blocks its event
+         * loop, for example with a slow backend, also delays the other
+         * servers; use a {@link #requestExecutor(Executor) request executor}
+         * in that case.
+         */
+        public Builder sharedEventLoopGroup(boolean sharedEventLoopGroup) {
+            this.sharedEventLoopGroup = sharedEventLoopGroup;
+            return this;
+        }
+
+        /**
+         * @param backlog
+         *            the maximum queue length of pending connections
+         *            ({@code SO_BACKLOG}). Defaults to
+         *            {@value MongoServerOptions#DEFAULT_BACKLOG}.
+         */
+        public Builder backlog(int backlog) {
+            if (backlog < 1) {
+                throw new IllegalArgumentException("Illegal backlog: " + backlog);
+            }
+            this.backlog = backlog;
+            return this;
+        }
+
+        /**
+         * @param receiveBufferSize
+         *            {@code SO_RCVBUF} of the connections in bytes or 0 to
+         *            keep the operating system's default
+         */
+        public Builder receiveBufferSize(int receiveBufferSize) {
+            this.receiveBufferSize = requireNonNegative(receiveBufferSize, "receive buffer size");
+            return this;
+        }
+
+        /**
+         * @param sendBufferSize
+         *            {@code SO_SNDBUF} of the connections in bytes or 0 to
+         *            keep the operating system's default
+         */
+        public Builder sendBufferSize(int sendBufferSize) {
+            this.sendBufferSize = requireNonNegative(sendBufferSize, "send buffer size");
+            return this;
+        }
+
+        /**
+         * @param writeBufferWaterMark
+         *            the limits of pending outbound bytes between which a
+         *            connection turns unwritable and writable again. While a
+         *            connection is unwritable, the server stops reading its
+         *            requests and producing further exhaust batches.
+         */
+        public Builder writeBufferWaterMark(WriteBufferWaterMark writeBufferWaterMark) {
+            this.writeBufferWaterMark = writeBufferWaterMark;
+            return this;
+        }
+
+        /**
+         * @param allocator
+         *            the allocator of the connection buffers, for example
+         *            {@link io.netty.buffer.UnpooledByteBufAllocator#DEFAULT}
+         *            to avoid the memory of the pooled default allocator
+         */
+        public Builder allocator(ByteBufAllocator allocator) {
+            this.allocator = allocator;
+            return this;
+        }
+
+        /**
+         * @param maxConnections
+         *            the maximum number of open connections or 0 for no limit.
+         *            Connections beyond the limit are closed right away.
+         */
+        public Builder maxConnections(int maxConnections) {
+            this.maxConnections = requireNonNegative(maxConnections, "maximum number of connections");
+            return this;
+        }
+
+        /**
+         * Uses the native epoll transport in edge-triggered mode instead of
+         * NIO. Requires Linux and the optional
+         * {@code netty-transport-native-epoll} dependency with the matching
+         * native classifier on the classpath.
+         */
+        public Builder epollEnabled(boolean epollEnabled) {
+            this.epollEnabled = epollEnabled;
+            return this;
+        }
+
+        /**
+         * Binds the given number of server channels with {@code SO_REUSEPORT}
+         * to the same address, so that the kernel distributes incoming
+         * connections between them. Requires {@link #epollEnabled(boolean)
+         * epoll}.
+         */
+        public Builder reusePortAcceptors(int reusePortAcceptors) {
+            if (reusePortAcceptors < 1) {
+                throw new IllegalArgumentException("Illegal number of acceptors: " + reusePortAcceptors);
+            }
+            this.reusePortAcceptors = reusePortAcceptors;
+            return this;
+        }
+
+        /**
+         * Handles requests on the given executor instead of the event loop of
+         * the connection, so that slow or blocking backend operations do not
+         * delay other connections. The requests of a connection are still
+         * handled one after another and replies are written on the event
+         * loop. A bounded pool such as
+         * {@link java.util.concurrent.Executors#newFixedThreadPool} limits the
+         * number of concurrently handled requests, while
+         * {@link java.util.concurrent.Executors#newCachedThreadPool} handles
+         * every request on its own thread. The executor is not shut down by
+         * the server.
+         *
+         * @param requestExecutor
+         *            the executor or null to handle requests on the event loop
+         */
+        public Builder requestExecutor(Executor requestExecutor) {
+            this.requestExecutor = requestExecutor;
+            return this;
+        }
+
+        /**
+         * @param cursorTimeoutMillis
+         *            the time after which idle cursors are closed by the server
+         */
+        public Builder cursorTimeoutMillis(long cursorTimeoutMillis) {
+            if (cursorTimeoutMillis <= 0) {
+                throw new IllegalArgumentException("Illegal cursor timeout: " + cursorTimeoutMillis);
+            }
+            this.cursorTimeoutMillis = cursorTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * @param compressorRegistry
+         *            the compressors that are offered to clients. Defaults to
+         *            snappy and zlib.
+         */
+        public Builder compressorRegistry(CompressorRegistry compressorRegistry) {
+            this.compressorRegistry = compressorRegistry;
+            return this;
+        }
+
+        /**
+         * Flushes the replies to requests that a client pipelined, that is
+         * sent without waiting for the previous replies, once per read instead
+         * of once per reply, which saves a system call per reply. Enabled by
+         * default.
+         */
+        public Builder flushConsolidation(boolean flushConsolidation) {
+            this.flushConsolidation = flushConsolidation;
+            return this;
+        }
+
+        public MongoServerOptions build() {
+            if (sharedEventLoopGroup && eventLoopGroup != null) {
+                throw new IllegalStateException("Either an event loop group or the shared event loop group can be used");
+            }
+            if ((sharedEventLoopGroup || eventLoopGroup != null) && (bossThreads > 0 || workerThreads > 0)) {
+                throw new IllegalStateException("The number of threads cannot be set for a given event loop group");
+            }
+            if (sharedEventLoopGroup && epollEnabled) {
+                throw new IllegalStateException("The shared event loop group does not support epoll");
+            }
+            if (reusePortAcceptors > 1 && !epollEnabled) {
+                throw new IllegalStateException("SO_REUSEPORT acceptors require epoll");
+            }
+            return new MongoServerOptions(this);
+        }
+
+        private static int requireNonNegative(int value, String name) {
+            if (value < 0) {
+                throw new IllegalArgumentException("Illegal " + name + ": " + value);
+            }
+            return value;
+        }
+
+    }
+
+}
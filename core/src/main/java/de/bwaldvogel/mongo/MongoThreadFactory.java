@@ -7,15 +7,22 @@ public class MongoThreadFactory implements ThreadFactory {
 
     private final AtomicLong counter = new AtomicLong();
     private final String prefix;
+    private final boolean daemon;
 
     public MongoThreadFactory(String prefix) {
+        this(prefix, false);
+    }
+
+    public MongoThreadFactory(String prefix, boolean daemon) {
         this.prefix = prefix;
+        this.daemon = daemon;
     }
 
     @Override
     public Thread newThread(Runnable r) {
         Thread thread = new Thread(r);
         thread.setName(prefix + counter.incrementAndGet());
+        thread.setDaemon(daemon);
         return thread;
     }
 
@@ -0,0 +1,75 @@
+package de.bwaldvogel.mongo;
+
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * A reference counted {@link EventLoopGroup} that is shared by all servers of
+ * the JVM that enable {@link MongoServerOptions.Builder#sharedEventLoopGroup(boolean)}.
+ * The group is created on the first {@link #acquire()} and shut down once it
+ * was not used for {@link #getShutdownDelayMillis()} after the last
+ * {@link #release(EventLoopGroup)}, so that servers which are started one
+ * after another (as in test suites) reuse the same threads.
+ */
+final class SharedEventLoopGroup {
+
+    static final long DEFAULT_SHUTDOWN_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(2);
+
+    static final SharedEventLoopGroup INSTANCE = new SharedEventLoopGroup(DEFAULT_SHUTDOWN_DELAY_MILLIS);
+
+    private final long shutdownDelayMillis;
+
+    private EventLoopGroup group;
+
+    private int referenceCount;
+
+    private ScheduledFuture<?> scheduledShutdown;
+
+    SharedEventLoopGroup(long shutdownDelayMillis) {
+        this.shutdownDelayMillis = shutdownDelayMillis;
+    }
+
+    long getShutdownDelayMillis() {
+        return shutdownDelayMillis;
+    }
+
+    synchronized EventLoopGroup acquire() {
+        if (scheduledShutdown != null) {
+            scheduledShutdown.cancel(false);
+            scheduledShutdown = null;
+        }
+        if (group == null) {
+            group = new NioEventLoopGroup(0, new MongoThreadFactory("mongo-server-shared", true));
+        }
+        referenceCount++;
+        return group;
+    }
+
+    synchronized void release(EventLoopGroup eventLoopGroup) {
+        if (eventLoopGroup != group || referenceCount == 0) {
+            throw new IllegalStateException("Event loop group " + eventLoopGroup + " is not acquired");
+        }
+        referenceCount--;
+        if (referenceCount == 0) {
+            scheduledShutdown = group.schedule(() -> shutdownIfUnused(eventLoopGroup), shutdownDelayMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    synchronized int getReferenceCount() {
+        return referenceCount;
+    }
+
+    private synchronized void shutdownIfUnused(EventLoopGroup eventLoopGroup) {
+        // the group might have been acquired again while this task was waiting for the lock
+        if (group == eventLoopGroup && referenceCount == 0) {
+            group = null;
+            scheduledShutdown = null;
+            eventLoopGroup.shutdownGracefully(0, 5, TimeUnit.SECONDS);
+        }
+    }
+
+}
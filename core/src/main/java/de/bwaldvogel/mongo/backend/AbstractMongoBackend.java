@@ -1,6 +1,7 @@
 package de.bwaldvogel.mongo.backend;
 
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -34,13 +35,13 @@ public abstract class AbstractMongoBackend implements MongoBackend {
 
     private final TreeMap<String, MongoDatabase> databases = new TreeMap<>();
 
-    private static final List<Integer> VERSION = Arrays.asList(3, 0, 0);
+    private static final List<Integer> VERSION = Arrays.asList(3, 6, 0);
 
     private MongoDatabase resolveDatabase(Message message) throws MongoServerException {
         return resolveDatabase(message.getDatabaseName());
     }
 
-    protected synchronized MongoDatabase resolveDatabase(String database) throws MongoServerException {
+    public synchronized MongoDatabase resolveDatabase(String database) throws MongoServerException {
         MongoDatabase db = databases.get(database);
         if (db == null) {
             db = openOrCreateDatabase(database);
@@ -155,8 +156,13 @@ public abstract class AbstractMongoBackend implements MongoBackend {
 
         if (command.equalsIgnoreCase("whatsmyuri")) {
             Document response = new Document();
-            InetSocketAddress remoteAddress = (InetSocketAddress) channel.remoteAddress();
-            response.put("you", remoteAddress.getAddress().getHostAddress() + ":" + remoteAddress.getPort());
+            SocketAddress socketAddress = channel.remoteAddress();
+            if (socketAddress instanceof InetSocketAddress) {
+                InetSocketAddress remoteAddress = (InetSocketAddress) socketAddress;
+                response.put("you", remoteAddress.getAddress().getHostAddress() + ":" + remoteAddress.getPort());
+            } else {
+                response.put("you", String.valueOf(socketAddress));
+            }
             Utils.markOkay(response);
             return response;
         } else if (command.equalsIgnoreCase("ismaster")) {
@@ -165,7 +171,7 @@ public abstract class AbstractMongoBackend implements MongoBackend {
             response.put("maxWriteBatchSize", Integer.valueOf(MongoWireProtocolHandler.MAX_WRITE_BATCH_SIZE));
             response.put("maxMessageSizeBytes", Integer.valueOf(MongoWireProtocolHandler.MAX_MESSAGE_SIZE_BYTES));
             response.put("maxWireVersion", Integer.valueOf(MongoWireProtocolHandler.MAX_WIRE_VERSION));
-            response.put("minWireVersion", Integer.valueOf(MongoWireProtocolHandler.MAX_WIRE_VERSION));
+            response.put("minWireVersion", Integer.valueOf(MongoWireProtocolHandler.MIN_WIRE_VERSION));
             response.put("localTime", new Date());
             Utils.markOkay(response);
             return response;
@@ -11,9 +11,13 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 import de.bwaldvogel.mongo.MongoCollection;
 import de.bwaldvogel.mongo.bson.BsonTimestamp;
@@ -25,10 +29,22 @@ import de.bwaldvogel.mongo.exception.MongoServerException;
 
 public abstract class AbstractMongoCollection<P> implements MongoCollection<P> {
 
+    private static final int MAX_PLAN_CACHE_SIZE = 5000;
+
     private String collectionName;
     private String databaseName;
     private final List<Index<P>> indexes = new ArrayList<>();
     private final QueryMatcher matcher = new DefaultQueryMatcher();
+    private final Map<QueryShape, QueryPlan<P>> planCache = new LinkedHashMap<QueryShape, QueryPlan<P>>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Entry<QueryShape, QueryPlan<P>> eldest) {
+            return size() > MAX_PLAN_CACHE_SIZE;
+        }
+
+    };
     protected final String idField;
 
     protected AbstractMongoCollection(String databaseName, String collectionName, String idField) {
@@ -37,22 +53,238 @@ public abstract class AbstractMongoCollection<P> implements MongoCollection<P> {
         this.idField = idField;
     }
 
-    protected boolean documentMatchesQuery(Document document, Document query) throws MongoServerException {
-        return matcher.matches(document, query);
+    protected boolean documentMatchesQuery(Document document, CompiledQuery query) {
+        return query.matches(document);
     }
 
     private Iterable<Document> queryDocuments(Document query, Document orderBy, int numberToSkip,
                                                 int numberToReturn) throws MongoServerException {
+        return queryDocuments(CompiledQuery.compile(query), orderBy, null, numberToSkip, numberToReturn);
+    }
+
+    private Iterable<Document> queryDocuments(CompiledQuery query, Document orderBy, Document projection,
+                                                int numberToSkip, int numberToReturn) throws MongoServerException {
+        Index<P> index = planQuery(query.getQuery(), orderBy, projection).index;
+        if (index != null) {
+            Iterable<P> positions = index.getPositions(query.getQuery());
+            return matchDocuments(query, positions, orderBy, numberToSkip, numberToReturn);
+        }
+
+        return matchDocuments(query, orderBy, numberToSkip, numberToReturn);
+    }
+
+    /**
+     * Looks up the plan of the query's shape in the plan cache or chooses the
+     * first index that can handle the query.
+     */
+    private QueryPlan<P> planQuery(Document query, Document orderBy, Document projection) {
+        QueryShape shape = new QueryShape(query, orderBy, projection);
         synchronized (indexes) {
-            for (Index<P> index : indexes) {
-                if (index.canHandle(query)) {
-                    Iterable<P> positions = index.getPositions(query);
-                    return matchDocuments(query, positions, orderBy, numberToSkip, numberToReturn);
-                }
+            QueryPlan<P> plan = planCache.get(shape);
+            if (plan == null) {
+                plan = new QueryPlan<>(chooseIndex(query));
+                planCache.put(shape, plan);
             }
+            return plan;
         }
+    }
 
-        return matchDocuments(query, orderBy, numberToSkip, numberToReturn);
+    private Index<P> chooseIndex(Document query) {
+        for (Index<P> index : indexes) {
+            if (index.canHandle(query)) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    private static final class QueryPlan<P> {
+
+        // null for a collection scan
+        private final Index<P> index;
+
+        private QueryPlan(Index<P> index) {
+            this.index = index;
+        }
+
+    }
+
+    @Override
+    public synchronized Document explain(Document query, Document orderBy, Document projection, int numberToSkip,
+            int numberToReturn, boolean executionStats) throws MongoServerException {
+        if (query == null) {
+            query = new Document();
+        }
+
+        CompiledQuery compiledQuery = CompiledQuery.compile(query);
+        Index<P> index = planQuery(query, orderBy, projection).index;
+
+        boolean naturalOrder = orderBy == null || orderBy.isEmpty() || orderBy.containsKey("$natural");
+        boolean backward = orderBy != null && orderBy.containsKey("$natural")
+                && Utils.normalizeValue(orderBy.get("$natural")).equals(Double.valueOf(-1.0));
+
+        List<Document> planStages = new ArrayList<>();
+        if (index != null) {
+            planStages.add(new Document("stage", "IXSCAN")
+                .append("keyPattern", index.getKeyPattern())
+                .append("indexName", index.getName())
+                .append("direction", "forward"));
+            planStages.add(new Document("stage", "FETCH").append("filter", query));
+        } else {
+            planStages.add(new Document("stage", "COLLSCAN")
+                .append("filter", query)
+                .append("direction", backward ? "backward" : "forward"));
+        }
+        if (!naturalOrder) {
+            planStages.add(new Document("stage", "SORT").append("sortPattern", orderBy));
+        }
+        if (numberToSkip > 0) {
+            planStages.add(new Document("stage", "SKIP").append("skipAmount", Integer.valueOf(numberToSkip)));
+        }
+        if (numberToReturn > 0) {
+            planStages.add(new Document("stage", "LIMIT").append("limitAmount", Integer.valueOf(numberToReturn)));
+        }
+        if (projection != null && !projection.isEmpty()) {
+            planStages.add(new Document("stage", "PROJECTION").append("transformBy", projection));
+        }
+
+        Document stats = null;
+        if (executionStats) {
+            stats = executeStages(compiledQuery, index, orderBy, projection, numberToSkip, numberToReturn,
+                    naturalOrder, backward, planStages);
+        }
+
+        Document queryPlanner = new Document("plannerVersion", Integer.valueOf(1));
+        queryPlanner.put("namespace", getFullName());
+        queryPlanner.put("indexFilterSet", Boolean.FALSE);
+        queryPlanner.put("parsedQuery", query);
+        queryPlanner.put("winningPlan", linkStages(planStages));
+        queryPlanner.put("rejectedPlans", Collections.emptyList());
+
+        Document explanation = new Document("queryPlanner", queryPlanner);
+        if (stats != null) {
+            explanation.put("executionStats", stats);
+        }
+        return explanation;
+    }
+
+    /**
+     * Executes the planned stages one after the other to measure them. The
+     * times are cumulative, like those of MongoDB, so that every stage
+     * includes the time of its input stages.
+     */
+    private Document executeStages(CompiledQuery compiledQuery, Index<P> index, Document orderBy,
+            Document projection, int numberToSkip, int numberToReturn, boolean naturalOrder, boolean backward,
+            List<Document> planStages) throws MongoServerException {
+        long start = System.nanoTime();
+        AtomicLong docsExamined = new AtomicLong();
+        CompiledQuery countingQuery = compiledQuery.countingDocsExamined(docsExamined);
+
+        List<Document> executionStages = new ArrayList<>();
+        Iterator<Document> planStageIterator = planStages.iterator();
+
+        int keysExamined = 0;
+        List<Document> documents = new ArrayList<>();
+        if (index != null) {
+            List<P> positions = new ArrayList<>();
+            for (P position : index.getPositions(compiledQuery.getQuery())) {
+                positions.add(position);
+            }
+            keysExamined = positions.size();
+            executionStages.add(executionStage(planStageIterator.next(), positions.size(), start)
+                .append("keysExamined", Integer.valueOf(keysExamined)));
+
+            for (Document document : matchDocuments(countingQuery, positions, null, 0, 0)) {
+                documents.add(document);
+            }
+        } else {
+            for (Document document : matchDocuments(countingQuery, null, 0, 0)) {
+                documents.add(document);
+            }
+            if (backward) {
+                Collections.reverse(documents);
+            }
+        }
+        executionStages.add(executionStage(planStageIterator.next(), documents.size(), start)
+            .append("docsExamined", Integer.valueOf(docsExamined.intValue())));
+
+        if (!naturalOrder) {
+            sortDocumentsInMemory(documents, orderBy);
+            executionStages.add(executionStage(planStageIterator.next(), documents.size(), start));
+        }
+        if (numberToSkip > 0) {
+            documents = documents.subList(Math.min(numberToSkip, documents.size()), documents.size());
+            executionStages.add(executionStage(planStageIterator.next(), documents.size(), start));
+        }
+        if (numberToReturn > 0) {
+            documents = documents.subList(0, Math.min(numberToReturn, documents.size()));
+            executionStages.add(executionStage(planStageIterator.next(), documents.size(), start));
+        }
+        if (projection != null && !projection.isEmpty()) {
+            for (Document document : documents) {
+                projectDocument(document, projection, idField);
+            }
+            executionStages.add(executionStage(planStageIterator.next(), documents.size(), start));
+        }
+
+        Document stats = new Document("executionSuccess", Boolean.TRUE);
+        stats.put("nReturned", Integer.valueOf(documents.size()));
+        stats.put("executionTimeMillis", Integer.valueOf(millisSince(start)));
+        stats.put("totalKeysExamined", Integer.valueOf(keysExamined));
+        stats.put("totalDocsExamined", Integer.valueOf(docsExamined.intValue()));
+        stats.put("executionStages", linkStages(executionStages));
+        return stats;
+    }
+
+    private static Document executionStage(Document planStage, int nReturned, long start) {
+        Document stage = new Document("stage", planStage.get("stage"));
+        stage.put("nReturned", Integer.valueOf(nReturned));
+        stage.put("executionTimeMillisEstimate", Integer.valueOf(millisSince(start)));
+        for (Entry<String, Object> entry : planStage.entrySet()) {
+            stage.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+        return stage;
+    }
+
+    private static int millisSince(long start) {
+        return (int) TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * @param stages
+     *            the stages in the order of execution
+     * @return the last stage, which contains its predecessor as input stage
+     */
+    private static Document linkStages(List<Document> stages) {
+        for (int i = 1; i < stages.size(); i++) {
+            stages.get(i).put("inputStage", stages.get(i - 1));
+        }
+        return stages.get(stages.size() - 1);
+    }
+
+    @Override
+    public List<Document> getPlanCacheQueryShapes() {
+        synchronized (indexes) {
+            List<Document> shapes = new ArrayList<>();
+            for (QueryShape shape : planCache.keySet()) {
+                shapes.add(shape.toDocument());
+            }
+            return shapes;
+        }
+    }
+
+    @Override
+    public void clearPlanCache() {
+        synchronized (indexes) {
+            planCache.clear();
+        }
+    }
+
+    @Override
+    public void clearPlanCache(Document query, Document sort, Document projection) {
+        synchronized (indexes) {
+            planCache.remove(new QueryShape(query, sort, projection));
+        }
     }
 
     protected void sortDocumentsInMemory(List<Document> documents, Document orderBy) {
@@ -72,10 +304,90 @@ public abstract class AbstractMongoCollection<P> implements MongoCollection<P> {
         }
     }
 
-    protected abstract Iterable<Document> matchDocuments(Document query, Document orderBy, int numberToSkip,
+    /**
+     * Lazily matches the documents against the query while the result is
+     * iterated, so that a cursor scans no further than the batches it returns.
+     * The collection is locked for each step only, which is why removed
+     * documents ({@code null}) are skipped.
+     */
+    protected Iterable<Document> matchDocumentsLazily(CompiledQuery query, Iterable<Document> documents,
+                                                      int numberToSkip, int numberToReturn) {
+        return () -> new MatchingIterator<>(documents, document -> document, query, numberToSkip, numberToReturn);
+    }
+
+    protected Iterable<Document> matchPositionsLazily(CompiledQuery query, Iterable<P> positions,
+                                                      int numberToSkip, int numberToReturn) {
+        return () -> new MatchingIterator<>(positions, this::getDocument, query, numberToSkip, numberToReturn);
+    }
+
+    private final class MatchingIterator<T> implements Iterator<Document> {
+
+        private final Iterable<T> source;
+        private final Function<T, Document> documentLookup;
+        private final CompiledQuery query;
+        private final int numberToReturn;
+        private Iterator<T> iterator;
+        private int numberToSkip;
+        private int returned;
+        private Document next;
+
+        private MatchingIterator(Iterable<T> source, Function<T, Document> documentLookup, CompiledQuery query,
+                                 int numberToSkip, int numberToReturn) {
+            this.source = source;
+            this.documentLookup = documentLookup;
+            this.query = query;
+            this.numberToSkip = numberToSkip;
+            this.numberToReturn = numberToReturn;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = findNext();
+            }
+            return next != null;
+        }
+
+        @Override
+        public Document next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Document document = next;
+            next = null;
+            returned++;
+            return document;
+        }
+
+        private Document findNext() {
+            if (numberToReturn > 0 && returned >= numberToReturn) {
+                return null;
+            }
+            synchronized (AbstractMongoCollection.this) {
+                if (iterator == null) {
+                    iterator = source.iterator();
+                }
+                while (iterator.hasNext()) {
+                    Document document = documentLookup.apply(iterator.next());
+                    if (document == null || !documentMatchesQuery(document, query)) {
+                        continue;
+                    }
+                    if (numberToSkip > 0) {
+                        numberToSkip--;
+                        continue;
+                    }
+                    return document;
+                }
+            }
+            return null;
+        }
+
+    }
+
+    protected abstract Iterable<Document> matchDocuments(CompiledQuery query, Document orderBy, int numberToSkip,
                                                            int numberToReturn) throws MongoServerException;
 
-    protected abstract Iterable<Document> matchDocuments(Document query, Iterable<P> positions, Document orderBy,
+    protected abstract Iterable<Document> matchDocuments(CompiledQuery query, Iterable<P> positions, Document orderBy,
                                                          int numberToSkip, int numberToReturn) throws MongoServerException;
 
     protected abstract Document getDocument(P position);
@@ -93,13 +405,17 @@ public abstract class AbstractMongoCollection<P> implements MongoCollection<P> {
             index.checkAdd(document);
         }
 
+        // fails for values that cannot be encoded, so it must happen before the document is stored
+        long size = Utils.calculateSize(document);
+
         P position = addDocumentInternal(document);
 
         for (Index<P> index : indexes) {
             index.add(document, position);
         }
 
-        updateDataSize(Utils.calculateSize(document));
+        document.setEncodedSize((int) size);
+        updateDataSize(size);
     }
 
     @Override
@@ -123,8 +439,64 @@ public abstract class AbstractMongoCollection<P> implements MongoCollection<P> {
     }
 
     @Override
-    public void addIndex(Index<P> index) {
-        indexes.add(index);
+    public synchronized void addIndex(Index<P> index) throws MongoServerException {
+        synchronized (indexes) {
+            if (index.getCount() == 0 && count() > 0) {
+                addExistingDocuments(index);
+            }
+            indexes.add(index);
+            planCache.clear();
+        }
+    }
+
+    @Override
+    public Index<P> getIndex(List<IndexKey> keys) {
+        synchronized (indexes) {
+            for (Index<P> index : indexes) {
+                if (index.getKeys().equals(keys)) {
+                    return index;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Adds the documents to a new index that were inserted before the index
+     * was created. If a document violates the index, it is left unchanged.
+     */
+    protected void addExistingDocuments(Index<P> index) throws MongoServerException {
+        List<Document> addedDocuments = new ArrayList<>();
+        List<P> addedPositions = new ArrayList<>();
+        try {
+            for (Document document : matchDocuments(CompiledQuery.compile(new Document()), null, 0, 0)) {
+                P position = getDocumentPosition(document);
+                index.add(document, position);
+                addedDocuments.add(document);
+                addedPositions.add(position);
+            }
+        } catch (MongoServerException e) {
+            for (int i = 0; i < addedDocuments.size(); i++) {
+                index.remove(addedDocuments.get(i), addedPositions.get(i));
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Looks up the position of a stored document in the unique indexes. Only
+     * if none of them contains the document, the collection is searched.
+     */
+    private P getDocumentPosition(Document document) throws MongoServerException {
+        for (Index<P> index : indexes) {
+            if (index instanceof AbstractUniqueIndex) {
+                P position = ((AbstractUniqueIndex<P>) index).findPosition(document);
+                if (position != null) {
+                    return position;
+                }
+            }
+        }
+        return findDocumentPosition(document);
     }
 
     private void assertNotKeyField(String key) throws MongoServerError {
@@ -742,7 +1114,8 @@ public abstract class AbstractMongoCollection<P> implements MongoCollection<P> {
             return Collections.emptyList();
         }
 
-        Iterable<Document> objs = queryDocuments(query, orderBy, numberToSkip, numberToReturn);
+        Iterable<Document> objs = queryDocuments(CompiledQuery.compile(query), orderBy, fieldSelector, numberToSkip,
+                numberToReturn);
 
         if (fieldSelector != null && !fieldSelector.keySet().isEmpty()) {
             return new ProjectingIterable(objs, fieldSelector, idField);
@@ -826,8 +1199,13 @@ public abstract class AbstractMongoCollection<P> implements MongoCollection<P> {
 
     @Override
     public synchronized int deleteDocuments(Document selector, int limit) throws MongoServerException {
-        int n = 0;
+        // the documents are matched before any of them is removed
+        List<Document> documents = new ArrayList<>();
         for (Document document : handleQuery(selector, 0, limit)) {
+            documents.add(document);
+        }
+        int n = 0;
+        for (Document document : documents) {
             if (limit > 0 && n >= limit) {
                 throw new MongoServerException("internal error: too many elements (" + n + " >= " + limit + ")");
             }
@@ -849,10 +1227,11 @@ public abstract class AbstractMongoCollection<P> implements MongoCollection<P> {
             }
         }
 
+        CompiledQuery query = CompiledQuery.compile(selector);
         int nMatched = 0;
         int nModified = 0;
-        for (Document document : queryDocuments(selector, null, 0, 0)) {
-            Integer matchPos = matcher.matchPosition(document, selector);
+        for (Document document : queryDocuments(query, null, null, 0, 0)) {
+            Integer matchPos = query.matchPosition(document);
             Document oldDocument = updateDocument(document, updateQuery, matchPos);
             if (!Utils.nullAwareEquals(oldDocument, document)) {
                 nModified++;
@@ -892,12 +1271,16 @@ public abstract class AbstractMongoCollection<P> implements MongoCollection<P> {
                 for (Index<P> index : indexes) {
                     index.checkUpdate(oldDocument, newDocument);
                 }
-                for (Index<P> index : indexes) {
-                    index.updateInPlace(oldDocument, newDocument);
+                long oldSize = Utils.getCachedSize(document);
+                long newSize = Utils.calculateSize(newDocument);
+
+                if (!indexes.isEmpty()) {
+                    P position = getDocumentPosition(oldDocument);
+                    for (Index<P> index : indexes) {
+                        index.updateInPlace(oldDocument, newDocument, position);
+                    }
                 }
 
-                long oldSize = Utils.calculateSize(oldDocument);
-                long newSize = Utils.calculateSize(newDocument);
                 updateDataSize(newSize - oldSize);
 
                 // only keep fields that are also in the updated document
@@ -915,6 +1298,7 @@ public abstract class AbstractMongoCollection<P> implements MongoCollection<P> {
                     }
                     document.put(key, newDocument.get(key));
                 }
+                document.setEncodedSize((int) newSize);
                 handleUpdate(document);
             }
             return oldDocument;
@@ -1032,21 +1416,17 @@ public abstract class AbstractMongoCollection<P> implements MongoCollection<P> {
 
     @Override
     public synchronized void removeDocument(Document document) throws MongoServerException {
-        P position = null;
-
-        if (!indexes.isEmpty()) {
-            for (Index<P> index : indexes) {
-                position = index.remove(document);
-            }
-        } else {
-            position = findDocumentPosition(document);
-        }
+        P position = getDocumentPosition(document);
         if (position == null) {
             // not found
             return;
         }
 
-        updateDataSize(-Utils.calculateSize(document));
+        for (Index<P> index : indexes) {
+            index.remove(document, position);
+        }
+
+        updateDataSize(-Utils.getCachedSize(document));
 
         removeDocument(position);
     }
@@ -1078,6 +1458,7 @@ public abstract class AbstractMongoCollection<P> implements MongoCollection<P> {
     public void renameTo(String newDatabaseName, String newCollectionName) throws MongoServerException {
         this.databaseName = newDatabaseName;
         this.collectionName = newCollectionName;
+        clearPlanCache();
     }
 
     protected abstract void removeDocument(P position) throws MongoServerException;
@@ -6,6 +6,7 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -16,6 +17,7 @@ import de.bwaldvogel.mongo.MongoBackend;
 import de.bwaldvogel.mongo.MongoCollection;
 import de.bwaldvogel.mongo.MongoDatabase;
 import de.bwaldvogel.mongo.bson.Document;
+import de.bwaldvogel.mongo.exception.BadValueException;
 import de.bwaldvogel.mongo.exception.MongoServerError;
 import de.bwaldvogel.mongo.exception.MongoServerException;
 import de.bwaldvogel.mongo.exception.MongoSilentServerException;
@@ -68,7 +70,12 @@ public abstract class AbstractMongoDatabase<P> implements MongoDatabase {
             MongoCollection<P> indexCollection = openOrCreateCollection(INDEXES_COLLECTION_NAME, null);
             indexes.set(indexCollection);
             for (Document indexDescription : indexCollection.handleQuery(new Document(), 0, 0, null)) {
-                openOrCreateIndex(indexDescription);
+                try {
+                    openOrCreateIndex(indexDescription);
+                } catch (MongoServerError e) {
+                    // e.g. an index of an unsupported type that older versions accepted
+                    log.warn("failed to open index {}: {}", indexDescription, e.getMessage());
+                }
             }
         }
     }
@@ -142,6 +149,12 @@ public abstract class AbstractMongoDatabase<P> implements MongoDatabase {
             return listCollections();
         } else if (command.equalsIgnoreCase("listIndexes")) {
             return listIndexes();
+        } else if (command.equalsIgnoreCase("planCacheListQueryShapes")) {
+            return commandPlanCacheListQueryShapes(command, query);
+        } else if (command.equalsIgnoreCase("planCacheClear")) {
+            return commandPlanCacheClear(command, query);
+        } else if (command.equalsIgnoreCase("explain")) {
+            return commandExplain(command, query);
         } else {
             log.error("unknown query: {}", query);
         }
@@ -192,7 +205,178 @@ public abstract class AbstractMongoDatabase<P> implements MongoDatabase {
         return response;
     }
 
-    private synchronized MongoCollection<P> resolveOrCreateCollection(final String collectionName) throws MongoServerException {
+    private Document commandPlanCacheListQueryShapes(String command, Document query) throws MongoServerException {
+        String collectionName = query.get(command).toString();
+        MongoCollection<P> collection = resolveCollection(collectionName, false);
+
+        List<Document> shapes = new ArrayList<>();
+        if (collection != null) {
+            shapes.addAll(collection.getPlanCacheQueryShapes());
+        }
+
+        Document response = new Document("shapes", shapes);
+        Utils.markOkay(response);
+        return response;
+    }
+
+    private Document commandPlanCacheClear(String command, Document query) throws MongoServerException {
+        String collectionName = query.get(command).toString();
+        MongoCollection<P> collection = resolveCollection(collectionName, false);
+
+        if (query.containsKey("query")) {
+            if (collection != null) {
+                collection.clearPlanCache((Document) query.get("query"), (Document) query.get("sort"),
+                        (Document) query.get("projection"));
+            }
+        } else if (query.containsKey("sort") || query.containsKey("projection")) {
+            throw new BadValueException("sort or projection provided but query is not");
+        } else if (collection != null) {
+            collection.clearPlanCache();
+        }
+
+        Document response = new Document();
+        Utils.markOkay(response);
+        return response;
+    }
+
+    private Document commandExplain(String command, Document query) throws MongoServerException {
+        if (!(query.get(command) instanceof Document)) {
+            throw new BadValueException("explain command requires a nested object");
+        }
+        Document explainedCommand = (Document) query.get(command);
+        if (explainedCommand.isEmpty()) {
+            throw new BadValueException("explain command requires a nested object");
+        }
+
+        boolean executionStats;
+        String verbosity = query.containsKey("verbosity") ? query.get("verbosity").toString() : "allPlansExecution";
+        if (verbosity.equals("queryPlanner")) {
+            executionStats = false;
+        } else if (verbosity.equals("executionStats") || verbosity.equals("allPlansExecution")) {
+            executionStats = true;
+        } else {
+            throw new BadValueException(
+                    "verbosity string must be one of {'queryPlanner', 'executionStats', 'allPlansExecution'}");
+        }
+
+        String explainedCommandName = explainedCommand.keySet().iterator().next();
+        String collectionName = explainedCommand.get(explainedCommandName).toString();
+        MongoCollection<P> collection = resolveCollection(collectionName, false);
+
+        Document explanation;
+        if (explainedCommandName.equalsIgnoreCase("find")) {
+            explanation = explain(collection, collectionName, (Document) explainedCommand.get("filter"),
+                    (Document) explainedCommand.get("sort"), (Document) explainedCommand.get("projection"),
+                    getOptionalNumber(explainedCommand, "skip", 0),
+                    Math.abs(getOptionalNumber(explainedCommand, "limit", 0)), executionStats);
+        } else if (explainedCommandName.equalsIgnoreCase("count")) {
+            explanation = explain(collection, collectionName, (Document) explainedCommand.get("query"), null, null,
+                    getOptionalNumber(explainedCommand, "skip", 0),
+                    Math.abs(getOptionalNumber(explainedCommand, "limit", 0)), executionStats);
+            addStage(explanation, "COUNT", "nCounted");
+        } else if (explainedCommandName.equalsIgnoreCase("distinct")) {
+            String key = explainedCommand.get("key").toString();
+            Document projection = new Document(key, Integer.valueOf(1));
+            if (!key.equals(Constants.ID_FIELD)) {
+                projection.put(Constants.ID_FIELD, Integer.valueOf(0));
+            }
+            explanation = explain(collection, collectionName, (Document) explainedCommand.get("query"), null,
+                    projection, 0, 0, executionStats);
+        } else if (explainedCommandName.equalsIgnoreCase("update")) {
+            Document update = getSingleStatement(explainedCommand, "updates");
+            boolean multi = Utils.isTrue(update.get("multi"));
+            explanation = explain(collection, collectionName, (Document) update.get("q"), null, null, 0,
+                    multi ? 0 : 1, executionStats);
+            Document stage = addStage(explanation, "UPDATE", "nMatched");
+            if (stage != null) {
+                boolean upsert = Utils.isTrue(update.get("upsert"));
+                stage.put("wouldInsert", Boolean.valueOf(upsert && stage.get("nMatched").equals(Integer.valueOf(0))));
+            }
+        } else if (explainedCommandName.equalsIgnoreCase("delete")) {
+            Document delete = getSingleStatement(explainedCommand, "deletes");
+            explanation = explain(collection, collectionName, (Document) delete.get("q"), null, null, 0,
+                    getOptionalNumber(delete, "limit", 0), executionStats);
+            addStage(explanation, "DELETE", "nWouldDelete");
+        } else {
+            throw new NoSuchCommandException(explainedCommandName);
+        }
+
+        if (verbosity.equals("allPlansExecution")) {
+            ((Document) explanation.get("executionStats")).put("allPlansExecution", Collections.emptyList());
+        }
+
+        Utils.markOkay(explanation);
+        return explanation;
+    }
+
+    private Document explain(MongoCollection<P> collection, String collectionName, Document query, Document sort,
+            Document projection, int skip, int limit, boolean executionStats) throws MongoServerException {
+        if (collection != null) {
+            return collection.explain(query, sort, projection, skip, limit, executionStats);
+        }
+
+        Document queryPlanner = new Document("plannerVersion", Integer.valueOf(1));
+        queryPlanner.put("namespace", getDatabaseName() + "." + collectionName);
+        queryPlanner.put("indexFilterSet", Boolean.FALSE);
+        queryPlanner.put("parsedQuery", query != null ? query : new Document());
+        queryPlanner.put("winningPlan", new Document("stage", "EOF"));
+        queryPlanner.put("rejectedPlans", Collections.emptyList());
+
+        Document explanation = new Document("queryPlanner", queryPlanner);
+        if (executionStats) {
+            Document stage = new Document("stage", "EOF");
+            stage.put("nReturned", Integer.valueOf(0));
+            stage.put("executionTimeMillisEstimate", Integer.valueOf(0));
+
+            Document stats = new Document("executionSuccess", Boolean.TRUE);
+            stats.put("nReturned", Integer.valueOf(0));
+            stats.put("executionTimeMillis", Integer.valueOf(0));
+            stats.put("totalKeysExamined", Integer.valueOf(0));
+            stats.put("totalDocsExamined", Integer.valueOf(0));
+            stats.put("executionStages", stage);
+            explanation.put("executionStats", stats);
+        }
+        return explanation;
+    }
+
+    /**
+     * Puts a stage that consumes the documents of the winning plan on top of
+     * it, like count, update and delete do.
+     *
+     * @return the new execution stage or {@code null} without execution stats
+     */
+    private static Document addStage(Document explanation, String stageName, String countField) {
+        Document queryPlanner = (Document) explanation.get("queryPlanner");
+        Document winningPlan = new Document("stage", stageName);
+        winningPlan.put("inputStage", queryPlanner.get("winningPlan"));
+        queryPlanner.put("winningPlan", winningPlan);
+
+        Document stats = (Document) explanation.get("executionStats");
+        if (stats == null) {
+            return null;
+        }
+        Document inputStage = (Document) stats.get("executionStages");
+        Document stage = new Document("stage", stageName);
+        stage.put("nReturned", Integer.valueOf(0));
+        stage.put("executionTimeMillisEstimate", inputStage.get("executionTimeMillisEstimate"));
+        stage.put(countField, inputStage.get("nReturned"));
+        stage.put("inputStage", inputStage);
+        stats.put("executionStages", stage);
+        stats.put("nReturned", Integer.valueOf(0));
+        return stage;
+    }
+
+    private static Document getSingleStatement(Document command, String field) throws MongoServerException {
+        @SuppressWarnings("unchecked")
+        List<Document> statements = (List<Document>) command.get(field);
+        if (statements == null || statements.size() != 1) {
+            throw new BadValueException("explained command must contain exactly one of " + field);
+        }
+        return statements.get(0);
+    }
+
+    @Override
+    public synchronized MongoCollection<P> resolveOrCreateCollection(final String collectionName) throws MongoServerException {
         final MongoCollection<P> collection = resolveCollection(collectionName, false);
         if (collection != null) {
             return collection;
@@ -395,6 +579,7 @@ public abstract class AbstractMongoDatabase<P> implements MongoDatabase {
         if (collection == null) {
             throw new MongoSilentServerException("ns not found");
         }
+        collection.clearPlanCache();
         Document response = new Document();
         namespaces.removeDocument(new Document("name", collection.getFullName()));
         response.put("nIndexesWas", Integer.valueOf(collection.getNumIndexes()));
@@ -513,6 +698,10 @@ public abstract class AbstractMongoDatabase<P> implements MongoDatabase {
         }
         int numSkip = query.getNumberToSkip();
         int numReturn = query.getNumberToReturn();
+        if (numReturn > 1) {
+            // only the size of the first batch. the remaining documents are fetched with getMore
+            numReturn = 0;
+        }
         Document fieldSelector = query.getReturnFieldSelector();
         return collection.handleQuery(query.getQuery(), numSkip, numReturn, fieldSelector);
     }
@@ -613,8 +802,9 @@ public abstract class AbstractMongoDatabase<P> implements MongoDatabase {
     }
 
     private void addIndex(Document indexDescription) throws MongoServerException {
-        openOrCreateIndex(indexDescription);
-        getOrCreateIndexesCollection().addDocument(indexDescription);
+        if (openOrCreateIndex(indexDescription)) {
+            getOrCreateIndexesCollection().addDocument(indexDescription);
+        }
     }
 
     private MongoCollection<P> getOrCreateIndexesCollection() throws MongoServerException {
@@ -635,34 +825,82 @@ public abstract class AbstractMongoDatabase<P> implements MongoDatabase {
         return namespace.substring(databaseName.length() + 1);
     }
 
-    private void openOrCreateIndex(Document indexDescription) throws MongoServerException {
+    /**
+     * @return {@code false} if the collection already has an index with the
+     *         same keys, in which case nothing is done
+     */
+    private boolean openOrCreateIndex(Document indexDescription) throws MongoServerException {
         String ns = indexDescription.get("ns").toString();
         String collectionName = extractCollectionNameFromNamespace(ns);
 
+        Document key = (Document) indexDescription.get("key");
+        List<IndexKey> keys = getIndexKeys(key);
+
         MongoCollection<P> collection = resolveOrCreateCollection(collectionName);
+        boolean unique = key.keySet().equals(Collections.singleton("_id")) || Utils.isTrue(indexDescription.get("unique"));
 
-        Document key = (Document) indexDescription.get("key");
-        if (key.keySet().equals(Collections.singleton("_id"))) {
-            boolean ascending = Utils.normalizeValue(key.get("_id")).equals(Double.valueOf(1.0));
-            collection.addIndex(openOrCreateUniqueIndex(collectionName, "_id", ascending));
-            log.info("adding unique _id index for collection {}", collectionName);
-        } else if (Utils.isTrue(indexDescription.get("unique"))) {
-            if (key.keySet().size() != 1) {
-                throw new MongoServerException("Compound unique indices are not yet implemented");
+        Index<P> existingIndex = collection.getIndex(keys);
+        if (existingIndex != null) {
+            if (existingIndex instanceof AbstractUniqueIndex != unique) {
+                throw new MongoServerError(85, "IndexOptionsConflict",
+                        "Index with name: " + existingIndex.getName() + " already exists with different options");
             }
+            log.debug("index {} already exists for collection {}", key, collectionName);
+            return false;
+        }
 
+        if (key.keySet().equals(Collections.singleton("_id"))) {
+            collection.addIndex(openOrCreateUniqueIndex(collectionName, keys));
+            log.info("adding unique _id index for collection {}", collectionName);
+        } else if (unique) {
             log.info("adding unique index {} for collection {}", key.keySet(), collectionName);
-
-            final String field = key.keySet().iterator().next();
-            boolean ascending = Utils.normalizeValue(key.get(field)).equals(Double.valueOf(1.0));
-            collection.addIndex(openOrCreateUniqueIndex(collectionName, field, ascending));
+            collection.addIndex(openOrCreateUniqueIndex(collectionName, keys));
         } else {
-            // TODO: non-unique non-id indexes not yet implemented
-            log.warn("adding non-unique non-id index with key {} is not yet implemented", key);
+            Index<P> index = openOrCreateNonUniqueIndex(collectionName, keys);
+            if (index != null) {
+                log.info("adding non-unique index {} for collection {}", key.keySet(), collectionName);
+                collection.addIndex(index);
+            } else {
+                log.warn("adding non-unique non-id index with key {} is not yet implemented", key);
+            }
         }
+        return true;
     }
 
-    protected abstract Index<P> openOrCreateUniqueIndex(String collectionName, String key, boolean ascending) throws MongoServerException;
+    private static List<IndexKey> getIndexKeys(Document keyPattern) throws MongoServerError {
+        List<IndexKey> keys = new ArrayList<>();
+        for (Entry<String, Object> entry : keyPattern.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof String) {
+                // special index types such as 'text', '2dsphere' or 'hashed'
+                throw new MongoServerError(67, "CannotCreateIndex",
+                        "Index type '" + value + "' of key '" + entry.getKey() + "' is not supported");
+            }
+            final boolean ascending;
+            if (value instanceof Number) {
+                double direction = ((Number) value).doubleValue();
+                if (direction == 0 || Double.isNaN(direction)) {
+                    throw new MongoServerError(67, "CannotCreateIndex",
+                            "Values in the index key pattern can't be 0, got: " + entry.getKey() + ": " + value);
+                }
+                ascending = direction > 0;
+            } else {
+                ascending = false;
+            }
+            keys.add(new IndexKey(entry.getKey(), ascending));
+        }
+        return keys;
+    }
+
+    protected abstract Index<P> openOrCreateUniqueIndex(String collectionName, List<IndexKey> keys) throws MongoServerException;
+
+    /**
+     * @return the index or {@code null} if the backend does not support
+     *         non-unique indexes
+     */
+    protected Index<P> openOrCreateNonUniqueIndex(String collectionName, List<IndexKey> keys) throws MongoServerException {
+        return null;
+    }
 
     private void insertDocuments(final Channel channel, final String collectionName, final List<Document> documents) throws MongoServerException {
         clearLastStatus(channel);
@@ -775,7 +1013,7 @@ public abstract class AbstractMongoDatabase<P> implements MongoDatabase {
 
     @Override
     public void dropCollection(String collectionName) throws MongoServerException {
-        unregisterCollection(collectionName);
+        unregisterCollection(collectionName).clearPlanCache();
     }
 
     @Override
@@ -0,0 +1,358 @@
+package de.bwaldvogel.mongo.backend;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+
+import de.bwaldvogel.mongo.bson.BsonRegularExpression;
+import de.bwaldvogel.mongo.bson.Document;
+import de.bwaldvogel.mongo.bson.MaxKey;
+
+/**
+ * An index that maps every key to the positions of all documents with that
+ * key. A key is the tuple of the values of all fields of the index. The keys
+ * are ordered by the {@link ValueComparator}, so that ranges of keys and keys
+ * with a common prefix can be looked up.
+ *
+ * An array is indexed by each of its elements and as a whole. Documents
+ * without a field are indexed with {@code null} for it. The positions that
+ * are found by the index are a superset of the matching documents, they still
+ * have to be matched against the query.
+ */
+public abstract class AbstractNonUniqueIndex<P> extends Index<P> {
+
+    private static final ValueComparator COMPARATOR = new ValueComparator();
+
+    private boolean multiKey;
+
+    protected AbstractNonUniqueIndex(List<IndexKey> keys) {
+        super(keys);
+    }
+
+    /**
+     * @return {@code true} if the position was not yet stored for the key
+     */
+    protected abstract boolean addPosition(List<Object> key, P position);
+
+    protected abstract void removePosition(List<Object> key, P position);
+
+    /**
+     * @return the keys and positions between the given keys in ascending
+     *         order of the keys. {@link MaxKey} is used for open upper
+     *         bounds.
+     */
+    protected abstract Iterable<Entry<List<Object>, P>> getEntries(List<Object> fromKey, boolean fromInclusive,
+            List<Object> toKey, boolean toInclusive);
+
+    /**
+     * Whether a document was indexed with more than one key. Then the bounds
+     * of a range query must not be combined, since different keys of the same
+     * document might satisfy them.
+     */
+    protected boolean isMultiKey() {
+        return multiKey;
+    }
+
+    protected void setMultiKey() {
+        multiKey = true;
+    }
+
+    Set<List<Object>> getKeys(Document document) {
+        Set<List<Object>> keys = new TreeSet<>(COMPARATOR);
+        keys.add(Collections.emptyList());
+        for (String keyName : getKeyNames()) {
+            Set<Object> values = new TreeSet<>(COMPARATOR);
+            collectKeys(document, keyName, values);
+            if (values.isEmpty()) {
+                values.add(null);
+            }
+            Set<List<Object>> extendedKeys = new TreeSet<>(COMPARATOR);
+            for (List<Object> key : keys) {
+                for (Object value : values) {
+                    extendedKeys.add(append(key, value));
+                }
+            }
+            keys = extendedKeys;
+        }
+        return keys;
+    }
+
+    private static List<Object> append(List<Object> key, Object... values) {
+        List<Object> result = new ArrayList<>(key);
+        Collections.addAll(result, values);
+        return result;
+    }
+
+    private static void collectKeys(Object object, String path, Set<Object> keys) {
+        int dotPos = path.indexOf('.');
+        String field = dotPos > 0 ? path.substring(0, dotPos) : path;
+        String remainingPath = dotPos > 0 ? path.substring(dotPos + 1) : null;
+
+        if (object instanceof List<?>) {
+            List<?> list = (List<?>) object;
+            if (field.matches("\\d+")) {
+                int index = Integer.parseInt(field);
+                if (index < list.size()) {
+                    collectValue(list.get(index), remainingPath, keys);
+                }
+            }
+            for (Object element : list) {
+                if (element instanceof Document) {
+                    collectKeys(element, path, keys);
+                }
+            }
+        } else if (object instanceof Document) {
+            collectValue(((Document) object).get(field), remainingPath, keys);
+        }
+    }
+
+    private static void collectValue(Object value, String remainingPath, Set<Object> keys) {
+        if (remainingPath != null) {
+            collectKeys(value, remainingPath, keys);
+        } else if (value instanceof List<?>) {
+            for (Object element : (List<?>) value) {
+                keys.add(copyKey(element));
+            }
+            keys.add(copyKey(value));
+        } else {
+            keys.add(copyKey(value));
+        }
+    }
+
+    /**
+     * The keys must not change when the document is modified.
+     */
+    private static Object copyKey(Object value) {
+        if (value instanceof Document) {
+            return Utils.deepCopy((Document) value);
+        } else if (value instanceof List<?>) {
+            List<Object> copy = new ArrayList<>();
+            for (Object element : (List<?>) value) {
+                copy.add(copyKey(element));
+            }
+            return copy;
+        } else {
+            return Utils.normalizeValue(value);
+        }
+    }
+
+    @Override
+    public void checkAdd(Document document) {
+        // no constraints
+    }
+
+    @Override
+    public synchronized void add(Document document, P position) {
+        Set<List<Object>> keys = getKeys(document);
+        if (keys.size() > 1) {
+            setMultiKey();
+        }
+        for (List<Object> key : keys) {
+            boolean added = addPosition(key, position);
+            if (!added) {
+                throw new IllegalStateException("Position " + position + " already exists. Concurrency issue?");
+            }
+        }
+    }
+
+    @Override
+    public synchronized void remove(Document document, P position) {
+        for (List<Object> key : getKeys(document)) {
+            removePosition(key, position);
+        }
+    }
+
+    @Override
+    public void checkUpdate(Document oldDocument, Document newDocument) {
+        // no constraints
+    }
+
+    @Override
+    public synchronized void updateInPlace(Document oldDocument, Document newDocument, P position) {
+        if (getKeys(oldDocument).equals(getKeys(newDocument))) {
+            return;
+        }
+        remove(oldDocument, position);
+        add(newDocument, position);
+    }
+
+    /**
+     * The index can handle queries on a prefix of its fields.
+     */
+    @Override
+    public boolean canHandle(Document query) {
+        List<String> keyNames = getKeyNames();
+        if (query.isEmpty() || query.size() > keyNames.size()) {
+            return false;
+        }
+        if (!query.keySet().equals(new HashSet<>(keyNames.subList(0, query.size())))) {
+            return false;
+        }
+
+        for (Object queryValue : query.values()) {
+            if (queryValue instanceof Document) {
+                for (String operator : ((Document) queryValue).keySet()) {
+                    if (operator.startsWith("$") && !isSupportedOperator(operator)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSupportedOperator(String operator) {
+        return operator.equals(QueryOperator.EQUAL.getValue())
+                || operator.equals(QueryOperator.IN.getValue())
+                || isRangeOperator(operator);
+    }
+
+    private static boolean isRangeOperator(String operator) {
+        return operator.equals(QueryOperator.GREATER_THAN.getValue())
+                || operator.equals(QueryOperator.GREATER_THAN_OR_EQUAL.getValue())
+                || operator.equals(QueryOperator.LESS_THAN.getValue())
+                || operator.equals(QueryOperator.LESS_THAN_OR_EQUAL.getValue());
+    }
+
+    /**
+     * Equality and {@code $in} conditions extend the prefixes of the keys to
+     * look up. The first range or regular expression condition ends the
+     * lookup, the conditions on the following fields are left to the matcher.
+     */
+    @Override
+    public synchronized Iterable<P> getPositions(Document query) {
+        Set<P> positions = new LinkedHashSet<>();
+        List<List<Object>> prefixes = Collections.singletonList(Collections.emptyList());
+
+        for (String keyName : getKeyNames().subList(0, query.size())) {
+            Object queryValue = query.get(keyName);
+            Collection<?> values = Collections.singletonList(queryValue);
+            boolean regexMatchesStrings = true;
+
+            if (queryValue instanceof Document && isExpression((Document) queryValue)) {
+                Document expression = (Document) queryValue;
+                if (expression.containsKey(QueryOperator.EQUAL.getValue())) {
+                    values = Collections.singletonList(expression.get(QueryOperator.EQUAL.getValue()));
+                    regexMatchesStrings = false;
+                } else if (expression.containsKey(QueryOperator.IN.getValue())) {
+                    values = (Collection<?>) expression.get(QueryOperator.IN.getValue());
+                } else {
+                    for (List<Object> prefix : prefixes) {
+                        addPositionsForRange(positions, prefix, expression);
+                    }
+                    return new ArrayList<>(positions);
+                }
+            }
+
+            if (regexMatchesStrings && containsRegex(values)) {
+                for (List<Object> prefix : prefixes) {
+                    for (Object value : values) {
+                        if (value instanceof BsonRegularExpression) {
+                            addPositionsForRegex(positions, prefix, (BsonRegularExpression) value);
+                        }
+                        addPositionsForPrefix(positions, append(prefix, Utils.normalizeValue(value)));
+                    }
+                }
+                return new ArrayList<>(positions);
+            }
+
+            List<List<Object>> extendedPrefixes = new ArrayList<>();
+            for (List<Object> prefix : prefixes) {
+                for (Object value : values) {
+                    extendedPrefixes.add(append(prefix, Utils.normalizeValue(value)));
+                }
+            }
+            prefixes = extendedPrefixes;
+        }
+
+        for (List<Object> prefix : prefixes) {
+            addPositionsForPrefix(positions, prefix);
+        }
+        return new ArrayList<>(positions);
+    }
+
+    private static boolean isExpression(Document document) {
+        for (String key : document.keySet()) {
+            if (key.startsWith("$")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsRegex(Collection<?> values) {
+        for (Object value : values) {
+            if (value instanceof BsonRegularExpression) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addPositionsForPrefix(Set<P> positions, List<Object> prefix) {
+        for (Entry<List<Object>, P> entry : getEntries(prefix, true, append(prefix, MaxKey.getInstance()), true)) {
+            positions.add(entry.getValue());
+        }
+    }
+
+    private void addPositionsForRegex(Set<P> positions, List<Object> prefix, BsonRegularExpression regex) {
+        int index = prefix.size();
+        for (Entry<List<Object>, P> entry : getEntries(append(prefix, ""), true, append(prefix, MaxKey.getInstance()), true)) {
+            Object keyValue = entry.getKey().get(index);
+            if (!(keyValue instanceof String)) {
+                break;
+            }
+            if (regex.matcher((String) keyValue).find()) {
+                positions.add(entry.getValue());
+            }
+        }
+    }
+
+    private void addPositionsForRange(Set<P> positions, List<Object> prefix, Document expression) {
+        List<Object> fromKey = prefix;
+        boolean fromInclusive = true;
+        List<Object> toKey = append(prefix, MaxKey.getInstance());
+        boolean toInclusive = true;
+        boolean hasLowerBound = false;
+
+        for (Entry<String, Object> entry : expression.entrySet()) {
+            String operator = entry.getKey();
+            Object value = Utils.normalizeValue(entry.getValue());
+            if (operator.equals(QueryOperator.GREATER_THAN.getValue())) {
+                fromKey = append(prefix, value, MaxKey.getInstance());
+                fromInclusive = false;
+                hasLowerBound = true;
+            } else if (operator.equals(QueryOperator.GREATER_THAN_OR_EQUAL.getValue())) {
+                fromKey = append(prefix, value);
+                fromInclusive = true;
+                hasLowerBound = true;
+            } else if (operator.equals(QueryOperator.LESS_THAN.getValue())) {
+                toKey = append(prefix, value);
+                toInclusive = false;
+            } else if (operator.equals(QueryOperator.LESS_THAN_OR_EQUAL.getValue())) {
+                toKey = append(prefix, value, MaxKey.getInstance());
+                toInclusive = true;
+            }
+        }
+
+        if (isMultiKey() && hasLowerBound) {
+            toKey = append(prefix, MaxKey.getInstance());
+            toInclusive = true;
+        }
+
+        if (COMPARATOR.compare(fromKey, toKey) > 0) {
+            return;
+        }
+
+        for (Entry<List<Object>, P> entry : getEntries(fromKey, fromInclusive, toKey, toInclusive)) {
+            positions.add(entry.getValue());
+        }
+    }
+
+}
@@ -3,6 +3,7 @@ package de.bwaldvogel.mongo.backend;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.TreeSet;
@@ -11,13 +12,14 @@ import java.util.regex.Matcher;
 import de.bwaldvogel.mongo.bson.BsonRegularExpression;
 import de.bwaldvogel.mongo.bson.Document;
 import de.bwaldvogel.mongo.exception.DuplicateKeyError;
-import de.bwaldvogel.mongo.exception.KeyConstraintError;
 import de.bwaldvogel.mongo.exception.MongoServerError;
 
 public abstract class AbstractUniqueIndex<P> extends Index<P> {
 
-    protected AbstractUniqueIndex(String key, boolean ascending) {
-        super(key, ascending);
+    private static final ValueComparator COMPARATOR = new ValueComparator();
+
+    protected AbstractUniqueIndex(List<IndexKey> keys) {
+        super(keys);
     }
 
     protected abstract P removeDocument(Object key);
@@ -31,14 +33,41 @@ public abstract class AbstractUniqueIndex<P> extends Index<P> {
     protected abstract P getPosition(Object key);
 
     @Override
-    public synchronized P remove(Document document) {
+    public synchronized long getDataSize() {
+        long dataSize = 0;
+        for (Entry<Object, P> entry : getIterable()) {
+            Object key = entry.getKey();
+            if (isCompound()) {
+                dataSize += calculateKeySize((List<?>) key);
+            } else {
+                dataSize += calculateKeySize(Collections.singletonList(key instanceof NullableKey ? null : key));
+            }
+        }
+        return dataSize;
+    }
+
+    @Override
+    public synchronized void remove(Document document, P position) {
         Object key = getKey(document);
-        return removeDocument(key);
+        if (position.equals(getPosition(key))) {
+            removeDocument(key);
+        }
+    }
+
+    /**
+     * @return the position of the document or {@code null} if the document
+     *         does not contain the key of this index
+     */
+    synchronized P findPosition(Document document) throws MongoServerError {
+        if (!hasKeyValue(document)) {
+            return null;
+        }
+        return getPosition(getKey(document));
     }
 
     @Override
     public synchronized void checkAdd(Document document) throws MongoServerError {
-        if (!Utils.hasSubdocumentValue(document, key)) {
+        if (!hasKeyValue(document)) {
             return;
         }
 
@@ -51,7 +80,7 @@ public abstract class AbstractUniqueIndex<P> extends Index<P> {
     @Override
     public synchronized void add(Document document, P position) throws MongoServerError {
         checkAdd(document);
-        if (!Utils.hasSubdocumentValue(document, this.key)) {
+        if (!hasKeyValue(document)) {
             return;
         }
         Object key = getKey(document);
@@ -70,26 +99,45 @@ public abstract class AbstractUniqueIndex<P> extends Index<P> {
     }
 
     @Override
-    public void updateInPlace(Document oldDocument, Document newDocument) throws KeyConstraintError {
+    public synchronized void updateInPlace(Document oldDocument, Document newDocument, P position)
+            throws MongoServerError {
         if (nullAwareEqualsKeys(oldDocument, newDocument)) {
             return;
         }
-        // no change necessary
+        remove(oldDocument, position);
+        add(newDocument, position);
+    }
+
+    /**
+     * Documents without any of the keys are not indexed. A compound index
+     * indexes a document if it contains at least one of the keys.
+     */
+    private boolean hasKeyValue(Document document) throws MongoServerError {
+        for (String key : getKeyNames()) {
+            if (Utils.hasSubdocumentValue(document, key)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
     public synchronized boolean canHandle(Document query) {
+        if (isCompound()) {
+            return canHandleCompoundKey(query);
+        }
 
+        String key = keys.get(0).getKey();
         if (!query.keySet().equals(Collections.singleton(key))) {
             return false;
         }
 
         Object queryValue = query.get(key);
         if (queryValue instanceof Document) {
-            for (String key : ((Document) queryValue).keySet()) {
-                if (isInQuery(key)) {
+            for (String queryKey : ((Document) queryValue).keySet()) {
+                if (isInQuery(queryKey)) {
                     // okay
-                } else if (key.startsWith("$")) {
+                } else if (queryKey.startsWith("$")) {
                     // not yet supported
                     return false;
                 }
@@ -102,10 +150,33 @@ public abstract class AbstractUniqueIndex<P> extends Index<P> {
         return key.equals(QueryOperator.IN.getValue());
     }
 
+    /**
+     * A compound index can handle equality queries on a prefix of its keys.
+     */
+    private boolean canHandleCompoundKey(Document query) {
+        List<String> keyNames = getKeyNames();
+        if (query.isEmpty() || query.size() > keyNames.size()) {
+            return false;
+        }
+        if (!query.keySet().equals(new HashSet<>(keyNames.subList(0, query.size())))) {
+            return false;
+        }
+        for (Object queryValue : query.values()) {
+            if (queryValue instanceof Document && Utils.containsQueryExpression(queryValue)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public synchronized Iterable<P> getPositions(Document query) {
+        if (isCompound()) {
+            return getPositionsForCompoundKey(query);
+        }
+
         // Do not use getKeyValue, it's only valid for document.
-        Object keyValue = Utils.normalizeValue(query.get(key));
+        Object keyValue = Utils.normalizeValue(query.get(keys.get(0).getKey()));
 
         if (keyValue instanceof Document) {
             Document keyObj = (Document) keyValue;
@@ -138,6 +209,58 @@ public abstract class AbstractUniqueIndex<P> extends Index<P> {
         return Collections.singletonList(position);
     }
 
+    private Iterable<P> getPositionsForCompoundKey(Document query) {
+        List<Object> prefix = new ArrayList<>();
+        boolean containsRegex = false;
+        for (String key : getKeyNames().subList(0, query.size())) {
+            Object queryValue = Utils.normalizeValue(query.get(key));
+            containsRegex |= queryValue instanceof BsonRegularExpression;
+            prefix.add(queryValue);
+        }
+
+        if (prefix.size() == keys.size() && !containsRegex) {
+            P position = getPosition(prefix);
+            if (position == null) {
+                return Collections.emptyList();
+            }
+            return Collections.singletonList(position);
+        }
+
+        List<P> positions = new ArrayList<>();
+        for (Entry<Object, P> entry : getIterable()) {
+            List<?> key = (List<?>) entry.getKey();
+            if (startsWith(key, prefix)) {
+                positions.add(entry.getValue());
+            }
+        }
+        return positions;
+    }
+
+    private static boolean startsWith(List<?> key, List<Object> prefix) {
+        for (int i = 0; i < prefix.size(); i++) {
+            if (!matchesKeyValue(prefix.get(i), key.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchesKeyValue(Object queryValue, Object keyValue) {
+        if (keyValue instanceof List<?>) {
+            for (Object element : (List<?>) keyValue) {
+                if (matchesKeyValue(queryValue, element)) {
+                    return true;
+                }
+            }
+        }
+        if (queryValue instanceof BsonRegularExpression && keyValue instanceof String) {
+            if (((BsonRegularExpression) queryValue).matcher((String) keyValue).find()) {
+                return true;
+            }
+        }
+        return COMPARATOR.compare(queryValue, Utils.normalizeValue(keyValue)) == 0;
+    }
+
     private boolean nullAwareEqualsKeys(Document oldDocument, Document newDocument) {
         Object oldKey = getKey(oldDocument);
         Object newKey = getKey(newDocument);
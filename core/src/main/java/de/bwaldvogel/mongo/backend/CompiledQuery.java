@@ -0,0 +1,588 @@
+package de.bwaldvogel.mongo.backend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.bwaldvogel.mongo.bson.BsonRegularExpression;
+import de.bwaldvogel.mongo.bson.Document;
+import de.bwaldvogel.mongo.exception.BadValueException;
+import de.bwaldvogel.mongo.exception.MongoServerError;
+import de.bwaldvogel.mongo.exception.MongoServerException;
+
+/**
+ * A query that is compiled once into an immutable tree of predicates and can
+ * then be matched against many documents. The field paths are split, the
+ * operators are parsed and the regular expressions are compiled up front, so
+ * that matching a document only walks the tree.
+ */
+public final class CompiledQuery {
+
+    private static final Logger log = LoggerFactory.getLogger(CompiledQuery.class);
+
+    private static final ValueComparator COMPARATOR = new ValueComparator();
+
+    private final Document query;
+    private final Predicate predicate;
+
+    // counts the examined documents or null
+    private final AtomicLong docsExamined;
+
+    private CompiledQuery(Document query, Predicate predicate, AtomicLong docsExamined) {
+        this.query = query;
+        this.predicate = predicate;
+        this.docsExamined = docsExamined;
+    }
+
+    public static CompiledQuery compile(Document query) throws MongoServerException {
+        return new CompiledQuery(query, compileQuery(query), null);
+    }
+
+    /**
+     * @return the same query, but every call of {@link #matches(Document)}
+     *         increments the given counter
+     */
+    CompiledQuery countingDocsExamined(AtomicLong docsExamined) {
+        return new CompiledQuery(query, predicate, docsExamined);
+    }
+
+    public Document getQuery() {
+        return query;
+    }
+
+    public boolean matches(Document document) {
+        if (docsExamined != null) {
+            docsExamined.incrementAndGet();
+        }
+        return predicate.matches(document, null);
+    }
+
+    /**
+     * @return null if the document does not match or the position of the
+     *         first array element that matched, which is the position of the
+     *         positional <code>$</code> operator in an update
+     */
+    public Integer matchPosition(Document document) {
+        Position position = new Position();
+        if (!predicate.matches(document, position)) {
+            return null;
+        }
+        return position.value;
+    }
+
+    static boolean matchesValue(Object queryValue, Object value) throws MongoServerException {
+        return compileValue(queryValue).matches(value, true, null);
+    }
+
+    private static final class Position {
+
+        private Integer value;
+
+        private void set(int position) {
+            if (value == null) {
+                value = Integer.valueOf(position);
+            }
+        }
+
+    }
+
+    /**
+     * Matches a document, an embedded document, an array or any other value
+     * that is reached by a field path.
+     */
+    private interface Predicate {
+
+        boolean matches(Object document, Position position);
+
+    }
+
+    /**
+     * Matches the value of a field against a query value.
+     */
+    private interface ValuePredicate {
+
+        boolean matches(Object value, boolean valueExists, Position position);
+
+    }
+
+    /**
+     * Matches the elements of an array against one operator of a query value.
+     */
+    private interface ArrayPredicate {
+
+        boolean matches(Collection<?> values, boolean valueExists, Position position);
+
+    }
+
+    private static Predicate compileQuery(Document query) throws MongoServerException {
+        List<Predicate> predicates = new ArrayList<>();
+        for (String key : query.keySet()) {
+            predicates.add(compilePath(query.get(key), splitKey(key)));
+        }
+        return allOf(predicates);
+    }
+
+    private static Predicate allOf(List<Predicate> predicates) {
+        Predicate[] array = predicates.toArray(new Predicate[0]);
+        return (document, position) -> {
+            for (Predicate predicate : array) {
+                if (!predicate.matches(document, position)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    private static List<String> splitKey(String key) throws MongoServerException {
+        List<String> keys = Arrays.asList(key.split("\\."));
+        for (String subKey : keys) {
+            if (subKey.isEmpty()) {
+                throw new MongoServerException("illegal key: " + key);
+            }
+        }
+        return keys;
+    }
+
+    private static Predicate compilePath(Object queryValue, List<String> keys) throws MongoServerException {
+        if (keys.isEmpty()) {
+            throw new MongoServerException("illegal keys: " + keys);
+        }
+
+        String firstKey = keys.get(0);
+
+        if (firstKey.equals("$comment")) {
+            log.debug("query comment: '{}'", queryValue);
+            return (document, position) -> document != null;
+        }
+
+        if (QueryFilter.isQueryFilter(firstKey)) {
+            Predicate filter = compileFilter(queryValue, QueryFilter.fromValue(firstKey));
+            return (document, position) -> document != null && filter.matches(document, position);
+        }
+
+        return new PathPredicate(queryValue, keys);
+    }
+
+    private static Predicate compileFilter(Object queryValue, QueryFilter filter) throws MongoServerException {
+        if (!(queryValue instanceof List<?>)) {
+            throw new MongoServerError(14816, filter + " expression must be a nonempty array");
+        }
+
+        List<?> list = (List<?>) queryValue;
+        if (list.isEmpty()) {
+            throw new MongoServerError(14816, filter + " expression must be a nonempty array");
+        }
+
+        for (Object subqueryValue : list) {
+            if (!(subqueryValue instanceof Document)) {
+                throw new MongoServerError(14817, filter + " elements must be objects");
+            }
+        }
+
+        List<Predicate> subqueries = new ArrayList<>();
+        for (Object subqueryValue : list) {
+            subqueries.add(compileQuery((Document) subqueryValue));
+        }
+
+        switch (filter) {
+            case AND:
+                return allOf(subqueries);
+            case OR:
+                return anyOf(subqueries);
+            case NOR:
+                Predicate or = anyOf(subqueries);
+                return (document, position) -> !or.matches(document, position);
+            default:
+                throw new MongoServerException("illegal query filter: " + filter + ". must not happen");
+        }
+    }
+
+    private static Predicate anyOf(List<Predicate> predicates) {
+        Predicate[] array = predicates.toArray(new Predicate[0]);
+        return (document, position) -> {
+            for (Predicate predicate : array) {
+                if (predicate.matches(document, position)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    /**
+     * Follows a field path through embedded documents and arrays and matches
+     * the value at its end.
+     */
+    private static final class PathPredicate implements Predicate {
+
+        private final String firstKey;
+        private final boolean firstKeyIsIndex;
+
+        // the rest of the path or null if the path ends with the first key
+        private final Predicate subPathPredicate;
+
+        // null if the path does not end with the first key
+        private final ValuePredicate valuePredicate;
+
+        // the operators that are matched against the elements of an array
+        // value, or null if the query value is no document
+        private final ArrayPredicate[] arrayPredicates;
+
+        // the queries of $all that each need a matching array element
+        private final boolean hasAll;
+        private final Predicate[] allPredicates;
+
+        // matches the array elements for all other parts of the query value
+        private final Predicate elementPredicate;
+
+        private PathPredicate(Object queryValue, List<String> keys) throws MongoServerException {
+            firstKey = keys.get(0);
+            firstKeyIsIndex = firstKey.matches("\\d+");
+
+            if (keys.size() > 1) {
+                subPathPredicate = compilePath(queryValue, keys.subList(1, keys.size()));
+                valuePredicate = null;
+                arrayPredicates = null;
+            } else {
+                subPathPredicate = null;
+                valuePredicate = compileValue(queryValue);
+                arrayPredicates = compileArrayOperators(queryValue, valuePredicate);
+            }
+
+            String all = QueryOperator.ALL.getValue();
+            if (queryValue instanceof Document && ((Document) queryValue).containsKey(all)) {
+                Document remainder = new Document((Document) queryValue);
+                Object allQuery = remainder.remove(all);
+                hasAll = true;
+                allPredicates = compileAll(allQuery, keys);
+                elementPredicate = new PathPredicate(remainder, keys);
+            } else {
+                hasAll = false;
+                allPredicates = null;
+                elementPredicate = this;
+            }
+        }
+
+        private static Predicate[] compileAll(Object allQuery, List<String> keys) throws MongoServerException {
+            if (!(allQuery instanceof Collection<?>)) {
+                return null;
+            }
+            List<Predicate> predicates = new ArrayList<>();
+            for (Object query : (Collection<?>) allQuery) {
+                predicates.add(compilePath(query, keys));
+            }
+            return predicates.toArray(new Predicate[0]);
+        }
+
+        @Override
+        public boolean matches(Object document, Position position) {
+            if (document == null) {
+                return false;
+            }
+
+            if (document instanceof List<?>) {
+                if (firstKeyIsIndex) {
+                    Object listValue = Utils.getFieldValueListSafe(document, firstKey);
+                    if (subPathPredicate == null) {
+                        return valuePredicate.matches(listValue, listValue != null, position);
+                    } else {
+                        return subPathPredicate.matches(listValue, position);
+                    }
+                }
+
+                if (hasAll) {
+                    if (allPredicates == null) {
+                        return false;
+                    }
+                    for (Predicate predicate : allPredicates) {
+                        if (!matchesAnyElement(predicate, (List<?>) document, position)) {
+                            return false;
+                        }
+                    }
+                }
+
+                return matchesAnyElement(elementPredicate, (List<?>) document, position);
+            }
+
+            if (subPathPredicate != null) {
+                Object subObject = Utils.getFieldValueListSafe(document, firstKey);
+                return subPathPredicate.matches(subObject, position);
+            }
+
+            if (!(document instanceof Document)) {
+                return false;
+            }
+
+            Object value = ((Document) document).get(firstKey);
+            boolean valueExists = value != null || ((Document) document).containsKey(firstKey);
+
+            if (value instanceof Collection<?>) {
+                Collection<?> values = (Collection<?>) value;
+                if (arrayPredicates != null) {
+                    for (ArrayPredicate arrayPredicate : arrayPredicates) {
+                        if (!arrayPredicate.matches(values, valueExists, position)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+
+                if (matchesAnyValue(valuePredicate, values, position)) {
+                    return true;
+                }
+            }
+
+            return valuePredicate.matches(value, valueExists, position);
+        }
+
+    }
+
+    private static boolean matchesAnyElement(Predicate predicate, Collection<?> elements, Position position) {
+        int i = 0;
+        for (Object element : elements) {
+            if (predicate.matches(element, position)) {
+                if (position != null) {
+                    position.set(i);
+                }
+                return true;
+            }
+            i++;
+        }
+        return false;
+    }
+
+    private static boolean matchesAnyValue(ValuePredicate predicate, Collection<?> values, Position position) {
+        int i = 0;
+        for (Object value : values) {
+            if (predicate.matches(value, true, position)) {
+                if (position != null) {
+                    position.set(i);
+                }
+                return true;
+            }
+            i++;
+        }
+        return false;
+    }
+
+    private static boolean matchesAllValues(ValuePredicate[] predicates, Collection<?> values, Position position) {
+        if (predicates == null) {
+            return false;
+        }
+        for (ValuePredicate predicate : predicates) {
+            if (!matchesAnyValue(predicate, values, position)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ValuePredicate[] compileValues(Object queryValue) throws MongoServerException {
+        if (!(queryValue instanceof Collection<?>)) {
+            return null;
+        }
+        List<ValuePredicate> predicates = new ArrayList<>();
+        for (Object query : (Collection<?>) queryValue) {
+            predicates.add(compileValue(query));
+        }
+        return predicates.toArray(new ValuePredicate[0]);
+    }
+
+    private static ArrayPredicate[] compileArrayOperators(Object queryValue, ValuePredicate valuePredicate)
+            throws MongoServerException {
+        if (!(queryValue instanceof Document)) {
+            return null;
+        }
+
+        Document queryObject = (Document) queryValue;
+        List<ArrayPredicate> predicates = new ArrayList<>();
+        for (String queryOperator : queryObject.keySet()) {
+            Object subQuery = queryObject.get(queryOperator);
+
+            if (queryOperator.equals(QueryOperator.ALL.getValue())) {
+                ValuePredicate[] all = compileValues(subQuery);
+                predicates.add((values, valueExists, position) -> matchesAllValues(all, values, position));
+            } else if (queryOperator.equals(QueryOperator.ELEM_MATCH.getValue())) {
+                if (!(subQuery instanceof Document)) {
+                    throw new BadValueException(QueryOperator.ELEM_MATCH.getValue() + " needs an Object");
+                }
+                ValuePredicate elemMatch = compileValue(subQuery);
+                predicates.add((values, valueExists, position) -> {
+                    for (Object value : values) {
+                        if (elemMatch.matches(value, true, position)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                });
+            } else if (queryOperator.equals(QueryOperator.IN.getValue())) {
+                ValuePredicate in = compileValue(new Document(queryOperator, subQuery));
+                predicates.add((values, valueExists, position) -> matchesAnyValue(in, values, position));
+            } else if (queryOperator.equals(QueryOperator.NOT_IN.getValue())) {
+                ValuePredicate[] notIn = compileValues(subQuery);
+                predicates.add((values, valueExists, position) -> !matchesAllValues(notIn, values, position));
+            } else if (queryOperator.equals(QueryOperator.NOT.getValue())) {
+                ValuePredicate not = compileValue(subQuery);
+                predicates.add((values, valueExists, position) -> !matchesAnyValue(not, values, position));
+            } else {
+                predicates.add((values, valueExists, position) -> matchesAnyValue(valuePredicate, values, position)
+                        || valuePredicate.matches(values, valueExists, position));
+            }
+        }
+        return predicates.toArray(new ArrayPredicate[0]);
+    }
+
+    private static ValuePredicate compileValue(Object queryValue) throws MongoServerException {
+
+        if (BsonRegularExpression.isRegularExpression(queryValue)) {
+            BsonRegularExpression pattern = BsonRegularExpression.convertToRegularExpression(queryValue);
+            return (value, valueExists, position) -> value != null && pattern.matcher(value.toString()).find();
+        }
+
+        if (queryValue instanceof Document) {
+            Document queryObject = (Document) queryValue;
+            boolean isReference = queryObject.keySet().equals(Constants.REFERENCE_KEYS);
+
+            List<ValuePredicate> predicates = new ArrayList<>();
+            for (String key : queryObject.keySet()) {
+                Object querySubvalue = queryObject.get(key);
+                if (key.startsWith("$") && !isReference) {
+                    predicates.add(compileExpression(key, querySubvalue));
+                } else {
+                    // the value of the query itself can be a complex query
+                    Predicate predicate = compilePath(querySubvalue, splitKey(key));
+                    predicates.add((value, valueExists, position) -> predicate.matches(value, position));
+                }
+            }
+
+            ValuePredicate[] array = predicates.toArray(new ValuePredicate[0]);
+            return (value, valueExists, position) -> {
+                for (ValuePredicate predicate : array) {
+                    if (!predicate.matches(value, valueExists, position)) {
+                        return false;
+                    }
+                }
+                return true;
+            };
+        }
+
+        return (value, valueExists, position) -> Utils.nullAwareEquals(value, queryValue);
+    }
+
+    private static ValuePredicate compileExpression(String operator, Object expressionValue)
+            throws MongoServerException {
+
+        final QueryOperator queryOperator;
+        try {
+            queryOperator = QueryOperator.fromValue(operator);
+        } catch (IllegalArgumentException e) {
+            throw new MongoServerError(10068, "invalid operator: " + operator);
+        }
+
+        switch (queryOperator) {
+        case IN: {
+            Object[] queriedObjects = toArray(operator, expressionValue);
+            return (value, valueExists, position) -> matchesIn(queriedObjects, value);
+        }
+        case NOT_IN: {
+            Object[] queriedObjects = toArray(operator, expressionValue);
+            return (value, valueExists, position) -> !matchesIn(queriedObjects, value);
+        }
+        case NOT: {
+            ValuePredicate predicate = compileValue(expressionValue);
+            return (value, valueExists, position) -> !predicate.matches(value, valueExists, position);
+        }
+        case EQUAL:
+            return (value, valueExists, position) -> Utils.nullAwareEquals(value, expressionValue);
+        case NOT_EQUALS:
+            return (value, valueExists, position) -> !Utils.nullAwareEquals(value, expressionValue);
+        case EXISTS: {
+            boolean exists = Utils.isTrue(expressionValue);
+            return (value, valueExists, position) -> valueExists == exists;
+        }
+        case GREATER_THAN:
+            return (value, valueExists, position) -> comparableTypes(value, expressionValue)
+                    && COMPARATOR.compare(value, expressionValue) > 0;
+        case GREATER_THAN_OR_EQUAL:
+            return (value, valueExists, position) -> comparableTypes(value, expressionValue)
+                    && COMPARATOR.compare(value, expressionValue) >= 0;
+        case LESS_THAN:
+            return (value, valueExists, position) -> comparableTypes(value, expressionValue)
+                    && COMPARATOR.compare(value, expressionValue) < 0;
+        case LESS_THAN_OR_EQUAL:
+            return (value, valueExists, position) -> comparableTypes(value, expressionValue)
+                    && COMPARATOR.compare(value, expressionValue) <= 0;
+        case MOD: {
+            Object[] modValue = toArray(operator, expressionValue);
+            if (modValue.length != 2 || !(modValue[0] instanceof Number) || !(modValue[1] instanceof Number)) {
+                throw new BadValueException("malformed mod, needs to be an array of divisor and remainder");
+            }
+            int divisor = ((Number) modValue[0]).intValue();
+            int remainder = ((Number) modValue[1]).intValue();
+            return (value, valueExists, position) -> value instanceof Number
+                    && ((Number) value).intValue() % divisor == remainder;
+        }
+        case SIZE: {
+            if (!(expressionValue instanceof Number)) {
+                return (value, valueExists, position) -> false;
+            }
+            double matchingSize = ((Number) expressionValue).doubleValue();
+            return (value, valueExists, position) -> value instanceof Collection<?>
+                    && ((Collection<?>) value).size() == matchingSize;
+        }
+        case ALL:
+        case ELEM_MATCH:
+            // only match arrays, which are handled by the path
+            return (value, valueExists, position) -> false;
+
+        default:
+            throw new IllegalArgumentException("unhandled query operator: " + queryOperator);
+        }
+    }
+
+    private static Object[] toArray(String operator, Object expressionValue) throws MongoServerException {
+        if (!(expressionValue instanceof Collection<?>)) {
+            throw new BadValueException(operator + " needs an array");
+        }
+        return ((Collection<?>) expressionValue).toArray();
+    }
+
+    private static boolean matchesIn(Object[] queriedObjects, Object value) {
+        for (Object o : queriedObjects) {
+            if (o instanceof BsonRegularExpression && value instanceof String) {
+                BsonRegularExpression pattern = (BsonRegularExpression) o;
+                if (pattern.matcher((String) value).find()) {
+                    return true;
+                }
+            } else if (Utils.nullAwareEquals(o, value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean comparableTypes(Object value1, Object value2) {
+        value1 = Utils.normalizeValue(value1);
+        value2 = Utils.normalizeValue(value2);
+        if (value1 == null || value2 == null) {
+            return false;
+        }
+
+        // documents and lists can have different implementations
+        if (value1 instanceof Document && value2 instanceof Document) {
+            return true;
+        }
+        if (value1 instanceof List<?> && value2 instanceof List<?>) {
+            return true;
+        }
+
+        return value1.getClass().equals(value2.getClass());
+    }
+
+}
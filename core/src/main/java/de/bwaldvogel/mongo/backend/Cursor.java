@@ -0,0 +1,85 @@
+package de.bwaldvogel.mongo.backend;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import de.bwaldvogel.mongo.bson.Document;
+import de.bwaldvogel.mongo.exception.MongoServerException;
+
+public class Cursor {
+
+    private final String fullCollectionName;
+    private final Iterator<Document> iterator;
+    private final boolean noTimeout;
+    private Document pending;
+    private long pendingSize;
+    private int position;
+    private volatile long lastAccess;
+
+    public Cursor(String fullCollectionName, Iterator<Document> iterator, boolean noTimeout) {
+        this.fullCollectionName = fullCollectionName;
+        this.iterator = iterator;
+        this.noTimeout = noTimeout;
+        this.lastAccess = System.nanoTime();
+    }
+
+    public String getFullCollectionName() {
+        return fullCollectionName;
+    }
+
+    public boolean isNoTimeout() {
+        return noTimeout;
+    }
+
+    public synchronized int getPosition() {
+        return position;
+    }
+
+    public synchronized boolean hasNext() {
+        return pending != null || iterator.hasNext();
+    }
+
+    long getLastAccess() {
+        return lastAccess;
+    }
+
+    /**
+     * Fetches the next batch of documents.
+     *
+     * @param batchSize
+     *            the maximum number of documents to return or 0 if only
+     *            {@code maxBatchSizeBytes} should limit the batch
+     * @param maxBatchSizeBytes
+     *            the maximum total size of the documents in the batch. At least
+     *            one document is returned even if it exceeds this size.
+     */
+    public synchronized List<Document> nextBatch(int batchSize, long maxBatchSizeBytes) throws MongoServerException {
+        lastAccess = System.nanoTime();
+        List<Document> documents = new ArrayList<>();
+        long batchSizeBytes = 0;
+        while (hasNext()) {
+            if (batchSize > 0 && documents.size() >= batchSize) {
+                break;
+            }
+            if (pending == null) {
+                pending = iterator.next();
+                pendingSize = Utils.calculateSize(pending);
+            }
+            if (!documents.isEmpty() && batchSizeBytes + pendingSize > maxBatchSizeBytes) {
+                break;
+            }
+            documents.add(pending);
+            batchSizeBytes += pendingSize;
+            pending = null;
+        }
+        position += documents.size();
+        return documents;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + fullCollectionName + ", position: " + position + ")";
+    }
+
+}
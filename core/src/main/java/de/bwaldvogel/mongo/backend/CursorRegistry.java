@@ -0,0 +1,90 @@
+package de.bwaldvogel.mongo.backend;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class CursorRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(CursorRegistry.class);
+
+    public static final long DEFAULT_CURSOR_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final ConcurrentMap<Long, Cursor> cursors = new ConcurrentHashMap<>();
+    private final AtomicLong cursorIdCounter = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final long cursorTimeoutMillis;
+
+    public CursorRegistry() {
+        this(DEFAULT_CURSOR_TIMEOUT_MILLIS);
+    }
+
+    public CursorRegistry(long cursorTimeoutMillis) {
+        if (cursorTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Illegal cursor timeout: " + cursorTimeoutMillis);
+        }
+        this.cursorTimeoutMillis = cursorTimeoutMillis;
+    }
+
+    public long getCursorTimeoutMillis() {
+        return cursorTimeoutMillis;
+    }
+
+    /**
+     * @return the id under which the cursor can be fetched by a subsequent
+     *         getMore. The id is never 0.
+     */
+    public long add(Cursor cursor) {
+        long cursorId = cursorIdCounter.incrementAndGet();
+        cursors.put(Long.valueOf(cursorId), cursor);
+        log.debug("opened cursor {}: {}", cursorId, cursor);
+        return cursorId;
+    }
+
+    public Cursor get(long cursorId) {
+        return cursors.get(Long.valueOf(cursorId));
+    }
+
+    public boolean remove(long cursorId) {
+        Cursor cursor = cursors.remove(Long.valueOf(cursorId));
+        if (cursor == null) {
+            return false;
+        }
+        log.debug("closed cursor {}: {}", cursorId, cursor);
+        return true;
+    }
+
+    public int size() {
+        return cursors.size();
+    }
+
+    public long getTimedOutCount() {
+        return timedOut.get();
+    }
+
+    public void closeTimedOutCursors() {
+        long now = System.nanoTime();
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(cursorTimeoutMillis);
+        Iterator<Entry<Long, Cursor>> it = cursors.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<Long, Cursor> entry = it.next();
+            Cursor cursor = entry.getValue();
+            if (!cursor.isNoTimeout() && now - cursor.getLastAccess() > timeoutNanos) {
+                it.remove();
+                timedOut.incrementAndGet();
+                log.info("cursor {} timed out: {}", entry.getKey(), cursor);
+            }
+        }
+    }
+
+    public void clear() {
+        cursors.clear();
+    }
+
+}
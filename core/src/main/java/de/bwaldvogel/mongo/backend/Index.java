@@ -1,38 +1,105 @@
 package de.bwaldvogel.mongo.backend;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import de.bwaldvogel.mongo.bson.Document;
-import de.bwaldvogel.mongo.exception.KeyConstraintError;
 import de.bwaldvogel.mongo.exception.MongoServerException;
+import de.bwaldvogel.mongo.wire.BsonEncoder;
 
 public abstract class Index<P> {
 
-    protected final String key;
-    protected final boolean ascending;
+    protected final List<IndexKey> keys;
 
-    protected Index(String key, boolean ascending) {
-        this.key = key;
-        this.ascending = ascending;
+    protected Index(List<IndexKey> keys) {
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException("an index needs at least one key");
+        }
+        this.keys = Collections.unmodifiableList(new ArrayList<>(keys));
     }
 
     public String getName() {
-        if (key.equals(Constants.ID_FIELD)) {
+        if (keys.size() == 1 && keys.get(0).getKey().equals(Constants.ID_FIELD)) {
             return Constants.ID_INDEX_NAME;
-        } else {
-            return key + "_" + (ascending ? "1" : "-1");
         }
+        StringBuilder name = new StringBuilder();
+        for (IndexKey indexKey : keys) {
+            if (name.length() > 0) {
+                name.append('_');
+            }
+            name.append(indexKey.getKey()).append('_').append(indexKey.isAscending() ? "1" : "-1");
+        }
+        return name.toString();
+    }
+
+    public List<IndexKey> getKeys() {
+        return keys;
+    }
+
+    public Document getKeyPattern() {
+        Document keyPattern = new Document();
+        for (IndexKey indexKey : keys) {
+            keyPattern.put(indexKey.getKey(), Integer.valueOf(indexKey.isAscending() ? 1 : -1));
+        }
+        return keyPattern;
+    }
+
+    protected boolean isCompound() {
+        return keys.size() > 1;
+    }
+
+    protected List<String> getKeyNames() {
+        List<String> keyNames = new ArrayList<>();
+        for (IndexKey indexKey : keys) {
+            keyNames.add(indexKey.getKey());
+        }
+        return keyNames;
     }
 
+    /**
+     * @return the normalized value of the key or, for a compound index, the
+     *         list of the normalized values of all keys
+     */
     protected Object getKey(Document document) {
+        if (!isCompound()) {
+            return getKeyValue(document, keys.get(0).getKey());
+        }
+        List<Object> values = new ArrayList<>();
+        for (IndexKey indexKey : keys) {
+            values.add(getKeyValue(document, indexKey.getKey()));
+        }
+        return values;
+    }
+
+    private static Object getKeyValue(Document document, String key) {
         Object value = Utils.getSubdocumentValue(document, key);
         return Utils.normalizeValue(value);
     }
 
+    /**
+     * @return the BSON size of the values of an index key, which serves as an
+     *         estimate of the bytes that an entry of the index takes
+     */
+    protected long calculateKeySize(List<?> keyValues) {
+        Document keyDocument = new Document();
+        for (int i = 0; i < keys.size(); i++) {
+            keyDocument.put(keys.get(i).getKey(), keyValues.get(i));
+        }
+        return new BsonEncoder().calculateSize(keyDocument);
+    }
+
     public abstract void checkAdd(Document document) throws MongoServerException;
 
     public abstract void add(Document document, P position) throws MongoServerException;
 
-    public abstract P remove(Document document) throws MongoServerException;
+    public abstract void remove(Document document, P position) throws MongoServerException;
 
+    /**
+     * Whether the index can find the positions of the documents that match
+     * the query. The answer must only depend on the {@link QueryShape} of the
+     * query, since the chosen index is cached per shape.
+     */
     public abstract boolean canHandle(Document query);
 
     public abstract Iterable<P> getPositions(Document query);
@@ -43,6 +110,7 @@ public abstract class Index<P> {
 
     public abstract void checkUpdate(Document oldDocument, Document newDocument) throws MongoServerException;
 
-    public abstract void updateInPlace(Document oldDocument, Document newDocument) throws KeyConstraintError;
+    public abstract void updateInPlace(Document oldDocument, Document newDocument, P position)
+            throws MongoServerException;
 
 }
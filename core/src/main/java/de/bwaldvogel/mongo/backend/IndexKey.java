@@ -0,0 +1,51 @@
+package de.bwaldvogel.mongo.backend;
+
+import java.util.Objects;
+
+/**
+ * A field of an index and its direction.
+ */
+public class IndexKey {
+
+    private final String key;
+    private final boolean ascending;
+
+    public IndexKey(String key, boolean ascending) {
+        if (key == null || key.isEmpty()) {
+            throw new IllegalArgumentException("illegal index key: " + key);
+        }
+        this.key = key;
+        this.ascending = ascending;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        IndexKey other = (IndexKey) o;
+        return ascending == other.ascending && key.equals(other.key);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(key, Boolean.valueOf(ascending));
+    }
+
+    @Override
+    public String toString() {
+        return key + ":" + (ascending ? "1" : "-1");
+    }
+
+}
@@ -0,0 +1,110 @@
+package de.bwaldvogel.mongo.backend;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.bwaldvogel.mongo.bson.Document;
+
+/**
+ * The shape of a query: its field names and operators, the sort and the
+ * projection, but not the values the fields are compared to. Queries that
+ * only differ in their values have equal shapes and share a query plan.
+ */
+final class QueryShape {
+
+    private static final Object VALUE = new Object() {
+        @Override
+        public String toString() {
+            return "?";
+        }
+    };
+
+    private final Document query;
+    private final Document sort;
+    private final Document projection;
+
+    private final Document normalizedQuery;
+    private final int hashCode;
+
+    QueryShape(Document query, Document sort, Document projection) {
+        this.query = nullToEmpty(query);
+        this.sort = nullToEmpty(sort);
+        this.projection = nullToEmpty(projection);
+        this.normalizedQuery = normalize(this.query);
+        this.hashCode = 31 * (31 * normalizedQuery.hashCode() + this.sort.hashCode()) + this.projection.hashCode();
+    }
+
+    private static Document nullToEmpty(Document document) {
+        return document != null ? document : new Document();
+    }
+
+    private static Document normalize(Document document) {
+        Document normalized = new Document();
+        for (String key : document.keySet()) {
+            normalized.put(key, normalizeValue(document.get(key)));
+        }
+        return normalized;
+    }
+
+    private static Object normalizeValue(Object value) {
+        if (value instanceof Document) {
+            return normalize((Document) value);
+        } else if (value instanceof List<?> && containsDocument((List<?>) value)) {
+            // the subqueries of $and, $or and $nor
+            List<Object> normalized = new ArrayList<>();
+            for (Object element : (List<?>) value) {
+                normalized.add(normalizeValue(element));
+            }
+            return normalized;
+        } else {
+            return VALUE;
+        }
+    }
+
+    private static boolean containsDocument(List<?> list) {
+        for (Object element : list) {
+            if (element instanceof Document) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the query, sort and projection of the first query of this shape
+     */
+    Document toDocument() {
+        Document document = new Document();
+        document.put("query", query);
+        document.put("sort", sort);
+        document.put("projection", projection);
+        return document;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        QueryShape other = (QueryShape) o;
+        return hashCode == other.hashCode
+                && normalizedQuery.equals(other.normalizedQuery)
+                && sort.equals(other.sort)
+                && projection.equals(other.projection);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[query=" + normalizedQuery + ", sort=" + sort + ", projection="
+                + projection + "]";
+    }
+
+}
@@ -1,16 +1,16 @@
 package de.bwaldvogel.mongo.backend;
 
-import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
+import java.util.Map.Entry;
 import java.util.concurrent.atomic.AtomicReference;
 
 import de.bwaldvogel.mongo.bson.Document;
 import de.bwaldvogel.mongo.exception.MongoServerError;
 import de.bwaldvogel.mongo.exception.MongoServerException;
 import de.bwaldvogel.mongo.wire.BsonEncoder;
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 
 public class Utils {
 
@@ -118,18 +118,59 @@ public class Utils {
         }
     }
 
+    /**
+     * Copies the document and all nested documents, lists, dates and byte
+     * arrays, so that changes of the copy do not affect the original and vice
+     * versa. Other values are immutable and shared.
+     */
+    public static Document deepCopy(Document document) {
+        Document copy = new Document();
+        for (Entry<String, Object> entry : document.entrySet()) {
+            copy.put(entry.getKey(), deepCopyValue(entry.getValue()));
+        }
+        return copy;
+    }
+
+    private static Object deepCopyValue(Object value) {
+        if (value instanceof Document) {
+            return deepCopy((Document) value);
+        } else if (value instanceof List<?>) {
+            List<?> list = (List<?>) value;
+            List<Object> copy = new ArrayList<>(list.size());
+            for (Object element : list) {
+                copy.add(deepCopyValue(element));
+            }
+            return copy;
+        } else if (value instanceof Date) {
+            return new Date(((Date) value).getTime());
+        } else if (value instanceof byte[]) {
+            return ((byte[]) value).clone();
+        } else {
+            return value;
+        }
+    }
+
     public static long calculateSize(Document document) throws MongoServerException {
-        ByteBuf buffer = Unpooled.buffer();
         try {
-            new BsonEncoder().encodeDocument(document, buffer);
-            return buffer.writerIndex();
-        } catch (IOException e) {
+            return new BsonEncoder().calculateSize(document);
+        } catch (IllegalArgumentException e) {
             throw new MongoServerException("Failed to calculate document size", e);
-        } finally {
-            buffer.release();
         }
     }
 
+    /**
+     * Like {@link #calculateSize(Document)} but reuses the size that was
+     * cached in the document by an earlier call and caches it otherwise.
+     */
+    static long getCachedSize(Document document) throws MongoServerException {
+        int size = document.getEncodedSize();
+        if (size < 0) {
+            size = (int) calculateSize(document);
+            document.setEncodedSize(size);
+        }
+        return size;
+    }
+
     public static boolean containsQueryExpression(Object value) {
         if (value == null) {
             return false;
@@ -3,7 +3,10 @@ package de.bwaldvogel.mongo.backend;
 import java.util.*;
 
 import de.bwaldvogel.mongo.bson.BsonRegularExpression;
+import de.bwaldvogel.mongo.bson.BsonTimestamp;
 import de.bwaldvogel.mongo.bson.Document;
+import de.bwaldvogel.mongo.bson.MaxKey;
+import de.bwaldvogel.mongo.bson.MinKey;
 import de.bwaldvogel.mongo.bson.ObjectId;
 
 public class ValueComparator implements Comparator<Object> {
@@ -16,16 +19,22 @@ public class ValueComparator implements Comparator<Object> {
          *
          * Null Numbers (ints, longs, doubles) Symbol, String Object Array
          * BinData ObjectID Boolean Date, Timestamp Regular Expression
+         *
+         * MinKey and MaxKey are the lower and upper bound of all values.
          */
 
         SORT_PRIORITY.add(Number.class);
         SORT_PRIORITY.add(String.class);
         SORT_PRIORITY.add(Document.class);
+        SORT_PRIORITY.add(List.class);
         SORT_PRIORITY.add(byte[].class);
+        SORT_PRIORITY.add(UUID.class);
         SORT_PRIORITY.add(ObjectId.class);
         SORT_PRIORITY.add(Boolean.class);
         SORT_PRIORITY.add(Date.class);
+        SORT_PRIORITY.add(BsonTimestamp.class);
         SORT_PRIORITY.add(BsonRegularExpression.class);
+        SORT_PRIORITY.add(MaxKey.class);
     }
 
     @Override
@@ -86,12 +95,32 @@ public class ValueComparator implements Comparator<Object> {
         }
 
         if (Document.class.isAssignableFrom(clazz)) {
-            for (String key : ((Document) value1).keySet()) {
-                int cmp = compare(((Document) value1).get(key), ((Document) value2).get(key));
-                if (cmp != 0) {
-                    return cmp;
-                }
+            return compareDocuments((Document) value1, (Document) value2);
+        }
+
+        if (List.class.isAssignableFrom(clazz)) {
+            return compareLists((List<?>) value1, (List<?>) value2);
+        }
+
+        if (UUID.class.isAssignableFrom(clazz)) {
+            return ((UUID) value1).compareTo((UUID) value2);
+        }
+
+        if (BsonTimestamp.class.isAssignableFrom(clazz)) {
+            return Long.compare(((BsonTimestamp) value1).getTimestamp(), ((BsonTimestamp) value2).getTimestamp());
+        }
+
+        if (BsonRegularExpression.class.isAssignableFrom(clazz)) {
+            BsonRegularExpression regex1 = (BsonRegularExpression) value1;
+            BsonRegularExpression regex2 = (BsonRegularExpression) value2;
+            int cmp = regex1.getPattern().compareTo(regex2.getPattern());
+            if (cmp != 0) {
+                return cmp;
             }
+            return String.valueOf(regex1.getOptions()).compareTo(String.valueOf(regex2.getOptions()));
+        }
+
+        if (MinKey.class.isAssignableFrom(clazz) || MaxKey.class.isAssignableFrom(clazz)) {
             return 0;
         }
 
@@ -99,11 +128,47 @@ public class ValueComparator implements Comparator<Object> {
 
     }
 
+    /**
+     * Compares the fields pairwise by the type of their values, their names
+     * and their values. If all pairs are equal, the smaller document is less.
+     */
+    private int compareDocuments(Document document1, Document document2) {
+        Iterator<Map.Entry<String, Object>> it1 = document1.entrySet().iterator();
+        Iterator<Map.Entry<String, Object>> it2 = document2.entrySet().iterator();
+        while (it1.hasNext() && it2.hasNext()) {
+            Map.Entry<String, Object> entry1 = it1.next();
+            Map.Entry<String, Object> entry2 = it2.next();
+            int cmp = Integer.compare(getTypeOrder(entry1.getValue()), getTypeOrder(entry2.getValue()));
+            if (cmp == 0) {
+                cmp = entry1.getKey().compareTo(entry2.getKey());
+            }
+            if (cmp == 0) {
+                cmp = compare(entry1.getValue(), entry2.getValue());
+            }
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(document1.size(), document2.size());
+    }
+
+    private int compareLists(List<?> list1, List<?> list2) {
+        for (int i = 0; i < list1.size() && i < list2.size(); i++) {
+            int cmp = compare(list1.get(i), list2.get(i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(list1.size(), list2.size());
+    }
+
     private int compareUnsigned(byte b1, byte b2) {
         return Integer.compare(b1 + Integer.MIN_VALUE, b2 + Integer.MIN_VALUE);
     }
 
     private int getTypeOrder(Object obj) {
+        if (obj instanceof MinKey)
+            return -2;
         if (obj == null)
             return -1;
         for (int idx = 0; idx < SORT_PRIORITY.size(); idx++) {
@@ -1,18 +1,64 @@
 package de.bwaldvogel.mongo.bson;
 
-import java.util.Collection;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
 
-public class Document implements Map<String, Object>, Bson {
+/**
+ * A BSON document. The fields keep their insertion order.
+ *
+ * Most documents have only a few fields, so up to {@value #MAX_ARRAY_SIZE}
+ * fields are stored in two parallel arrays of keys and values, which needs
+ * much less memory than a hash map with an entry object per field. Lookups
+ * then scan the keys linearly, which is as fast as hashing for that many
+ * fields. Larger documents switch to a {@link LinkedHashMap}.
+ */
+public class Document extends AbstractMap<String, Object> implements Bson {
 
     private static final long serialVersionUID = 1L;
 
-    private final LinkedHashMap<String, Object> documentAsMap;
+    /**
+     * Documents are serialized in the form of previous versions, which kept
+     * all fields in a single map, so that existing stores stay readable.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("documentAsMap", LinkedHashMap.class),
+    };
+
+    static final int MAX_ARRAY_SIZE = 16;
+
+    private static final int INITIAL_ARRAY_SIZE = 4;
+
+    private static final String[] EMPTY_KEYS = {};
+
+    private static final Object[] EMPTY_VALUES = {};
+
+    private transient String[] keys = EMPTY_KEYS;
+
+    private transient Object[] values = EMPTY_VALUES;
+
+    private transient int size;
+
+    private transient LinkedHashMap<String, Object> map;
+
+    private transient int modCount;
+
+    private transient Set<Entry<String, Object>> entrySet;
+
+    private transient int encodedSize = -1;
 
     public Document() {
-        documentAsMap = new LinkedHashMap<>();
     }
 
     public Document(String key, Object value) {
@@ -35,39 +81,105 @@ public class Document implements Map<String, Object>, Bson {
         return this;
     }
 
-    @Override
-    public boolean containsValue(Object value) {
-        return documentAsMap.containsValue(value);
+    private int indexOf(Object key) {
+        for (int i = 0; i < size; i++) {
+            String k = keys[i];
+            if (k == key || (key != null && key.equals(k))) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     @Override
     public Object get(Object key) {
-        return documentAsMap.get(key);
+        if (map != null) {
+            return map.get(key);
+        }
+        int index = indexOf(key);
+        return index < 0 ? null : values[index];
+    }
+
+    /**
+     * @return the BSON size that was cached with
+     *         {@link #setEncodedSize(int)} or -1 if the document was modified
+     *         since. Modifications of embedded documents or arrays are not
+     *         noticed, so only the owner of the document should cache it.
+     */
+    public int getEncodedSize() {
+        return encodedSize;
+    }
+
+    public void setEncodedSize(int encodedSize) {
+        this.encodedSize = encodedSize;
     }
 
     @Override
     public void clear() {
-        documentAsMap.clear();
+        encodedSize = -1;
+        map = null;
+        keys = EMPTY_KEYS;
+        values = EMPTY_VALUES;
+        size = 0;
+        modCount++;
     }
 
     @Override
     public int size() {
-        return documentAsMap.size();
+        return map != null ? map.size() : size;
     }
 
     @Override
     public boolean isEmpty() {
-        return documentAsMap.isEmpty();
+        return size() == 0;
     }
 
     @Override
     public boolean containsKey(Object key) {
-        return documentAsMap.containsKey(key);
+        if (map != null) {
+            return map.containsKey(key);
+        }
+        return indexOf(key) >= 0;
     }
 
     @Override
     public Object put(String key, Object value) {
-        return documentAsMap.put(key, value);
+        encodedSize = -1;
+        if (map != null) {
+            return map.put(key, value);
+        }
+        int index = indexOf(key);
+        if (index >= 0) {
+            Object oldValue = values[index];
+            values[index] = value;
+            return oldValue;
+        }
+        if (size == MAX_ARRAY_SIZE) {
+            switchToMap();
+            return map.put(key, value);
+        }
+        if (size == keys.length) {
+            int newLength = Math.min(Math.max(INITIAL_ARRAY_SIZE, size * 2), MAX_ARRAY_SIZE);
+            keys = Arrays.copyOf(keys, newLength);
+            values = Arrays.copyOf(values, newLength);
+        }
+        keys[size] = key;
+        values[size] = value;
+        size++;
+        modCount++;
+        return null;
+    }
+
+    private void switchToMap() {
+        LinkedHashMap<String, Object> newMap = new LinkedHashMap<>(MAX_ARRAY_SIZE * 4);
+        for (int i = 0; i < size; i++) {
+            newMap.put(keys[i], values[i]);
+        }
+        map = newMap;
+        keys = EMPTY_KEYS;
+        values = EMPTY_VALUES;
+        size = 0;
+        modCount++;
     }
 
     public void putIfNotNull(String key, Object value) {
@@ -78,46 +190,252 @@ public class Document implements Map<String, Object>, Bson {
 
     @Override
     public void putAll(Map<? extends String, ?> m) {
-        documentAsMap.putAll(m);
+        for (Entry<? extends String, ?> entry : m.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
     }
 
     @Override
     public Object remove(Object key) {
-        return documentAsMap.remove(key);
+        encodedSize = -1;
+        if (map != null) {
+            return map.remove(key);
+        }
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        Object oldValue = values[index];
+        removeAt(index);
+        return oldValue;
+    }
+
+    private void removeAt(int index) {
+        encodedSize = -1;
+        int numMoved = size - index - 1;
+        System.arraycopy(keys, index + 1, keys, index, numMoved);
+        System.arraycopy(values, index + 1, values, index, numMoved);
+        size--;
+        keys[size] = null;
+        values[size] = null;
+        modCount++;
     }
 
     @Override
     public Object clone() {
-        return documentAsMap.clone();
+        return new LinkedHashMap<>(this);
     }
 
     @Override
-    public Set<String> keySet() {
-        return documentAsMap.keySet();
+    public Set<Entry<String, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
     }
 
-    @Override
-    public Collection<Object> values() {
-        return documentAsMap.values();
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("documentAsMap", new LinkedHashMap<>(this));
+        out.writeFields();
     }
 
-    @Override
-    public Set<Entry<String, Object>> entrySet() {
-        return documentAsMap.entrySet();
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        @SuppressWarnings("unchecked")
+        Map<String, Object> documentAsMap = (Map<String, Object>) fields.get("documentAsMap", null);
+        encodedSize = -1;
+        keys = EMPTY_KEYS;
+        values = EMPTY_VALUES;
+        if (documentAsMap != null) {
+            putAll(documentAsMap);
+        }
     }
 
-    @Override
-    public boolean equals(Object o) {
-        return documentAsMap.equals(o);
+    private class EntrySet extends AbstractSet<Entry<String, Object>> {
+
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+            if (map != null) {
+                return new MapIterator(map.entrySet().iterator());
+            }
+            return new ArrayIterator();
+        }
+
+        @Override
+        public int size() {
+            return Document.this.size();
+        }
+
+        @Override
+        public void clear() {
+            Document.this.clear();
+        }
+
     }
 
-    @Override
-    public int hashCode() {
-        return documentAsMap.hashCode();
+    private class MapIterator implements Iterator<Entry<String, Object>> {
+
+        private final Iterator<Entry<String, Object>> iterator;
+
+        MapIterator(Iterator<Entry<String, Object>> iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+            return new MapEntry(iterator.next());
+        }
+
+        @Override
+        public void remove() {
+            iterator.remove();
+            encodedSize = -1;
+        }
+
     }
 
-    @Override
-    public String toString() {
-        return documentAsMap.toString();
+    private class MapEntry implements Entry<String, Object> {
+
+        private final Entry<String, Object> entry;
+
+        MapEntry(Entry<String, Object> entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public String getKey() {
+            return entry.getKey();
+        }
+
+        @Override
+        public Object getValue() {
+            return entry.getValue();
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            encodedSize = -1;
+            return entry.setValue(value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return entry.equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            return entry.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return entry.toString();
+        }
+
     }
+
+    private class ArrayIterator implements Iterator<Entry<String, Object>> {
+
+        private int next;
+        private int last = -1;
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+            checkForComodification();
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            last = next++;
+            return new ArrayEntry(last, keys[last]);
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            checkForComodification();
+            removeAt(last);
+            next = last;
+            last = -1;
+            expectedModCount = modCount;
+        }
+
+        private void checkForComodification() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+    }
+
+    private class ArrayEntry implements Entry<String, Object> {
+
+        private final int index;
+        private final String key;
+
+        ArrayEntry(int index, String key) {
+            this.index = index;
+            this.key = key;
+        }
+
+        private boolean isValid() {
+            return index < size && keys[index] == key;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return isValid() ? values[index] : get(key);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            if (isValid()) {
+                encodedSize = -1;
+                Object oldValue = values[index];
+                values[index] = value;
+                return oldValue;
+            }
+            return put(key, value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry<?, ?> other = (Entry<?, ?>) o;
+            return Objects.equals(key, other.getKey()) && Objects.equals(getValue(), other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + getValue();
+        }
+
+    }
+
 }
@@ -2,43 +2,111 @@ package de.bwaldvogel.mongo.bson;
 
 import static de.bwaldvogel.mongo.wire.BsonConstants.LENGTH_OBJECTID;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.security.SecureRandom;
-import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * A 12-byte ObjectId: a 4-byte timestamp in seconds, a 5-byte random value
+ * that is chosen once per process and a 3-byte counter that starts at a
+ * random value. The bytes are kept in an int and a long, both big-endian, so
+ * that comparing them unsigned compares the ObjectIds byte by byte.
+ */
 public class ObjectId implements Bson, Comparable<ObjectId> {
 
     private static final long serialVersionUID = 1L;
 
-    private final byte[] data = new byte[LENGTH_OBJECTID];
+    // serialized as the byte array of earlier versions
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("data", byte[].class),
+    };
 
-    public ObjectId() {
+    private static final long PROCESS_RANDOM_VALUE;
+
+    private static final AtomicInteger COUNTER;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    static {
         SecureRandom random = new SecureRandom();
-        random.nextBytes(data);
+        PROCESS_RANDOM_VALUE = (random.nextLong() & 0xFFFFFFFFFFL) << 24;
+        COUNTER = new AtomicInteger(random.nextInt());
+    }
+
+    private int timestamp;
+
+    private long randomValueAndCounter;
+
+    public ObjectId() {
+        this((int) (System.currentTimeMillis() / 1000), PROCESS_RANDOM_VALUE | (COUNTER.getAndIncrement() & 0xFFFFFF));
     }
 
     public ObjectId(byte[] data) {
         if (data.length != LENGTH_OBJECTID) {
             throw new IllegalArgumentException("Illegal data. Length must be " + LENGTH_OBJECTID + " but was " + data.length);
         }
-        System.arraycopy(data, 0, this.data, 0, this.data.length);
+        this.timestamp = (int) readBigEndian(data, 0, 4);
+        this.randomValueAndCounter = readBigEndian(data, 4, 8);
+    }
+
+    /**
+     * @param timestamp
+     *            the first four bytes
+     * @param randomValueAndCounter
+     *            the last eight bytes
+     */
+    public ObjectId(int timestamp, long randomValueAndCounter) {
+        this.timestamp = timestamp;
+        this.randomValueAndCounter = randomValueAndCounter;
+    }
+
+    /**
+     * @return the creation time in seconds since the epoch, that is the
+     *         first four bytes
+     */
+    public int getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the last eight bytes
+     */
+    public long getRandomValueAndCounter() {
+        return randomValueAndCounter;
     }
 
     public byte[] toByteArray() {
+        byte[] data = new byte[LENGTH_OBJECTID];
+        writeBigEndian(timestamp, data, 0, 4);
+        writeBigEndian(randomValueAndCounter, data, 4, 8);
         return data;
     }
 
+    private static long readBigEndian(byte[] data, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            value = (value << 8) | (data[i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static void writeBigEndian(long value, byte[] data, int offset, int length) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            data[i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
     @Override
     public int compareTo(final ObjectId other) {
-        byte[] byteArray = toByteArray();
-        byte[] otherByteArray = other.toByteArray();
-        for (int i = 0; i < LENGTH_OBJECTID; i++) {
-            if (byteArray[i] != otherByteArray[i]) {
-                int thisByte = byteArray[i] & 0xFF;
-                int otherByte = otherByteArray[i] & 0xFF;
-                return (thisByte < otherByte) ? -1 : 1;
-            }
+        int cmp = Integer.compareUnsigned(timestamp, other.timestamp);
+        if (cmp != 0) {
+            return cmp;
         }
-        return 0;
+        return Long.compareUnsigned(randomValueAndCounter, other.randomValueAndCounter);
     }
 
     @Override
@@ -52,21 +120,44 @@ public class ObjectId implements Bson, Comparable<ObjectId> {
 
         ObjectId objectId = (ObjectId) o;
 
-        return Arrays.equals(data, objectId.data);
-
+        return timestamp == objectId.timestamp && randomValueAndCounter == objectId.randomValueAndCounter;
     }
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(data);
+        return 31 * timestamp + Long.hashCode(randomValueAndCounter);
+    }
+
+    public String toHexString() {
+        char[] chars = new char[2 * LENGTH_OBJECTID];
+        writeHex(timestamp, chars, 0, 8);
+        writeHex(randomValueAndCounter, chars, 8, 16);
+        return new String(chars);
+    }
+
+    private static void writeHex(long value, char[] chars, int offset, int length) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            chars[i] = HEX_DIGITS[(int) (value & 0xF)];
+            value >>>= 4;
+        }
     }
 
     @Override
     public String toString() {
-        String s = getClass().getSimpleName() + "[";
-        for (byte b : data) {
-            s += String.format("%02x", b);
-        }
-        return s + "]";
+        return getClass().getSimpleName() + "[" + toHexString() + "]";
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("data", toByteArray());
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        byte[] data = (byte[]) in.readFields().get("data", null);
+        ObjectId objectId = new ObjectId(data);
+        this.timestamp = objectId.timestamp;
+        this.randomValueAndCounter = objectId.randomValueAndCounter;
     }
+
 }
@@ -0,0 +1,38 @@
+package de.bwaldvogel.mongo.direct;
+
+import de.bwaldvogel.mongo.backend.AbstractMongoBackend;
+import de.bwaldvogel.mongo.exception.MongoServerException;
+
+/**
+ * Accesses a backend from the same JVM without a server, a connection and
+ * BSON serialization. Documents are passed to and returned from the backend
+ * as {@link de.bwaldvogel.mongo.bson.Document} objects. They are copied on
+ * the way in and out, so that neither the caller nor the backend can change
+ * the documents of the other.
+ *
+ * <pre>
+ * DirectMongoClient client = new DirectMongoClient(new MemoryBackend());
+ * DirectMongoCollection collection = client.getDatabase("testdb").getCollection("testcoll");
+ * collection.insertOne(new Document("_id", 1).append("value", "a"));
+ * Document document = collection.findOne(new Document("_id", 1));
+ * </pre>
+ *
+ * The backend can be shared with a {@link de.bwaldvogel.mongo.MongoServer}.
+ */
+public class DirectMongoClient {
+
+    private final AbstractMongoBackend backend;
+
+    public DirectMongoClient(AbstractMongoBackend backend) {
+        this.backend = backend;
+    }
+
+    public DirectMongoDatabase getDatabase(String databaseName) throws MongoServerException {
+        return new DirectMongoDatabase(backend.resolveDatabase(databaseName));
+    }
+
+    public void dropDatabase(String databaseName) throws MongoServerException {
+        backend.dropDatabase(databaseName);
+    }
+
+}
@@ -0,0 +1,227 @@
+package de.bwaldvogel.mongo.direct;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import de.bwaldvogel.mongo.MongoCollection;
+import de.bwaldvogel.mongo.MongoDatabase;
+import de.bwaldvogel.mongo.backend.Constants;
+import de.bwaldvogel.mongo.backend.Utils;
+import de.bwaldvogel.mongo.bson.Document;
+import de.bwaldvogel.mongo.bson.ObjectId;
+import de.bwaldvogel.mongo.exception.MongoServerError;
+import de.bwaldvogel.mongo.exception.MongoServerException;
+
+/**
+ * A collection of a {@link DirectMongoClient}. All documents that are passed
+ * in or returned are copies.
+ */
+public class DirectMongoCollection {
+
+    private final MongoDatabase database;
+    private final String collectionName;
+
+    DirectMongoCollection(MongoDatabase database, String collectionName) {
+        this.database = database;
+        this.collectionName = collectionName;
+    }
+
+    public String getFullName() {
+        return database.getDatabaseName() + "." + collectionName;
+    }
+
+    /**
+     * Inserts a copy of the document. An {@link ObjectId} is generated if the
+     * document has no {@code _id}.
+     *
+     * @return the {@code _id} of the inserted document
+     */
+    public Object insertOne(Document document) throws MongoServerException {
+        Document copy = copyForInsert(document);
+        resolveOrCreateCollection().insertDocuments(Collections.singletonList(copy));
+        return copy.get(Constants.ID_FIELD);
+    }
+
+    /**
+     * @return the number of inserted documents
+     */
+    public int insertMany(List<Document> documents) throws MongoServerException {
+        List<Document> copies = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            copies.add(copyForInsert(document));
+        }
+        return resolveOrCreateCollection().insertDocuments(copies);
+    }
+
+    public List<Document> find(Document filter) throws MongoServerException {
+        return find(filter, null, 0, 0, null);
+    }
+
+    /**
+     * @param filter
+     *            the query
+     * @param sort
+     *            the sort order or null
+     * @param skip
+     *            the number of documents to skip
+     * @param limit
+     *            the maximum number of documents to return or 0 for no limit
+     * @param projection
+     *            the fields to return or null for all fields
+     */
+    public List<Document> find(Document filter, Document sort, int skip, int limit, Document projection)
+            throws MongoServerException {
+        MongoCollection<?> collection = database.resolveCollection(collectionName, false);
+        if (collection == null) {
+            return Collections.emptyList();
+        }
+        Document query = filter;
+        if (sort != null) {
+            query = new Document("$query", filter).append("$orderby", sort);
+        }
+        List<Document> documents = new ArrayList<>();
+        for (Document document : collection.handleQuery(query, skip, limit, projection)) {
+            documents.add(copy(document));
+            if (limit > 0 && documents.size() >= limit) {
+                break;
+            }
+        }
+        return documents;
+    }
+
+    /**
+     * @return the first document that matches the filter or null
+     */
+    public Document findOne(Document filter) throws MongoServerException {
+        List<Document> documents = find(filter, null, 0, 1, null);
+        return documents.isEmpty() ? null : documents.get(0);
+    }
+
+    /**
+     * Applies the update to the first document that matches the filter.
+     *
+     * @param update
+     *            either update operators such as {@code $set} or a replacement
+     *            document
+     * @return the update result with the fields {@code n},
+     *         {@code nModified} and, for an insert, {@code upserted}
+     */
+    public Document updateOne(Document filter, Document update) throws MongoServerException {
+        return update(filter, update, false, false);
+    }
+
+    public Document updateMany(Document filter, Document update) throws MongoServerException {
+        return update(filter, update, true, false);
+    }
+
+    public Document update(Document filter, Document update, boolean multi, boolean upsert)
+            throws MongoServerException {
+        // the update is copied as its values end up in the stored documents
+        Document result = resolveOrCreateCollection().updateDocuments(filter, Utils.deepCopy(update), multi, upsert);
+        return Utils.deepCopy(result);
+    }
+
+    /**
+     * @return the number of deleted documents
+     */
+    public int deleteOne(Document filter) throws MongoServerException {
+        return delete(filter, 1);
+    }
+
+    public int deleteMany(Document filter) throws MongoServerException {
+        return delete(filter, 0);
+    }
+
+    private int delete(Document filter, int limit) throws MongoServerException {
+        MongoCollection<?> collection = database.resolveCollection(collectionName, false);
+        if (collection == null) {
+            return 0;
+        }
+        return collection.deleteDocuments(filter, limit);
+    }
+
+    public int count() throws MongoServerException {
+        MongoCollection<?> collection = database.resolveCollection(collectionName, false);
+        if (collection == null) {
+            return 0;
+        }
+        return collection.count();
+    }
+
+    public int count(Document filter) throws MongoServerException {
+        MongoCollection<?> collection = database.resolveCollection(collectionName, false);
+        if (collection == null) {
+            return 0;
+        }
+        return collection.count(filter, 0, 0);
+    }
+
+    public void drop() throws MongoServerException {
+        if (database.resolveCollection(collectionName, false) != null) {
+            database.dropCollection(collectionName);
+        }
+    }
+
+    private MongoCollection<?> resolveOrCreateCollection() throws MongoServerException {
+        return database.resolveOrCreateCollection(collectionName);
+    }
+
+    /**
+     * The field names of a DBRef, the only ones that may start with a
+     * {@code $}.
+     */
+    private static final Set<String> DB_REF_FIELD_NAMES = new HashSet<>(Arrays.asList("$ref", "$id", "$db"));
+
+    /**
+     * Validates the document like a driver would before it sends the
+     * document, since the documents do not pass a driver here.
+     */
+    private static Document copyForInsert(Document document) throws MongoServerException {
+        validateFieldNames(document);
+        Document copy = new Document();
+        if (!document.containsKey(Constants.ID_FIELD)) {
+            copy.put(Constants.ID_FIELD, new ObjectId());
+        }
+        copy.putAll(Utils.deepCopy(document));
+        return copy;
+    }
+
+    private static void validateFieldNames(Object value) throws MongoServerError {
+        if (value instanceof Document) {
+            for (Entry<String, Object> entry : ((Document) value).entrySet()) {
+                String key = entry.getKey();
+                if (key.startsWith("$") && !DB_REF_FIELD_NAMES.contains(key)) {
+                    throw new MongoServerError(52, "DollarPrefixedFieldName",
+                            "The dollar ($) prefixed field '" + key + "' is not valid for storage.");
+                }
+                if (key.contains(".")) {
+                    throw new MongoServerError(57, "DottedFieldName",
+                            "The dotted field '" + key + "' is not valid for storage.");
+                }
+                validateFieldNames(entry.getValue());
+            }
+        } else if (value instanceof List<?>) {
+            for (Object element : (List<?>) value) {
+                validateFieldNames(element);
+            }
+        }
+    }
+
+    private static Document copy(Document document) {
+        // stored documents are updated in place while holding their monitor
+        synchronized (document) {
+            return Utils.deepCopy(document);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + getFullName() + ")";
+    }
+
+}
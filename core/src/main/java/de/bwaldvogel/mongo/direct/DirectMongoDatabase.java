@@ -0,0 +1,40 @@
+package de.bwaldvogel.mongo.direct;
+
+import de.bwaldvogel.mongo.MongoDatabase;
+import de.bwaldvogel.mongo.exception.MongoServerException;
+
+public class DirectMongoDatabase {
+
+    private final MongoDatabase database;
+
+    DirectMongoDatabase(MongoDatabase database) {
+        this.database = database;
+    }
+
+    public String getName() {
+        return database.getDatabaseName();
+    }
+
+    /**
+     * Returns the collection with the given name. The collection is created
+     * by the first write.
+     */
+    public DirectMongoCollection getCollection(String collectionName) throws MongoServerException {
+        if (collectionName.startsWith("system.")) {
+            throw new MongoServerException("system collections cannot be accessed directly: " + collectionName);
+        }
+        return new DirectMongoCollection(database, collectionName);
+    }
+
+    public void dropCollection(String collectionName) throws MongoServerException {
+        if (database.resolveCollection(collectionName, false) != null) {
+            database.dropCollection(collectionName);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + getName() + ")";
+    }
+
+}
@@ -0,0 +1,98 @@
+package de.bwaldvogel.mongo.wire;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+
+/**
+ * Encodes a reply into a buffer of the calculated size and wraps it into
+ * OP_COMPRESSED if the request of the reply was compressed. The compressor is
+ * carried by the reply itself, since the replies of pipelined requests or of
+ * requests that are handled on another thread might be encoded after later
+ * requests were decoded.
+ */
+public abstract class AbstractReplyEncoder<T> extends MessageToMessageEncoder<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(AbstractReplyEncoder.class);
+
+    private static final int HEADER_LENGTH = 16;
+
+    protected final BsonEncoder bsonEncoder = new BsonEncoder();
+
+    private final CompressorRegistry compressorRegistry;
+
+    protected AbstractReplyEncoder(Class<? extends T> replyType, CompressorRegistry compressorRegistry) {
+        super(replyType);
+        this.compressorRegistry = compressorRegistry;
+    }
+
+    protected abstract int calculateSize(T reply);
+
+    protected abstract void encode(T reply, ByteBuf buf) throws Exception;
+
+    /**
+     * @return the compressor of the reply or {@code null} to send it
+     *         uncompressed
+     */
+    protected abstract Compressor getCompressor(T reply);
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, T reply, List<Object> out) throws Exception {
+        ByteBuf buf = ReplyBufferAllocator.allocate(ctx.alloc(), calculateSize(reply));
+        try {
+            buf.writeIntLE(0); // write length later
+            encode(reply, buf);
+            // now set the length
+            buf.setIntLE(0, buf.writerIndex());
+        } catch (Exception e) {
+            buf.release();
+            throw e;
+        }
+
+        Compressor compressor = getCompressor(reply);
+        if (compressor == null || buf.readableBytes() < compressorRegistry.getMinimumSizeBytes()) {
+            out.add(buf);
+            return;
+        }
+
+        try {
+            out.add(compress(ctx, buf, compressor));
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static ByteBuf compress(ChannelHandlerContext ctx, ByteBuf msg, Compressor compressor) throws Exception {
+        int readerIndex = msg.readerIndex();
+        int uncompressedSize = msg.getIntLE(readerIndex) - HEADER_LENGTH;
+        int requestID = msg.getIntLE(readerIndex + 4);
+        int responseTo = msg.getIntLE(readerIndex + 8);
+        int opCode = msg.getIntLE(readerIndex + 12);
+
+        ByteBuf buf = ctx.alloc().ioBuffer(msg.readableBytes());
+        try {
+            buf.writeIntLE(0); // write length later
+            buf.writeIntLE(requestID);
+            buf.writeIntLE(responseTo);
+            buf.writeIntLE(OpCode.OP_COMPRESSED.getId());
+            buf.writeIntLE(opCode);
+            buf.writeIntLE(uncompressedSize);
+            buf.writeByte(compressor.getId());
+            compressor.compress(msg.skipBytes(HEADER_LENGTH), buf);
+            buf.setIntLE(0, buf.writerIndex());
+        } catch (Exception e) {
+            buf.release();
+            throw e;
+        }
+
+        log.debug("compressed reply with {} from {} to {} bytes", compressor.getName(),
+                Integer.valueOf(uncompressedSize + HEADER_LENGTH), Integer.valueOf(buf.readableBytes()));
+        return buf;
+    }
+
+}
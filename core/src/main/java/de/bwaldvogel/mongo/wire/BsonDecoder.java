@@ -14,34 +14,257 @@ import de.bwaldvogel.mongo.bson.MaxKey;
 import de.bwaldvogel.mongo.bson.MinKey;
 import de.bwaldvogel.mongo.bson.ObjectId;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 
 class BsonDecoder {
 
+    private static final FieldNameCache FIELD_NAME_CACHE = new FieldNameCache(FieldNameCache.DEFAULT_SIZE);
+
+    static final Object MISSING_FIELD = new Object();
+
+    static final Object NESTED_FIELD = new Object();
+
+    /**
+     * Decodes the fields of the document right away. Embedded documents are
+     * decoded lazily.
+     */
     public Document decodeBson(ByteBuf buffer) throws IOException {
+        Document document = new Document();
+        decodeDocument(buffer, document, null);
+        return document;
+    }
+
+    /**
+     * Decodes the document lazily. Its fields are only decoded on the first
+     * access and the {@link BsonEncoder} writes the bytes back unless the
+     * document was modified.
+     */
+    public Document decodeRawBson(ByteBuf buffer) throws IOException {
+        return decodeRawBson(buffer, null);
+    }
+
+    void decodeFields(ByteBuf buffer, RawBsonDocument document) throws IOException {
+        decodeDocument(buffer, document, document);
+    }
+
+    private void decodeDocument(ByteBuf buffer, Document document, RawBsonDocument owner) throws IOException {
         final int totalObjectLength = buffer.readIntLE();
         final int length = totalObjectLength - 4;
+        checkLength(buffer, length);
+
+        int start = buffer.readerIndex();
+        while (buffer.readerIndex() - start < length) {
+            byte type = buffer.readByte();
+            if (type == BsonConstants.TERMINATING_BYTE) {
+                return;
+            }
+            String name = decodeFieldName(buffer);
+            Object value = decodeValue(type, buffer, owner);
+            if (owner != null) {
+                owner.putDecoded(name, value);
+            } else {
+                document.put(name, value);
+            }
+        }
+        throw new IOException("illegal BSON object. Terminating byte not found. totalObjectLength = " + totalObjectLength);
+    }
+
+    private static void checkLength(ByteBuf buffer, int length) throws IOException {
         if (buffer.readableBytes() < length) {
             throw new IOException("Too few bytes to read: " + buffer.readableBytes() + ". Expected: " + length);
         }
         if (length > BsonConstants.MAX_BSON_OBJECT_SIZE) {
             throw new IOException("BSON object too large: " + length + " bytes");
         }
+    }
 
-        Document object = new Document();
-        int start = buffer.readerIndex();
-        while (buffer.readerIndex() - start < length) {
-            byte type = buffer.readByte();
-            if (type == BsonConstants.TERMINATING_BYTE) {
-                return object;
+    private RawBsonDocument decodeRawBson(ByteBuf buffer, RawBsonDocument parent) throws IOException {
+        final int totalObjectLength = buffer.getIntLE(buffer.readerIndex());
+        checkLength(buffer, totalObjectLength);
+        if (totalObjectLength < 5
+                || buffer.getByte(buffer.readerIndex() + totalObjectLength - 1) != BsonConstants.TERMINATING_BYTE) {
+            throw new IOException("illegal BSON object. Terminating byte not found. totalObjectLength = " + totalObjectLength);
+        }
+        if (parent != null) {
+            // the bytes of embedded documents were validated with their parent and stay in its array
+            RawBsonDocument document = new RawBsonDocument(buffer.array(),
+                    buffer.arrayOffset() + buffer.readerIndex(), totalObjectLength, parent);
+            buffer.skipBytes(totalObjectLength);
+            return document;
+        }
+        validateDocument(buffer, buffer.readerIndex());
+        byte[] bytes = new byte[totalObjectLength];
+        buffer.readBytes(bytes);
+        return new RawBsonDocument(bytes, 0, totalObjectLength, null);
+    }
+
+    /**
+     * Decodes the value of a single field of the validated document without
+     * decoding the other fields.
+     *
+     * @return the value of the field, {@link #MISSING_FIELD} or
+     *         {@link #NESTED_FIELD} if the value is an embedded document or
+     *         array
+     */
+    Object decodeScalarField(ByteBuf buffer, String name) throws IOException {
+        final int index = buffer.readerIndex();
+        final int end = index + buffer.getIntLE(index);
+        int position = index + 4;
+        while (position < end - 1) {
+            byte type = buffer.getByte(position);
+            int nameIndex = position + 1;
+            int valueIndex = skipCString(buffer, nameIndex, end);
+            if (nameEquals(buffer, nameIndex, valueIndex - 1 - nameIndex, name)) {
+                if (type == BsonConstants.TYPE_EMBEDDED_DOCUMENT || type == BsonConstants.TYPE_ARRAY) {
+                    return NESTED_FIELD;
+                }
+                buffer.readerIndex(valueIndex);
+                return decodeValue(type, buffer, null);
             }
-            String name = decodeCString(buffer);
-            Object value = decodeValue(type, buffer);
-            object.put(name, value);
+            position = validateValue(type, buffer, valueIndex, end);
+        }
+        return MISSING_FIELD;
+    }
+
+    private static boolean nameEquals(ByteBuf buffer, int index, int length, String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) >= 0x80) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                return bytes.length == length && ByteBufUtil.equals(buffer, index, Unpooled.wrappedBuffer(bytes), 0, length);
+            }
+        }
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.getByte(index + i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Walks the types and lengths of all fields of the encoded document,
+     * including its embedded documents, without decoding the values. A lazily
+     * decoded document thus is rejected right away if it contains a value that
+     * could not be decoded later.
+     *
+     * @return the index after the document
+     */
+    private static int validateDocument(ByteBuf buffer, int index) throws IOException {
+        final int totalObjectLength = buffer.getIntLE(index);
+        if (totalObjectLength < 5 || totalObjectLength > buffer.writerIndex() - index
+                || buffer.getByte(index + totalObjectLength - 1) != BsonConstants.TERMINATING_BYTE) {
+            throw new IOException("illegal BSON object. Terminating byte not found. totalObjectLength = " + totalObjectLength);
+        }
+
+        final int end = index + totalObjectLength;
+        int position = index + 4;
+        while (position < end - 1) {
+            byte type = buffer.getByte(position);
+            position = skipCString(buffer, position + 1, end);
+            position = validateValue(type, buffer, position, end);
+        }
+        if (position != end - 1) {
+            throw new IOException("illegal BSON object. Field exceeds the object. totalObjectLength = " + totalObjectLength);
+        }
+        return end;
+    }
+
+    private static int validateValue(byte type, ByteBuf buffer, int index, int end) throws IOException {
+        final int next;
+        switch (type) {
+            case BsonConstants.TYPE_UNDEFINED:
+            case BsonConstants.TYPE_NULL:
+            case BsonConstants.TYPE_MAX_KEY:
+            case BsonConstants.TYPE_MIN_KEY:
+                next = index;
+                break;
+            case BsonConstants.TYPE_INT32:
+                next = index + 4;
+                break;
+            case BsonConstants.TYPE_DOUBLE:
+            case BsonConstants.TYPE_UTC_DATETIME:
+            case BsonConstants.TYPE_TIMESTAMP:
+            case BsonConstants.TYPE_INT64:
+                next = index + 8;
+                break;
+            case BsonConstants.TYPE_OBJECT_ID:
+                next = index + BsonConstants.LENGTH_OBJECTID;
+                break;
+            case BsonConstants.TYPE_BOOLEAN:
+                checkBounds(index + 1, end);
+                byte value = buffer.getByte(index);
+                if (value != BsonConstants.BOOLEAN_VALUE_FALSE && value != BsonConstants.BOOLEAN_VALUE_TRUE) {
+                    throw new IOException("illegal boolean value");
+                }
+                next = index + 1;
+                break;
+            case BsonConstants.TYPE_UTF8_STRING: {
+                checkBounds(index + 4, end);
+                int length = buffer.getIntLE(index);
+                if (length < 1 || length > end - index - 4) {
+                    throw new IOException("illegal string length: " + length);
+                }
+                next = index + 4 + length;
+                if (buffer.getByte(next - 1) != BsonConstants.STRING_TERMINATION) {
+                    throw new IOException("string termination not found");
+                }
+                break;
+            }
+            case BsonConstants.TYPE_EMBEDDED_DOCUMENT:
+            case BsonConstants.TYPE_ARRAY:
+                checkBounds(index + 4, end);
+                next = validateDocument(buffer, index);
+                break;
+            case BsonConstants.TYPE_DATA: {
+                checkBounds(index + 5, end);
+                int length = buffer.getIntLE(index);
+                byte subtype = buffer.getByte(index + 4);
+                if (length < 0 || length > end - index - 5) {
+                    throw new IOException("illegal binary length: " + length);
+                }
+                if (subtype == BsonConstants.BINARY_SUBTYPE_OLD_UUID || subtype == BsonConstants.BINARY_SUBTYPE_UUID) {
+                    if (length != BsonConstants.LENGTH_UUID) {
+                        throw new IOException("illegal UUID length: " + length);
+                    }
+                } else if (subtype != BsonConstants.BINARY_SUBTYPE_GENERIC
+                        && subtype != BsonConstants.BINARY_SUBTYPE_USER_DEFINED) {
+                    throw new IOException("unknown binary subtype: 0x" + Integer.toHexString(subtype));
+                }
+                next = index + 5 + length;
+                break;
+            }
+            case BsonConstants.TYPE_REGEX:
+                next = skipCString(buffer, skipCString(buffer, index, end), end);
+                break;
+            case BsonConstants.TYPE_JAVASCRIPT_CODE:
+            case BsonConstants.TYPE_JAVASCRIPT_CODE_WITH_SCOPE:
+                throw new IOException("unhandled type: 0x" + Integer.toHexString(type));
+            default:
+                throw new IOException("unknown type: 0x" + Integer.toHexString(type));
+        }
+        checkBounds(next, end);
+        return next;
+    }
+
+    private static void checkBounds(int index, int end) throws IOException {
+        if (index > end) {
+            throw new IOException("illegal BSON object. Value exceeds the object");
         }
-        throw new IOException("illegal BSON object. Terminating byte not found. totalObjectLength = " + totalObjectLength);
     }
 
-    private Object decodeValue(byte type, ByteBuf buffer) throws IOException {
+    private static int skipCString(ByteBuf buffer, int index, int end) throws IOException {
+        int length = buffer.bytesBefore(index, end - index, BsonConstants.STRING_TERMINATION);
+        if (length < 0) {
+            throw new IOException("string termination not found");
+        }
+        return index + length + 1;
+    }
+
+    private Object decodeValue(byte type, ByteBuf buffer, RawBsonDocument owner) throws IOException {
         Object value;
         switch (type) {
             case BsonConstants.TYPE_DOUBLE:
@@ -51,10 +274,10 @@ class BsonDecoder {
                 value = decodeString(buffer);
                 break;
             case BsonConstants.TYPE_EMBEDDED_DOCUMENT:
-                value = decodeBson(buffer);
+                value = decodeRawBson(buffer, owner);
                 break;
             case BsonConstants.TYPE_ARRAY:
-                value = decodeArray(buffer);
+                value = decodeArray(buffer, owner);
                 break;
             case BsonConstants.TYPE_DATA:
                 value = decodeBinary(buffer);
@@ -107,26 +330,36 @@ class BsonDecoder {
         return new BsonRegularExpression(regex, options);
     }
 
-    private List<Object> decodeArray(ByteBuf buffer) throws IOException {
+    private List<Object> decodeArray(ByteBuf buffer, RawBsonDocument owner) throws IOException {
+        final int totalObjectLength = buffer.readIntLE();
+        final int length = totalObjectLength - 4;
+        checkLength(buffer, length);
+
         List<Object> array = new ArrayList<>();
-        Document arrayObject = decodeBson(buffer);
-        for (String key : arrayObject.keySet()) {
-            array.add(arrayObject.get(key));
+        int start = buffer.readerIndex();
+        while (buffer.readerIndex() - start < length) {
+            byte type = buffer.readByte();
+            if (type == BsonConstants.TERMINATING_BYTE) {
+                return owner != null ? owner.wrapArray(array) : array;
+            }
+            skipCString(buffer); // the index
+            array.add(decodeValue(type, buffer, owner));
         }
-        return array;
+        throw new IOException("illegal BSON array. Terminating byte not found. totalObjectLength = " + totalObjectLength);
     }
 
     private ObjectId decodeObjectId(ByteBuf buffer) {
-        byte[] b = new byte[BsonConstants.LENGTH_OBJECTID];
-        buffer.readBytes(b);
-        return new ObjectId(b);
+        // big-endian
+        return new ObjectId(buffer.readInt(), buffer.readLong());
     }
 
     private String decodeString(ByteBuf buffer) throws IOException {
         int length = buffer.readIntLE();
-        byte[] data = new byte[length - 1];
-        buffer.readBytes(data);
-        String s = new String(data, "UTF-8");
+        if (length < 1 || length > buffer.readableBytes()) {
+            throw new IOException("illegal string length: " + length);
+        }
+        String s = decodeUtf8(buffer, buffer.readerIndex(), length - 1);
+        buffer.skipBytes(length - 1);
         byte trail = buffer.readByte();
         if (trail != BsonConstants.STRING_TERMINATION) {
             throw new IOException();
@@ -140,11 +373,47 @@ class BsonDecoder {
         if (length < 0)
             throw new IOException("string termination not found");
 
-        String result = buffer.toString(buffer.readerIndex(), length, StandardCharsets.UTF_8);
+        String result = decodeUtf8(buffer, buffer.readerIndex(), length);
         buffer.skipBytes(length + 1);
         return result;
     }
 
+    /**
+     * Decodes strings without copying them into a temporary array first.
+     * ASCII strings in heap buffers are turned into strings directly.
+     */
+    @SuppressWarnings("deprecation")
+    static String decodeUtf8(ByteBuf buffer, int index, int length) {
+        if (!buffer.hasArray()) {
+            return buffer.toString(index, length, StandardCharsets.UTF_8);
+        }
+        byte[] array = buffer.array();
+        int offset = buffer.arrayOffset() + index;
+        for (int i = offset; i < offset + length; i++) {
+            if (array[i] < 0) {
+                return new String(array, offset, length, StandardCharsets.UTF_8);
+            }
+        }
+        return new String(array, 0, offset, length);
+    }
+
+    private static String decodeFieldName(ByteBuf buffer) throws IOException {
+        int length = buffer.bytesBefore(BsonConstants.STRING_TERMINATION);
+        if (length < 0)
+            throw new IOException("string termination not found");
+
+        String result = FIELD_NAME_CACHE.get(buffer, buffer.readerIndex(), length);
+        buffer.skipBytes(length + 1);
+        return result;
+    }
+
+    private static void skipCString(ByteBuf buffer) throws IOException {
+        int length = buffer.bytesBefore(BsonConstants.STRING_TERMINATION);
+        if (length < 0)
+            throw new IOException("string termination not found");
+        buffer.skipBytes(length + 1);
+    }
+
     private Object decodeBinary(ByteBuf buffer) throws IOException {
         int length = buffer.readIntLE();
         int subtype = buffer.readByte();
@@ -13,10 +13,16 @@ import de.bwaldvogel.mongo.bson.MaxKey;
 import de.bwaldvogel.mongo.bson.MinKey;
 import de.bwaldvogel.mongo.bson.ObjectId;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
 
 public class BsonEncoder {
 
     public void encodeDocument(Document document, ByteBuf out) throws IOException {
+        if (document instanceof RawBsonDocument && ((RawBsonDocument) document).writeBytes(out)) {
+            return;
+        }
+
         int indexBefore = out.writerIndex();
         out.writeIntLE(0); // total number of bytes will be written later
 
@@ -25,25 +31,116 @@ public class BsonEncoder {
         }
 
         out.writeByte(BsonConstants.TERMINATING_BYTE);
-        int indexAfter = out.writerIndex();
-        out.writerIndex(indexBefore);
-        out.writeIntLE(indexAfter - indexBefore);
-        out.writerIndex(indexAfter);
+        out.setIntLE(indexBefore, out.writerIndex() - indexBefore);
+    }
+
+    private void encodeArray(List<?> array, ByteBuf out) throws IOException {
+        int indexBefore = out.writerIndex();
+        out.writeIntLE(0); // total number of bytes will be written later
+
+        for (int i = 0; i < array.size(); i++) {
+            encodeValue(String.valueOf(i), array.get(i), out);
+        }
+
+        out.writeByte(BsonConstants.TERMINATING_BYTE);
+        out.setIntLE(indexBefore, out.writerIndex() - indexBefore);
+    }
+
+    /**
+     * Calculates the number of bytes of the encoded document without encoding
+     * it, for example to allocate a buffer of the right size up front.
+     */
+    public int calculateSize(Document document) {
+        if (document instanceof RawBsonDocument) {
+            int length = ((RawBsonDocument) document).getEncodedLength();
+            if (length >= 0) {
+                return length;
+            }
+        }
+        int size = 4 + 1; // length and terminating byte
+        for (String key : document.keySet()) {
+            size += calculateSize(key, document.get(key));
+        }
+        return size;
+    }
+
+    private int calculateSize(List<?> array) {
+        int size = 4 + 1; // length and terminating byte
+        for (int i = 0; i < array.size(); i++) {
+            size += calculateSize(String.valueOf(i), array.get(i));
+        }
+        return size;
+    }
+
+    private int calculateSize(String key, Object value) {
+        byte type = determineType(value);
+        return 1 + calculateCStringSize(key) + calculateSize(type, value);
+    }
+
+    private static int calculateCStringSize(String data) {
+        return ByteBufUtil.utf8Bytes(data) + 1;
+    }
+
+    private int calculateSize(byte type, Object value) {
+        switch (type) {
+            case BsonConstants.TYPE_DOUBLE:
+            case BsonConstants.TYPE_UTC_DATETIME:
+            case BsonConstants.TYPE_TIMESTAMP:
+            case BsonConstants.TYPE_INT64:
+                return 8;
+            case BsonConstants.TYPE_UTF8_STRING:
+                return 4 + calculateCStringSize(value.toString());
+            case BsonConstants.TYPE_EMBEDDED_DOCUMENT:
+                return calculateSize((Document) value);
+            case BsonConstants.TYPE_ARRAY:
+                return calculateSize((List<?>) value);
+            case BsonConstants.TYPE_DATA:
+                if (value instanceof byte[]) {
+                    return 4 + 1 + ((byte[]) value).length;
+                } else {
+                    return 4 + 1 + BsonConstants.LENGTH_UUID;
+                }
+            case BsonConstants.TYPE_OBJECT_ID:
+                return BsonConstants.LENGTH_OBJECTID;
+            case BsonConstants.TYPE_BOOLEAN:
+                return 1;
+            case BsonConstants.TYPE_REGEX:
+                BsonRegularExpression pattern = (BsonRegularExpression) value;
+                return calculateCStringSize(pattern.getPattern()) + calculateCStringSize(pattern.getOptions());
+            case BsonConstants.TYPE_INT32:
+                return 4;
+            default:
+                // types without a value or types that cannot be encoded
+                return 0;
+        }
     }
 
     private void encodeCString(String data, ByteBuf buffer) throws IOException {
-        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
-        buffer.writeBytes(bytes);
+        writeUtf8(data, ByteBufUtil.utf8Bytes(data), buffer);
         buffer.writeByte(BsonConstants.STRING_TERMINATION);
     }
 
     private void encodeString(String data, ByteBuf buffer) throws IOException {
-        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
-        buffer.writeIntLE(bytes.length + 1);
-        buffer.writeBytes(bytes);
+        int length = ByteBufUtil.utf8Bytes(data);
+        buffer.writeIntLE(length + 1);
+        writeUtf8(data, length, buffer);
         buffer.writeByte(BsonConstants.STRING_TERMINATION);
     }
 
+    /**
+     * Writes the UTF-8 bytes straight into the buffer. Reserving exactly
+     * their number keeps the buffer from growing beyond the calculated size
+     * of the document.
+     */
+    private static void writeUtf8(String data, int length, ByteBuf buffer) {
+        if (buffer instanceof CompositeByteBuf) {
+            // writing byte by byte would look up the component for every byte
+            buffer.writeBytes(data.getBytes(StandardCharsets.UTF_8));
+        } else {
+            ByteBufUtil.reserveAndWriteUtf8(buffer, data, length);
+        }
+    }
+
     private void encodeValue(String key, Object value, ByteBuf buffer) throws IOException {
         byte type = determineType(value);
         buffer.writeByte(type);
@@ -63,12 +160,7 @@ public class BsonEncoder {
                 encodeDocument((Document) value, buffer);
                 break;
             case BsonConstants.TYPE_ARRAY:
-                Document document = new Document();
-                List<?> array = (List<?>) value;
-                for (int i = 0; i < array.size(); i++) {
-                    document.put(String.valueOf(i), array.get(i));
-                }
-                encodeDocument(document, buffer);
+                encodeArray((List<?>) value, buffer);
                 break;
             case BsonConstants.TYPE_DATA:
                 if (value instanceof byte[]) {
@@ -87,11 +179,10 @@ public class BsonEncoder {
                 }
                 break;
             case BsonConstants.TYPE_OBJECT_ID:
-                byte[] bytes = ((ObjectId) value).toByteArray();
-                if (bytes.length != BsonConstants.LENGTH_OBJECTID) {
-                    throw new IllegalArgumentException("Illegal ObjectId: " + value);
-                }
-                buffer.writeBytes(bytes);
+                // big-endian
+                ObjectId objectId = (ObjectId) value;
+                buffer.writeInt(objectId.getTimestamp());
+                buffer.writeLong(objectId.getRandomValueAndCounter());
                 break;
             case BsonConstants.TYPE_BOOLEAN:
                 if (((Boolean) value).booleanValue()) {
@@ -0,0 +1,29 @@
+package de.bwaldvogel.mongo.wire;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * A codec for OP_COMPRESSED messages.
+ *
+ * @see CompressorRegistry
+ */
+public interface Compressor {
+
+    /**
+     * @return the name under which the compressor is negotiated in
+     *         {@code ismaster}
+     */
+    String getName();
+
+    /**
+     * @return the id that identifies the compressor in OP_COMPRESSED
+     */
+    byte getId();
+
+    void compress(ByteBuf source, ByteBuf target) throws IOException;
+
+    void decompress(ByteBuf source, ByteBuf target, int uncompressedSize) throws IOException;
+
+}
@@ -0,0 +1,81 @@
+package de.bwaldvogel.mongo.wire;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The compressors a server offers to its clients. Clients announce the
+ * compressors they support in {@code ismaster} and the server answers with the
+ * ones it has registered. Replies are only compressed if the client used
+ * compression for the request and if they are at least
+ * {@link #getMinimumSizeBytes()} large.
+ */
+public class CompressorRegistry {
+
+    public static final int DEFAULT_MINIMUM_SIZE_BYTES = 1024;
+
+    private final Map<String, Compressor> compressorsByName = new ConcurrentHashMap<>();
+    private final Map<Byte, Compressor> compressorsById = new ConcurrentHashMap<>();
+    private volatile int minimumSizeBytes = DEFAULT_MINIMUM_SIZE_BYTES;
+
+    /**
+     * Creates a registry with the built-in snappy and zlib compressors.
+     */
+    public CompressorRegistry() {
+        register(new SnappyCompressor());
+        register(new ZlibCompressor());
+    }
+
+    public void register(Compressor compressor) {
+        compressorsByName.put(compressor.getName(), compressor);
+        compressorsById.put(Byte.valueOf(compressor.getId()), compressor);
+    }
+
+    public void unregister(String name) {
+        Compressor compressor = compressorsByName.remove(name);
+        if (compressor != null) {
+            compressorsById.remove(Byte.valueOf(compressor.getId()));
+        }
+    }
+
+    public Compressor get(String name) {
+        return compressorsByName.get(name);
+    }
+
+    public Compressor get(byte id) {
+        return compressorsById.get(Byte.valueOf(id));
+    }
+
+    public int getMinimumSizeBytes() {
+        return minimumSizeBytes;
+    }
+
+    /**
+     * @param minimumSizeBytes
+     *            replies smaller than this size are sent uncompressed
+     */
+    public void setMinimumSizeBytes(int minimumSizeBytes) {
+        if (minimumSizeBytes < 0) {
+            throw new IllegalArgumentException("Illegal minimum size: " + minimumSizeBytes);
+        }
+        this.minimumSizeBytes = minimumSizeBytes;
+    }
+
+    /**
+     * @return the names of the requested compressors that are registered, in
+     *         the order of the client's preference
+     */
+    public List<String> negotiate(Collection<?> requestedCompressors) {
+        List<String> names = new ArrayList<>();
+        for (Object requestedCompressor : requestedCompressors) {
+            if (compressorsByName.containsKey(requestedCompressor)) {
+                names.add((String) requestedCompressor);
+            }
+        }
+        return names;
+    }
+
+}
@@ -0,0 +1,96 @@
+package de.bwaldvogel.mongo.wire;
+
+import java.nio.charset.StandardCharsets;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Interns the field names of decoded documents. Documents of a collection
+ * usually share the same few field names, so that decoding them through this
+ * cache neither allocates a new string per field nor keeps millions of equal
+ * strings alive in the stored documents.
+ *
+ * The cache is a fixed-size table that is indexed by the hash of the encoded
+ * name. A slot keeps the most recently decoded name with that hash, so names
+ * that collide replace each other and are still decoded correctly. Slots are
+ * read and written without locking: entries are immutable, and a lost update
+ * only costs another decoding.
+ */
+final class FieldNameCache {
+
+    static final int DEFAULT_SIZE = 4096;
+
+    static final int MAX_NAME_LENGTH = 64;
+
+    private final Entry[] entries;
+
+    private final int mask;
+
+    FieldNameCache(int size) {
+        if (Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Size must be a power of two: " + size);
+        }
+        this.entries = new Entry[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Returns the name of the given number of bytes at the given index of the
+     * buffer without changing the reader index.
+     */
+    String get(ByteBuf buffer, int index, int length) {
+        if (length > MAX_NAME_LENGTH) {
+            return buffer.toString(index, length, StandardCharsets.UTF_8);
+        }
+
+        int hash = 1;
+        boolean ascii = true;
+        for (int i = 0; i < length; i++) {
+            byte b = buffer.getByte(index + i);
+            hash = 31 * hash + b;
+            ascii &= b >= 0;
+        }
+
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        Entry entry = entries[slot];
+        if (entry != null && entry.matches(buffer, index, length)) {
+            return entry.name;
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.getBytes(index, bytes);
+        String name = ascii ? decodeAscii(bytes) : new String(bytes, StandardCharsets.UTF_8);
+        entries[slot] = new Entry(bytes, name);
+        return name;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static String decodeAscii(byte[] bytes) {
+        return new String(bytes, 0, 0, bytes.length);
+    }
+
+    private static final class Entry {
+
+        private final byte[] bytes;
+        private final String name;
+
+        Entry(byte[] bytes, String name) {
+            this.bytes = bytes;
+            this.name = name;
+        }
+
+        boolean matches(ByteBuf buffer, int index, int length) {
+            if (bytes.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (bytes[i] != buffer.getByte(index + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+}
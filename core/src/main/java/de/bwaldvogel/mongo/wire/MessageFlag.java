@@ -0,0 +1,28 @@
+package de.bwaldvogel.mongo.wire;
+
+public enum MessageFlag implements Flag {
+    CHECKSUM_PRESENT(0), //
+    MORE_TO_COME(1), //
+    EXHAUST_ALLOWED(16);
+
+    private int value;
+
+    MessageFlag(int bit) {
+        this.value = 1 << bit;
+    }
+
+    @Override
+    public boolean isSet(int flags) {
+        return (flags & value) == value;
+    }
+
+    @Override
+    public int removeFrom(int flags) {
+        return flags & ~value;
+    }
+
+    @Override
+    public int addTo(int flags) {
+        return flags | value;
+    }
+}
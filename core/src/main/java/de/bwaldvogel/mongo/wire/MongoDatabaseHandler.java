@@ -9,6 +9,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -16,6 +17,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.bwaldvogel.mongo.MongoBackend;
+import de.bwaldvogel.mongo.backend.Cursor;
+import de.bwaldvogel.mongo.backend.CursorRegistry;
 import de.bwaldvogel.mongo.backend.Utils;
 import de.bwaldvogel.mongo.bson.Document;
 import de.bwaldvogel.mongo.exception.MongoServerError;
@@ -25,11 +28,15 @@ import de.bwaldvogel.mongo.exception.NoSuchCommandException;
 import de.bwaldvogel.mongo.wire.message.ClientRequest;
 import de.bwaldvogel.mongo.wire.message.MessageHeader;
 import de.bwaldvogel.mongo.wire.message.MongoDelete;
+import de.bwaldvogel.mongo.wire.message.MongoGetMore;
 import de.bwaldvogel.mongo.wire.message.MongoInsert;
+import de.bwaldvogel.mongo.wire.message.MongoKillCursors;
+import de.bwaldvogel.mongo.wire.message.MongoMessage;
 import de.bwaldvogel.mongo.wire.message.MongoQuery;
 import de.bwaldvogel.mongo.wire.message.MongoReply;
 import de.bwaldvogel.mongo.wire.message.MongoUpdate;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.channel.group.ChannelGroup;
@@ -38,20 +45,70 @@ public class MongoDatabaseHandler extends SimpleChannelInboundHandler<ClientRequ
 
     private static final Logger log = LoggerFactory.getLogger(MongoWireProtocolHandler.class);
 
+    /**
+     * Number of documents in the first batch if the client does not specify it
+     */
+    static final int DEFAULT_FIRST_BATCH_SIZE = 101;
+
+    /**
+     * The first batch is closed once it reaches this size, regardless of the
+     * number of documents requested. Like mongod, we keep it small to reduce
+     * the latency until the client receives the first documents.
+     */
+    static final int FIRST_BATCH_MAX_SIZE_BYTES = 1024 * 1024;
+
+    /**
+     * Subsequent batches (getMore) are closed once they reach this size.
+     */
+    static final int BATCH_MAX_SIZE_BYTES = BsonConstants.MAX_BSON_OBJECT_SIZE;
+
+    private static final String CURRENT_OPERATIONS_COLLECTION = "$cmd.sys.inprog";
+
     private final AtomicInteger idSequence = new AtomicInteger();
     private final MongoBackend mongoBackend;
 
     private final ChannelGroup channelGroup;
+    private final CursorRegistry cursorRegistry;
+    private final CompressorRegistry compressorRegistry;
+    private final Executor requestExecutor;
+    private Executor serialExecutor;
+    private PendingExhaustBatch pendingExhaustBatch;
     private final long started;
     private final Date startDate;
 
-    public MongoDatabaseHandler(MongoBackend mongoBackend, ChannelGroup channelGroup) {
+    public MongoDatabaseHandler(MongoBackend mongoBackend, ChannelGroup channelGroup, CursorRegistry cursorRegistry,
+            CompressorRegistry compressorRegistry) {
+        this(mongoBackend, channelGroup, cursorRegistry, compressorRegistry, null);
+    }
+
+    /**
+     * @param requestExecutor
+     *            the executor that handles the requests of this connection or
+     *            null to handle them on the event loop. Requests are passed to
+     *            the executor one after another to keep their order.
+     */
+    public MongoDatabaseHandler(MongoBackend mongoBackend, ChannelGroup channelGroup, CursorRegistry cursorRegistry,
+            CompressorRegistry compressorRegistry, Executor requestExecutor) {
         this.channelGroup = channelGroup;
         this.mongoBackend = mongoBackend;
+        this.cursorRegistry = cursorRegistry;
+        this.compressorRegistry = compressorRegistry;
+        this.requestExecutor = requestExecutor;
         this.started = System.nanoTime();
         this.startDate = new Date();
     }
 
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        if (requestExecutor != null) {
+            serialExecutor = new SerialExecutor(requestExecutor, e -> {
+                log.error("request of {} was rejected", ctx.channel(), e);
+                ctx.channel().close();
+            });
+        }
+        super.handlerAdded(ctx);
+    }
+
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
         channelGroup.add(ctx.channel());
@@ -63,14 +120,78 @@ public class MongoDatabaseHandler extends SimpleChannelInboundHandler<ClientRequ
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
         log.info("channel {} closed", ctx.channel());
         channelGroup.remove(ctx.channel());
-        mongoBackend.handleClose(ctx.channel());
+        if (pendingExhaustBatch != null) {
+            cursorRegistry.remove(pendingExhaustBatch.cursorId);
+            pendingExhaustBatch = null;
+        }
+        if (serialExecutor != null) {
+            // runs after the pending requests of the channel
+            serialExecutor.execute(() -> mongoBackend.handleClose(ctx.channel()));
+        } else {
+            mongoBackend.handleClose(ctx.channel());
+        }
         super.channelInactive(ctx);
     }
 
+    /**
+     * Stops reading requests while the outbound buffer of the channel is above
+     * its high water mark, that is while the client does not consume the
+     * replies fast enough, and resumes once it drained below the low water
+     * mark. This limits the memory per connection to the water marks plus the
+     * requests that are already being handled. Cursors of unsorted queries
+     * only match documents when their next batch is fetched, whereas sorted
+     * queries still hold all matching documents until the cursor is closed.
+     */
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        boolean writable = ctx.channel().isWritable();
+        log.debug("channel {} is {}writable", ctx.channel(), writable ? "" : "not ");
+        ctx.channel().config().setAutoRead(writable);
+        if (writable && pendingExhaustBatch != null) {
+            Runnable exhaustBatch = pendingExhaustBatch.batch;
+            pendingExhaustBatch = null;
+            exhaustBatch.run();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, ClientRequest object) throws Exception {
+        if (serialExecutor == null) {
+            handleRequest(ctx, object);
+            return;
+        }
+        execute(ctx, () -> handleRequest(ctx, object));
+    }
+
+    private void execute(ChannelHandlerContext ctx, RequestTask task) {
+        if (serialExecutor == null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                ctx.fireExceptionCaught(e);
+            }
+            return;
+        }
+        serialExecutor.execute(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                ctx.fireExceptionCaught(e);
+            }
+        });
+    }
+
+    private void handleRequest(ChannelHandlerContext ctx, ClientRequest object) throws MongoServerException {
         if (object instanceof MongoQuery) {
-            ctx.channel().writeAndFlush(handleQuery(ctx.channel(), (MongoQuery) object));
+            MongoQuery query = (MongoQuery) object;
+            MongoReply reply = handleQuery(ctx.channel(), query);
+            reply.setCompressor(query.getCompressor());
+            if (query.isExhaust()) {
+                writeExhaustReply(ctx, reply, query.getNumberToReturn());
+            } else {
+                ctx.channel().writeAndFlush(reply);
+            }
         } else if (object instanceof MongoInsert) {
             MongoInsert insert = (MongoInsert) object;
             mongoBackend.handleInsert(insert);
@@ -80,6 +201,19 @@ public class MongoDatabaseHandler extends SimpleChannelInboundHandler<ClientRequ
         } else if (object instanceof MongoUpdate) {
             MongoUpdate update = (MongoUpdate) object;
             mongoBackend.handleUpdate(update);
+        } else if (object instanceof MongoGetMore) {
+            MongoReply reply = handleGetMore((MongoGetMore) object);
+            reply.setCompressor(object.getCompressor());
+            ctx.channel().writeAndFlush(reply);
+        } else if (object instanceof MongoKillCursors) {
+            handleKillCursors((MongoKillCursors) object);
+        } else if (object instanceof MongoMessage) {
+            MongoMessage message = (MongoMessage) object;
+            MongoMessage response = handleMessage(message);
+            response.setCompressor(message.getCompressor());
+            if (!message.isMoreToCome()) {
+                ctx.channel().writeAndFlush(response);
+            }
         } else {
             throw new MongoServerException("unknown message: " + object);
         }
@@ -92,15 +226,27 @@ public class MongoDatabaseHandler extends SimpleChannelInboundHandler<ClientRequ
     protected MongoReply handleQuery(Channel channel, MongoQuery query) {
         MessageHeader header = new MessageHeader(idSequence.incrementAndGet(), query.getHeader().getRequestID());
         try {
-            List<Document> documents = new ArrayList<>();
             if (query.getCollectionName().startsWith("$cmd")) {
-                documents.add(handleCommand(channel, query));
-            } else {
-                for (Document obj : mongoBackend.handleQuery(query)) {
-                    documents.add(obj);
-                }
+                return new MongoReply(header, handleCommand(query));
             }
-            return new MongoReply(header, documents);
+
+            // a negative number or 1 requests a single batch and an immediately closed cursor
+            int numberToReturn = query.getNumberToReturn();
+            boolean singleBatch = numberToReturn < 0 || numberToReturn == 1;
+            int batchSize = Math.abs(numberToReturn);
+            if (batchSize == 0) {
+                batchSize = DEFAULT_FIRST_BATCH_SIZE;
+            }
+
+            Iterable<Document> documents = mongoBackend.handleQuery(query);
+            Cursor cursor = new Cursor(query.getFullCollectionName(), documents.iterator(), query.isNoCursorTimeout());
+            List<Document> firstBatch = cursor.nextBatch(batchSize, FIRST_BATCH_MAX_SIZE_BYTES);
+
+            long cursorId = 0;
+            if (!singleBatch && cursor.hasNext()) {
+                cursorId = cursorRegistry.add(cursor);
+            }
+            return new MongoReply(header, firstBatch, cursorId, 0);
         } catch (NoSuchCommandException e) {
             log.error("unknown command: {}", query, e);
             Map<String, ?> additionalInfo = Collections.singletonMap("bad cmd", query.getQuery());
@@ -116,6 +262,116 @@ public class MongoDatabaseHandler extends SimpleChannelInboundHandler<ClientRequ
         }
     }
 
+    /**
+     * Writes the reply of an exhaust query and then the following batches of
+     * its cursor, each in response to the previous reply, until the cursor is
+     * exhausted. The next batch is only fetched after the previous one was
+     * written and while the channel is writable, so that a slow client does
+     * not make the server buffer the whole result.
+     */
+    private void writeExhaustReply(ChannelHandlerContext ctx, MongoReply reply, int numberToReturn) {
+        long cursorId = reply.getCursorId();
+        ChannelFuture writeFuture = ctx.channel().writeAndFlush(reply);
+        if (cursorId == 0) {
+            return;
+        }
+        writeFuture.addListener(future -> {
+            if (!future.isSuccess()) {
+                log.debug("failed to write exhaust reply of cursor {}", Long.valueOf(cursorId), future.cause());
+                cursorRegistry.remove(cursorId);
+                return;
+            }
+            if (!ctx.channel().isActive()) {
+                // the channel was closed after the reply was written
+                cursorRegistry.remove(cursorId);
+                return;
+            }
+            Runnable nextBatch = () -> execute(ctx, () -> {
+                MessageHeader header = new MessageHeader(idSequence.incrementAndGet(), reply.getHeader().getRequestID());
+                MongoReply nextReply = getMoreReply(header, cursorId, numberToReturn);
+                nextReply.setCompressor(reply.getCompressor());
+                writeExhaustReply(ctx, nextReply, numberToReturn);
+            });
+            if (ctx.channel().isWritable()) {
+                nextBatch.run();
+            } else {
+                pendingExhaustBatch = new PendingExhaustBatch(cursorId, nextBatch);
+            }
+        });
+    }
+
+    /**
+     * The next batch of an exhaust cursor that waits for the channel to become
+     * writable again. The cursor is closed if the channel is closed before.
+     */
+    private static final class PendingExhaustBatch {
+
+        private final long cursorId;
+        private final Runnable batch;
+
+        private PendingExhaustBatch(long cursorId, Runnable batch) {
+            this.cursorId = cursorId;
+            this.batch = batch;
+        }
+
+    }
+
+    protected MongoReply handleGetMore(MongoGetMore getMore) {
+        MessageHeader header = new MessageHeader(idSequence.incrementAndGet(), getMore.getHeader().getRequestID());
+        return getMoreReply(header, getMore.getCursorId(), getMore.getNumberToReturn());
+    }
+
+    private MongoReply getMoreReply(MessageHeader header, long cursorId, int numberToReturn) {
+        Cursor cursor = cursorRegistry.get(cursorId);
+        if (cursor == null) {
+            log.info("cursor {} not found", Long.valueOf(cursorId));
+            return new MongoReply(header, Collections.<Document> emptyList(), ReplyFlag.CURSOR_NOT_FOUND);
+        }
+
+        try {
+            synchronized (cursor) {
+                int startingFrom = cursor.getPosition();
+                int batchSize = Math.abs(numberToReturn);
+                List<Document> documents = cursor.nextBatch(batchSize, BATCH_MAX_SIZE_BYTES);
+                if (!cursor.hasNext()) {
+                    cursorRegistry.remove(cursorId);
+                    cursorId = 0;
+                }
+                return new MongoReply(header, documents, cursorId, startingFrom);
+            }
+        } catch (MongoServerException e) {
+            log.error("failed to get more documents of cursor {}", Long.valueOf(cursorId), e);
+            cursorRegistry.remove(cursorId);
+            return queryFailure(header, e);
+        }
+    }
+
+    protected MongoMessage handleMessage(MongoMessage message) {
+        MessageHeader header = new MessageHeader(idSequence.incrementAndGet(), message.getHeader().getRequestID());
+        Document query = new Document(message.getDocument());
+        query.remove("$db");
+        query.remove("$readPreference");
+        String command = query.keySet().iterator().next();
+        Document response;
+        try {
+            response = handleCommand(message, command, query);
+        } catch (MongoServerException e) {
+            if (e instanceof MongoSilentServerException) {
+                log.debug("failed to handle {}", message, e);
+            } else {
+                log.error("failed to handle {}", message, e);
+            }
+            response = commandFailure(e);
+        }
+        return new MongoMessage(message.getChannel(), header, response);
+    }
+
+    private void handleKillCursors(MongoKillCursors killCursors) {
+        for (Long cursorId : killCursors.getCursorIds()) {
+            cursorRegistry.remove(cursorId.longValue());
+        }
+    }
+
     private MongoReply queryFailure(MessageHeader header, MongoServerException exception) {
         Map<String, ?> additionalInfo = Collections.emptyMap();
         return queryFailure(header, exception, additionalInfo);
@@ -135,30 +391,175 @@ public class MongoDatabaseHandler extends SimpleChannelInboundHandler<ClientRequ
         return new MongoReply(header, obj, ReplyFlag.QUERY_FAILURE);
     }
 
-    private Document handleCommand(Channel channel, MongoQuery query) throws MongoServerException {
+    private Document commandFailure(MongoServerException exception) {
+        Document obj = new Document();
+        obj.put("ok", Integer.valueOf(0));
+        obj.put("errmsg", exception.getMessage());
+        if (exception instanceof MongoServerError) {
+            MongoServerError error = (MongoServerError) exception;
+            obj.put("code", Integer.valueOf(error.getCode()));
+            obj.putIfNotNull("codeName", error.getCodeName());
+        }
+        return obj;
+    }
+
+    private Document handleCommand(MongoQuery query) throws MongoServerException {
         String collectionName = query.getCollectionName();
-        if (collectionName.equals("$cmd.sys.inprog")) {
-            Collection<Document> currentOperations = mongoBackend.getCurrentOperations(query);
-            return new Document("inprog", currentOperations);
+        if (collectionName.equals(CURRENT_OPERATIONS_COLLECTION)) {
+            return currentOperations(query);
         }
 
         if (collectionName.equals("$cmd")) {
             String command = query.getQuery().keySet().iterator().next();
-            switch (command) {
-                case "serverStatus":
-                    return getServerStatus();
-                case "ping":
-                    Document response = new Document();
-                    Utils.markOkay(response);
-                    return response;
-                default:
-                    return mongoBackend.handleCommand(channel, query.getDatabaseName(), command, query.getQuery());
-            }
+            return handleCommand(query, command, query.getQuery());
         }
 
         throw new MongoServerException("unknown collection: " + collectionName);
     }
 
+    private Document handleCommand(ClientRequest request, String command, Document query) throws MongoServerException {
+        if (command.equalsIgnoreCase("ismaster")) {
+            return handleIsMaster(request, command, query);
+        }
+        switch (command) {
+            case "serverStatus":
+                return getServerStatus();
+            case "ping":
+                Document response = new Document();
+                Utils.markOkay(response);
+                return response;
+            case "find":
+                return commandFind(request, query);
+            case "getMore":
+                return commandGetMore(request, query);
+            case "killCursors":
+                return commandKillCursors(query);
+            default:
+                return mongoBackend.handleCommand(request.getChannel(), request.getDatabaseName(), command, query);
+        }
+    }
+
+    private Document handleIsMaster(ClientRequest request, String command, Document query) throws MongoServerException {
+        Document response = mongoBackend.handleCommand(request.getChannel(), request.getDatabaseName(), command, query);
+        Object requestedCompressors = query.get("compression");
+        if (requestedCompressors instanceof Collection) {
+            List<String> compressors = compressorRegistry.negotiate((Collection<?>) requestedCompressors);
+            if (!compressors.isEmpty()) {
+                response.put("compression", compressors);
+            }
+        }
+        return response;
+    }
+
+    private Document commandFind(ClientRequest request, Document query) throws MongoServerException {
+        String fullCollectionName = request.getDatabaseName() + "." + query.get("find");
+
+        Document filter = (Document) query.get("filter");
+        Document queryObject = new Document("$query", filter != null ? filter : new Document());
+        queryObject.putIfNotNull("$orderby", query.get("sort"));
+
+        int numberToSkip = getIntValue(query, "skip", 0);
+        int limit = getIntValue(query, "limit", 0);
+        int batchSize = getIntValue(query, "batchSize", DEFAULT_FIRST_BATCH_SIZE);
+        boolean singleBatch = Utils.isTrue(query.get("singleBatch")) || limit < 0;
+
+        // a negative number to return is a hard limit for the backend
+        MongoQuery mongoQuery = new MongoQuery(request.getChannel(), request.getHeader(), fullCollectionName,
+                numberToSkip, -Math.abs(limit), queryObject, (Document) query.get("projection"));
+        mongoQuery.setNoCursorTimeout(Utils.isTrue(query.get("noCursorTimeout")));
+
+        Iterable<Document> documents;
+        if (mongoQuery.getCollectionName().equals(CURRENT_OPERATIONS_COLLECTION)) {
+            // drivers that use the find command also query the current operations with it
+            documents = Collections.singletonList(currentOperations(mongoQuery));
+        } else {
+            documents = mongoBackend.handleQuery(mongoQuery);
+        }
+        Cursor cursor = new Cursor(fullCollectionName, documents.iterator(), mongoQuery.isNoCursorTimeout());
+
+        if (batchSize == 0) {
+            // like mongod, only open the cursor and leave fetching the documents to getMore
+            long cursorId = singleBatch ? 0 : cursorRegistry.add(cursor);
+            return cursorResponse(cursorId, fullCollectionName, "firstBatch", Collections.emptyList());
+        }
+
+        List<Document> firstBatch = cursor.nextBatch(batchSize, FIRST_BATCH_MAX_SIZE_BYTES);
+
+        long cursorId = 0;
+        if (!singleBatch && cursor.hasNext()) {
+            cursorId = cursorRegistry.add(cursor);
+        }
+        return cursorResponse(cursorId, fullCollectionName, "firstBatch", firstBatch);
+    }
+
+    private Document currentOperations(MongoQuery query) {
+        Collection<Document> currentOperations = mongoBackend.getCurrentOperations(query);
+        return new Document("inprog", currentOperations);
+    }
+
+    private Document commandGetMore(ClientRequest request, Document query) throws MongoServerException {
+        long cursorId = ((Number) query.get("getMore")).longValue();
+        Cursor cursor = cursorRegistry.get(cursorId);
+        if (cursor == null) {
+            throw new MongoServerError(43, "CursorNotFound", "Cursor not found, cursor id: " + cursorId);
+        }
+
+        synchronized (cursor) {
+            int batchSize = getIntValue(query, "batchSize", 0);
+            List<Document> nextBatch;
+            try {
+                nextBatch = cursor.nextBatch(batchSize, BATCH_MAX_SIZE_BYTES);
+            } catch (MongoServerException e) {
+                cursorRegistry.remove(cursorId);
+                throw e;
+            }
+            if (!cursor.hasNext()) {
+                cursorRegistry.remove(cursorId);
+                cursorId = 0;
+            }
+            return cursorResponse(cursorId, cursor.getFullCollectionName(), "nextBatch", nextBatch);
+        }
+    }
+
+    private Document commandKillCursors(Document query) {
+        List<Long> cursorsKilled = new ArrayList<>();
+        List<Long> cursorsNotFound = new ArrayList<>();
+        for (Object cursorId : (Collection<?>) query.get("cursors")) {
+            Long id = Long.valueOf(((Number) cursorId).longValue());
+            if (cursorRegistry.remove(id.longValue())) {
+                cursorsKilled.add(id);
+            } else {
+                cursorsNotFound.add(id);
+            }
+        }
+        Document response = new Document();
+        response.put("cursorsKilled", cursorsKilled);
+        response.put("cursorsNotFound", cursorsNotFound);
+        response.put("cursorsAlive", Collections.emptyList());
+        response.put("cursorsUnknown", Collections.emptyList());
+        Utils.markOkay(response);
+        return response;
+    }
+
+    private static Document cursorResponse(long cursorId, String fullCollectionName, String batchName,
+            List<Document> batch) {
+        Document cursor = new Document();
+        cursor.put("id", Long.valueOf(cursorId));
+        cursor.put("ns", fullCollectionName);
+        cursor.put(batchName, batch);
+        Document response = new Document("cursor", cursor);
+        Utils.markOkay(response);
+        return response;
+    }
+
+    private static int getIntValue(Document query, String key, int defaultValue) {
+        Object value = query.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        return ((Number) value).intValue();
+    }
+
     private Document getServerStatus() throws MongoServerException {
         Document serverStatus = new Document();
         try {
@@ -180,7 +581,8 @@ public class MongoDatabaseHandler extends SimpleChannelInboundHandler<ClientRequ
         serverStatus.put("connections", connections);
 
         Document cursors = new Document();
-        cursors.put("totalOpen", Integer.valueOf(0)); // TODO
+        cursors.put("totalOpen", Integer.valueOf(cursorRegistry.size()));
+        cursors.put("timedOut", Long.valueOf(cursorRegistry.getTimedOutCount()));
 
         serverStatus.put("cursors", cursors);
 
@@ -196,4 +598,9 @@ public class MongoDatabaseHandler extends SimpleChannelInboundHandler<ClientRequ
         }
         return Integer.valueOf(0);
     }
+
+    @FunctionalInterface
+    private interface RequestTask {
+        void run() throws MongoServerException;
+    }
 }
@@ -8,20 +8,33 @@ import org.slf4j.LoggerFactory;
 import de.bwaldvogel.mongo.bson.Document;
 import de.bwaldvogel.mongo.wire.message.MongoReply;
 import io.netty.buffer.ByteBuf;
-import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
 
-public class MongoWireEncoder extends MessageToByteEncoder<MongoReply> {
+public class MongoWireEncoder extends AbstractReplyEncoder<MongoReply> {
 
     private static final Logger log = LoggerFactory.getLogger(MongoWireEncoder.class);
 
-    private final BsonEncoder bsonEncoder = new BsonEncoder();
+    // message header, flags, cursor id, starting from and number returned
+    private static final int HEADER_SIZE = 36;
 
-    @Override
-    protected void encode(ChannelHandlerContext ctx, MongoReply reply, ByteBuf buf) throws Exception {
+    public MongoWireEncoder() {
+        this(new CompressorRegistry());
+    }
 
-        buf.writeIntLE(0); // write length later
+    public MongoWireEncoder(CompressorRegistry compressorRegistry) {
+        super(MongoReply.class, compressorRegistry);
+    }
+
+    @Override
+    protected int calculateSize(MongoReply reply) {
+        int size = HEADER_SIZE;
+        for (Document document : reply.getDocuments()) {
+            size += bsonEncoder.calculateSize(document);
+        }
+        return size;
+    }
 
+    @Override
+    protected void encode(MongoReply reply, ByteBuf buf) throws Exception {
         buf.writeIntLE(reply.getHeader().getRequestID());
         buf.writeIntLE(reply.getHeader().getResponseTo());
         buf.writeIntLE(OpCode.OP_REPLY.getId());
@@ -37,9 +50,10 @@ public class MongoWireEncoder extends MessageToByteEncoder<MongoReply> {
         }
 
         log.debug("wrote reply: {}", reply);
+    }
 
-        // now set the length
-        final int writerIndex = buf.writerIndex();
-        buf.setIntLE(0, writerIndex);
+    @Override
+    protected Compressor getCompressor(MongoReply reply) {
+        return reply.getCompressor();
     }
 }
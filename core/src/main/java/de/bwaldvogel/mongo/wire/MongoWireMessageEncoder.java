@@ -0,0 +1,46 @@
+package de.bwaldvogel.mongo.wire;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.bwaldvogel.mongo.wire.message.MongoMessage;
+import io.netty.buffer.ByteBuf;
+
+public class MongoWireMessageEncoder extends AbstractReplyEncoder<MongoMessage> {
+
+    private static final Logger log = LoggerFactory.getLogger(MongoWireMessageEncoder.class);
+
+    // message header, flags and section kind
+    private static final int HEADER_SIZE = 21;
+
+    public MongoWireMessageEncoder() {
+        this(new CompressorRegistry());
+    }
+
+    public MongoWireMessageEncoder(CompressorRegistry compressorRegistry) {
+        super(MongoMessage.class, compressorRegistry);
+    }
+
+    @Override
+    protected int calculateSize(MongoMessage message) {
+        return HEADER_SIZE + bsonEncoder.calculateSize(message.getDocument());
+    }
+
+    @Override
+    protected void encode(MongoMessage message, ByteBuf buf) throws Exception {
+        buf.writeIntLE(message.getHeader().getRequestID());
+        buf.writeIntLE(message.getHeader().getResponseTo());
+        buf.writeIntLE(OpCode.OP_MSG.getId());
+
+        buf.writeIntLE(message.getFlags());
+        buf.writeByte(MongoWireProtocolHandler.SECTION_KIND_BODY);
+        bsonEncoder.encodeDocument(message.getDocument(), buf);
+
+        log.debug("wrote message: {}", message);
+    }
+
+    @Override
+    protected Compressor getCompressor(MongoMessage message) {
+        return message.getCompressor();
+    }
+}
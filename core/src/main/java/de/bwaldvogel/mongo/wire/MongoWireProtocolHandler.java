@@ -11,7 +11,10 @@ import de.bwaldvogel.mongo.bson.Document;
 import de.bwaldvogel.mongo.wire.message.ClientRequest;
 import de.bwaldvogel.mongo.wire.message.MessageHeader;
 import de.bwaldvogel.mongo.wire.message.MongoDelete;
+import de.bwaldvogel.mongo.wire.message.MongoGetMore;
 import de.bwaldvogel.mongo.wire.message.MongoInsert;
+import de.bwaldvogel.mongo.wire.message.MongoKillCursors;
+import de.bwaldvogel.mongo.wire.message.MongoMessage;
 import de.bwaldvogel.mongo.wire.message.MongoQuery;
 import de.bwaldvogel.mongo.wire.message.MongoUpdate;
 import io.netty.buffer.ByteBuf;
@@ -27,12 +30,18 @@ public class MongoWireProtocolHandler extends LengthFieldBasedFrameDecoder {
 
     public static final int MAX_MESSAGE_SIZE_BYTES = 48 * 1000 * 1000;
 
-    public static final int MAX_WIRE_VERSION = 2;
+    public static final int MAX_WIRE_VERSION = 6;
 
     public static final int MIN_WIRE_VERSION = 0;
 
     public static final int MAX_WRITE_BATCH_SIZE = 1000;
 
+    static final int SECTION_KIND_BODY = 0;
+
+    static final int SECTION_KIND_DOCUMENT_SEQUENCE = 1;
+
+    private static final int CHECKSUM_LENGTH = 4;
+
     private static final Logger log = LoggerFactory.getLogger(MongoWireProtocolHandler.class);
 
     private static final int maxFrameLength = Integer.MAX_VALUE;
@@ -42,10 +51,16 @@ public class MongoWireProtocolHandler extends LengthFieldBasedFrameDecoder {
     private static final int initialBytesToStrip = 0;
 
     private final BsonDecoder bsonDecoder;
+    private final CompressorRegistry compressorRegistry;
 
     public MongoWireProtocolHandler() {
+        this(new CompressorRegistry());
+    }
+
+    public MongoWireProtocolHandler(CompressorRegistry compressorRegistry) {
         super(maxFrameLength, lengthFieldOffset, lengthFieldLength, lengthAdjustment, initialBytesToStrip);
         bsonDecoder = new BsonDecoder();
+        this.compressorRegistry = compressorRegistry;
     }
 
     @Override
@@ -79,12 +94,46 @@ public class MongoWireProtocolHandler extends LengthFieldBasedFrameDecoder {
         final MessageHeader header = new MessageHeader(requestID, responseTo);
 
         int opCodeId = in.readIntLE();
+        OpCode opCode = getOpCode(opCodeId);
+
+        final Channel channel = ctx.channel();
+
+        if (opCode != OpCode.OP_COMPRESSED) {
+            return decodeRequest(channel, header, opCode, in);
+        }
+
+        opCode = getOpCode(in.readIntLE());
+        final int uncompressedSize = in.readIntLE();
+        final byte compressorId = in.readByte();
+        final Compressor compressor = compressorRegistry.get(compressorId);
+        if (compressor == null) {
+            throw new IOException("compressor " + compressorId + " not supported");
+        }
+        if (uncompressedSize < 0 || uncompressedSize > MAX_MESSAGE_SIZE_BYTES) {
+            throw new IOException("illegal uncompressed size: " + uncompressedSize);
+        }
+
+        ByteBuf uncompressed = ctx.alloc().buffer(uncompressedSize);
+        try {
+            compressor.decompress(in, uncompressed, uncompressedSize);
+            ClientRequest request = decodeRequest(channel, header, opCode, uncompressed);
+            request.setCompressor(compressor);
+            return request;
+        } finally {
+            uncompressed.release();
+        }
+    }
+
+    private static OpCode getOpCode(int opCodeId) throws IOException {
         final OpCode opCode = OpCode.getById(opCodeId);
         if (opCode == null) {
             throw new IOException("opCode " + opCodeId + " not supported");
         }
+        return opCode;
+    }
 
-        final Channel channel = ctx.channel();
+    private ClientRequest decodeRequest(Channel channel, MessageHeader header, OpCode opCode, ByteBuf in)
+            throws IOException {
         final ClientRequest ret;
 
         switch (opCode) {
@@ -100,6 +149,15 @@ public class MongoWireProtocolHandler extends LengthFieldBasedFrameDecoder {
         case OP_UPDATE:
             ret = handleUpdate(channel, header, in);
             break;
+        case OP_GET_MORE:
+            ret = handleGetMore(channel, header, in);
+            break;
+        case OP_KILL_CURSORS:
+            ret = handleKillCursors(channel, header, in);
+            break;
+        case OP_MSG:
+            ret = handleMessage(channel, header, in);
+            break;
         default:
             throw new UnsupportedOperationException("unsupported opcode: " + opCode);
         }
@@ -159,7 +217,7 @@ public class MongoWireProtocolHandler extends LengthFieldBasedFrameDecoder {
 
         List<Document> documents = new ArrayList<>();
         while (buffer.isReadable()) {
-            Document document = bsonDecoder.decodeBson(buffer);
+            Document document = bsonDecoder.decodeRawBson(buffer);
             if (document == null) {
                 return null;
             }
@@ -191,9 +249,15 @@ public class MongoWireProtocolHandler extends LengthFieldBasedFrameDecoder {
         }
 
         if (QueryFlag.NO_CURSOR_TIMEOUT.isSet(flags)) {
+            mongoQuery.setNoCursorTimeout(true);
             flags = QueryFlag.NO_CURSOR_TIMEOUT.removeFrom(flags);
         }
 
+        if (QueryFlag.EXHAUST.isSet(flags)) {
+            mongoQuery.setExhaust(true);
+            flags = QueryFlag.EXHAUST.removeFrom(flags);
+        }
+
         if (flags != 0) {
             throw new UnsupportedOperationException("flags=" + flags + " not yet supported");
         }
@@ -203,4 +267,92 @@ public class MongoWireProtocolHandler extends LengthFieldBasedFrameDecoder {
         return mongoQuery;
     }
 
+    private ClientRequest handleGetMore(Channel channel, MessageHeader header, ByteBuf buffer) throws IOException {
+
+        buffer.skipBytes(4); // reserved
+
+        final String fullCollectionName = bsonDecoder.decodeCString(buffer);
+        final int numberToReturn = buffer.readIntLE();
+        final long cursorId = buffer.readLongLE();
+
+        log.debug("getMore {} from cursor {} of {}", numberToReturn, cursorId, fullCollectionName);
+        return new MongoGetMore(channel, header, fullCollectionName, numberToReturn, cursorId);
+    }
+
+    private ClientRequest handleKillCursors(Channel channel, MessageHeader header, ByteBuf buffer) throws IOException {
+
+        buffer.skipBytes(4); // reserved
+
+        final int numberOfCursorIds = buffer.readIntLE();
+        if (numberOfCursorIds < 0 || buffer.readableBytes() != numberOfCursorIds * 8L) {
+            throw new IOException("illegal number of cursor ids: " + numberOfCursorIds);
+        }
+
+        List<Long> cursorIds = new ArrayList<>();
+        for (int i = 0; i < numberOfCursorIds; i++) {
+            cursorIds.add(Long.valueOf(buffer.readLongLE()));
+        }
+        log.debug("killCursors {}", cursorIds);
+        return new MongoKillCursors(channel, header, cursorIds);
+    }
+
+    private ClientRequest handleMessage(Channel channel, MessageHeader header, ByteBuf buffer) throws IOException {
+
+        int flags = buffer.readIntLE();
+
+        int checksumLength = 0;
+        if (MessageFlag.CHECKSUM_PRESENT.isSet(flags)) {
+            checksumLength = CHECKSUM_LENGTH;
+            flags = MessageFlag.CHECKSUM_PRESENT.removeFrom(flags);
+        }
+
+        List<MessageFlag> messageFlags = new ArrayList<>();
+        for (MessageFlag messageFlag : new MessageFlag[] { MessageFlag.MORE_TO_COME, MessageFlag.EXHAUST_ALLOWED }) {
+            if (messageFlag.isSet(flags)) {
+                messageFlags.add(messageFlag);
+                flags = messageFlag.removeFrom(flags);
+            }
+        }
+
+        if (flags != 0) {
+            throw new UnsupportedOperationException("flags=" + flags + " not yet supported");
+        }
+
+        Document body = null;
+        Document sequences = new Document();
+        while (buffer.readableBytes() > checksumLength) {
+            int sectionKind = buffer.readByte();
+            switch (sectionKind) {
+            case SECTION_KIND_BODY:
+                if (body != null) {
+                    throw new IOException("OP_MSG contains more than one body section");
+                }
+                body = bsonDecoder.decodeBson(buffer);
+                break;
+            case SECTION_KIND_DOCUMENT_SEQUENCE:
+                ByteBuf section = buffer.readSlice(buffer.readIntLE() - 4);
+                String identifier = bsonDecoder.decodeCString(section);
+                List<Document> documents = new ArrayList<>();
+                while (section.isReadable()) {
+                    documents.add(bsonDecoder.decodeRawBson(section));
+                }
+                sequences.put(identifier, documents);
+                break;
+            default:
+                throw new IOException("unsupported OP_MSG section kind: " + sectionKind);
+            }
+        }
+
+        // verifying the CRC-32C checksum is optional for receivers
+        buffer.skipBytes(checksumLength);
+
+        if (body == null) {
+            throw new IOException("OP_MSG without body section");
+        }
+        body.putAll(sequences);
+
+        log.debug("message {} with flags {}", body, messageFlags);
+        return new MongoMessage(channel, header, body, messageFlags.toArray(new MessageFlag[0]));
+    }
+
 }
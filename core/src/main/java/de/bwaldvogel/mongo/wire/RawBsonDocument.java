@@ -0,0 +1,483 @@
+package de.bwaldvogel.mongo.wire;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import de.bwaldvogel.mongo.bson.Document;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * A document that keeps the BSON bytes it was decoded from. The fields are
+ * only decoded on the first access and embedded documents are again decoded
+ * lazily. As long as neither the document nor one of its embedded documents
+ * or arrays is modified, the {@link BsonEncoder} writes the original bytes
+ * back, so that a document that is inserted and queried without being
+ * inspected is never decoded and never encoded again.
+ *
+ * Embedded documents share the byte array of their parent and single fields
+ * with a scalar value, such as the {@code _id} that the index of a
+ * collection looks up on insert, are read from the bytes without decoding
+ * the whole document.
+ */
+final class RawBsonDocument extends Document {
+
+    private static final long serialVersionUID = 1L;
+
+    private final RawBsonDocument parent;
+
+    private volatile byte[] bytes;
+
+    private final int offset;
+
+    private final int length;
+
+    private volatile boolean decoded;
+
+    /**
+     * @param bytes
+     *            the array that contains the encoded document, including the
+     *            length and the terminating byte
+     * @param offset
+     *            the index of the document in the array
+     * @param length
+     *            the length of the encoded document
+     * @param parent
+     *            the document whose bytes contain this document or null
+     */
+    RawBsonDocument(byte[] bytes, int offset, int length, RawBsonDocument parent) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        this.parent = parent;
+    }
+
+    /**
+     * @return a copy of the encoded document or null if it was modified
+     */
+    // default visibility for unit test
+    byte[] getBytes() {
+        byte[] bytes = this.bytes;
+        if (bytes == null) {
+            return null;
+        }
+        return Arrays.copyOfRange(bytes, offset, offset + length);
+    }
+
+    /**
+     * @return the length of the encoded document or -1 if it was modified
+     */
+    int getEncodedLength() {
+        return bytes != null ? length : -1;
+    }
+
+    /**
+     * @return false if the document was modified and thus has no bytes
+     */
+    boolean writeBytes(ByteBuf out) {
+        byte[] bytes = this.bytes;
+        if (bytes == null) {
+            return false;
+        }
+        out.writeBytes(bytes, offset, length);
+        return true;
+    }
+
+    // default visibility for unit test
+    boolean isDecoded() {
+        return decoded;
+    }
+
+    private ByteBuf wrapBytes() {
+        return Unpooled.wrappedBuffer(bytes, offset, length);
+    }
+
+    private void decode() {
+        if (decoded) {
+            return;
+        }
+        synchronized (this) {
+            if (decoded) {
+                return;
+            }
+            try {
+                new BsonDecoder().decodeFields(wrapBytes(), this);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Failed to decode BSON document", e);
+            }
+            decoded = true;
+        }
+    }
+
+    /**
+     * Reads a single field from the bytes as long as the document is not
+     * decoded. The bytes stay untouched until the document is modified, which
+     * decodes it first.
+     *
+     * @return the value, {@link BsonDecoder#MISSING_FIELD} or
+     *         {@link BsonDecoder#NESTED_FIELD} if the value is an embedded
+     *         document or array that must be decoded with its parent
+     */
+    private Object lookUp(Object key) {
+        if (decoded || !(key instanceof String)) {
+            return BsonDecoder.NESTED_FIELD;
+        }
+        try {
+            return new BsonDecoder().decodeScalarField(wrapBytes(), (String) key);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to decode BSON document", e);
+        }
+    }
+
+    void putDecoded(String key, Object value) {
+        super.put(key, value);
+    }
+
+    /**
+     * Drops the bytes of this document and of all documents that contain it
+     * before it is modified.
+     */
+    private void modify() {
+        decode();
+        invalidate();
+    }
+
+    private void invalidate() {
+        if (bytes != null) {
+            bytes = null;
+            if (parent != null) {
+                parent.invalidate();
+            }
+        }
+    }
+
+    /**
+     * Wraps the list of a decoded array, so that modifications of the array
+     * also drop the bytes of this document.
+     */
+    List<Object> wrapArray(List<Object> array) {
+        return new ArrayView(array, this);
+    }
+
+    /**
+     * Serializes the document as a plain {@link Document} that is built like
+     * a decoded document, so that both have the same serialized form.
+     */
+    private Object writeReplace() {
+        Document document = new Document();
+        for (Entry<String, Object> entry : entrySet()) {
+            document.put(entry.getKey(), entry.getValue());
+        }
+        return document;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        decode();
+        return super.containsValue(value);
+    }
+
+    @Override
+    public Object get(Object key) {
+        Object value = lookUp(key);
+        if (value == BsonDecoder.MISSING_FIELD) {
+            return null;
+        } else if (value != BsonDecoder.NESTED_FIELD) {
+            return value;
+        }
+        decode();
+        return super.get(key);
+    }
+
+    @Override
+    public void clear() {
+        modify();
+        super.clear();
+    }
+
+    @Override
+    public int size() {
+        decode();
+        return super.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        decode();
+        return super.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        Object value = lookUp(key);
+        if (value == BsonDecoder.MISSING_FIELD) {
+            return false;
+        } else if (value != BsonDecoder.NESTED_FIELD) {
+            return true;
+        }
+        decode();
+        return super.containsKey(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        modify();
+        return super.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ?> m) {
+        modify();
+        super.putAll(m);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        modify();
+        return super.remove(key);
+    }
+
+    @Override
+    public Object clone() {
+        decode();
+        return super.clone();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        decode();
+        if (bytes == null) {
+            return super.keySet();
+        }
+        return new SetView<>(super.keySet());
+    }
+
+    @Override
+    public Collection<Object> values() {
+        decode();
+        if (bytes == null) {
+            return super.values();
+        }
+        return new CollectionView<>(super.values());
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        decode();
+        if (bytes == null) {
+            return super.entrySet();
+        }
+        return new EntrySetView(super.entrySet());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        decode();
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        decode();
+        return super.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        decode();
+        return super.toString();
+    }
+
+    private class IteratorView<E> implements Iterator<E> {
+
+        private final Iterator<E> iterator;
+
+        IteratorView(Iterator<E> iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public E next() {
+            return iterator.next();
+        }
+
+        @Override
+        public void remove() {
+            invalidate();
+            iterator.remove();
+        }
+
+    }
+
+    private class CollectionView<E> extends AbstractCollection<E> {
+
+        private final Collection<E> collection;
+
+        CollectionView(Collection<E> collection) {
+            this.collection = collection;
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return new IteratorView<>(collection.iterator());
+        }
+
+        @Override
+        public int size() {
+            return collection.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return collection.contains(o);
+        }
+
+    }
+
+    private class SetView<E> extends AbstractSet<E> {
+
+        private final Set<E> set;
+
+        SetView(Set<E> set) {
+            this.set = set;
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return new IteratorView<>(set.iterator());
+        }
+
+        @Override
+        public int size() {
+            return set.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return set.contains(o);
+        }
+
+    }
+
+    private class EntrySetView extends SetView<Entry<String, Object>> {
+
+        EntrySetView(Set<Entry<String, Object>> entrySet) {
+            super(entrySet);
+        }
+
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+            return new IteratorView<Entry<String, Object>>(super.iterator()) {
+                @Override
+                public Entry<String, Object> next() {
+                    return new EntryView(super.next());
+                }
+            };
+        }
+
+    }
+
+    private class EntryView implements Entry<String, Object> {
+
+        private final Entry<String, Object> entry;
+
+        EntryView(Entry<String, Object> entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public String getKey() {
+            return entry.getKey();
+        }
+
+        @Override
+        public Object getValue() {
+            return entry.getValue();
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            invalidate();
+            return entry.setValue(value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return entry.equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            return entry.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return entry.toString();
+        }
+
+    }
+
+    private static class ArrayView extends AbstractList<Object> implements RandomAccess, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Object> array;
+        private final RawBsonDocument owner;
+
+        ArrayView(List<Object> array, RawBsonDocument owner) {
+            this.array = array;
+            this.owner = owner;
+        }
+
+        private Object writeReplace() {
+            return new ArrayList<>(array);
+        }
+
+        @Override
+        public Object get(int index) {
+            return array.get(index);
+        }
+
+        @Override
+        public int size() {
+            return array.size();
+        }
+
+        @Override
+        public Object set(int index, Object element) {
+            owner.invalidate();
+            return array.set(index, element);
+        }
+
+        @Override
+        public void add(int index, Object element) {
+            owner.invalidate();
+            array.add(index, element);
+        }
+
+        @Override
+        public Object remove(int index) {
+            owner.invalidate();
+            return array.remove(index);
+        }
+
+    }
+
+}
@@ -0,0 +1,45 @@
+package de.bwaldvogel.mongo.wire;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+/**
+ * Allocates the buffers of encoded replies with the size that was calculated
+ * up front, so that the encoders never have to grow and copy them.
+ */
+final class ReplyBufferAllocator {
+
+    /**
+     * Replies of at least this size are put together from several smaller
+     * buffers. A single buffer of this size does not fit into a chunk of the
+     * pooled allocator (16 MiB by default) and would thus be allocated
+     * unpooled.
+     */
+    static final int COMPOSITE_BUFFER_THRESHOLD = PooledByteBufAllocator.defaultPageSize() << PooledByteBufAllocator.defaultMaxOrder();
+
+    static final int COMPONENT_SIZE = 1024 * 1024;
+
+    private ReplyBufferAllocator() {
+    }
+
+    static ByteBuf allocate(ByteBufAllocator allocator, int size) {
+        if (size < COMPOSITE_BUFFER_THRESHOLD) {
+            return allocator.ioBuffer(size);
+        }
+        int numComponents = (size + COMPONENT_SIZE - 1) / COMPONENT_SIZE;
+        CompositeByteBuf buffer = allocator.compositeDirectBuffer(numComponents);
+        try {
+            // every increase of the capacity adds a new component
+            while (buffer.capacity() < size) {
+                buffer.capacity(Math.min(buffer.capacity() + COMPONENT_SIZE, size));
+            }
+        } catch (RuntimeException e) {
+            buffer.release();
+            throw e;
+        }
+        return buffer;
+    }
+
+}
@@ -0,0 +1,57 @@
+package de.bwaldvogel.mongo.wire;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Runs the submitted tasks one after another, in submission order, on an
+ * underlying executor. Used to keep the requests of one connection ordered
+ * while they are handled off the event loop.
+ */
+class SerialExecutor implements Executor {
+
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private final Executor executor;
+    private final Consumer<RuntimeException> rejectionHandler;
+    private Runnable active;
+
+    /**
+     * @param rejectionHandler
+     *            called if the underlying executor rejects a task. All pending
+     *            tasks are dropped in this case.
+     */
+    SerialExecutor(Executor executor, Consumer<RuntimeException> rejectionHandler) {
+        this.executor = executor;
+        this.rejectionHandler = rejectionHandler;
+    }
+
+    @Override
+    public synchronized void execute(Runnable task) {
+        tasks.add(() -> {
+            try {
+                task.run();
+            } finally {
+                scheduleNext();
+            }
+        });
+        if (active == null) {
+            scheduleNext();
+        }
+    }
+
+    private synchronized void scheduleNext() {
+        active = tasks.poll();
+        if (active != null) {
+            try {
+                executor.execute(active);
+            } catch (RuntimeException e) {
+                active = null;
+                tasks.clear();
+                rejectionHandler.accept(e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+package de.bwaldvogel.mongo.wire;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.compression.Snappy;
+
+/**
+ * Uses the pure Java Snappy implementation of Netty, which reads and writes
+ * the raw (unframed) Snappy format that MongoDB expects.
+ */
+public class SnappyCompressor implements Compressor {
+
+    private static final int MAX_BLOCK_SIZE = Short.MAX_VALUE;
+
+    @Override
+    public String getName() {
+        return "snappy";
+    }
+
+    @Override
+    public byte getId() {
+        return 1;
+    }
+
+    @Override
+    public void compress(ByteBuf source, ByteBuf target) {
+        writeVarInt(source.readableBytes(), target);
+        Snappy snappy = new Snappy();
+        ByteBuf block = source.alloc().heapBuffer();
+        try {
+            // Netty only encodes blocks of up to 32 KiB. The elements of
+            // independently encoded blocks can simply be concatenated.
+            while (source.isReadable()) {
+                int length = Math.min(source.readableBytes(), MAX_BLOCK_SIZE);
+                block.clear();
+                snappy.reset();
+                snappy.encode(source.readSlice(length), block, length);
+                skipVarInt(block);
+                target.writeBytes(block);
+            }
+        } finally {
+            block.release();
+        }
+    }
+
+    private static void writeVarInt(int value, ByteBuf target) {
+        while ((value & ~0x7F) != 0) {
+            target.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        target.writeByte(value);
+    }
+
+    private static void skipVarInt(ByteBuf buffer) {
+        while ((buffer.readByte() & 0x80) != 0) {
+            // skip
+        }
+    }
+
+    @Override
+    public void decompress(ByteBuf source, ByteBuf target, int uncompressedSize) throws IOException {
+        int writerIndex = target.writerIndex();
+        try {
+            new Snappy().decode(source, target);
+        } catch (DecoderException e) {
+            throw new IOException("failed to decompress message", e);
+        }
+        if (target.writerIndex() - writerIndex != uncompressedSize) {
+            throw new IOException("illegal uncompressed size: expected " + uncompressedSize);
+        }
+    }
+
+}
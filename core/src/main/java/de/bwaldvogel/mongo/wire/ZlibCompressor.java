@@ -0,0 +1,74 @@
+package de.bwaldvogel.mongo.wire;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+public class ZlibCompressor implements Compressor {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final int level;
+
+    public ZlibCompressor() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public ZlibCompressor(int level) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Illegal compression level: " + level);
+        }
+        this.level = level;
+    }
+
+    @Override
+    public String getName() {
+        return "zlib";
+    }
+
+    @Override
+    public byte getId() {
+        return 2;
+    }
+
+    @Override
+    public void compress(ByteBuf source, ByteBuf target) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(ByteBufUtil.getBytes(source));
+            source.skipBytes(source.readableBytes());
+            deflater.finish();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                target.writeBytes(buffer, 0, length);
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public void decompress(ByteBuf source, ByteBuf target, int uncompressedSize) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(ByteBufUtil.getBytes(source));
+            source.skipBytes(source.readableBytes());
+            byte[] uncompressed = new byte[uncompressedSize];
+            int length = inflater.inflate(uncompressed);
+            if (length != uncompressedSize || !inflater.finished()) {
+                throw new IOException("illegal uncompressed size: expected " + uncompressedSize);
+            }
+            target.writeBytes(uncompressed);
+        } catch (DataFormatException e) {
+            throw new IOException("failed to decompress message", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+}
@@ -1,6 +1,7 @@
 package de.bwaldvogel.mongo.wire.message;
 
 import de.bwaldvogel.mongo.backend.Utils;
+import de.bwaldvogel.mongo.wire.Compressor;
 import io.netty.channel.Channel;
 
 public abstract class ClientRequest implements Message {
@@ -8,6 +9,7 @@ public abstract class ClientRequest implements Message {
     private final MessageHeader header;
     private final String fullCollectionName;
     private Channel channel;
+    private Compressor compressor;
 
     public ClientRequest(Channel channel, MessageHeader header, String fullCollectionName) {
         this.channel = channel;
@@ -23,6 +25,18 @@ public abstract class ClientRequest implements Message {
         return header;
     }
 
+    /**
+     * @return the compressor of the OP_COMPRESSED that wrapped this request or
+     *         {@code null} if the request was not compressed
+     */
+    public Compressor getCompressor() {
+        return compressor;
+    }
+
+    public void setCompressor(Compressor compressor) {
+        this.compressor = compressor;
+    }
+
     @Override
     public String getDatabaseName() {
         return Utils.getDatabaseNameFromFullName(fullCollectionName);
@@ -0,0 +1,37 @@
+package de.bwaldvogel.mongo.wire.message;
+
+import io.netty.channel.Channel;
+
+public class MongoGetMore extends ClientRequest {
+
+    private final int numberToReturn;
+    private final long cursorId;
+
+    public MongoGetMore(Channel channel, MessageHeader header, String fullCollectionName, int numberToReturn,
+            long cursorId) {
+        super(channel, header, fullCollectionName);
+        this.numberToReturn = numberToReturn;
+        this.cursorId = cursorId;
+    }
+
+    public int getNumberToReturn() {
+        return numberToReturn;
+    }
+
+    public long getCursorId() {
+        return cursorId;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(getClass().getSimpleName()).append("(");
+        sb.append("header: ").append(getHeader());
+        sb.append(", collection: ").append(getFullCollectionName());
+        sb.append(", cursorId: ").append(cursorId);
+        sb.append(", numberToReturn: ").append(numberToReturn);
+        sb.append(")");
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,50 @@
+package de.bwaldvogel.mongo.wire.message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import io.netty.channel.Channel;
+
+public class MongoKillCursors extends ClientRequest {
+
+    private final List<Long> cursorIds;
+
+    public MongoKillCursors(Channel channel, MessageHeader header, List<Long> cursorIds) {
+        super(channel, header, null);
+        this.cursorIds = new ArrayList<>(cursorIds);
+    }
+
+    public List<Long> getCursorIds() {
+        return Collections.unmodifiableList(cursorIds);
+    }
+
+    /**
+     * @return {@code null} since the cursors to kill are not bound to a
+     *         database
+     */
+    @Override
+    public String getDatabaseName() {
+        return null;
+    }
+
+    /**
+     * @return {@code null} since the cursors to kill are not bound to a
+     *         collection
+     */
+    @Override
+    public String getCollectionName() {
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(getClass().getSimpleName()).append("(");
+        sb.append("header: ").append(getHeader());
+        sb.append(", cursorIds: ").append(cursorIds);
+        sb.append(")");
+        return sb.toString();
+    }
+
+}
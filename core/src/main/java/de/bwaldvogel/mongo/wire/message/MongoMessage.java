@@ -0,0 +1,63 @@
+package de.bwaldvogel.mongo.wire.message;
+
+import de.bwaldvogel.mongo.bson.Document;
+import de.bwaldvogel.mongo.wire.MessageFlag;
+import io.netty.channel.Channel;
+
+/**
+ * An OP_MSG as introduced with wire version 6. Document sequences (payload
+ * type 1) are merged into the body under their identifier, so the body looks
+ * exactly like the equivalent command sent with OP_QUERY.
+ */
+public class MongoMessage extends ClientRequest {
+
+    private final Document document;
+    private int flags;
+
+    public MongoMessage(Channel channel, MessageHeader header, Document document, MessageFlag... messageFlags) {
+        super(channel, header, null);
+        this.document = document;
+        for (MessageFlag messageFlag : messageFlags) {
+            flags = messageFlag.addTo(flags);
+        }
+    }
+
+    public Document getDocument() {
+        return document;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public boolean isMoreToCome() {
+        return MessageFlag.MORE_TO_COME.isSet(flags);
+    }
+
+    @Override
+    public String getDatabaseName() {
+        return (String) document.get("$db");
+    }
+
+    @Override
+    public String getCollectionName() {
+        return "$cmd";
+    }
+
+    @Override
+    public String getFullCollectionName() {
+        return getDatabaseName() + "." + getCollectionName();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(getClass().getSimpleName()).append("(");
+        sb.append("header: ").append(getHeader());
+        sb.append(", flags: ").append(flags);
+        sb.append(", document: ").append(document);
+        sb.append(")");
+        return sb.toString();
+    }
+
+}
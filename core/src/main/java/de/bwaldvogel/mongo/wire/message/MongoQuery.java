@@ -8,6 +8,8 @@ public class MongoQuery extends ClientRequest {
     private final Document query;
     private final Document returnFieldSelector;
     private boolean slaveOk;
+    private boolean noCursorTimeout;
+    private boolean exhaust;
     private int numberToSkip;
     private int numberToReturn;
 
@@ -56,4 +58,24 @@ public class MongoQuery extends ClientRequest {
         return slaveOk;
     }
 
+    public void setNoCursorTimeout(boolean noCursorTimeout) {
+        this.noCursorTimeout = noCursorTimeout;
+    }
+
+    public boolean isNoCursorTimeout() {
+        return noCursorTimeout;
+    }
+
+    public void setExhaust(boolean exhaust) {
+        this.exhaust = exhaust;
+    }
+
+    /**
+     * @return true if the client expects all batches of the cursor without
+     *         sending {@code OP_GET_MORE} requests
+     */
+    public boolean isExhaust() {
+        return exhaust;
+    }
+
 }
@@ -4,22 +4,31 @@ import java.util.Collections;
 import java.util.List;
 
 import de.bwaldvogel.mongo.bson.Document;
+import de.bwaldvogel.mongo.wire.Compressor;
 import de.bwaldvogel.mongo.wire.ReplyFlag;
 
 public class MongoReply {
     private final MessageHeader header;
     private final List<? extends Document> documents;
-    private long cursorId;
-    private int startingFrom;
+    private final long cursorId;
+    private final int startingFrom;
     private int flags;
+    private Compressor compressor;
 
     public MongoReply(MessageHeader header, Document document, ReplyFlag... replyFlags) {
         this(header, Collections.singletonList(document), replyFlags);
     }
 
     public MongoReply(MessageHeader header, List<? extends Document> documents, ReplyFlag... replyFlags) {
+        this(header, documents, 0, 0, replyFlags);
+    }
+
+    public MongoReply(MessageHeader header, List<? extends Document> documents, long cursorId, int startingFrom,
+            ReplyFlag... replyFlags) {
         this.header = header;
         this.documents = documents;
+        this.cursorId = cursorId;
+        this.startingFrom = startingFrom;
         for (ReplyFlag replyFlag : replyFlags) {
             flags = replyFlag.addTo(flags);
         }
@@ -45,6 +54,18 @@ public class MongoReply {
         return flags;
     }
 
+    /**
+     * @return the compressor of the request this is the reply to or
+     *         {@code null} if the reply is not to be compressed
+     */
+    public Compressor getCompressor() {
+        return compressor;
+    }
+
+    public void setCompressor(Compressor compressor) {
+        this.compressor = compressor;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -0,0 +1,143 @@
+package de.bwaldvogel.mongo;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalServerChannel;
+
+public class LocalSocketFactoryTest {
+
+    private EventLoopGroup eventLoopGroup;
+    private Channel serverChannel;
+
+    @Before
+    public void startEchoServer() throws Exception {
+        eventLoopGroup = new DefaultEventLoopGroup(1);
+        serverChannel = new ServerBootstrap()
+            .group(eventLoopGroup)
+            .channel(LocalServerChannel.class)
+            .childHandler(new ChannelInitializer<Channel>() {
+                @Override
+                protected void initChannel(Channel ch) throws Exception {
+                    ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+                        @Override
+                        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+                            ctx.writeAndFlush(msg);
+                        }
+                    });
+                }
+            })
+            .bind(LocalAddress.ANY).syncUninterruptibly().channel();
+    }
+
+    @After
+    public void stopEchoServer() throws Exception {
+        // also closes the server channel
+        eventLoopGroup.shutdownGracefully(0, 0, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    @Test(timeout = 10000)
+    public void testWriteAndRead() throws Exception {
+        LocalSocketFactory socketFactory = new LocalSocketFactory((LocalAddress) serverChannel.localAddress());
+        try (Socket socket = socketFactory.createSocket("localhost", 27017)) {
+            assertThat(socket.isConnected()).isTrue();
+            assertThat(socket.getPort()).isEqualTo(27017);
+
+            OutputStream outputStream = socket.getOutputStream();
+            outputStream.write("hello ".getBytes(StandardCharsets.UTF_8));
+            outputStream.write("world".getBytes(StandardCharsets.UTF_8));
+
+            byte[] buffer = new byte[11];
+            InputStream inputStream = socket.getInputStream();
+            int offset = 0;
+            while (offset < buffer.length) {
+                offset += inputStream.read(buffer, offset, buffer.length - offset);
+            }
+            assertThat(new String(buffer, StandardCharsets.UTF_8)).isEqualTo("hello world");
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testWriteMoreThanHighWaterMark() throws Exception {
+        LocalSocketFactory socketFactory = new LocalSocketFactory((LocalAddress) serverChannel.localAddress());
+        try (Socket socket = socketFactory.createSocket("localhost", 27017)) {
+            byte[] chunk = new byte[8 * 1024];
+            int numChunks = 128;
+            OutputStream outputStream = socket.getOutputStream();
+            for (int i = 0; i < numChunks; i++) {
+                Arrays.fill(chunk, (byte) i);
+                outputStream.write(chunk);
+            }
+
+            byte[] buffer = new byte[chunk.length * numChunks];
+            InputStream inputStream = socket.getInputStream();
+            int offset = 0;
+            while (offset < buffer.length) {
+                offset += inputStream.read(buffer, offset, buffer.length - offset);
+            }
+            for (int i = 0; i < numChunks; i++) {
+                assertThat(buffer[i * chunk.length]).isEqualTo((byte) i);
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testReadTimeout() throws Exception {
+        LocalSocketFactory socketFactory = new LocalSocketFactory((LocalAddress) serverChannel.localAddress());
+        try (Socket socket = socketFactory.createSocket()) {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(50);
+            socket.connect(new InetSocketAddress("localhost", 27017), 1000);
+            try {
+                socket.getInputStream().read();
+                fail("SocketTimeoutException expected");
+            } catch (SocketTimeoutException e) {
+                assertThat(e.getMessage()).isEqualTo("Read timed out");
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testEndOfStream() throws Exception {
+        LocalSocketFactory socketFactory = new LocalSocketFactory((LocalAddress) serverChannel.localAddress());
+        try (Socket socket = socketFactory.createSocket("localhost", 27017)) {
+            InputStream inputStream = socket.getInputStream();
+            eventLoopGroup.shutdownGracefully(0, 0, TimeUnit.SECONDS).syncUninterruptibly();
+            assertThat(inputStream.read()).isEqualTo(-1);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testConnectToUnboundAddress() throws Exception {
+        LocalSocketFactory socketFactory = new LocalSocketFactory(new LocalAddress("unbound"));
+        try {
+            socketFactory.createSocket("localhost", 27017);
+            fail("ConnectException expected");
+        } catch (ConnectException e) {
+            assertThat(e.getMessage()).isEqualTo("Failed to connect to local:unbound");
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+package de.bwaldvogel.mongo;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import io.netty.channel.EventLoopGroup;
+
+public class SharedEventLoopGroupTest {
+
+    @Test(timeout = 10000)
+    public void testAcquireAndRelease() throws Exception {
+        SharedEventLoopGroup sharedGroup = new SharedEventLoopGroup(0);
+
+        EventLoopGroup first = sharedGroup.acquire();
+        EventLoopGroup second = sharedGroup.acquire();
+        assertThat(second).isSameAs(first);
+        assertThat(sharedGroup.getReferenceCount()).isEqualTo(2);
+
+        sharedGroup.release(first);
+        assertThat(sharedGroup.getReferenceCount()).isEqualTo(1);
+        assertThat(first.isShuttingDown()).isFalse();
+
+        sharedGroup.release(second);
+        assertThat(sharedGroup.getReferenceCount()).isZero();
+        first.terminationFuture().syncUninterruptibly();
+
+        EventLoopGroup third = sharedGroup.acquire();
+        assertThat(third).isNotSameAs(first);
+        sharedGroup.release(third);
+        third.terminationFuture().syncUninterruptibly();
+    }
+
+    @Test(timeout = 10000)
+    public void testAcquireWithinShutdownDelay() throws Exception {
+        SharedEventLoopGroup sharedGroup = new SharedEventLoopGroup(60000);
+
+        EventLoopGroup first = sharedGroup.acquire();
+        sharedGroup.release(first);
+
+        EventLoopGroup second = sharedGroup.acquire();
+        assertThat(second).isSameAs(first);
+        assertThat(second.isShuttingDown()).isFalse();
+
+        second.shutdownGracefully(0, 0, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    @Test
+    public void testReleaseWithoutAcquire() throws Exception {
+        SharedEventLoopGroup sharedGroup = new SharedEventLoopGroup(0);
+        try {
+            sharedGroup.release(null);
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("Event loop group null is not acquired");
+        }
+    }
+
+}
@@ -2,7 +2,11 @@ package de.bwaldvogel.mongo.backend;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -55,13 +59,13 @@ public class AbstractMongoCollectionTest {
         }
 
         @Override
-        protected Iterable<Document> matchDocuments(Document query, Iterable<Object> positions, Document orderBy,
+        protected Iterable<Document> matchDocuments(CompiledQuery query, Iterable<Object> positions, Document orderBy,
                                                     int numberToSkip, int numberToReturn) throws MongoServerException {
             throw new UnsupportedOperationException();
         }
 
         @Override
-        protected Iterable<Document> matchDocuments(Document query, Document orderBy, int numberToSkip,
+        protected Iterable<Document> matchDocuments(CompiledQuery query, Document orderBy, int numberToSkip,
                 int numberToReturn) throws MongoServerException {
             throw new UnsupportedOperationException();
         }
@@ -137,4 +141,28 @@ public class AbstractMongoCollectionTest {
             new Document("$in", Collections.emptyList()))))
                 .isInstanceOf(ObjectId.class);
     }
+
+    @Test
+    public void testMatchDocumentsLazily() throws Exception {
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            documents.add(new Document("_id", i).append("even", i % 2 == 0));
+        }
+        documents.set(2, null);
+
+        AtomicInteger scanned = new AtomicInteger();
+        Iterable<Document> scan = () -> documents.stream().peek(document -> scanned.incrementAndGet()).iterator();
+        CompiledQuery query = CompiledQuery.compile(new Document("even", true));
+
+        Iterator<Document> iterator = collection.matchDocumentsLazily(query, scan, 1, 3).iterator();
+        assertThat(scanned.get()).isZero();
+
+        assertThat(iterator.next()).isEqualTo(new Document("_id", 4).append("even", true));
+        assertThat(scanned.get()).isEqualTo(5);
+
+        assertThat(iterator.next().get("_id")).isEqualTo(6);
+        assertThat(iterator.next().get("_id")).isEqualTo(8);
+        assertThat(iterator.hasNext()).isFalse();
+        assertThat(scanned.get()).isEqualTo(9);
+    }
 }
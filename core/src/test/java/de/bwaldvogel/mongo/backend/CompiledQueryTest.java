@@ -0,0 +1,97 @@
+package de.bwaldvogel.mongo.backend;
+
+import static de.bwaldvogel.mongo.backend.DocumentBuilder.allOf;
+import static de.bwaldvogel.mongo.backend.DocumentBuilder.gt;
+import static de.bwaldvogel.mongo.backend.DocumentBuilder.in;
+import static de.bwaldvogel.mongo.backend.DocumentBuilder.list;
+import static de.bwaldvogel.mongo.backend.DocumentBuilder.map;
+import static de.bwaldvogel.mongo.backend.DocumentBuilder.or;
+import static de.bwaldvogel.mongo.backend.DocumentBuilder.regex;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import de.bwaldvogel.mongo.bson.Document;
+import de.bwaldvogel.mongo.exception.MongoServerError;
+import de.bwaldvogel.mongo.exception.MongoServerException;
+
+public class CompiledQueryTest {
+
+    @Test
+    public void testMatchManyDocuments() throws Exception {
+        Document query = map("a.b", gt(1)).append("name", regex("^jo"));
+        CompiledQuery compiledQuery = CompiledQuery.compile(query);
+        assertThat(compiledQuery.getQuery()).isSameAs(query);
+
+        assertThat(compiledQuery.matches(map("a", map("b", 2)).append("name", "john"))).isTrue();
+        assertThat(compiledQuery.matches(map("a", map("b", 1)).append("name", "john"))).isFalse();
+        assertThat(compiledQuery.matches(map("a", list(map("b", 0), map("b", 5))).append("name", "joe"))).isTrue();
+        assertThat(compiledQuery.matches(map("a", map("b", 2)).append("name", "mary"))).isFalse();
+        assertThat(compiledQuery.matches(map("name", "john"))).isFalse();
+    }
+
+    @Test
+    public void testQueryIsCopiedOnCompile() throws Exception {
+        Document query = map("a", in(1, 2));
+        CompiledQuery compiledQuery = CompiledQuery.compile(query);
+        query.put("a", 3);
+
+        assertThat(compiledQuery.matches(map("a", 2))).isTrue();
+        assertThat(compiledQuery.matches(map("a", 3))).isFalse();
+    }
+
+    @Test
+    public void testMatchPosition() throws Exception {
+        CompiledQuery compiledQuery = CompiledQuery.compile(map("a.b", 7));
+
+        assertThat(compiledQuery.matchPosition(map("a", list(map("b", 5), map("b", 7))))).isEqualTo(1);
+        assertThat(compiledQuery.matchPosition(map("a", list(map("b", 5))))).isNull();
+        assertThat(compiledQuery.matchPosition(map("a", map("b", 7)))).isNull();
+        assertThat(compiledQuery.matches(map("a", map("b", 7)))).isTrue();
+
+        // every call starts without a position
+        assertThat(compiledQuery.matchPosition(map("a", list(map("b", 7))))).isEqualTo(0);
+    }
+
+    @Test
+    public void testMatchAllWithRemainder() throws Exception {
+        CompiledQuery compiledQuery = CompiledQuery.compile(map("a.b", allOf(1, 2)));
+
+        assertThat(compiledQuery.matches(map("a", list(map("b", 1), map("b", 2))))).isTrue();
+        assertThat(compiledQuery.matches(map("a", list(map("b", 1), map("b", 3))))).isFalse();
+    }
+
+    @Test
+    public void testIllegalQueriesFailOnCompile() throws Exception {
+        try {
+            CompiledQuery.compile(map("a..b", 1));
+            fail("MongoServerException expected");
+        } catch (MongoServerException e) {
+            assertThat(e.getMessage()).isEqualTo("illegal key: a..b");
+        }
+
+        try {
+            CompiledQuery.compile(map("a", map("$foo", 1)));
+            fail("MongoServerError expected");
+        } catch (MongoServerError e) {
+            assertThat(e.getCode()).isEqualTo(10068);
+        }
+
+        try {
+            CompiledQuery.compile(or());
+            fail("MongoServerError expected");
+        } catch (MongoServerError e) {
+            assertThat(e.getCode()).isEqualTo(14816);
+        }
+
+        try {
+            CompiledQuery.compile(map("a", map("$in", 1)));
+            fail("MongoServerError expected");
+        } catch (MongoServerError e) {
+            assertThat(e.getCode()).isEqualTo(2);
+            assertThat(e.getMessage()).isEqualTo("$in needs an array");
+        }
+    }
+
+}
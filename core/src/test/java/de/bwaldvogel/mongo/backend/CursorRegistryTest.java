@@ -0,0 +1,67 @@
+package de.bwaldvogel.mongo.backend;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.bwaldvogel.mongo.bson.Document;
+
+public class CursorRegistryTest {
+
+    @Test
+    public void testAddGetRemove() throws Exception {
+        CursorRegistry cursorRegistry = new CursorRegistry();
+        Cursor cursor = new Cursor("db.coll", Collections.<Document> emptyIterator(), false);
+
+        long cursorId = cursorRegistry.add(cursor);
+        assertThat(cursorId).isNotEqualTo(0);
+        assertThat(cursorRegistry.get(cursorId)).isSameAs(cursor);
+        assertThat(cursorRegistry.size()).isEqualTo(1);
+
+        assertThat(cursorRegistry.remove(cursorId)).isTrue();
+        assertThat(cursorRegistry.remove(cursorId)).isFalse();
+        assertThat(cursorRegistry.get(cursorId)).isNull();
+        assertThat(cursorRegistry.size()).isZero();
+    }
+
+    @Test
+    public void testCloseTimedOutCursors() throws Exception {
+        CursorRegistry cursorRegistry = new CursorRegistry(1);
+        long cursorId = cursorRegistry.add(new Cursor("db.coll", Collections.<Document> emptyIterator(), false));
+        long noTimeoutCursorId = cursorRegistry.add(new Cursor("db.coll", Collections.<Document> emptyIterator(), true));
+
+        Thread.sleep(10);
+        cursorRegistry.closeTimedOutCursors();
+
+        assertThat(cursorRegistry.get(cursorId)).isNull();
+        assertThat(cursorRegistry.get(noTimeoutCursorId)).isNotNull();
+        assertThat(cursorRegistry.getTimedOutCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testNextBatch() throws Exception {
+        List<Document> documents = Arrays.asList(new Document("_id", 1), new Document("_id", 2), new Document("_id", 3));
+        Cursor cursor = new Cursor("db.coll", documents.iterator(), false);
+
+        assertThat(cursor.nextBatch(2, Long.MAX_VALUE)).containsExactly(new Document("_id", 1), new Document("_id", 2));
+        assertThat(cursor.getPosition()).isEqualTo(2);
+        assertThat(cursor.hasNext()).isTrue();
+
+        assertThat(cursor.nextBatch(0, Long.MAX_VALUE)).containsExactly(new Document("_id", 3));
+        assertThat(cursor.hasNext()).isFalse();
+    }
+
+    @Test
+    public void testNextBatchIsLimitedBySize() throws Exception {
+        List<Document> documents = Arrays.asList(new Document("_id", 1), new Document("_id", 2));
+        Cursor cursor = new Cursor("db.coll", documents.iterator(), false);
+
+        assertThat(cursor.nextBatch(0, 1)).containsExactly(new Document("_id", 1));
+        assertThat(cursor.nextBatch(0, 1)).containsExactly(new Document("_id", 2));
+    }
+
+}
@@ -0,0 +1,60 @@
+package de.bwaldvogel.mongo.backend;
+
+import static de.bwaldvogel.mongo.backend.DocumentBuilder.gt;
+import static de.bwaldvogel.mongo.backend.DocumentBuilder.in;
+import static de.bwaldvogel.mongo.backend.DocumentBuilder.map;
+import static de.bwaldvogel.mongo.backend.DocumentBuilder.or;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+import de.bwaldvogel.mongo.bson.Document;
+
+public class QueryShapeTest {
+
+    @Test
+    public void testValuesAreIgnored() throws Exception {
+        assertSameShape(map("a", 1), map("a", "foo"));
+        assertSameShape(map("a", gt(1)), map("a", gt(7)));
+        assertSameShape(map("a", in(1, 2)), map("a", in(3)));
+        assertSameShape(or(map("a", 1), map("b", 2)), or(map("a", 3), map("b", 4)));
+        assertSameShape(map("a", map("b", 1)), map("a", map("b", 2)));
+    }
+
+    @Test
+    public void testFieldsAndOperatorsAreDistinguished() throws Exception {
+        assertDifferentShape(map("a", 1), map("b", 1));
+        assertDifferentShape(map("a", 1), map("a", gt(1)));
+        assertDifferentShape(map("a", gt(1)), map("a", in(1)));
+        assertDifferentShape(or(map("a", 1)), or(map("a", 1), map("b", 2)));
+        assertDifferentShape(map("a", map("b", 1)), map("a", map("c", 1)));
+    }
+
+    @Test
+    public void testSortAndProjection() throws Exception {
+        QueryShape shape = new QueryShape(map("a", 1), map("b", 1), null);
+        assertThat(shape).isEqualTo(new QueryShape(map("a", 2), map("b", 1), new Document()));
+        assertThat(shape).isNotEqualTo(new QueryShape(map("a", 2), map("b", -1), null));
+        assertThat(shape).isNotEqualTo(new QueryShape(map("a", 2), map("b", 1), map("a", 1)));
+    }
+
+    @Test
+    public void testToDocument() throws Exception {
+        QueryShape shape = new QueryShape(map("a", gt(1)), null, map("a", 1));
+        assertThat(shape.toDocument()).isEqualTo(new Document("query", map("a", gt(1)))
+            .append("sort", new Document())
+            .append("projection", map("a", 1)));
+    }
+
+    private static void assertSameShape(Document query, Document other) {
+        QueryShape shape = new QueryShape(query, null, null);
+        QueryShape otherShape = new QueryShape(other, null, null);
+        assertThat(shape).isEqualTo(otherShape);
+        assertThat(shape.hashCode()).isEqualTo(otherShape.hashCode());
+    }
+
+    private static void assertDifferentShape(Document query, Document other) {
+        assertThat(new QueryShape(query, null, null)).isNotEqualTo(new QueryShape(other, null, null));
+    }
+
+}
@@ -4,6 +4,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 
 import org.junit.Test;
 
@@ -68,6 +69,19 @@ public class UtilsTest {
         assertThat(Utils.calculateSize(new Document("_id", 7))).isEqualTo(14);
     }
 
+    @Test
+    public void testGetCachedSize() throws Exception {
+        Document document = new Document("_id", 7);
+        assertThat(Utils.getCachedSize(document)).isEqualTo(14);
+        assertThat(document.getEncodedSize()).isEqualTo(14);
+
+        document.setEncodedSize(100);
+        assertThat(Utils.getCachedSize(document)).isEqualTo(100);
+
+        document.put("_id", "abc");
+        assertThat(Utils.getCachedSize(document)).isEqualTo(18);
+    }
+
     @Test
     public void testGetSubdocumentValue() throws Exception {
         Document document = new Document("foo", 25);
@@ -114,4 +128,23 @@ public class UtilsTest {
         assertThat(Utils.getCollectionNameFromFullName("foo.bar.bla")).isEqualTo("bar.bla");
     }
 
+    @Test
+    public void testDeepCopy() throws Exception {
+        Date date = new Date(1000);
+        byte[] bytes = new byte[] { 1, 2 };
+        Document document = new Document("sub", new Document("a", 1))
+            .append("list", Arrays.asList(new Document("b", 2), "c"))
+            .append("date", date)
+            .append("bytes", bytes);
+
+        Document copy = Utils.deepCopy(document);
+        assertThat(copy.keySet()).containsExactly("sub", "list", "date", "bytes");
+        assertThat(copy.get("sub")).isEqualTo(document.get("sub")).isNotSameAs(document.get("sub"));
+        assertThat(copy.get("list")).isEqualTo(document.get("list"));
+        assertThat(((List<?>) copy.get("list")).get(0)).isNotSameAs(((List<?>) document.get("list")).get(0));
+        assertThat(copy.get("date")).isEqualTo(date).isNotSameAs(date);
+        assertThat((byte[]) copy.get("bytes")).containsExactly(1, 2);
+        assertThat(copy.get("bytes")).isNotSameAs(bytes);
+    }
+
 }
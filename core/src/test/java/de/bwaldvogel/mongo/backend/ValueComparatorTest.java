@@ -3,11 +3,16 @@ package de.bwaldvogel.mongo.backend;
 import static de.bwaldvogel.mongo.wire.BsonConstants.LENGTH_OBJECTID;
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.util.Arrays;
 import java.util.Date;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import de.bwaldvogel.mongo.bson.BsonRegularExpression;
+import de.bwaldvogel.mongo.bson.Document;
+import de.bwaldvogel.mongo.bson.MaxKey;
+import de.bwaldvogel.mongo.bson.MinKey;
 import de.bwaldvogel.mongo.bson.ObjectId;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
@@ -87,4 +92,31 @@ public class ValueComparatorTest {
         assertThat(comparator.compare(new byte[]{1}, null)).isGreaterThan(0);
     }
 
+    @Test
+    public void testCompareListValues() {
+        assertThat(comparator.compare(Arrays.asList(1, 2), Arrays.asList(1.0, 2.0))).isZero();
+        assertThat(comparator.compare(Arrays.asList(1, 2), Arrays.asList(1, 3))).isLessThan(0);
+        assertThat(comparator.compare(Arrays.asList(1, 2), Arrays.asList(1))).isGreaterThan(0);
+        assertThat(comparator.compare(new Document("a", 1), Arrays.asList(1))).isLessThan(0);
+        assertThat(comparator.compare(Arrays.asList(1), new byte[] { 1 })).isLessThan(0);
+    }
+
+    @Test
+    public void testCompareDocumentValues() {
+        assertThat(comparator.compare(new Document("a", 1), new Document("a", 1.0))).isZero();
+        assertThat(comparator.compare(new Document("a", 1), new Document("a", 2))).isLessThan(0);
+        assertThat(comparator.compare(new Document("a", 1), new Document("b", 1))).isLessThan(0);
+        assertThat(comparator.compare(new Document("b", 1), new Document("a", 1))).isGreaterThan(0);
+        assertThat(comparator.compare(new Document("a", 1), new Document("a", 1).append("b", 2))).isLessThan(0);
+        assertThat(comparator.compare(new Document("a", 1).append("b", 2), new Document("a", 1))).isGreaterThan(0);
+    }
+
+    @Test
+    public void testCompareMinAndMaxKey() {
+        assertThat(comparator.compare(MinKey.getInstance(), null)).isLessThan(0);
+        assertThat(comparator.compare(MinKey.getInstance(), MinKey.getInstance())).isZero();
+        assertThat(comparator.compare(MaxKey.getInstance(), new BsonRegularExpression("a"))).isGreaterThan(0);
+        assertThat(comparator.compare(null, MaxKey.getInstance())).isLessThan(0);
+    }
+
 }
@@ -0,0 +1,184 @@
+package de.bwaldvogel.mongo.bson;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.junit.Test;
+
+public class DocumentTest {
+
+    @Test
+    public void testSmallDocument() throws Exception {
+        testMapContract(3);
+    }
+
+    @Test
+    public void testLargeDocument() throws Exception {
+        testMapContract(Document.MAX_ARRAY_SIZE + 5);
+    }
+
+    private static void testMapContract(int numberOfFields) {
+        Document document = new Document();
+        Map<String, Object> expected = new LinkedHashMap<>();
+        for (int i = numberOfFields; i > 0; i--) {
+            assertThat(document.put("key" + i, Integer.valueOf(i))).isNull();
+            expected.put("key" + i, Integer.valueOf(i));
+        }
+        assertThat(document).isEqualTo(expected);
+        assertThat(expected).isEqualTo(document);
+        assertThat(document.hashCode()).isEqualTo(expected.hashCode());
+        assertThat(document.toString()).isEqualTo(expected.toString());
+        assertThat(document.keySet()).containsExactlyElementsOf(expected.keySet());
+        assertThat(document.size()).isEqualTo(numberOfFields);
+
+        assertThat(document.put("key1", "value")).isEqualTo(1);
+        assertThat(document.get("key1")).isEqualTo("value");
+        assertThat(document.containsKey("key1")).isTrue();
+        assertThat(document.containsKey("missing")).isFalse();
+        assertThat(document.get("missing")).isNull();
+        assertThat(document.containsValue("value")).isTrue();
+        assertThat(document.size()).isEqualTo(numberOfFields);
+
+        assertThat(document.remove("key2")).isEqualTo(2);
+        assertThat(document.remove("key2")).isNull();
+        assertThat(document.containsKey("key2")).isFalse();
+        assertThat(document.size()).isEqualTo(numberOfFields - 1);
+
+        for (Iterator<Entry<String, Object>> it = document.entrySet().iterator(); it.hasNext();) {
+            Entry<String, Object> entry = it.next();
+            if (entry.getKey().equals("key3")) {
+                it.remove();
+            } else {
+                entry.setValue(entry.getKey());
+            }
+        }
+        assertThat(document.keySet()).doesNotContain("key2", "key3");
+        for (Entry<String, Object> entry : document.entrySet()) {
+            assertThat(entry.getValue()).isEqualTo(entry.getKey());
+        }
+
+        document.put("key2", "again");
+        assertThat(document.keySet()).endsWith("key2");
+
+        document.clear();
+        assertThat(document).isEmpty();
+        assertThat(document.get("key1")).isNull();
+        document.put("key1", 1);
+        assertThat(document).isEqualTo(new Document("key1", 1));
+    }
+
+    @Test
+    public void testSwitchToMapKeepsOrder() throws Exception {
+        Document document = new Document();
+        for (int i = 0; i < Document.MAX_ARRAY_SIZE * 2; i++) {
+            document.put("key" + i, i);
+        }
+        int i = 0;
+        for (String key : document.keySet()) {
+            assertThat(key).isEqualTo("key" + i++);
+        }
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void testConcurrentModification() throws Exception {
+        Document document = new Document("a", 1).append("b", 2);
+        for (String key : document.keySet()) {
+            document.put(key + "x", 0);
+        }
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        Document small = new Document("_id", 1).append("name", "foo");
+        Document large = new Document();
+        for (int i = 0; i < Document.MAX_ARRAY_SIZE + 1; i++) {
+            large.put("key" + i, i);
+        }
+        Document document = new Document("small", small).append("large", large);
+
+        Document deserialized = deserialize(serialize(document));
+        assertThat(deserialized).isEqualTo(document);
+        assertThat(deserialized.keySet()).containsExactly("small", "large");
+
+        // the serialized form only depends on the fields
+        Document other = new Document("small", new Document(small)).append("large", new Document(large));
+        other.put("removed", 1);
+        other.remove("removed");
+        assertThat(serialize(other)).isEqualTo(serialize(document));
+    }
+
+    @Test
+    public void testModificationResetsEncodedSize() throws Exception {
+        Document document = new Document("a", 1).append("b", 2);
+        assertThat(document.getEncodedSize()).isEqualTo(-1);
+
+        document.setEncodedSize(19);
+        assertThat(document.getEncodedSize()).isEqualTo(19);
+        assertThat(document.get("a")).isEqualTo(1);
+        assertThat(document.getEncodedSize()).isEqualTo(19);
+
+        document.put("c", 3);
+        assertThat(document.getEncodedSize()).isEqualTo(-1);
+
+        document.setEncodedSize(26);
+        document.remove("c");
+        assertThat(document.getEncodedSize()).isEqualTo(-1);
+
+        document.setEncodedSize(19);
+        document.entrySet().iterator().next().setValue(5);
+        assertThat(document.getEncodedSize()).isEqualTo(-1);
+
+        document.setEncodedSize(19);
+        Document deserialized = deserialize(serialize(document));
+        assertThat(deserialized.getEncodedSize()).isEqualTo(-1);
+    }
+
+    @Test
+    public void testIterationOfLargeDocumentKeepsEncodedSize() throws Exception {
+        Document document = new Document();
+        for (int i = 0; i < Document.MAX_ARRAY_SIZE + 1; i++) {
+            document.put("key" + i, i);
+        }
+
+        document.setEncodedSize(42);
+        for (Entry<String, Object> entry : document.entrySet()) {
+            assertThat(entry.getValue()).isNotNull();
+        }
+        assertThat(document.getEncodedSize()).isEqualTo(42);
+
+        document.entrySet().iterator().next().setValue(5);
+        assertThat(document.getEncodedSize()).isEqualTo(-1);
+        assertThat(document.get("key0")).isEqualTo(5);
+
+        document.setEncodedSize(42);
+        Iterator<Entry<String, Object>> iterator = document.entrySet().iterator();
+        iterator.next();
+        iterator.remove();
+        assertThat(document.getEncodedSize()).isEqualTo(-1);
+        assertThat(document).doesNotContainKey("key0");
+    }
+
+    private static byte[] serialize(Object object) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(out)) {
+            objectOutputStream.writeObject(object);
+        }
+        return out.toByteArray();
+    }
+
+    private static Document deserialize(byte[] bytes) throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (Document) in.readObject();
+        }
+    }
+
+}
@@ -2,6 +2,11 @@ package de.bwaldvogel.mongo.bson;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
 import org.junit.Test;
 
 import de.bwaldvogel.mongo.wire.BsonConstants;
@@ -26,5 +31,50 @@ public class ObjectIdTest {
         assertThat(new ObjectId().toString()).matches(expectedPattern);
     }
 
+    @Test
+    public void testBytes() throws Exception {
+        byte[] bytes = { 0x52, 0x34, (byte) 0xcc, (byte) 0x89, 0x68, 0x7e, (byte) 0xa5, (byte) 0x97, (byte) 0xea, (byte) 0xbe,
+                (byte) 0xe6, 0x75 };
+        ObjectId objectId = new ObjectId(bytes);
+        assertThat(objectId.toByteArray()).isEqualTo(bytes);
+        assertThat(objectId.getTimestamp()).isEqualTo(0x5234cc89);
+        assertThat(objectId.toHexString()).isEqualTo("5234cc89687ea597eabee675");
+        assertThat(objectId).isEqualTo(new ObjectId(0x5234cc89, 0x687ea597eabee675L));
+    }
+
+    @Test
+    public void testGenerate() throws Exception {
+        long now = System.currentTimeMillis() / 1000;
+        ObjectId first = new ObjectId();
+        ObjectId second = new ObjectId();
+        assertThat((long) first.getTimestamp()).isBetween(now - 1, now + 1);
+        // same process random value, next counter
+        assertThat(second.getRandomValueAndCounter() >>> 24).isEqualTo(first.getRandomValueAndCounter() >>> 24);
+        assertThat(second.getRandomValueAndCounter() & 0xFFFFFF)
+            .isEqualTo((first.getRandomValueAndCounter() + 1) & 0xFFFFFF);
+    }
+
+    @Test
+    public void testCompareUnsigned() throws Exception {
+        ObjectId small = new ObjectId(new byte[] { 0x7f, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) 0xff });
+        ObjectId large = new ObjectId(new byte[] { (byte) 0x80, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 });
+        ObjectId larger = new ObjectId(new byte[] { (byte) 0x80, 0, 0, 0, (byte) 0x80, 0, 0, 0, 0, 0, 0, 0 });
+        assertThat(small.compareTo(large)).isLessThan(0);
+        assertThat(large.compareTo(small)).isGreaterThan(0);
+        assertThat(large.compareTo(larger)).isLessThan(0);
+        assertThat(larger.compareTo(new ObjectId(larger.toByteArray()))).isZero();
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        ObjectId objectId = new ObjectId();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(out)) {
+            objectOutputStream.writeObject(objectId);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            assertThat(in.readObject()).isEqualTo(objectId);
+        }
+    }
 
-}
\ No newline at end of file
+}
@@ -2,6 +2,7 @@ package de.bwaldvogel.mongo.wire;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -46,4 +47,62 @@ public class BsonDecoderTest {
             }
         }
     }
+
+    @Test
+    public void testFieldNamesAreInterned() throws Exception {
+        Document document = new Document("_id", 1).append("n\u00e4me", "foo");
+        Document first = decode(document);
+        Document second = decode(document);
+        assertThat(second).isEqualTo(document);
+
+        List<String> firstKeys = new ArrayList<>(first.keySet());
+        List<String> secondKeys = new ArrayList<>(second.keySet());
+        for (int i = 0; i < firstKeys.size(); i++) {
+            assertThat(secondKeys.get(i)).isSameAs(firstKeys.get(i));
+        }
+    }
+
+    @Test
+    public void testFieldNameCache() throws Exception {
+        // a single slot: all names collide
+        FieldNameCache cache = new FieldNameCache(1);
+        String longName = new String(new char[FieldNameCache.MAX_NAME_LENGTH + 1]).replace('\0', 'x');
+        for (String name : new String[] { "a", "b", "\u0442\u0435\u0441\u0442", "a", longName, "" }) {
+            ByteBuf buffer = Unpooled.buffer();
+            try {
+                buffer.writeByte(1);
+                int length = buffer.writeCharSequence(name, StandardCharsets.UTF_8);
+                assertThat(cache.get(buffer, 1, length)).isEqualTo(name);
+                assertThat(buffer.readerIndex()).isZero();
+            } finally {
+                buffer.release();
+            }
+        }
+    }
+
+    private static Document decode(Document document) throws Exception {
+        ByteBuf buffer = Unpooled.buffer();
+        try {
+            new BsonEncoder().encodeDocument(document, buffer);
+            return new BsonDecoder().decodeBson(buffer);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Test
+    public void testDecodeStrings() throws Exception {
+        Document document = new Document("ascii", "foo bar")
+            .append("unicode", "\u0442\u0435\u0441\u0442 \ud83d\ude00")
+            .append("empty", "");
+        for (ByteBuf buffer : new ByteBuf[] { Unpooled.buffer(), Unpooled.directBuffer() }) {
+            try {
+                new BsonEncoder().encodeDocument(document, buffer);
+                assertThat(new BsonDecoder().decodeBson(buffer)).isEqualTo(document);
+            } finally {
+                buffer.release();
+            }
+        }
+    }
+
 }
@@ -3,11 +3,15 @@ package de.bwaldvogel.mongo.wire;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import java.util.Arrays;
+import java.util.Date;
 import java.util.UUID;
 
 import org.junit.Test;
 
+import de.bwaldvogel.mongo.bson.BsonRegularExpression;
+import de.bwaldvogel.mongo.bson.BsonTimestamp;
 import de.bwaldvogel.mongo.bson.Document;
+import de.bwaldvogel.mongo.bson.MaxKey;
 import de.bwaldvogel.mongo.bson.ObjectId;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
@@ -51,4 +55,30 @@ public class BsonEncoderTest {
         }
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testCalculateSize() throws Exception {
+        Document document = new Document();
+        document.put("key1", "v\u00e4lue \ud83d\ude00");
+        document.put("k\u00e9y2", 123.0);
+        document.put("key3", Arrays.asList(1L, 2, new Document("nested", true)));
+        document.put("key4", new byte[] { 1, 2, 3 });
+        document.put("key5", UUID.randomUUID());
+        document.put("key6", new ObjectId());
+        document.put("key7", new Date());
+        document.put("key8", new BsonRegularExpression("^a.*", "i"));
+        document.put("key9", new BsonTimestamp(42));
+        document.put("key10", null);
+        document.put("key11", MaxKey.getInstance());
+
+        BsonEncoder bsonEncoder = new BsonEncoder();
+        ByteBuf buffer = Unpooled.buffer();
+        try {
+            bsonEncoder.encodeDocument(document, buffer);
+            assertThat(bsonEncoder.calculateSize(document)).isEqualTo(buffer.readableBytes());
+            assertThat(bsonEncoder.calculateSize(new Document())).isEqualTo(5);
+        } finally {
+            buffer.release();
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+package de.bwaldvogel.mongo.wire;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+public class CompressorRegistryTest {
+
+    @Test
+    public void testNegotiate() throws Exception {
+        CompressorRegistry compressorRegistry = new CompressorRegistry();
+        assertThat(compressorRegistry.negotiate(Arrays.asList("zstd", "zlib", "snappy"))).containsExactly("zlib", "snappy");
+
+        compressorRegistry.unregister("snappy");
+        assertThat(compressorRegistry.negotiate(Arrays.asList("snappy"))).isEmpty();
+        assertThat(compressorRegistry.get((byte) 1)).isNull();
+        assertThat(compressorRegistry.get((byte) 2)).isInstanceOf(ZlibCompressor.class);
+    }
+
+    @Test
+    public void testZlibRoundtrip() throws Exception {
+        assertRoundtrip(new ZlibCompressor());
+    }
+
+    @Test
+    public void testSnappyRoundtrip() throws Exception {
+        assertRoundtrip(new SnappyCompressor());
+    }
+
+    private static void assertRoundtrip(Compressor compressor) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            sb.append("value ").append(i % 100).append(' ');
+        }
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        ByteBuf compressed = Unpooled.buffer();
+        ByteBuf uncompressed = Unpooled.buffer();
+        try {
+            compressor.compress(Unpooled.wrappedBuffer(bytes), compressed);
+            assertThat(compressed.readableBytes()).isLessThan(bytes.length / 2);
+
+            compressor.decompress(compressed, uncompressed, bytes.length);
+            assertThat(compressed.isReadable()).isFalse();
+            assertThat(uncompressed).isEqualTo(Unpooled.wrappedBuffer(bytes));
+        } finally {
+            compressed.release();
+            uncompressed.release();
+        }
+    }
+
+}
@@ -0,0 +1,40 @@
+package de.bwaldvogel.mongo.wire;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+import de.bwaldvogel.mongo.MongoBackend;
+import de.bwaldvogel.mongo.backend.CursorRegistry;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+public class MongoDatabaseHandlerTest {
+
+    @Test
+    public void testReadingIsPausedWhileChannelIsNotWritable() throws Exception {
+        MongoBackend backend = EasyMock.createNiceMock(MongoBackend.class);
+        EasyMock.replay(backend);
+        MongoDatabaseHandler handler = new MongoDatabaseHandler(backend,
+                new DefaultChannelGroup(GlobalEventExecutor.INSTANCE), new CursorRegistry(), new CompressorRegistry());
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+        try {
+            assertThat(channel.config().isAutoRead()).isTrue();
+
+            channel.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+            channel.runPendingTasks();
+            assertThat(channel.isWritable()).isFalse();
+            assertThat(channel.config().isAutoRead()).isFalse();
+
+            channel.unsafe().outboundBuffer().setUserDefinedWritability(1, true);
+            channel.runPendingTasks();
+            assertThat(channel.isWritable()).isTrue();
+            assertThat(channel.config().isAutoRead()).isTrue();
+        } finally {
+            channel.finishAndReleaseAll();
+        }
+    }
+
+}
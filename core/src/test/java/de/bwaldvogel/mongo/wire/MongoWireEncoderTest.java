@@ -0,0 +1,114 @@
+package de.bwaldvogel.mongo.wire;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.bwaldvogel.mongo.bson.Document;
+import de.bwaldvogel.mongo.wire.message.MessageHeader;
+import de.bwaldvogel.mongo.wire.message.MongoReply;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+public class MongoWireEncoderTest {
+
+    @Test
+    public void testEncodeReply() throws Exception {
+        List<Document> documents = new ArrayList<>();
+        documents.add(new Document("_id", 1).append("value", "abc"));
+        documents.add(new Document("_id", 2).append("value", "def"));
+
+        ByteBuf buffer = encode(new MongoReply(new MessageHeader(1, 23), documents, 42L, 5));
+        try {
+            assertThat(buffer).isNotInstanceOf(CompositeByteBuf.class);
+            assertThat(buffer.capacity()).isEqualTo(buffer.readableBytes());
+            assertReply(buffer, documents);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Test
+    public void testEncodeLargeReply() throws Exception {
+        List<Document> documents = new ArrayList<>();
+        String value = new String(new char[10000]).replace('\0', 'x');
+        for (int i = 0; i < 2000; i++) {
+            documents.add(new Document("_id", i).append("value", value));
+        }
+
+        ByteBuf buffer = encode(new MongoReply(new MessageHeader(1, 23), documents, 42L, 5));
+        try {
+            assertThat(buffer.readableBytes()).isGreaterThan(ReplyBufferAllocator.COMPOSITE_BUFFER_THRESHOLD);
+            assertThat(buffer).isInstanceOf(CompositeByteBuf.class);
+            assertThat(buffer.capacity()).isEqualTo(buffer.readableBytes());
+            assertReply(buffer, documents);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Test
+    public void testCompressReplyOfCompressedRequest() throws Exception {
+        List<Document> documents = new ArrayList<>();
+        documents.add(new Document("_id", 1).append("value", new String(new char[2000]).replace('\0', 'x')));
+
+        MongoReply compressedReply = new MongoReply(new MessageHeader(1, 23), documents, 42L, 5);
+        compressedReply.setCompressor(new ZlibCompressor());
+        MongoReply uncompressedReply = new MongoReply(new MessageHeader(2, 24), documents, 42L, 5);
+
+        EmbeddedChannel channel = new EmbeddedChannel(new MongoWireEncoder());
+        try {
+            assertThat(channel.writeOutbound(compressedReply, uncompressedReply)).isTrue();
+
+            ByteBuf compressed = channel.readOutbound();
+            try {
+                assertThat(compressed.getIntLE(12)).isEqualTo(OpCode.OP_COMPRESSED.getId());
+                assertThat(compressed.getIntLE(16)).isEqualTo(OpCode.OP_REPLY.getId());
+                assertThat(compressed.readableBytes()).isLessThan(1000);
+            } finally {
+                compressed.release();
+            }
+
+            ByteBuf uncompressed = channel.readOutbound();
+            try {
+                assertThat(uncompressed.getIntLE(4)).isEqualTo(2);
+                assertThat(uncompressed.getIntLE(12)).isEqualTo(OpCode.OP_REPLY.getId());
+            } finally {
+                uncompressed.release();
+            }
+        } finally {
+            channel.finishAndReleaseAll();
+        }
+    }
+
+    private static ByteBuf encode(MongoReply reply) {
+        EmbeddedChannel channel = new EmbeddedChannel(new MongoWireEncoder());
+        try {
+            assertThat(channel.writeOutbound(reply)).isTrue();
+            return channel.readOutbound();
+        } finally {
+            channel.finishAndReleaseAll();
+        }
+    }
+
+    private static void assertReply(ByteBuf buffer, List<Document> documents) throws Exception {
+        assertThat(buffer.readIntLE()).isEqualTo(buffer.capacity());
+        assertThat(buffer.readIntLE()).isEqualTo(1); // requestID
+        assertThat(buffer.readIntLE()).isEqualTo(23); // responseTo
+        assertThat(buffer.readIntLE()).isEqualTo(OpCode.OP_REPLY.getId());
+        assertThat(buffer.readIntLE()).isZero(); // flags
+        assertThat(buffer.readLongLE()).isEqualTo(42L); // cursorID
+        assertThat(buffer.readIntLE()).isEqualTo(5); // startingFrom
+        assertThat(buffer.readIntLE()).isEqualTo(documents.size());
+        BsonDecoder bsonDecoder = new BsonDecoder();
+        for (Document document : documents) {
+            assertThat(bsonDecoder.decodeBson(buffer)).isEqualTo(document);
+        }
+        assertThat(buffer.isReadable()).isFalse();
+    }
+
+}
@@ -0,0 +1,132 @@
+package de.bwaldvogel.mongo.wire;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import de.bwaldvogel.mongo.bson.Document;
+import de.bwaldvogel.mongo.wire.message.MongoKillCursors;
+import de.bwaldvogel.mongo.wire.message.MongoMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+public class MongoWireProtocolHandlerTest {
+
+    private final BsonEncoder bsonEncoder = new BsonEncoder();
+
+    @Test
+    public void testDecodeMessageWithDocumentSequence() throws Exception {
+        ByteBuf buffer = Unpooled.buffer();
+        writeHeader(buffer, OpCode.OP_MSG);
+        buffer.writeIntLE(MessageFlag.MORE_TO_COME.addTo(0));
+
+        buffer.writeByte(MongoWireProtocolHandler.SECTION_KIND_BODY);
+        bsonEncoder.encodeDocument(new Document("insert", "coll").append("$db", "testdb"), buffer);
+
+        buffer.writeByte(MongoWireProtocolHandler.SECTION_KIND_DOCUMENT_SEQUENCE);
+        int sectionStart = buffer.writerIndex();
+        buffer.writeIntLE(0);
+        buffer.writeBytes("documents".getBytes("UTF-8"));
+        buffer.writeByte(0);
+        bsonEncoder.encodeDocument(new Document("_id", 1), buffer);
+        bsonEncoder.encodeDocument(new Document("_id", 2), buffer);
+        buffer.setIntLE(sectionStart, buffer.writerIndex() - sectionStart);
+
+        buffer.setIntLE(0, buffer.writerIndex());
+
+        MongoMessage message = decode(buffer);
+        assertThat(message.isMoreToCome()).isTrue();
+        assertThat(message.getDatabaseName()).isEqualTo("testdb");
+        assertThat(message.getDocument().keySet()).containsExactly("insert", "$db", "documents");
+        assertThat(message.getDocument().get("documents"))
+            .isEqualTo(Arrays.asList(new Document("_id", 1), new Document("_id", 2)));
+    }
+
+    @Test
+    public void testDecodeMessageWithChecksum() throws Exception {
+        ByteBuf buffer = Unpooled.buffer();
+        writeHeader(buffer, OpCode.OP_MSG);
+        buffer.writeIntLE(MessageFlag.CHECKSUM_PRESENT.addTo(0));
+        buffer.writeByte(MongoWireProtocolHandler.SECTION_KIND_BODY);
+        bsonEncoder.encodeDocument(new Document("ping", 1).append("$db", "admin"), buffer);
+        buffer.writeIntLE(0x12345678); // checksum
+        buffer.setIntLE(0, buffer.writerIndex());
+
+        MongoMessage message = decode(buffer);
+        assertThat(message.isMoreToCome()).isFalse();
+        assertThat(message.getDocument()).isEqualTo(new Document("ping", 1).append("$db", "admin"));
+    }
+
+    @Test
+    public void testEachRequestCarriesItsCompressor() throws Exception {
+        ByteBuf uncompressedBody = Unpooled.buffer();
+        uncompressedBody.writeIntLE(0); // flags
+        uncompressedBody.writeByte(MongoWireProtocolHandler.SECTION_KIND_BODY);
+        bsonEncoder.encodeDocument(new Document("ping", 1).append("$db", "admin"), uncompressedBody);
+
+        ZlibCompressor compressor = new ZlibCompressor();
+        ByteBuf buffer = Unpooled.buffer();
+        writeHeader(buffer, OpCode.OP_COMPRESSED);
+        buffer.writeIntLE(OpCode.OP_MSG.getId());
+        buffer.writeIntLE(uncompressedBody.readableBytes());
+        buffer.writeByte(compressor.getId());
+        compressor.compress(uncompressedBody.duplicate(), buffer);
+        buffer.setIntLE(0, buffer.writerIndex());
+
+        int secondMessageStart = buffer.writerIndex();
+        writeHeader(buffer, OpCode.OP_MSG);
+        buffer.writeBytes(uncompressedBody);
+        buffer.setIntLE(secondMessageStart, buffer.writerIndex() - secondMessageStart);
+        uncompressedBody.release();
+
+        EmbeddedChannel channel = new EmbeddedChannel(new MongoWireProtocolHandler());
+        try {
+            assertThat(channel.writeInbound(buffer)).isTrue();
+            MongoMessage compressedMessage = channel.readInbound();
+            MongoMessage uncompressedMessage = channel.readInbound();
+            assertThat(compressedMessage.getCompressor().getName()).isEqualTo(compressor.getName());
+            assertThat(uncompressedMessage.getCompressor()).isNull();
+            assertThat(compressedMessage.getDocument()).isEqualTo(uncompressedMessage.getDocument());
+        } finally {
+            channel.finishAndReleaseAll();
+        }
+    }
+
+    @Test
+    public void testDecodeKillCursors() throws Exception {
+        ByteBuf buffer = Unpooled.buffer();
+        writeHeader(buffer, OpCode.OP_KILL_CURSORS);
+        buffer.writeIntLE(0); // reserved
+        buffer.writeIntLE(2);
+        buffer.writeLongLE(17L);
+        buffer.writeLongLE(42L);
+        buffer.setIntLE(0, buffer.writerIndex());
+
+        MongoKillCursors killCursors = decode(buffer);
+        assertThat(killCursors.getCursorIds()).containsExactly(17L, 42L);
+        assertThat(killCursors.getDatabaseName()).isNull();
+        assertThat(killCursors.getCollectionName()).isNull();
+        assertThat(killCursors.toString()).contains("cursorIds: [17, 42]");
+    }
+
+    private static void writeHeader(ByteBuf buffer, OpCode opCode) {
+        buffer.writeIntLE(0); // length
+        buffer.writeIntLE(1); // requestID
+        buffer.writeIntLE(0); // responseTo
+        buffer.writeIntLE(opCode.getId());
+    }
+
+    private static <T> T decode(ByteBuf buffer) {
+        EmbeddedChannel channel = new EmbeddedChannel(new MongoWireProtocolHandler());
+        try {
+            assertThat(channel.writeInbound(buffer)).isTrue();
+            return channel.readInbound();
+        } finally {
+            channel.finishAndReleaseAll();
+        }
+    }
+
+}
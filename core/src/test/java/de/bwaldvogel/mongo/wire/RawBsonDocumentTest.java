@@ -0,0 +1,248 @@
+package de.bwaldvogel.mongo.wire;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import de.bwaldvogel.mongo.bson.Document;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
+public class RawBsonDocumentTest {
+
+    private static final Document DOCUMENT = new Document("_id", 1)
+        .append("name", "foo")
+        .append("nested", new Document("a", new Document("b", 2)))
+        .append("array", Arrays.asList(1, new Document("c", 3)));
+
+    @Test
+    public void testEncodeUnmodifiedDocument() throws Exception {
+        byte[] bytes = encode(DOCUMENT);
+        RawBsonDocument document = decodeRaw(bytes);
+
+        assertThat(document).isEqualTo(DOCUMENT);
+        assertThat(DOCUMENT).isEqualTo(document);
+        assertThat(document.hashCode()).isEqualTo(DOCUMENT.hashCode());
+        assertThat(((Document) document.get("nested")).get("a")).isEqualTo(new Document("b", 2));
+        for (String key : document.keySet()) {
+            assertThat(document.get(key)).isNotNull();
+        }
+
+        assertThat(document.getBytes()).isEqualTo(bytes);
+        assertThat(new BsonEncoder().calculateSize(document)).isEqualTo(bytes.length);
+        assertThat(encode(document)).isEqualTo(bytes);
+    }
+
+    @Test
+    public void testLookUpScalarFieldsWithoutDecoding() throws Exception {
+        RawBsonDocument document = decodeRaw(encode(new Document(DOCUMENT).append("null", null).append("\u00e4", "x")));
+
+        assertThat(document.get("_id")).isEqualTo(1);
+        assertThat(document.containsKey("_id")).isTrue();
+        assertThat(document.get("name")).isEqualTo("foo");
+        assertThat(document.get("null")).isNull();
+        assertThat(document.containsKey("null")).isTrue();
+        assertThat(document.get("\u00e4")).isEqualTo("x");
+        assertThat(document.get("missing")).isNull();
+        assertThat(document.containsKey("missing")).isFalse();
+        assertThat(document.containsKey("nam")).isFalse();
+        assertThat(document.isDecoded()).isFalse();
+
+        assertThat(document.get("nested")).isEqualTo(new Document("a", new Document("b", 2)));
+        assertThat(document.isDecoded()).isTrue();
+    }
+
+    @Test
+    public void testEmbeddedDocumentsShareTheBytesOfTheirParent() throws Exception {
+        byte[] bytes = encode(DOCUMENT);
+        RawBsonDocument document = decodeRaw(bytes);
+        RawBsonDocument nested = (RawBsonDocument) document.get("nested");
+        RawBsonDocument deeplyNested = (RawBsonDocument) nested.get("a");
+        @SuppressWarnings("unchecked")
+        List<Object> array = (List<Object>) document.get("array");
+        RawBsonDocument nestedInArray = (RawBsonDocument) array.get(1);
+        assertThat(deeplyNested.get("b")).isEqualTo(2);
+        assertThat(nestedInArray.keySet()).containsExactly("c");
+
+        assertThat(retainedByteArrays(document)).isEqualTo(bytes.length);
+        assertThat(deeplyNested.getBytes()).isEqualTo(encode(new Document("b", 2)));
+        assertThat(encode(nestedInArray)).isEqualTo(encode(new Document("c", 3)));
+        assertThat(encode(document)).isEqualTo(bytes);
+    }
+
+    @Test
+    public void testModifyDocument() throws Exception {
+        RawBsonDocument document = decodeRaw(encode(DOCUMENT));
+        document.put("name", "bar");
+        assertThat(document.getBytes()).isNull();
+        assertThat(decode(encode(document))).isEqualTo(new Document(DOCUMENT).append("name", "bar"));
+    }
+
+    @Test
+    public void testModifyEmbeddedDocument() throws Exception {
+        RawBsonDocument document = decodeRaw(encode(DOCUMENT));
+        Document nested = (Document) ((Document) document.get("nested")).get("a");
+        nested.put("b", 3);
+        assertThat(document.getBytes()).isNull();
+
+        Document expected = new Document(DOCUMENT).append("nested", new Document("a", new Document("b", 3)));
+        assertThat(decode(encode(document))).isEqualTo(expected);
+    }
+
+    @Test
+    public void testModifyArray() throws Exception {
+        RawBsonDocument document = decodeRaw(encode(DOCUMENT));
+        @SuppressWarnings("unchecked")
+        List<Object> array = (List<Object>) document.get("array");
+        array.add(4);
+        assertThat(document.getBytes()).isNull();
+
+        Document expected = new Document(DOCUMENT).append("array", Arrays.asList(1, new Document("c", 3), 4));
+        assertThat(decode(encode(document))).isEqualTo(expected);
+    }
+
+    @Test
+    public void testModifyThroughEntrySet() throws Exception {
+        RawBsonDocument document = decodeRaw(encode(DOCUMENT));
+        document.entrySet().iterator().next().setValue(2);
+        assertThat(document.getBytes()).isNull();
+        assertThat(decode(encode(document)).get("_id")).isEqualTo(2);
+
+        document = decodeRaw(encode(DOCUMENT));
+        document.keySet().remove("name");
+        assertThat(document.getBytes()).isNull();
+        assertThat(decode(encode(document)).keySet()).containsExactly("_id", "nested", "array");
+    }
+
+    @Test
+    public void testSerializeAsPlainDocument() throws Exception {
+        byte[] bytes = encode(DOCUMENT);
+        byte[] serialized = serialize(decodeRaw(bytes));
+        assertThat(serialized).isEqualTo(serialize(decode(bytes)));
+
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            Object deserialized = in.readObject();
+            assertThat(deserialized.getClass()).isEqualTo(Document.class);
+            assertThat(deserialized).isEqualTo(DOCUMENT);
+        }
+    }
+
+    @Test
+    public void testRejectUnsupportedTypeInEmbeddedDocument() throws Exception {
+        byte[] bytes = encode(new Document("_id", 1).append("a", new Document("b", "x")));
+        // patch the type of the embedded string to JavaScript code which has the same layout
+        int typeIndex = indexOf(bytes, new byte[] { BsonConstants.TYPE_UTF8_STRING, 'b', 0 });
+        bytes[typeIndex] = BsonConstants.TYPE_JAVASCRIPT_CODE;
+
+        try {
+            decodeRaw(bytes);
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertThat(e).hasMessage("unhandled type: 0xd");
+        }
+    }
+
+    @Test
+    public void testRejectMalformedEmbeddedDocument() throws Exception {
+        byte[] bytes = encode(new Document("_id", 1).append("a", new Document("b", 2)));
+        int typeIndex = indexOf(bytes, new byte[] { BsonConstants.TYPE_EMBEDDED_DOCUMENT, 'a', 0 });
+        // let the embedded document extend beyond its parent
+        bytes[typeIndex + 3] += 2;
+
+        try {
+            decodeRaw(bytes);
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).startsWith("illegal BSON object");
+        }
+    }
+
+    private static long retainedByteArrays(Object root) throws Exception {
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Object> stack = new ArrayDeque<>();
+        stack.push(root);
+        long size = 0;
+        while (!stack.isEmpty()) {
+            Object object = stack.pop();
+            if (object instanceof Class || !visited.add(object)) {
+                continue;
+            }
+            if (object instanceof byte[]) {
+                size += ((byte[]) object).length;
+            } else if (object instanceof Object[]) {
+                for (Object element : (Object[]) object) {
+                    if (element != null) {
+                        stack.push(element);
+                    }
+                }
+            } else {
+                for (Class<?> clazz = object.getClass(); clazz != null; clazz = clazz.getSuperclass()) {
+                    for (Field field : clazz.getDeclaredFields()) {
+                        if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) {
+                            continue;
+                        }
+                        field.setAccessible(true);
+                        Object value = field.get(object);
+                        if (value != null) {
+                            stack.push(value);
+                        }
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
+    private static int indexOf(byte[] bytes, byte[] pattern) {
+        for (int i = 0; i <= bytes.length - pattern.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + pattern.length), pattern)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("pattern not found");
+    }
+
+    private static byte[] serialize(Object object) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(out)) {
+            objectOutputStream.writeObject(object);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] encode(Document document) throws Exception {
+        ByteBuf buffer = Unpooled.buffer();
+        try {
+            new BsonEncoder().encodeDocument(document, buffer);
+            return ByteBufUtil.getBytes(buffer);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    private static RawBsonDocument decodeRaw(byte[] bytes) throws Exception {
+        return (RawBsonDocument) new BsonDecoder().decodeRawBson(Unpooled.wrappedBuffer(bytes));
+    }
+
+    private static Document decode(byte[] bytes) throws Exception {
+        return new BsonDecoder().decodeBson(Unpooled.wrappedBuffer(bytes));
+    }
+
+}
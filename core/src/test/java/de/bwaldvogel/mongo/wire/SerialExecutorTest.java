@@ -0,0 +1,57 @@
+package de.bwaldvogel.mongo.wire;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class SerialExecutorTest {
+
+    @Test(timeout = 10000)
+    public void testKeepsSubmissionOrder() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+            SerialExecutor serialExecutor = new SerialExecutor(executorService, e -> {
+                throw e;
+            });
+            CountDownLatch latch = new CountDownLatch(1000);
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                Integer value = Integer.valueOf(i);
+                expected.add(value);
+                serialExecutor.execute(() -> {
+                    executed.add(value);
+                    latch.countDown();
+                });
+            }
+            latch.await();
+            assertThat(executed).isEqualTo(expected);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRejection() throws Exception {
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        executorService.shutdown();
+        executorService.awaitTermination(1, TimeUnit.SECONDS);
+
+        AtomicReference<RuntimeException> rejection = new AtomicReference<>();
+        SerialExecutor serialExecutor = new SerialExecutor(executorService, rejection::set);
+        serialExecutor.execute(() -> {
+        });
+        assertThat(rejection.get()).isInstanceOf(RejectedExecutionException.class);
+    }
+
+}
@@ -13,6 +13,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.bwaldvogel.mongo.backend.AbstractMongoCollection;
+import de.bwaldvogel.mongo.backend.CompiledQuery;
 import de.bwaldvogel.mongo.backend.DocumentComparator;
 import de.bwaldvogel.mongo.backend.NullableKey;
 import de.bwaldvogel.mongo.backend.Utils;
@@ -102,7 +103,11 @@ public class H2Collection extends AbstractMongoCollection<Object> {
 
 
     @Override
-    protected Iterable<Document> matchDocuments(Document query, Iterable<Object> positions, Document orderBy, int numberToSkip, int numberToReturn) throws MongoServerException {
+    protected Iterable<Document> matchDocuments(CompiledQuery query, Iterable<Object> positions, Document orderBy, int numberToSkip, int numberToReturn) throws MongoServerException {
+
+        if (orderBy == null || orderBy.keySet().isEmpty()) {
+            return matchPositionsLazily(query, positions, numberToSkip, numberToReturn);
+        }
 
         List<Document> matchedDocuments = new ArrayList<>();
 
@@ -127,8 +132,14 @@ public class H2Collection extends AbstractMongoCollection<Object> {
     }
 
     @Override
-    protected Iterable<Document> matchDocuments(Document query, Document orderBy, int numberToSkip,
+    protected Iterable<Document> matchDocuments(CompiledQuery query, Document orderBy, int numberToSkip,
             int numberToReturn) throws MongoServerException {
+        if (orderBy == null || orderBy.keySet().isEmpty()
+                || (orderBy.keySet().iterator().next().equals("$natural") && Integer.valueOf(1).equals(orderBy.get("$natural")))) {
+            // the documents are deserialized one by one while the cursor advances
+            return matchDocumentsLazily(query, dataMap.values(), numberToSkip, numberToReturn);
+        }
+
         List<Document> matchedDocuments = new ArrayList<>();
 
         for (Document document : dataMap.values()) {
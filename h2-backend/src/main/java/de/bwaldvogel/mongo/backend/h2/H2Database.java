@@ -1,6 +1,7 @@
 package de.bwaldvogel.mongo.backend.h2;
 
 import java.io.IOException;
+import java.util.List;
 
 import org.h2.mvstore.FileStore;
 import org.h2.mvstore.MVMap;
@@ -11,6 +12,7 @@ import de.bwaldvogel.mongo.MongoCollection;
 import de.bwaldvogel.mongo.MongoDatabase;
 import de.bwaldvogel.mongo.backend.AbstractMongoDatabase;
 import de.bwaldvogel.mongo.backend.Index;
+import de.bwaldvogel.mongo.backend.IndexKey;
 import de.bwaldvogel.mongo.bson.Document;
 import de.bwaldvogel.mongo.exception.MongoServerException;
 
@@ -18,6 +20,8 @@ public class H2Database extends AbstractMongoDatabase<Object> {
 
     private static final String META_PREFIX = "meta.";
     static final String DATABASES_PREFIX = "databases.";
+    private static final String INDEX_INFIX = "._index_";
+    private static final String NON_UNIQUE_SUFFIX = "._nonunique";
 
     private MVStore mvStore;
 
@@ -28,9 +32,46 @@ public class H2Database extends AbstractMongoDatabase<Object> {
     }
 
     @Override
-    protected Index<Object> openOrCreateUniqueIndex(String collectionName, String key, boolean ascending) {
-        MVMap<Object, Object> mvMap = mvStore.openMap(databaseName + "." + collectionName + "._index_" + key);
-        return new H2UniqueIndex(key, ascending, mvMap);
+    protected Index<Object> openOrCreateUniqueIndex(String collectionName, List<IndexKey> keys) {
+        String mapName = getIndexMapName(collectionName, keys);
+        if (keys.size() == 1 && !mvStore.hasMap(mapName)) {
+            // previous versions named the map of a single key index after the key only
+            String legacyMapName = databaseName + "." + collectionName + INDEX_INFIX + keys.get(0).getKey();
+            if (mvStore.hasMap(legacyMapName)) {
+                mvStore.renameMap(mvStore.openMap(legacyMapName), mapName);
+            }
+        }
+        MVMap<Object, Object> mvMap = mvStore.openMap(mapName);
+        return new H2UniqueIndex(keys, mvMap);
+    }
+
+    @Override
+    protected Index<Object> openOrCreateNonUniqueIndex(String collectionName, List<IndexKey> keys) {
+        String fullCollectionName = databaseName + "." + collectionName;
+        MVMap<Object, Object> mvMap = mvStore.openMap(getIndexMapName(collectionName, keys) + NON_UNIQUE_SUFFIX,
+                H2NonUniqueIndex.mapBuilder());
+        MVMap<String, Object> metaMap = mvStore.openMap(META_PREFIX + fullCollectionName);
+        return new H2NonUniqueIndex(keys, mvMap, metaMap);
+    }
+
+    /**
+     * The map name contains the keys and directions of the index in the form
+     * of a key pattern, like <code>{"a":1,"b":-1}</code>, so that it is
+     * distinct for every index of the collection.
+     */
+    private String getIndexMapName(String collectionName, List<IndexKey> keys) {
+        StringBuilder name = new StringBuilder(databaseName + "." + collectionName + INDEX_INFIX);
+        name.append('{');
+        for (int i = 0; i < keys.size(); i++) {
+            if (i > 0) {
+                name.append(',');
+            }
+            IndexKey indexKey = keys.get(i);
+            String escapedKey = indexKey.getKey().replace("\\", "\\\\").replace("\"", "\\\"");
+            name.append('"').append(escapedKey).append("\":").append(indexKey.isAscending() ? "1" : "-1");
+        }
+        name.append('}');
+        return name.toString();
     }
 
     @Override
@@ -68,6 +109,11 @@ public class H2Database extends AbstractMongoDatabase<Object> {
         MVMap<String, Object> metaMap = mvStore.openMap(META_PREFIX + fullCollectionName);
         mvStore.removeMap(dataMap);
         mvStore.removeMap(metaMap);
+        for (String mapName : mvStore.getMapNames()) {
+            if (mapName.startsWith(fullCollectionName + INDEX_INFIX)) {
+                mvStore.removeMap(mvStore.openMap(mapName));
+            }
+        }
     }
 
     @Override
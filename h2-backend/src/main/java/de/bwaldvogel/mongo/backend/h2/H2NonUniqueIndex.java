@@ -0,0 +1,132 @@
+package de.bwaldvogel.mongo.backend.h2;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.type.ObjectDataType;
+
+import de.bwaldvogel.mongo.backend.AbstractNonUniqueIndex;
+import de.bwaldvogel.mongo.backend.IndexKey;
+import de.bwaldvogel.mongo.backend.NullableKey;
+import de.bwaldvogel.mongo.backend.ValueComparator;
+
+/**
+ * Stores every pair of key and position as a single key of the map, ordered by
+ * the key first and the position second.
+ */
+public class H2NonUniqueIndex extends AbstractNonUniqueIndex<Object> {
+
+    private static final ValueComparator COMPARATOR = new ValueComparator();
+    private static final String MULTI_KEY_PREFIX = "multiKey.";
+
+    private final MVMap<Object, Object> mvMap;
+    private final MVMap<String, Object> metaMap;
+
+    public H2NonUniqueIndex(List<IndexKey> keys, MVMap<Object, Object> mvMap, MVMap<String, Object> metaMap) {
+        super(keys);
+        this.mvMap = mvMap;
+        this.metaMap = metaMap;
+        if (metaMap.containsKey(MULTI_KEY_PREFIX + mvMap.getName())) {
+            super.setMultiKey();
+        }
+    }
+
+    static MVMap.Builder<Object, Object> mapBuilder() {
+        return new MVMap.Builder<Object, Object>().keyType(new IndexEntryDataType());
+    }
+
+    @Override
+    protected void setMultiKey() {
+        if (!isMultiKey()) {
+            super.setMultiKey();
+            metaMap.put(MULTI_KEY_PREFIX + mvMap.getName(), Boolean.TRUE);
+        }
+    }
+
+    @Override
+    protected boolean addPosition(List<Object> key, Object position) {
+        Object oldValue = mvMap.put(Arrays.asList(key, NullableKey.of(position)), Boolean.TRUE);
+        return oldValue == null;
+    }
+
+    @Override
+    protected void removePosition(List<Object> key, Object position) {
+        mvMap.remove(Arrays.asList(key, NullableKey.of(position)));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected Iterable<Entry<List<Object>, Object>> getEntries(List<Object> fromKey, boolean fromInclusive,
+            List<Object> toKey, boolean toInclusive) {
+        List<Entry<List<Object>, Object>> entries = new ArrayList<>();
+        Iterator<Object> iterator = mvMap.keyIterator(Collections.singletonList(fromKey));
+        while (iterator.hasNext()) {
+            List<Object> entry = (List<Object>) iterator.next();
+            List<Object> key = (List<Object>) entry.get(0);
+            if (!fromInclusive && COMPARATOR.compare(key, fromKey) == 0) {
+                continue;
+            }
+            int comparison = COMPARATOR.compare(key, toKey);
+            if (comparison > 0 || (comparison == 0 && !toInclusive)) {
+                break;
+            }
+            entries.add(new SimpleImmutableEntry<>(key, entry.get(1)));
+        }
+        return entries;
+    }
+
+    @Override
+    public long getCount() {
+        return mvMap.sizeAsLong();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public long getDataSize() {
+        long dataSize = 0;
+        for (Object entry : mvMap.keySet()) {
+            dataSize += calculateKeySize((List<Object>) ((List<Object>) entry).get(0));
+        }
+        return dataSize;
+    }
+
+    /**
+     * Orders the pairs of key and position with the {@link ValueComparator}.
+     * A single key without position is ordered before all its pairs, so that
+     * it can be used as the start of an iteration.
+     */
+    private static class IndexEntryDataType extends ObjectDataType {
+
+        @Override
+        public int compare(Object a, Object b) {
+            List<?> entry1 = (List<?>) a;
+            List<?> entry2 = (List<?>) b;
+            int comparison = COMPARATOR.compare(entry1.get(0), entry2.get(0));
+            if (comparison != 0) {
+                return comparison;
+            }
+            if (entry1.size() != entry2.size()) {
+                return Integer.compare(entry1.size(), entry2.size());
+            }
+            if (entry1.size() == 1) {
+                return 0;
+            }
+            return COMPARATOR.compare(unwrap(entry1.get(1)), unwrap(entry2.get(1)));
+        }
+
+        private static Object unwrap(Object position) {
+            if (position instanceof NullableKey) {
+                return null;
+            }
+            return position;
+        }
+
+    }
+
+}
@@ -1,18 +1,20 @@
 package de.bwaldvogel.mongo.backend.h2;
 
+import java.util.List;
 import java.util.Map.Entry;
 
 import org.h2.mvstore.MVMap;
 
 import de.bwaldvogel.mongo.backend.AbstractUniqueIndex;
+import de.bwaldvogel.mongo.backend.IndexKey;
 import de.bwaldvogel.mongo.backend.NullableKey;
 
 public class H2UniqueIndex extends AbstractUniqueIndex<Object> {
 
     private MVMap<Object, Object> mvMap;
 
-    public H2UniqueIndex(String key, boolean ascending, MVMap<Object, Object> mvMap) {
-        super(key, ascending);
+    public H2UniqueIndex(List<IndexKey> keys, MVMap<Object, Object> mvMap) {
+        super(keys);
         this.mvMap = mvMap;
     }
 
@@ -47,9 +49,4 @@ public class H2UniqueIndex extends AbstractUniqueIndex<Object> {
         return mvMap.sizeAsLong();
     }
 
-    @Override
-    public long getDataSize() {
-        return getCount();
-    }
-
 }
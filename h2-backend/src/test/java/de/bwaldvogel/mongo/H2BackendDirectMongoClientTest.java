@@ -0,0 +1,14 @@
+package de.bwaldvogel.mongo;
+
+import de.bwaldvogel.mongo.backend.AbstractMongoBackend;
+import de.bwaldvogel.mongo.backend.h2.H2Backend;
+import de.bwaldvogel.mongo.direct.AbstractDirectMongoClientTest;
+
+public class H2BackendDirectMongoClientTest extends AbstractDirectMongoClientTest {
+
+    @Override
+    protected AbstractMongoBackend createBackend() {
+        return H2Backend.inMemory();
+    }
+
+}
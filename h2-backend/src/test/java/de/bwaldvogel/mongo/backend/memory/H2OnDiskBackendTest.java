@@ -3,8 +3,12 @@ package de.bwaldvogel.mongo.backend.memory;
 import static de.bwaldvogel.mongo.backend.TestUtils.json;
 import static de.bwaldvogel.mongo.backend.TestUtils.toArray;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
 import java.util.List;
 
@@ -15,6 +19,9 @@ import org.junit.rules.TemporaryFolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.model.IndexOptions;
+
 import de.bwaldvogel.mongo.MongoBackend;
 import de.bwaldvogel.mongo.backend.AbstractBackendTest;
 import de.bwaldvogel.mongo.backend.h2.H2Backend;
@@ -90,6 +97,29 @@ public class H2OnDiskBackendTest extends AbstractBackendTest {
         assertThat(indexesAfterRestart).isEqualTo(indexes);
     }
 
+    @Test
+    public void testShutdownAndRestartKeepsCompoundIndexes() throws Exception {
+        collection.createIndex(json("tenantId: 1, externalId: 1"), new IndexOptions().unique(true));
+        collection.createIndex(json("tenantId: 1, tags: 1"));
+
+        collection.insertOne(json("_id: 1, tenantId: 'a', externalId: 1, tags: ['x', 'y']"));
+        collection.insertOne(json("_id: 2, tenantId: 'a', externalId: 2, tags: 'z'"));
+
+        restart();
+
+        try {
+            collection.insertOne(json("_id: 3, tenantId: 'a', externalId: 2"));
+            fail("MongoWriteException expected");
+        } catch (MongoWriteException e) {
+            assertThat(e.getMessage()).contains("duplicate key error");
+        }
+
+        assertThat(toArray(collection.find(json("tenantId: 'a', externalId: 2")).projection(json("_id: 1"))))
+            .containsExactly(json("_id: 2"));
+        assertThat(toArray(collection.find(json("tenantId: 'a', tags: 'y'")).projection(json("_id: 1"))))
+            .containsExactly(json("_id: 1"));
+    }
+
     @Test
     public void testShutdownAndRestartKeepsStatistics() throws Exception {
         collection.createIndex(json("a: 1"));
@@ -109,6 +139,43 @@ public class H2OnDiskBackendTest extends AbstractBackendTest {
         assertThat(statsAfter).isEqualTo(statsBefore);
     }
 
+    @Test
+    public void testReadStoreOfPreviousVersion() throws Exception {
+        shutdownServer();
+        // written by the version that serialized documents as a single map
+        try (InputStream legacyStore = getClass().getResourceAsStream("/H2OnDiskBackendTest-legacy.mv")) {
+            Files.copy(legacyStore, tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        spinUpServer();
+
+        Document large = json("_id: 2, name: 'large'");
+        for (int i = 0; i < 20; i++) {
+            large.append("key" + i, i);
+        }
+
+        assertThat(toArray(collection.find().sort(json("_id: 1")))).containsExactly(
+            json("_id: 1, name: 'foo', nested: {a: {b: 2}}, array: [1, {c: 3}]"),
+            large);
+        assertThat(collection.find(json("'nested.a.b': 2")).first()).containsEntry("_id", 1);
+
+        try {
+            collection.insertOne(json("_id: 3, name: 'foo'"));
+            fail("MongoWriteException expected");
+        } catch (MongoWriteException e) {
+            assertThat(e.getMessage()).contains("duplicate key error");
+        }
+
+        collection.insertOne(json("_id: 3, name: 'bar', nested: {a: 3}"));
+
+        restart();
+
+        assertThat(toArray(collection.find(json("name: {$in: ['foo', 'bar']}")).sort(json("_id: 1"))))
+            .containsExactly(
+                json("_id: 1, name: 'foo', nested: {a: {b: 2}}, array: [1, {c: 3}]"),
+                json("_id: 3, name: 'bar', nested: {a: 3}"));
+        assertThat(collection.find(json("_id: 2")).first()).isEqualTo(large);
+    }
+
     private void restart() throws Exception {
         shutdownServer();
         spinUpServer();
@@ -12,6 +12,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.bwaldvogel.mongo.backend.AbstractMongoCollection;
+import de.bwaldvogel.mongo.backend.CompiledQuery;
 import de.bwaldvogel.mongo.backend.DocumentComparator;
 import de.bwaldvogel.mongo.bson.Document;
 import de.bwaldvogel.mongo.exception.MongoServerException;
@@ -54,7 +55,11 @@ public class MemoryCollection extends AbstractMongoCollection<Integer> {
     }
 
     @Override
-    protected Iterable<Document> matchDocuments(Document query, Iterable<Integer> positions, Document orderBy, int numberToSkip, int numberToReturn) throws MongoServerException {
+    protected Iterable<Document> matchDocuments(CompiledQuery query, Iterable<Integer> positions, Document orderBy, int numberToSkip, int numberToReturn) throws MongoServerException {
+
+        if (orderBy == null || orderBy.keySet().isEmpty()) {
+            return matchPositionsLazily(query, positions, numberToSkip, numberToReturn);
+        }
 
         List<Document> matchedDocuments = new ArrayList<>();
 
@@ -79,10 +84,8 @@ public class MemoryCollection extends AbstractMongoCollection<Integer> {
     }
 
     @Override
-    protected Iterable<Document> matchDocuments(Document query, Document orderBy, int numberToSkip,
+    protected Iterable<Document> matchDocuments(CompiledQuery query, Document orderBy, int numberToSkip,
             int numberToReturn) throws MongoServerException {
-        List<Document> matchedDocuments = new ArrayList<>();
-
         boolean ascending = true;
         if (orderBy != null && !orderBy.keySet().isEmpty()) {
             if (orderBy.keySet().iterator().next().equals("$natural")) {
@@ -90,22 +93,26 @@ public class MemoryCollection extends AbstractMongoCollection<Integer> {
                 if (sortValue == -1) {
                     ascending = false;
                 }
+            } else {
+                return matchAndSortDocuments(query, orderBy, numberToSkip, numberToReturn);
             }
         }
 
-        for (Document document : iterateAllDocuments(ascending)) {
+        // already sorted, so the documents are matched while the cursor advances
+        return matchDocumentsLazily(query, iterateAllDocuments(ascending), numberToSkip, numberToReturn);
+    }
+
+    private List<Document> matchAndSortDocuments(CompiledQuery query, Document orderBy, int numberToSkip,
+            int numberToReturn) {
+        List<Document> matchedDocuments = new ArrayList<>();
+
+        for (Document document : iterateAllDocuments(true)) {
             if (documentMatchesQuery(document, query)) {
                 matchedDocuments.add(document);
             }
         }
 
-        if (orderBy != null && !orderBy.keySet().isEmpty()) {
-            if (orderBy.keySet().iterator().next().equals("$natural")) {
-                // already sorted
-            } else {
-                matchedDocuments.sort(new DocumentComparator(orderBy));
-            }
-        }
+        matchedDocuments.sort(new DocumentComparator(orderBy));
 
         if (numberToSkip > 0) {
             if (numberToSkip < matchedDocuments.size()) {
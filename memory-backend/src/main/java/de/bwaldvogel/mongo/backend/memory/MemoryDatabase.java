@@ -1,7 +1,11 @@
 package de.bwaldvogel.mongo.backend.memory;
 
+import java.util.List;
+
 import de.bwaldvogel.mongo.MongoBackend;
 import de.bwaldvogel.mongo.backend.AbstractMongoDatabase;
+import de.bwaldvogel.mongo.backend.IndexKey;
+import de.bwaldvogel.mongo.backend.memory.index.MemoryNonUniqueIndex;
 import de.bwaldvogel.mongo.backend.memory.index.MemoryUniqueIndex;
 import de.bwaldvogel.mongo.exception.MongoServerException;
 
@@ -18,8 +22,13 @@ public class MemoryDatabase extends AbstractMongoDatabase<Integer> {
     }
 
     @Override
-    protected MemoryUniqueIndex openOrCreateUniqueIndex(String collectionName, String key, boolean ascending) {
-        return new MemoryUniqueIndex(key, ascending);
+    protected MemoryUniqueIndex openOrCreateUniqueIndex(String collectionName, List<IndexKey> keys) {
+        return new MemoryUniqueIndex(keys);
+    }
+
+    @Override
+    protected MemoryNonUniqueIndex openOrCreateNonUniqueIndex(String collectionName, List<IndexKey> keys) {
+        return new MemoryNonUniqueIndex(keys);
     }
 
     @Override
@@ -0,0 +1,76 @@
+package de.bwaldvogel.mongo.backend.memory.index;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import de.bwaldvogel.mongo.backend.AbstractNonUniqueIndex;
+import de.bwaldvogel.mongo.backend.IndexKey;
+import de.bwaldvogel.mongo.backend.ValueComparator;
+
+public class MemoryNonUniqueIndex extends AbstractNonUniqueIndex<Integer> {
+
+    private final NavigableMap<List<Object>, Set<Integer>> index = new TreeMap<>(new ValueComparator());
+    private long count;
+
+    public MemoryNonUniqueIndex(List<IndexKey> keys) {
+        super(keys);
+    }
+
+    @Override
+    public synchronized long getCount() {
+        return count;
+    }
+
+    @Override
+    public synchronized long getDataSize() {
+        long dataSize = 0;
+        for (Entry<List<Object>, Set<Integer>> entry : index.entrySet()) {
+            dataSize += calculateKeySize(entry.getKey()) * entry.getValue().size();
+        }
+        return dataSize;
+    }
+
+    @Override
+    protected boolean addPosition(List<Object> key, Integer position) {
+        Set<Integer> positions = index.get(key);
+        if (positions == null) {
+            positions = new LinkedHashSet<>();
+            index.put(key, positions);
+        }
+        boolean added = positions.add(position);
+        if (added) {
+            count++;
+        }
+        return added;
+    }
+
+    @Override
+    protected void removePosition(List<Object> key, Integer position) {
+        Set<Integer> positions = index.get(key);
+        if (positions != null && positions.remove(position)) {
+            count--;
+            if (positions.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    @Override
+    protected Iterable<Entry<List<Object>, Integer>> getEntries(List<Object> fromKey, boolean fromInclusive,
+            List<Object> toKey, boolean toInclusive) {
+        List<Entry<List<Object>, Integer>> entries = new ArrayList<>();
+        for (Entry<List<Object>, Set<Integer>> entry : index.subMap(fromKey, fromInclusive, toKey, toInclusive).entrySet()) {
+            for (Integer position : entry.getValue()) {
+                entries.add(new SimpleImmutableEntry<>(entry.getKey(), position));
+            }
+        }
+        return entries;
+    }
+
+}
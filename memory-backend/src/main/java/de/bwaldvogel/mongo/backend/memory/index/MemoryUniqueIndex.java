@@ -1,18 +1,20 @@
 package de.bwaldvogel.mongo.backend.memory.index;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 
 import de.bwaldvogel.mongo.backend.AbstractUniqueIndex;
+import de.bwaldvogel.mongo.backend.IndexKey;
 import de.bwaldvogel.mongo.backend.NullableKey;
 
 public class MemoryUniqueIndex extends AbstractUniqueIndex<Integer> {
 
     private Map<Object, Integer> index = new ConcurrentHashMap<>();
 
-    public MemoryUniqueIndex(String key, boolean ascending) {
-        super(key, ascending);
+    public MemoryUniqueIndex(List<IndexKey> keys) {
+        super(keys);
     }
 
     @Override
@@ -20,11 +22,6 @@ public class MemoryUniqueIndex extends AbstractUniqueIndex<Integer> {
         return index.size();
     }
 
-    @Override
-    public long getDataSize() {
-        return getCount(); // TODO
-    }
-
     @Override
     protected Integer removeDocument(Object key) {
         return index.remove(NullableKey.of(key));
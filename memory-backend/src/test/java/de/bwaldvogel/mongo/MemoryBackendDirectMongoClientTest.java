@@ -0,0 +1,14 @@
+package de.bwaldvogel.mongo;
+
+import de.bwaldvogel.mongo.backend.AbstractMongoBackend;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import de.bwaldvogel.mongo.direct.AbstractDirectMongoClientTest;
+
+public class MemoryBackendDirectMongoClientTest extends AbstractDirectMongoClientTest {
+
+    @Override
+    protected AbstractMongoBackend createBackend() {
+        return new MemoryBackend();
+    }
+
+}
@@ -1,5 +1,13 @@
 package de.bwaldvogel.mongo.backend.memory;
 
+import static de.bwaldvogel.mongo.backend.TestUtils.json;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.bson.Document;
+import org.junit.Test;
+
+import com.mongodb.client.model.IndexOptions;
+
 import de.bwaldvogel.mongo.MongoBackend;
 import de.bwaldvogel.mongo.backend.AbstractBackendTest;
 
@@ -10,4 +18,64 @@ public class MemoryBackendTest extends AbstractBackendTest {
         return new MemoryBackend();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testNonUniqueIndexIsUsed() throws Exception {
+        String collectionName = collection.getNamespace().getCollectionName();
+        collection.insertOne(json("_id: 1, status: 'open'"));
+        collection.insertOne(json("_id: 2, status: 'closed'"));
+        collection.createIndex(json("status: 1"));
+        collection.insertOne(json("_id: 3, status: 'open'"));
+
+        Document response = db.runCommand(json("explain: {find: '" + collectionName + "', filter: {status: 'open'}}"));
+        Document executionStats = (Document) response.get("executionStats");
+        assertThat(executionStats.get("nReturned")).isEqualTo(2);
+        assertThat(executionStats.get("totalKeysExamined")).isEqualTo(2);
+        assertThat(executionStats.get("totalDocsExamined")).isEqualTo(2);
+        Document indexScanStage = (Document) ((Document) executionStats.get("executionStages")).get("inputStage");
+        assertThat(indexScanStage.get("stage")).isEqualTo("IXSCAN");
+        assertThat(indexScanStage.get("indexName")).isEqualTo("status_1");
+
+        Document stats = db.runCommand(json("collStats: '" + collectionName + "'"));
+        assertThat(((Document) stats.get("indexSize")).keySet()).containsOnly("_id_", "status_1");
+    }
+
+    @Test
+    public void testCompoundIndexIsUsedForPrefix() throws Exception {
+        String collectionName = collection.getNamespace().getCollectionName();
+        collection.createIndex(json("tenantId: 1, externalId: 1"), new IndexOptions().unique(true));
+        collection.insertOne(json("_id: 1, tenantId: 'a', externalId: 1"));
+        collection.insertOne(json("_id: 2, tenantId: 'a', externalId: 2"));
+        collection.insertOne(json("_id: 3, tenantId: 'b', externalId: 1"));
+
+        Document response = db.runCommand(json("explain: {find: '" + collectionName + "', filter: {tenantId: 'a'}}"));
+        Document executionStats = (Document) response.get("executionStats");
+        assertThat(executionStats.get("nReturned")).isEqualTo(2);
+        assertThat(executionStats.get("totalDocsExamined")).isEqualTo(2);
+        Document indexScanStage = (Document) ((Document) executionStats.get("executionStages")).get("inputStage");
+        assertThat(indexScanStage.get("stage")).isEqualTo("IXSCAN");
+        assertThat(indexScanStage.get("indexName")).isEqualTo("tenantId_1_externalId_1");
+        assertThat(indexScanStage.get("keyPattern")).isEqualTo(json("tenantId: 1, externalId: 1"));
+
+        Document stats = db.runCommand(json("collStats: '" + collectionName + "'"));
+        assertThat(((Document) stats.get("indexSize")).keySet()).containsOnly("_id_", "tenantId_1_externalId_1");
+    }
+
+    @Test
+    public void testIndexSizes() throws Exception {
+        String collectionName = collection.getNamespace().getCollectionName();
+        collection.createIndex(json("status: 1"));
+        collection.insertOne(json("_id: 1, status: 'open'"));
+        collection.insertOne(json("_id: 2, status: 'closed'"));
+        collection.insertOne(json("_id: 3, status: 'open'"));
+
+        // the BSON sizes of {_id: 1.0} and of {status: 'open'} and {status: 'closed'}
+        Document stats = db.runCommand(json("collStats: '" + collectionName + "'"));
+        assertThat(stats.get("indexSize")).isEqualTo(new Document("_id_", 54L).append("status_1", 68L));
+
+        collection.deleteOne(json("_id: 2"));
+
+        stats = db.runCommand(json("collStats: '" + collectionName + "'"));
+        assertThat(stats.get("indexSize")).isEqualTo(new Document("_id_", 36L).append("status_1", 44L));
+    }
+
+}
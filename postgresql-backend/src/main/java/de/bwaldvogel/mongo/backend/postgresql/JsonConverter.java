@@ -7,6 +7,8 @@ import java.util.Map;
 import java.util.Set;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -32,6 +34,7 @@ final class JsonConverter {
         objectMapper.enableDefaultTyping(DefaultTyping.JAVA_LANG_OBJECT, JsonTypeInfo.As.PROPERTY);
 
         objectMapper.registerSubtypes(ObjectId.class);
+        objectMapper.addMixIn(ObjectId.class, ObjectIdMixIn.class);
         objectMapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE);
         objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
 
@@ -46,6 +49,21 @@ final class JsonConverter {
         return objectMapper;
     }
 
+    /**
+     * Keeps the JSON representation of an ObjectId as its bytes.
+     */
+    @JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.NONE)
+    private abstract static class ObjectIdMixIn {
+
+        @JsonCreator
+        ObjectIdMixIn(@JsonProperty("data") byte[] data) {
+        }
+
+        @JsonProperty("data")
+        abstract byte[] toByteArray();
+
+    }
+
     public static String toJson(Object object) throws IOException {
         ObjectWriter writer = objectMapper.writer();
         return writer.writeValueAsString(object);
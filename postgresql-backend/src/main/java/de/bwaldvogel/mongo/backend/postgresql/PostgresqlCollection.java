@@ -10,6 +10,8 @@ import java.util.Collection;
 import java.util.Objects;
 
 import de.bwaldvogel.mongo.backend.AbstractMongoCollection;
+import de.bwaldvogel.mongo.backend.CompiledQuery;
+import de.bwaldvogel.mongo.backend.Index;
 import de.bwaldvogel.mongo.bson.Document;
 import de.bwaldvogel.mongo.exception.MongoServerException;
 
@@ -54,7 +56,7 @@ public class PostgresqlCollection extends AbstractMongoCollection<Long> {
     }
 
     @Override
-    protected Iterable<Document> matchDocuments(Document query, Document orderBy, int numberToSkip, int numberToReturn) throws MongoServerException {
+    protected Iterable<Document> matchDocuments(CompiledQuery query, Document orderBy, int numberToSkip, int numberToReturn) throws MongoServerException {
         Collection<Document> matchedDocuments = new ArrayList<>();
 
         int numMatched = 0;
@@ -127,7 +129,7 @@ public class PostgresqlCollection extends AbstractMongoCollection<Long> {
     }
 
     @Override
-    protected Iterable<Document> matchDocuments(Document query, Iterable<Long> positions, Document orderBy, int numberToSkip, int numberToReturn) throws MongoServerException {
+    protected Iterable<Document> matchDocuments(CompiledQuery query, Iterable<Long> positions, Document orderBy, int numberToSkip, int numberToReturn) throws MongoServerException {
         throw new UnsupportedOperationException("not yet implemented");
     }
 
@@ -244,6 +246,11 @@ public class PostgresqlCollection extends AbstractMongoCollection<Long> {
         }
     }
 
+    @Override
+    protected void addExistingDocuments(Index<Long> index) {
+        // the unique indexes are created and maintained by PostgreSQL
+    }
+
     @Override
     protected int getRecordCount() {
         return 0;
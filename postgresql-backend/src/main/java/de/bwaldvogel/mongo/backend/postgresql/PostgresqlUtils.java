@@ -32,6 +32,14 @@ public final class PostgresqlUtils {
         return sb.toString();
     }
 
+    /**
+     * @return the name as a quoted SQL identifier, with any contained double
+     *         quotes doubled
+     */
+    public static String quoteIdentifier(String name) {
+        return "\"" + name.replace("\"", "\"\"") + "\"";
+    }
+
     public static String toQueryValue(Object queryValue) throws IOException {
         Objects.requireNonNull(queryValue);
         if (queryValue instanceof String) {
@@ -5,15 +5,17 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 import de.bwaldvogel.mongo.backend.Index;
+import de.bwaldvogel.mongo.backend.IndexKey;
 import de.bwaldvogel.mongo.backend.Utils;
 import de.bwaldvogel.mongo.backend.postgresql.PostgresqlBackend;
 import de.bwaldvogel.mongo.backend.postgresql.PostgresqlCollection;
 import de.bwaldvogel.mongo.backend.postgresql.PostgresqlUtils;
 import de.bwaldvogel.mongo.bson.Document;
 import de.bwaldvogel.mongo.exception.DuplicateKeyError;
-import de.bwaldvogel.mongo.exception.KeyConstraintError;
 import de.bwaldvogel.mongo.exception.MongoServerException;
 
 public class PostgresUniqueIndex extends Index<Long> {
@@ -21,12 +23,16 @@ public class PostgresUniqueIndex extends Index<Long> {
     private final PostgresqlBackend backend;
     private final String fullCollectionName;
 
-    public PostgresUniqueIndex(PostgresqlBackend backend, String databaseName, String collectionName, String key, boolean ascending) throws MongoServerException {
-        super(key, ascending);
+    public PostgresUniqueIndex(PostgresqlBackend backend, String databaseName, String collectionName, List<IndexKey> keys) throws MongoServerException {
+        super(keys);
         this.backend = backend;
         fullCollectionName = PostgresqlCollection.getQualifiedTablename(databaseName, collectionName);
-        String indexName = collectionName + "_" + key;
-        String sql = "CREATE UNIQUE INDEX IF NOT EXISTS \"" + indexName + "\" ON " + fullCollectionName + " ((" + PostgresqlUtils.toDataKey(key) + "))";
+        String indexName = PostgresqlUtils.quoteIdentifier(collectionName + "_" + getName());
+        List<String> expressions = new ArrayList<>();
+        for (String key : getKeyNames()) {
+            expressions.add("(" + PostgresqlUtils.toDataKey(key) + ")");
+        }
+        String sql = "CREATE UNIQUE INDEX IF NOT EXISTS " + indexName + " ON " + fullCollectionName + " (" + String.join(", ", expressions) + ")";
         try (Connection connection = backend.getConnection();
              PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.executeUpdate();
@@ -37,16 +43,22 @@ public class PostgresUniqueIndex extends Index<Long> {
 
     @Override
     public void checkAdd(Document document) throws MongoServerException {
-        Object keyValue = Utils.getSubdocumentValue(document, key);
-        String sql = createSelectStatement(keyValue);
+        List<Object> keyValues = new ArrayList<>();
+        for (String key : getKeyNames()) {
+            keyValues.add(Utils.getSubdocumentValue(document, key));
+        }
+        String sql = createSelectStatement(keyValues);
         try (Connection connection = backend.getConnection();
              PreparedStatement stmt = connection.prepareStatement(sql)) {
-            if (keyValue != null) {
-                stmt.setString(1, PostgresqlUtils.toQueryValue(keyValue));
+            int parameterIndex = 1;
+            for (Object keyValue : keyValues) {
+                if (keyValue != null) {
+                    stmt.setString(parameterIndex++, PostgresqlUtils.toQueryValue(keyValue));
+                }
             }
             try (ResultSet resultSet = stmt.executeQuery()) {
                 if (resultSet.next()) {
-                    throw new DuplicateKeyError(this, keyValue);
+                    throw new DuplicateKeyError(this, isCompound() ? keyValues : keyValues.get(0));
                 }
             }
         } catch (SQLException | IOException e) {
@@ -59,31 +71,16 @@ public class PostgresUniqueIndex extends Index<Long> {
     }
 
     @Override
-    public Long remove(Document document) throws MongoServerException {
-        Object keyValue = Utils.getSubdocumentValue(document, key);
-        String sql = createSelectStatement(keyValue);
-        try (Connection connection = backend.getConnection();
-             PreparedStatement stmt = connection.prepareStatement(sql)) {
-            if (keyValue != null) {
-                stmt.setString(1, PostgresqlUtils.toQueryValue(keyValue));
-            }
-            try (ResultSet resultSet = stmt.executeQuery()) {
-                if (!resultSet.next()) {
-                    return null;
-                }
-                long position = resultSet.getLong("id");
-                if (resultSet.next()) {
-                    throw new MongoServerException("got more than one id");
-                }
-                return Long.valueOf(position);
-            }
-        } catch (SQLException | IOException e) {
-            throw new MongoServerException("failed to remove document from " + fullCollectionName, e);
-        }
+    public void remove(Document document, Long position) {
     }
 
-    private String createSelectStatement(Object keyValue) {
-        return "SELECT id FROM " + fullCollectionName + " WHERE " + PostgresqlUtils.toDataKey(key) + (keyValue == null ? " IS NULL" : " = ?");
+    private String createSelectStatement(List<Object> keyValues) {
+        List<String> conditions = new ArrayList<>();
+        List<String> keyNames = getKeyNames();
+        for (int i = 0; i < keyNames.size(); i++) {
+            conditions.add(PostgresqlUtils.toDataKey(keyNames.get(i)) + (keyValues.get(i) == null ? " IS NULL" : " = ?"));
+        }
+        return "SELECT id FROM " + fullCollectionName + " WHERE " + String.join(" AND ", conditions);
     }
 
     @Override
@@ -111,6 +108,6 @@ public class PostgresUniqueIndex extends Index<Long> {
     }
 
     @Override
-    public void updateInPlace(Document oldDocument, Document newDocument) throws KeyConstraintError {
+    public void updateInPlace(Document oldDocument, Document newDocument, Long position) {
     }
 }
@@ -22,6 +22,12 @@ public class PostgresqlUtilsTest {
         assertThat(PostgresqlUtils.toDataKey("foo.bar.bla")).isEqualTo("data -> 'foo' -> 'bar' ->> 'bla'");
     }
 
+    @Test
+    public void testQuoteIdentifier() throws Exception {
+        assertThat(PostgresqlUtils.quoteIdentifier("coll_a_1_b_-1")).isEqualTo("\"coll_a_1_b_-1\"");
+        assertThat(PostgresqlUtils.quoteIdentifier("a\"b")).isEqualTo("\"a\"\"b\"");
+    }
+
     @Test
     public void testToQueryValue() throws Exception {
         assertThat(PostgresqlUtils.toQueryValue(123)).isEqualTo("123");
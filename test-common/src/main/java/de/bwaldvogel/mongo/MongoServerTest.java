@@ -3,16 +3,58 @@ package de.bwaldvogel.mongo;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.fail;
 
+import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.junit.Assume;
 import org.junit.Test;
 
 import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.MongoCompressor;
 import com.mongodb.MongoException;
+import com.mongodb.MongoSocketException;
 import com.mongodb.ServerAddress;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.MongoCollection;
+
+import de.bwaldvogel.mongo.wire.BsonEncoder;
+import de.bwaldvogel.mongo.wire.OpCode;
+import de.bwaldvogel.mongo.wire.QueryFlag;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.unix.DomainSocketAddress;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 
 public abstract class MongoServerTest {
 
@@ -104,6 +146,526 @@ public abstract class MongoServerTest {
         }
     }
 
+    @Test(timeout = 10000)
+    public void testCompression() throws Exception {
+        MongoServer server = new MongoServer(createBackend());
+        MongoClientOptions options = MongoClientOptions.builder()
+            .compressorList(Collections.singletonList(MongoCompressor.createZlibCompressor()))
+            .build();
+        try {
+            InetSocketAddress serverAddress = server.bind();
+            try (MongoClient client = new MongoClient(new ServerAddress(serverAddress), options)) {
+                MongoCollection<Document> collection = client.getDatabase("testdb").getCollection("testcoll");
+                String value = String.join("", Collections.nCopies(10000, "value"));
+                for (int i = 0; i < 10; i++) {
+                    collection.insertOne(new Document("_id", i).append("value", value));
+                }
+
+                List<Document> documents = collection.find().into(new ArrayList<>());
+                assertThat(documents).hasSize(10);
+                assertThat(documents.get(9)).isEqualTo(new Document("_id", 9).append("value", value));
+            }
+        } finally {
+            server.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testRequestExecutor() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        AtomicInteger executedRequests = new AtomicInteger();
+        MongoServerOptions serverOptions = MongoServerOptions.builder()
+            .requestExecutor(command -> {
+                executedRequests.incrementAndGet();
+                executorService.execute(command);
+            })
+            .build();
+        MongoServer server = new MongoServer(createBackend(), serverOptions);
+        try {
+            InetSocketAddress serverAddress = server.bind();
+            MongoClientOptions options = MongoClientOptions.builder().connectionsPerHost(1).build();
+            try (MongoClient client = new MongoClient(new ServerAddress(serverAddress), options)) {
+                MongoCollection<Document> collection = client.getDatabase("testdb").getCollection("testcoll")
+                    .withWriteConcern(WriteConcern.UNACKNOWLEDGED);
+                for (int i = 0; i < 100; i++) {
+                    collection.insertOne(new Document("_id", i));
+                }
+
+                // unacknowledged writes of the same connection are handled before the count
+                assertThat(collection.count()).isEqualTo(100);
+                assertThat(executedRequests.get()).isGreaterThan(100);
+            }
+        } finally {
+            server.shutdownNow();
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testEpollWithReusePortAcceptors() throws Exception {
+        Assume.assumeTrue(Epoll.isAvailable());
+        MongoServerOptions options = MongoServerOptions.builder()
+            .epollEnabled(true)
+            .reusePortAcceptors(2)
+            .backlog(1024)
+            .build();
+        MongoServer server = new MongoServer(createBackend(), options);
+        try {
+            InetSocketAddress serverAddress = server.bind();
+            for (int i = 0; i < 5; i++) {
+                try (MongoClient client = new MongoClient(new ServerAddress(serverAddress))) {
+                    pingServer(client);
+                }
+            }
+        } finally {
+            server.shutdownNow();
+        }
+        assertThat(server.getLocalAddress()).isNull();
+    }
+
+    @Test
+    public void testReusePortAcceptorsRequireEpoll() throws Exception {
+        try {
+            MongoServerOptions.builder().reusePortAcceptors(2).build();
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("SO_REUSEPORT acceptors require epoll");
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testSmallServer() throws Exception {
+        MongoServerOptions options = MongoServerOptions.builder()
+            .bossThreads(1)
+            .workerThreads(1)
+            .receiveBufferSize(16 * 1024)
+            .sendBufferSize(16 * 1024)
+            .writeBufferWaterMark(new WriteBufferWaterMark(8 * 1024, 32 * 1024))
+            .allocator(UnpooledByteBufAllocator.DEFAULT)
+            .build();
+        MongoServer server = new MongoServer(createBackend(), options);
+        try {
+            InetSocketAddress serverAddress = server.bind();
+            try (MongoClient client = new MongoClient(new ServerAddress(serverAddress))) {
+                MongoCollection<Document> collection = client.getDatabase("testdb").getCollection("testcoll");
+                String value = String.join("", Collections.nCopies(100000, "x"));
+                for (int i = 0; i < 10; i++) {
+                    collection.insertOne(new Document("_id", i).append("value", value));
+                }
+                assertThat(collection.find().into(new ArrayList<>())).hasSize(10);
+            }
+        } finally {
+            server.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testMaxConnections() throws Exception {
+        MongoServerOptions options = MongoServerOptions.builder().maxConnections(2).build();
+        MongoServer server = new MongoServer(createBackend(), options);
+        try {
+            InetSocketAddress serverAddress = server.bind();
+            try (Socket first = new Socket(); Socket second = new Socket(); Socket third = new Socket()) {
+                int rejected = 0;
+                for (Socket socket : Arrays.asList(first, second, third)) {
+                    socket.connect(serverAddress);
+                }
+                // the connections are initialized concurrently, so any of them might be rejected
+                for (Socket socket : Arrays.asList(first, second, third)) {
+                    socket.setSoTimeout(500);
+                    try {
+                        assertThat(socket.getInputStream().read()).isEqualTo(-1);
+                        rejected++;
+                    } catch (SocketTimeoutException e) {
+                        // accepted connection
+                    }
+                }
+                assertThat(rejected).isEqualTo(1);
+            }
+
+            // the permits are released as soon as the server noticed the closed connections
+            MongoClientOptions clientOptions = MongoClientOptions.builder()
+                .heartbeatFrequency(50)
+                .minHeartbeatFrequency(10)
+                .build();
+            try (MongoClient client = new MongoClient(new ServerAddress(serverAddress), clientOptions)) {
+                while (true) {
+                    try {
+                        pingServer(client);
+                        break;
+                    } catch (MongoSocketException e) {
+                        Thread.sleep(10);
+                    }
+                }
+            }
+        } finally {
+            server.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testSharedEventLoopGroup() throws Exception {
+        MongoServerOptions options = MongoServerOptions.builder().sharedEventLoopGroup(true).build();
+        MongoServer first = new MongoServer(createBackend(), options);
+        MongoServer second = new MongoServer(createBackend(), options);
+        try {
+            InetSocketAddress firstAddress = first.bind();
+            InetSocketAddress secondAddress = second.bind();
+            try (MongoClient client = new MongoClient(new ServerAddress(secondAddress))) {
+                pingServer(client);
+                first.shutdownNow();
+                // the event loops of the second server are still running
+                pingServer(client);
+            }
+            try (MongoClient client = new MongoClient(new ServerAddress(firstAddress),
+                    MongoClientOptions.builder().serverSelectionTimeout(100).build())) {
+                pingServer(client);
+                fail("MongoException expected");
+            } catch (MongoException e) {
+                // expected
+            }
+        } finally {
+            first.shutdownNow();
+            second.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testGivenEventLoopGroup() throws Exception {
+        EventLoopGroup eventLoopGroup = new NioEventLoopGroup(1);
+        try {
+            MongoServerOptions options = MongoServerOptions.builder().eventLoopGroup(eventLoopGroup).build();
+            for (int i = 0; i < 3; i++) {
+                MongoServer server = new MongoServer(createBackend(), options);
+                try {
+                    InetSocketAddress serverAddress = server.bind();
+                    try (MongoClient client = new MongoClient(new ServerAddress(serverAddress))) {
+                        pingServer(client);
+                    }
+                } finally {
+                    server.shutdownNow();
+                }
+                assertThat(eventLoopGroup.isShuttingDown()).isFalse();
+            }
+        } finally {
+            eventLoopGroup.shutdownGracefully(0, 0, TimeUnit.SECONDS).syncUninterruptibly();
+        }
+    }
+
+    @Test
+    public void testEventLoopGroupOptionsAreExclusive() throws Exception {
+        try {
+            MongoServerOptions.builder().sharedEventLoopGroup(true).workerThreads(1).build();
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("The number of threads cannot be set for a given event loop group");
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testBindLocal() throws Exception {
+        MongoServer server = new MongoServer(createBackend());
+        try {
+            LocalAddress localAddress = server.bindLocal("mongo-server-test");
+            assertThat(localAddress.id()).isEqualTo("mongo-server-test");
+            assertThat(server.getLocalAddress()).isNull();
+            assertThat(server.toString()).isEqualTo("MongoServer(local:mongo-server-test)");
+
+            MongoClientOptions options = MongoClientOptions.builder()
+                .socketFactory(new LocalSocketFactory(localAddress))
+                .build();
+            try (MongoClient client = new MongoClient(new ServerAddress(), options)) {
+                pingServer(client);
+                Document whatsMyUri = client.getDatabase("admin").runCommand(new Document("whatsmyuri", 1));
+                assertThat(whatsMyUri.getString("you")).startsWith("local:");
+
+                MongoCollection<Document> collection = client.getDatabase("testdb").getCollection("testcoll");
+                String value = String.join("", Collections.nCopies(10000, "x"));
+                for (int i = 0; i < 200; i++) {
+                    collection.insertOne(new Document("_id", i).append("value", value));
+                }
+                assertThat(collection.find().into(new ArrayList<>())).hasSize(200);
+            }
+        } finally {
+            server.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testBindLocalOnRandomAddress() throws Exception {
+        MongoServer first = new MongoServer(createBackend());
+        MongoServer second = new MongoServer(createBackend());
+        try {
+            LocalAddress firstAddress = first.bindLocal();
+            LocalAddress secondAddress = second.bindLocal();
+            assertThat(firstAddress).isNotEqualTo(secondAddress);
+
+            MongoClientOptions options = MongoClientOptions.builder()
+                .socketFactory(new LocalSocketFactory(secondAddress))
+                .build();
+            try (MongoClient client = new MongoClient(new ServerAddress(), options)) {
+                pingServer(client);
+            }
+        } finally {
+            first.shutdownNow();
+            second.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testBindDomainSocket() throws Exception {
+        Assume.assumeTrue(Epoll.isAvailable());
+        File socketFile = new File(System.getProperty("java.io.tmpdir"), "mongo-server-test-" + System.nanoTime() + ".sock");
+        MongoServer server = new MongoServer(createBackend());
+        EventLoopGroup clientGroup = new EpollEventLoopGroup(1);
+        try {
+            server.bind(new DomainSocketAddress(socketFile));
+            assertThat(socketFile).exists();
+            assertThat(server.getLocalAddress()).isNull();
+
+            CompletableFuture<ByteBuf> reply = new CompletableFuture<>();
+            Channel channel = new Bootstrap()
+                .group(clientGroup)
+                .channel(EpollDomainSocketChannel.class)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) throws Exception {
+                        ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(ByteOrder.LITTLE_ENDIAN,
+                            Integer.MAX_VALUE, 0, 4, -4, 0, true));
+                        ch.pipeline().addLast(new SimpleChannelInboundHandler<ByteBuf>() {
+                            @Override
+                            protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
+                                reply.complete(msg.retain());
+                            }
+                        });
+                    }
+                })
+                .connect(new DomainSocketAddress(socketFile)).syncUninterruptibly().channel();
+
+            ByteBuf request = Unpooled.buffer();
+            request.writeIntLE(0); // length
+            request.writeIntLE(1); // requestID
+            request.writeIntLE(0); // responseTo
+            request.writeIntLE(OpCode.OP_MSG.getId());
+            request.writeIntLE(0); // flags
+            request.writeByte(0); // section kind: body
+            new BsonEncoder().encodeDocument(new de.bwaldvogel.mongo.bson.Document("ping", 1).append("$db", "admin"),
+                request);
+            request.setIntLE(0, request.writerIndex());
+            channel.writeAndFlush(request).syncUninterruptibly();
+
+            ByteBuf response = reply.get();
+            try {
+                assertThat(response.getIntLE(8)).isEqualTo(1); // responseTo
+                assertThat(response.getIntLE(12)).isEqualTo(OpCode.OP_MSG.getId());
+                byte[] body = new byte[response.readableBytes() - 21];
+                response.getBytes(21, body);
+                assertThat(new RawBsonDocument(body).getNumber("ok").intValue()).isEqualTo(1);
+            } finally {
+                response.release();
+            }
+            channel.close().syncUninterruptibly();
+        } finally {
+            server.shutdownNow();
+            clientGroup.shutdownGracefully(0, 0, TimeUnit.SECONDS).syncUninterruptibly();
+        }
+        assertThat(socketFile).doesNotExist();
+    }
+
+    @Test(timeout = 10000)
+    public void testExhaustQuery() throws Exception {
+        testExhaustQuery(MongoServerOptions.builder().build());
+    }
+
+    @Test(timeout = 10000)
+    public void testExhaustQueryWithRequestExecutor() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            testExhaustQuery(MongoServerOptions.builder().requestExecutor(executorService).build());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private void testExhaustQuery(MongoServerOptions options) throws Exception {
+        MongoServer server = new MongoServer(createBackend(), options);
+        try {
+            InetSocketAddress serverAddress = server.bind();
+            try (MongoClient client = new MongoClient(new ServerAddress(serverAddress))) {
+                MongoCollection<Document> collection = client.getDatabase("testdb").getCollection("testcoll");
+                List<Document> documents = new ArrayList<>();
+                for (int i = 0; i < 95; i++) {
+                    documents.add(new Document("_id", i));
+                }
+                collection.insertMany(documents);
+
+                try (Socket socket = new Socket()) {
+                    socket.connect(serverAddress);
+                    writeQuery(socket, 42, QueryFlag.EXHAUST.addTo(0), "testdb.testcoll", 10);
+
+                    DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+                    int responseTo = 42;
+                    int numberOfReplies = 0;
+                    int numberOfDocuments = 0;
+                    long cursorId;
+                    do {
+                        byte[] lengthBytes = new byte[4];
+                        inputStream.readFully(lengthBytes);
+                        int length = Unpooled.wrappedBuffer(lengthBytes).readIntLE();
+                        byte[] replyBytes = new byte[length - 4];
+                        inputStream.readFully(replyBytes);
+                        ByteBuf reply = Unpooled.wrappedBuffer(replyBytes);
+
+                        int requestId = reply.readIntLE();
+                        assertThat(reply.readIntLE()).isEqualTo(responseTo);
+                        assertThat(reply.readIntLE()).isEqualTo(OpCode.OP_REPLY.getId());
+                        assertThat(reply.readIntLE()).isZero(); // responseFlags
+                        cursorId = reply.readLongLE();
+                        assertThat(reply.readIntLE()).isEqualTo(numberOfDocuments); // startingFrom
+                        int numberReturned = reply.readIntLE();
+                        assertThat(numberReturned).isLessThanOrEqualTo(10);
+
+                        numberOfDocuments += numberReturned;
+                        numberOfReplies++;
+                        responseTo = requestId;
+                    } while (cursorId != 0);
+
+                    assertThat(numberOfDocuments).isEqualTo(95);
+                    assertThat(numberOfReplies).isEqualTo(10);
+                }
+
+                Document serverStatus = client.getDatabase("admin").runCommand(new Document("serverStatus", 1));
+                assertThat(((Document) serverStatus.get("cursors")).get("totalOpen")).isEqualTo(0);
+            }
+        } finally {
+            server.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testCloseClientDuringExhaustQuery() throws Exception {
+        MongoServerOptions options = MongoServerOptions.builder()
+            .sendBufferSize(4096)
+            .writeBufferWaterMark(new WriteBufferWaterMark(1024, 2048))
+            .build();
+        MongoServer server = new MongoServer(createBackend(), options);
+        try {
+            InetSocketAddress serverAddress = server.bind();
+            try (MongoClient client = new MongoClient(new ServerAddress(serverAddress))) {
+                List<Document> documents = new ArrayList<>();
+                for (int i = 0; i < 10000; i++) {
+                    documents.add(new Document("_id", i));
+                }
+                client.getDatabase("testdb").getCollection("testcoll").insertMany(documents);
+
+                String value = String.join("", Collections.nCopies(10000, "x"));
+                documents.clear();
+                for (int i = 0; i < 100; i++) {
+                    documents.add(new Document("_id", i).append("value", value));
+                }
+                client.getDatabase("testdb").getCollection("large").insertMany(documents);
+
+                try (Socket socket = new Socket()) {
+                    socket.setReceiveBufferSize(4096);
+                    socket.connect(serverAddress);
+                    // the reply to the second query keeps the channel unwritable after the first exhaust batch
+                    writeQuery(socket, 42, QueryFlag.EXHAUST.addTo(0), "testdb.testcoll", 10);
+                    writeQuery(socket, 43, 0, "testdb.large", 0);
+                    new DataInputStream(socket.getInputStream()).readFully(new byte[4]);
+
+                    Document serverStatus = client.getDatabase("admin").runCommand(new Document("serverStatus", 1));
+                    assertThat(((Document) serverStatus.get("cursors")).get("totalOpen")).isEqualTo(1);
+                }
+
+                int totalOpen;
+                do {
+                    Thread.sleep(10);
+                    Document serverStatus = client.getDatabase("admin").runCommand(new Document("serverStatus", 1));
+                    totalOpen = ((Integer) ((Document) serverStatus.get("cursors")).get("totalOpen")).intValue();
+                } while (totalOpen != 0);
+            }
+        } finally {
+            server.shutdownNow();
+        }
+    }
+
+    private static void writeQuery(Socket socket, int requestId, int flags, String fullCollectionName,
+            int numberToReturn) throws Exception {
+        ByteBuf request = Unpooled.buffer();
+        request.writeIntLE(0); // length
+        request.writeIntLE(requestId);
+        request.writeIntLE(0); // responseTo
+        request.writeIntLE(OpCode.OP_QUERY.getId());
+        request.writeIntLE(flags);
+        request.writeBytes(fullCollectionName.getBytes(StandardCharsets.UTF_8)).writeByte(0);
+        request.writeIntLE(0); // numberToSkip
+        request.writeIntLE(numberToReturn);
+        new BsonEncoder().encodeDocument(new de.bwaldvogel.mongo.bson.Document(), request);
+        request.setIntLE(0, request.writerIndex());
+        byte[] requestBytes = new byte[request.readableBytes()];
+        request.readBytes(requestBytes);
+        socket.getOutputStream().write(requestBytes);
+    }
+
+    @Test(timeout = 10000)
+    public void testPipelinedRequests() throws Exception {
+        testPipelinedRequests(MongoServerOptions.builder().build());
+    }
+
+    @Test(timeout = 10000)
+    public void testPipelinedRequestsWithRequestExecutor() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            testPipelinedRequests(MongoServerOptions.builder().requestExecutor(executorService).build());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private void testPipelinedRequests(MongoServerOptions options) throws Exception {
+        MongoServer server = new MongoServer(createBackend(), options);
+        try {
+            InetSocketAddress serverAddress = server.bind();
+            try (Socket socket = new Socket()) {
+                socket.connect(serverAddress);
+                int numberOfRequests = 100;
+                ByteBuf requests = Unpooled.buffer();
+                for (int requestId = 1; requestId <= numberOfRequests; requestId++) {
+                    int start = requests.writerIndex();
+                    requests.writeIntLE(0); // length
+                    requests.writeIntLE(requestId);
+                    requests.writeIntLE(0); // responseTo
+                    requests.writeIntLE(OpCode.OP_QUERY.getId());
+                    requests.writeIntLE(0); // flags
+                    requests.writeBytes("admin.$cmd".getBytes(StandardCharsets.UTF_8)).writeByte(0);
+                    requests.writeIntLE(0); // numberToSkip
+                    requests.writeIntLE(-1); // numberToReturn
+                    new BsonEncoder().encodeDocument(new de.bwaldvogel.mongo.bson.Document("ping", 1), requests);
+                    requests.setIntLE(start, requests.writerIndex() - start);
+                }
+                byte[] requestBytes = new byte[requests.readableBytes()];
+                requests.readBytes(requestBytes);
+                socket.getOutputStream().write(requestBytes);
+
+                DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+                for (int requestId = 1; requestId <= numberOfRequests; requestId++) {
+                    byte[] lengthBytes = new byte[4];
+                    inputStream.readFully(lengthBytes);
+                    int length = Unpooled.wrappedBuffer(lengthBytes).readIntLE();
+                    byte[] replyBytes = new byte[length - 4];
+                    inputStream.readFully(replyBytes);
+                    ByteBuf reply = Unpooled.wrappedBuffer(replyBytes);
+
+                    reply.readIntLE(); // requestID
+                    assertThat(reply.readIntLE()).isEqualTo(requestId);
+                    assertThat(reply.readIntLE()).isEqualTo(OpCode.OP_REPLY.getId());
+                }
+            }
+        } finally {
+            server.shutdownNow();
+        }
+    }
+
     private void pingServer(MongoClient client) {
         client.getDatabase("admin").runCommand(new Document("ping", 1));
     }
@@ -48,6 +48,7 @@ import org.bson.BsonObjectId;
 import org.bson.BsonTimestamp;
 import org.bson.Document;
 import org.bson.conversions.Bson;
+import org.bson.types.Code;
 import org.bson.types.ObjectId;
 import org.junit.After;
 import org.junit.Before;
@@ -88,6 +89,7 @@ import com.mongodb.client.result.UpdateResult;
 
 import de.bwaldvogel.mongo.MongoBackend;
 import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.MongoServerOptions;
 
 public abstract class AbstractBackendTest {
 
@@ -136,7 +138,7 @@ public abstract class AbstractBackendTest {
 
     protected void spinUpServer() throws Exception {
         MongoBackend backend = createBackend();
-        mongoServer = new MongoServer(backend);
+        mongoServer = new MongoServer(backend, MongoServerOptions.builder().sharedEventLoopGroup(true).build());
         InetSocketAddress serverAddress = mongoServer.bind();
         syncClient = new com.mongodb.MongoClient(new ServerAddress(serverAddress));
         asyncClient = MongoClients.create("mongodb://" + serverAddress.getHostName() + ":" + serverAddress.getPort());
@@ -245,6 +247,188 @@ public abstract class AbstractBackendTest {
         return getCollectionStatistics(db, collectionName);
     }
 
+    @Test
+    public void testPlanCache() throws Exception {
+        String collectionName = collection.getNamespace().getCollectionName();
+        assertThat(getPlanCacheQueryShapes()).isEmpty();
+
+        collection.insertOne(json("_id: 1, a: 1, b: 'x'"));
+        collection.insertOne(json("_id: 2, a: 2, b: 'y'"));
+
+        assertThat(collection.find(json("a: 1")).first()).isEqualTo(json("_id: 1, a: 1, b: 'x'"));
+        assertThat(collection.find(json("a: 2")).first()).isEqualTo(json("_id: 2, a: 2, b: 'y'"));
+        assertThat(collection.find(json("a: {$gt: 1}")).sort(json("b: -1")).first()).isEqualTo(json("_id: 2, a: 2, b: 'y'"));
+        assertThat(collection.find(json("a: {$gt: 0}")).sort(json("b: -1")).first()).isEqualTo(json("_id: 2, a: 2, b: 'y'"));
+
+        assertThat(getPlanCacheQueryShapes()).containsExactly(
+            json("query: {a: 1}, sort: {}, projection: {}"),
+            json("query: {a: {$gt: 1}}, sort: {b: -1}, projection: {}"));
+
+        Document response = db.runCommand(json("planCacheClear: '" + collectionName + "', query: {a: 5}"));
+        assertThat(response.getInteger("ok")).isEqualTo(1);
+        assertThat(getPlanCacheQueryShapes()).containsExactly(json("query: {a: {$gt: 1}}, sort: {b: -1}, projection: {}"));
+
+        collection.find(json("a: 7")).first();
+        collection.createIndex(json("c: 1"), new IndexOptions().unique(true));
+        assertThat(getPlanCacheQueryShapes()).isEmpty();
+
+        assertThat(collection.find(json("a: 2")).first()).isEqualTo(json("_id: 2, a: 2, b: 'y'"));
+        assertThat(getPlanCacheQueryShapes()).hasSize(1);
+
+        db.runCommand(json("planCacheClear: '" + collectionName + "'"));
+        assertThat(getPlanCacheQueryShapes()).isEmpty();
+
+        collection.find(json("a: 2")).first();
+        collection.drop();
+        assertThat(getPlanCacheQueryShapes()).isEmpty();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Document> getPlanCacheQueryShapes() {
+        String collectionName = collection.getNamespace().getCollectionName();
+        Document response = db.runCommand(json("planCacheListQueryShapes: '" + collectionName + "'"));
+        assertThat(response.getInteger("ok")).isEqualTo(1);
+        return (List<Document>) response.get("shapes");
+    }
+
+    @Test
+    public void testExplainFind() throws Exception {
+        String collectionName = collection.getNamespace().getCollectionName();
+        collection.insertOne(json("_id: 1, a: 1"));
+        collection.insertOne(json("_id: 2, a: 2"));
+        collection.insertOne(json("_id: 3, a: 2"));
+
+        Document response = db.runCommand(json("explain: {find: '" + collectionName + "', filter: {a: 2}}"));
+        assertThat(response.getInteger("ok")).isEqualTo(1);
+        Document queryPlanner = (Document) response.get("queryPlanner");
+        assertThat(queryPlanner.get("namespace")).isEqualTo(collection.getNamespace().getFullName());
+        assertThat(queryPlanner.get("parsedQuery")).isEqualTo(json("a: 2"));
+        assertThat(queryPlanner.get("winningPlan")).isEqualTo(json("stage: 'COLLSCAN', filter: {a: 2}, direction: 'forward'"));
+
+        Document executionStats = (Document) response.get("executionStats");
+        assertThat(executionStats.get("executionSuccess")).isEqualTo(true);
+        assertThat(executionStats.get("nReturned")).isEqualTo(2);
+        assertThat(executionStats.get("totalKeysExamined")).isEqualTo(0);
+        assertThat(executionStats.get("totalDocsExamined")).isEqualTo(3);
+        Document executionStages = (Document) executionStats.get("executionStages");
+        assertThat(executionStages.get("stage")).isEqualTo("COLLSCAN");
+        assertThat(executionStages.get("nReturned")).isEqualTo(2);
+        assertThat(executionStages.get("docsExamined")).isEqualTo(3);
+        assertThat(executionStages.get("executionTimeMillisEstimate")).isInstanceOf(Integer.class);
+
+        response = db.runCommand(json("explain: {find: '" + collectionName + "', filter: {_id: 2}}"));
+        executionStats = (Document) response.get("executionStats");
+        assertThat(executionStats.get("nReturned")).isEqualTo(1);
+        assertThat(executionStats.get("totalKeysExamined")).isEqualTo(1);
+        assertThat(executionStats.get("totalDocsExamined")).isEqualTo(1);
+        Document fetchStage = (Document) executionStats.get("executionStages");
+        assertThat(fetchStage.get("stage")).isEqualTo("FETCH");
+        Document indexScanStage = (Document) fetchStage.get("inputStage");
+        assertThat(indexScanStage.get("stage")).isEqualTo("IXSCAN");
+        assertThat(indexScanStage.get("indexName")).isEqualTo("_id_");
+        assertThat(indexScanStage.get("keyPattern")).isEqualTo(json("_id: 1"));
+        assertThat(indexScanStage.get("keysExamined")).isEqualTo(1);
+    }
+
+    @Test
+    public void testExplainFindWithSortSkipLimitAndProjection() throws Exception {
+        String collectionName = collection.getNamespace().getCollectionName();
+        for (int i = 1; i <= 5; i++) {
+            collection.insertOne(json("_id: " + i + ", a: " + i));
+        }
+
+        Document response = db.runCommand(json("explain: {find: '" + collectionName + "', filter: {a: {$gt: 1}}"
+                + ", sort: {a: -1}, skip: 1, limit: 2, projection: {a: 1}}, verbosity: 'executionStats'"));
+        assertThat(response.getInteger("ok")).isEqualTo(1);
+
+        Document executionStats = (Document) response.get("executionStats");
+        assertThat(executionStats.get("nReturned")).isEqualTo(2);
+        assertThat(executionStats.containsKey("allPlansExecution")).isFalse();
+
+        Document stage = (Document) executionStats.get("executionStages");
+        assertThat(stage.get("stage")).isEqualTo("PROJECTION");
+        assertThat(stage.get("transformBy")).isEqualTo(json("a: 1"));
+        stage = (Document) stage.get("inputStage");
+        assertThat(stage.get("stage")).isEqualTo("LIMIT");
+        assertThat(stage.get("limitAmount")).isEqualTo(2);
+        assertThat(stage.get("nReturned")).isEqualTo(2);
+        stage = (Document) stage.get("inputStage");
+        assertThat(stage.get("stage")).isEqualTo("SKIP");
+        assertThat(stage.get("nReturned")).isEqualTo(3);
+        stage = (Document) stage.get("inputStage");
+        assertThat(stage.get("stage")).isEqualTo("SORT");
+        assertThat(stage.get("sortPattern")).isEqualTo(json("a: -1"));
+        assertThat(stage.get("nReturned")).isEqualTo(4);
+        stage = (Document) stage.get("inputStage");
+        assertThat(stage.get("stage")).isEqualTo("COLLSCAN");
+        assertThat(stage.get("docsExamined")).isEqualTo(5);
+
+        // explain does not change the documents
+        assertThat(collection.find(json("_id: 5")).first()).isEqualTo(json("_id: 5, a: 5"));
+    }
+
+    @Test
+    public void testExplainCountDistinctUpdateAndDelete() throws Exception {
+        String collectionName = collection.getNamespace().getCollectionName();
+        collection.insertOne(json("_id: 1, a: 1"));
+        collection.insertOne(json("_id: 2, a: 2"));
+        collection.insertOne(json("_id: 3, a: 2"));
+
+        Document response = db.runCommand(json("explain: {count: '" + collectionName + "', query: {a: 2}}"));
+        Document stage = (Document) ((Document) response.get("executionStats")).get("executionStages");
+        assertThat(stage.get("stage")).isEqualTo("COUNT");
+        assertThat(stage.get("nCounted")).isEqualTo(2);
+
+        response = db.runCommand(json("explain: {distinct: '" + collectionName + "', key: 'a', query: {}}"));
+        stage = (Document) ((Document) response.get("executionStats")).get("executionStages");
+        assertThat(stage.get("stage")).isEqualTo("PROJECTION");
+        assertThat(stage.get("transformBy")).isEqualTo(json("a: 1, _id: 0"));
+        assertThat(stage.get("nReturned")).isEqualTo(3);
+
+        response = db.runCommand(json("explain: {update: '" + collectionName + "'"
+                + ", updates: [{q: {a: 2}, u: {$set: {b: 1}}, multi: true}]}"));
+        stage = (Document) ((Document) response.get("executionStats")).get("executionStages");
+        assertThat(stage.get("stage")).isEqualTo("UPDATE");
+        assertThat(stage.get("nMatched")).isEqualTo(2);
+        assertThat(stage.get("wouldInsert")).isEqualTo(false);
+
+        response = db.runCommand(json("explain: {update: '" + collectionName + "'"
+                + ", updates: [{q: {a: 5}, u: {$set: {b: 1}}, upsert: true}]}"));
+        stage = (Document) ((Document) response.get("executionStats")).get("executionStages");
+        assertThat(stage.get("nMatched")).isEqualTo(0);
+        assertThat(stage.get("wouldInsert")).isEqualTo(true);
+
+        response = db.runCommand(json("explain: {delete: '" + collectionName + "'"
+                + ", deletes: [{q: {a: 2}, limit: 1}]}, verbosity: 'queryPlanner'"));
+        assertThat(response.containsKey("executionStats")).isFalse();
+        Document winningPlan = (Document) ((Document) response.get("queryPlanner")).get("winningPlan");
+        assertThat(winningPlan.get("stage")).isEqualTo("DELETE");
+        assertThat(((Document) winningPlan.get("inputStage")).get("stage")).isEqualTo("LIMIT");
+
+        assertThat(collection.count()).isEqualTo(3);
+        assertThat(collection.count(json("b: 1"))).isZero();
+    }
+
+    @Test
+    public void testExplainMissingCollection() throws Exception {
+        Document response = db.runCommand(json("explain: {find: 'doesnotexist', filter: {a: 1}}"));
+        assertThat(response.getInteger("ok")).isEqualTo(1);
+        Document winningPlan = (Document) ((Document) response.get("queryPlanner")).get("winningPlan");
+        assertThat(winningPlan).isEqualTo(json("stage: 'EOF'"));
+        assertThat(((Document) response.get("executionStats")).get("nReturned")).isEqualTo(0);
+    }
+
+    @Test
+    public void testExplainWithIllegalVerbosity() throws Exception {
+        try {
+            db.runCommand(json("explain: {find: 'foo'}, verbosity: 'all'"));
+            fail("MongoCommandException expected");
+        } catch (MongoCommandException e) {
+            assertThat(e.getCode()).isEqualTo(2);
+            assertThat(e.getMessage()).contains("verbosity string must be one of");
+        }
+    }
+
     @Test
     public void testGetLogStartupWarnings() throws Exception {
         Document startupWarnings = getAdminDb().runCommand(json("getLog: 'startupWarnings'"));
@@ -746,6 +930,111 @@ public abstract class AbstractBackendTest {
         assertThat(actualNegativeLimit).isEqualTo(actual);
     }
 
+    @Test
+    public void testFindWithBatchSize() {
+        for (int i = 0; i < 250; i++) {
+            collection.insertOne(new Document("_id", i));
+        }
+
+        assertThat(toArray(collection.find())).hasSize(250);
+        assertThat(toArray(collection.find().batchSize(7))).hasSize(250);
+        assertThat(toArray(collection.find().batchSize(7).limit(20))).hasSize(20);
+        assertThat(toArray(collection.find().skip(240).batchSize(3))).hasSize(10);
+    }
+
+    @Test
+    public void testOpenCursorsInServerStatus() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            collection.insertOne(new Document("_id", i));
+        }
+
+        try (MongoCursor<Document> cursor = collection.find().batchSize(2).iterator()) {
+            assertThat(cursor.next()).isEqualTo(json("_id: 0"));
+            Document cursors = (Document) runCommand("serverStatus").get("cursors");
+            assertThat(cursors.get("totalOpen")).isEqualTo(1);
+        }
+
+        Document cursors = (Document) runCommand("serverStatus").get("cursors");
+        assertThat(cursors.get("totalOpen")).isEqualTo(0);
+    }
+
+    @Test
+    public void testInsertManyWithDocumentSequence() throws Exception {
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            documents.add(new Document("_id", i).append("value", "v" + i));
+        }
+        collection.insertMany(documents);
+
+        assertThat(collection.count()).isEqualTo(2500);
+        assertThat(collection.find(json("_id: 2499")).first()).isEqualTo(json("_id: 2499, value: 'v2499'"));
+    }
+
+    @Test
+    public void testUnacknowledgedInsert() throws Exception {
+        MongoCollection<Document> unacknowledgedCollection = collection.withWriteConcern(WriteConcern.UNACKNOWLEDGED);
+        unacknowledgedCollection.insertOne(json("_id: 1"));
+        unacknowledgedCollection.insertOne(json("_id: 1"));
+
+        // the duplicate key error is silently dropped
+        assertThat(toArray(collection.find())).containsExactly(json("_id: 1"));
+    }
+
+    @Test
+    public void testGetMoreAndKillCursorsCommands() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            collection.insertOne(new Document("_id", i));
+        }
+
+        Document findResult = db.runCommand(json("find: 'testcoll', batchSize: 3"));
+        Document cursor = (Document) findResult.get("cursor");
+        assertThat(cursor.get("firstBatch")).isEqualTo(Arrays.asList(json("_id: 0"), json("_id: 1"), json("_id: 2")));
+        long cursorId = cursor.getLong("id").longValue();
+        assertThat(cursorId).isNotEqualTo(0);
+
+        Document getMoreResult = db.runCommand(new Document("getMore", cursorId)
+            .append("collection", "testcoll")
+            .append("batchSize", 2));
+        cursor = (Document) getMoreResult.get("cursor");
+        assertThat(cursor.get("nextBatch")).isEqualTo(Arrays.asList(json("_id: 3"), json("_id: 4")));
+        assertThat(cursor.get("id")).isEqualTo(cursorId);
+
+        Document killCursorsResult = db.runCommand(new Document("killCursors", "testcoll")
+            .append("cursors", Arrays.asList(cursorId, 4711L)));
+        assertThat(killCursorsResult.get("cursorsKilled")).isEqualTo(Collections.singletonList(cursorId));
+        assertThat(killCursorsResult.get("cursorsNotFound")).isEqualTo(Collections.singletonList(4711L));
+
+        try {
+            db.runCommand(new Document("getMore", cursorId).append("collection", "testcoll"));
+            fail("MongoCommandException expected");
+        } catch (MongoCommandException e) {
+            assertThat(e.getErrorCode()).isEqualTo(43);
+        }
+    }
+
+    @Test
+    public void testFindCommandWithBatchSizeZero() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            collection.insertOne(new Document("_id", i));
+        }
+
+        Document findResult = db.runCommand(json("find: 'testcoll', batchSize: 0"));
+        Document cursor = (Document) findResult.get("cursor");
+        assertThat(cursor.get("firstBatch")).isEqualTo(Collections.emptyList());
+        long cursorId = cursor.getLong("id").longValue();
+        assertThat(cursorId).isNotEqualTo(0);
+
+        Document getMoreResult = db.runCommand(new Document("getMore", cursorId).append("collection", "testcoll"));
+        cursor = (Document) getMoreResult.get("cursor");
+        assertThat(cursor.get("nextBatch")).isEqualTo(Arrays.asList(json("_id: 0"), json("_id: 1"), json("_id: 2")));
+        assertThat(cursor.getLong("id").longValue()).isZero();
+
+        findResult = db.runCommand(json("find: 'testcoll', batchSize: 0, singleBatch: true"));
+        cursor = (Document) findResult.get("cursor");
+        assertThat(cursor.get("firstBatch")).isEqualTo(Collections.emptyList());
+        assertThat(cursor.getLong("id").longValue()).isZero();
+    }
+
     @Test
     public void testFindInReverseNaturalOrder() {
         collection.insertOne(json("_id: 1"));
@@ -950,6 +1239,19 @@ public abstract class AbstractBackendTest {
         collection.withWriteConcern(WriteConcern.ACKNOWLEDGED).insertOne(json("_id: 1"));
     }
 
+    @Test
+    public void testInsertUnsupportedEmbeddedValue() throws Exception {
+        try {
+            collection.insertOne(new Document("_id", 1).append("a", new Document("b", new Code("x"))));
+            fail("MongoException expected");
+        } catch (MongoException e) {
+            // expected
+        }
+
+        assertThat(collection.count()).isZero();
+        assertThat(collection.find(json("'a.b': 1")).first()).isNull();
+    }
+
     @Test
     public void testInsertIncrementsCount() {
         assertThat(collection.count()).isZero();
@@ -1599,6 +1901,22 @@ public abstract class AbstractBackendTest {
         assertThat(yetNewSize.longValue() - oldSize.longValue()).isEqualTo(4);
     }
 
+    @Test
+    public void testDatasizeAfterUpdateAndDelete() throws Exception {
+        collection.insertOne(json("_id: 1, a: 'abc'"));
+        collection.insertOne(json("_id: 2, a: {b: [1, 2]}"));
+        long initialSize = getCollStats().getLong("size").longValue();
+
+        collection.updateOne(json("_id: 2"), set("a.b.1", "xyz"));
+        collection.updateOne(json("_id: 2"), set("a.c", 1));
+        collection.replaceOne(json("_id: 1"), json("a: 'abcdef', c: 1"));
+        assertThat(getCollStats().getLong("size").longValue()).isGreaterThan(initialSize);
+
+        collection.deleteOne(json("_id: 1"));
+        collection.deleteOne(json("_id: 2"));
+        assertThat(getCollStats().getLong("size").longValue()).isZero();
+    }
+
     @Test
     public void testUpdatePull() throws Exception {
         Document obj = json("_id: 1");
@@ -2175,6 +2493,8 @@ public abstract class AbstractBackendTest {
         assertThat(isMaster.getDate("localTime")).isInstanceOf(Date.class);
         assertThat(isMaster.getInteger("maxBsonObjectSize")).isGreaterThan(1000);
         assertThat(isMaster.getInteger("maxMessageSizeBytes")).isGreaterThan(isMaster.getInteger("maxBsonObjectSize"));
+        assertThat(isMaster.getInteger("maxWireVersion")).isEqualTo(6);
+        assertThat(isMaster.getInteger("minWireVersion")).isEqualTo(0);
     }
 
     // https://github.com/foursquare/fongo/pull/26
@@ -2251,13 +2571,270 @@ public abstract class AbstractBackendTest {
     }
 
     @Test
-    public void testCompoundUniqueIndicesNotSupportedAndThrowsException() {
+    public void testCreateIndexTwice() throws Exception {
+        collection.createIndex(json("a: 1"));
+        collection.createIndex(json("a: 1"));
+        collection.createIndex(json("a: 1"), new IndexOptions().name("a_1"));
+        collection.createIndex(json("_id: 1"));
+
+        assertThat(toArray(collection.listIndexes())).hasSize(2);
+
+        collection.insertOne(json("_id: 1, a: 1"));
+        collection.insertOne(json("_id: 2, a: 1"));
+        assertThat(toArray(collection.find(json("a: 1")).projection(json("_id: 1"))))
+            .containsOnly(json("_id: 1"), json("_id: 2"));
+    }
+
+    @Test
+    public void testCreateIndexWithDifferentUniqueness() throws Exception {
+        collection.createIndex(json("a: 1"));
+
+        try {
+            collection.createIndex(json("a: 1"), new IndexOptions().unique(true));
+            fail("MongoCommandException expected");
+        } catch (MongoCommandException e) {
+            assertThat(e.getErrorCode()).isEqualTo(85);
+            assertThat(e.getMessage()).contains("Index with name: a_1 already exists with different options");
+        }
+
+        assertThat(toArray(collection.listIndexes())).hasSize(2);
+    }
+
+    @Test
+    public void testCreateIndexOfUnsupportedType() throws Exception {
+        collection.insertOne(json("_id: 1, a: 'x', b: [0, 0]"));
+
+        for (String keyPattern : Arrays.asList("a: 'text'", "a: 'hashed'", "a: 1, b: '2dsphere'", "a: 0")) {
+            try {
+                collection.createIndex(json(keyPattern));
+                fail("MongoCommandException expected");
+            } catch (MongoCommandException e) {
+                assertThat(e.getErrorCode()).isEqualTo(67);
+            }
+        }
+
+        assertThat(toArray(collection.listIndexes())).hasSize(1);
+    }
+
+    @Test
+    public void testQueryWithNonUniqueIndex() throws Exception {
+        collection.insertOne(json("_id: 1, status: 'open', n: 1"));
+        collection.insertOne(json("_id: 2, status: 'closed', n: 5"));
+
+        collection.createIndex(json("status: 1"));
+        collection.createIndex(json("n: 1"));
+
+        collection.insertOne(json("_id: 3, status: 'open', n: 10"));
+        collection.insertOne(json("_id: 4, status: ['open', 'new'], n: [2, 20]"));
+        collection.insertOne(json("_id: 5"));
+        collection.insertOne(json("_id: 6, status: null, n: 'x'"));
+
+        assertThat(toArray(collection.find(json("status: 'open'")).projection(json("_id: 1"))))
+            .containsOnly(json("_id: 1"), json("_id: 3"), json("_id: 4"));
+        assertThat(toArray(collection.find(json("status: ['open', 'new']")).projection(json("_id: 1"))))
+            .containsExactly(json("_id: 4"));
+        assertThat(toArray(collection.find(json("status: {$in: ['new', 'closed']}")).projection(json("_id: 1"))))
+            .containsOnly(json("_id: 2"), json("_id: 4"));
+        assertThat(toArray(collection.find(json("status: null")).projection(json("_id: 1"))))
+            .containsOnly(json("_id: 5"), json("_id: 6"));
+        assertThat(toArray(collection.find(eq("status", Pattern.compile("^clo"))).projection(json("_id: 1"))))
+            .containsExactly(json("_id: 2"));
+
+        assertThat(toArray(collection.find(json("n: {$gte: 5}")).projection(json("_id: 1"))))
+            .containsOnly(json("_id: 2"), json("_id: 3"), json("_id: 4"));
+        assertThat(toArray(collection.find(json("n: {$gt: 1, $lt: 10}")).projection(json("_id: 1"))))
+            .containsOnly(json("_id: 2"), json("_id: 4"));
+        assertThat(toArray(collection.find(json("n: {$lt: 2}")).projection(json("_id: 1"))))
+            .containsOnly(json("_id: 1"));
+
+        collection.updateOne(json("_id: 1"), set("status", "closed"));
+        collection.updateOne(json("_id: 2"), set("n", 11));
+        collection.deleteOne(json("_id: 3"));
+
+        assertThat(toArray(collection.find(json("status: 'open'")).projection(json("_id: 1"))))
+            .containsOnly(json("_id: 4"));
+        assertThat(toArray(collection.find(json("status: 'closed'")).projection(json("_id: 1"))))
+            .containsOnly(json("_id: 1"), json("_id: 2"));
+        assertThat(toArray(collection.find(json("n: {$gt: 10}")).projection(json("_id: 1"))))
+            .containsOnly(json("_id: 2"), json("_id: 4"));
+    }
+
+    @Test
+    public void testQueryWithNonUniqueIndexOnSubdocumentsInArray() throws Exception {
+        collection.createIndex(json("'items.sku': 1"));
+
+        collection.insertOne(json("_id: 1, items: [{sku: 'a'}, {sku: 'b'}]"));
+        collection.insertOne(json("_id: 2, items: [{sku: 'b'}, {qty: 1}]"));
+        collection.insertOne(json("_id: 3, items: {sku: 'c'}"));
+
+        assertThat(toArray(collection.find(json("'items.sku': 'b'")).projection(json("_id: 1"))))
+            .containsOnly(json("_id: 1"), json("_id: 2"));
+        assertThat(toArray(collection.find(json("'items.sku': 'c'")).projection(json("_id: 1"))))
+            .containsExactly(json("_id: 3"));
+        assertThat(toArray(collection.find(json("'items.sku': {$gt: 'a'}")).projection(json("_id: 1"))))
+            .containsOnly(json("_id: 1"), json("_id: 2"), json("_id: 3"));
+    }
+
+    @Test
+    public void testUniqueIndexFollowsUpdates() throws Exception {
+        collection.createIndex(json("u: 1"), new IndexOptions().unique(true));
+
+        collection.insertOne(json("_id: 1, u: 'a'"));
+        collection.updateOne(json("_id: 1"), set("u", "b"));
+        collection.insertOne(json("_id: 2, u: 'a'"));
+
+        assertThat(collection.find(json("u: 'b'")).first()).isEqualTo(json("_id: 1, u: 'b'"));
+        assertThat(collection.find(json("u: 'a'")).first()).isEqualTo(json("_id: 2, u: 'a'"));
+
+        collection.deleteOne(json("_id: 1"));
+        collection.insertOne(json("_id: 3, u: 'b'"));
+        assertThat(collection.find(json("u: 'b'")).first()).isEqualTo(json("_id: 3, u: 'b'"));
+    }
+
+    @Test
+    public void testCreateUniqueIndexOnExistingDocuments() throws Exception {
+        collection.insertOne(json("_id: 1, u: 'a'"));
+        collection.insertOne(json("_id: 2, u: 'b'"));
+
+        collection.createIndex(json("u: 1"), new IndexOptions().unique(true));
+        assertThat(collection.find(json("u: 'b'")).first()).isEqualTo(json("_id: 2, u: 'b'"));
+
+        try {
+            collection.insertOne(json("_id: 3, u: 'a'"));
+            fail("MongoWriteException expected");
+        } catch (MongoWriteException e) {
+            assertThat(e.getMessage()).contains("duplicate key error");
+        }
+
+        collection.insertOne(json("_id: 3, v: 'a'"));
+        collection.insertOne(json("_id: 4, v: 'a'"));
         try {
-            collection.createIndex(new Document("a", 1).append("b", 1), new IndexOptions().unique(true));
+            collection.createIndex(json("v: 1"), new IndexOptions().unique(true));
             fail("MongoException expected");
         } catch (MongoException e) {
             // expected
         }
+        collection.insertOne(json("_id: 5, v: 'a'"));
+    }
+
+    @Test
+    public void testCompoundUniqueIndex() throws Exception {
+        collection.insertOne(json("_id: 1, tenantId: 'a', externalId: 1"));
+        collection.insertOne(json("_id: 2, tenantId: 'a', externalId: 2"));
+
+        collection.createIndex(json("tenantId: 1, externalId: 1"), new IndexOptions().unique(true));
+
+        collection.insertOne(json("_id: 3, tenantId: 'b', externalId: 1"));
+        collection.insertOne(json("_id: 4, tenantId: 'b', externalId: 2"));
+
+        try {
+            collection.insertOne(json("_id: 5, tenantId: 'a', externalId: 2"));
+            fail("MongoWriteException expected");
+        } catch (MongoWriteException e) {
+            assertThat(e.getMessage()).contains("duplicate key error");
+        }
+
+        try {
+            collection.updateOne(json("_id: 4"), set("tenantId", "a"));
+            fail("MongoException expected");
+        } catch (MongoException e) {
+            assertThat(e.getMessage()).contains("duplicate key error");
+        }
+
+        assertThat(toArray(collection.find(json("tenantId: 'b', externalId: 2")).projection(json("_id: 1"))))
+            .containsExactly(json("_id: 4"));
+        assertThat(toArray(collection.find(json("externalId: 1, tenantId: 'a'")).projection(json("_id: 1"))))
+            .containsExactly(json("_id: 1"));
+        assertThat(toArray(collection.find(json("tenantId: 'a'")).projection(json("_id: 1"))))
+            .containsOnly(json("_id: 1"), json("_id: 2"));
+        assertThat(toArray(collection.find(json("tenantId: 'c', externalId: 1")))).isEmpty();
+
+        collection.updateOne(json("_id: 4"), set("externalId", 3));
+        collection.insertOne(json("_id: 5, tenantId: 'b', externalId: 2"));
+
+        assertThat(toArray(collection.find(json("tenantId: 'b'")).projection(json("_id: 1"))))
+            .containsOnly(json("_id: 3"), json("_id: 4"), json("_id: 5"));
+
+        List<Document> indexInfo = toArray(collection.listIndexes());
+        assertThat(indexInfo).contains(
+            json("name: 'tenantId_1_externalId_1', ns: 'testdb.testcoll', key: {tenantId: 1, externalId: 1}, unique: true"));
+    }
+
+    @Test
+    public void testCreateCompoundUniqueIndexOnExistingDuplicates() throws Exception {
+        collection.insertOne(json("_id: 1, a: 1, b: 1"));
+        collection.insertOne(json("_id: 2, a: 1, b: 1"));
+
+        try {
+            collection.createIndex(json("a: 1, b: 1"), new IndexOptions().unique(true));
+            fail("MongoException expected");
+        } catch (MongoException e) {
+            assertThat(e.getMessage()).contains("duplicate key error");
+        }
+    }
+
+    @Test
+    public void testIndexesWithSimilarKeys() throws Exception {
+        collection.createIndex(json("a: 1, b: 1"), new IndexOptions().unique(true));
+        collection.createIndex(json("a: 1, b: -1"), new IndexOptions().unique(true));
+        collection.createIndex(json("a_b: 1"), new IndexOptions().unique(true));
+        collection.createIndex(json("c: 1, d: 1"));
+        collection.createIndex(json("c: 1, d: -1"));
+
+        assertThat(toArray(collection.listIndexes())).hasSize(6);
+
+        collection.insertOne(json("_id: 1, a: 1, b: 1, a_b: 1, c: 1, d: 1"));
+        collection.insertOne(json("_id: 2, a: 1, b: 2, a_b: 2, c: 1, d: 1"));
+
+        try {
+            collection.insertOne(json("_id: 3, a: 1, b: 2"));
+            fail("MongoWriteException expected");
+        } catch (MongoWriteException e) {
+            assertThat(e.getMessage()).contains("duplicate key error");
+        }
+
+        assertThat(toArray(collection.find(json("a: 1, b: 2")).projection(json("_id: 1"))))
+            .containsExactly(json("_id: 2"));
+        assertThat(toArray(collection.find(json("c: 1, d: 1")).projection(json("_id: 1"))))
+            .containsOnly(json("_id: 1"), json("_id: 2"));
+    }
+
+    @Test
+    public void testQueryWithCompoundNonUniqueIndex() throws Exception {
+        collection.insertOne(json("_id: 1, tenantId: 'a', status: 'open', n: 1"));
+        collection.insertOne(json("_id: 2, tenantId: 'a', status: 'closed', n: 2"));
+
+        collection.createIndex(json("tenantId: 1, status: -1, n: 1"));
+
+        collection.insertOne(json("_id: 3, tenantId: 'b', status: 'open', n: 3"));
+        collection.insertOne(json("_id: 4, tenantId: 'a', status: ['open', 'new'], n: 4"));
+        collection.insertOne(json("_id: 5, tenantId: 'a'"));
+
+        assertThat(toArray(collection.find(json("tenantId: 'a'")).projection(json("_id: 1"))))
+            .containsOnly(json("_id: 1"), json("_id: 2"), json("_id: 4"), json("_id: 5"));
+        assertThat(toArray(collection.find(json("tenantId: 'a', status: 'open'")).projection(json("_id: 1"))))
+            .containsOnly(json("_id: 1"), json("_id: 4"));
+        assertThat(toArray(collection.find(json("tenantId: 'a', status: null")).projection(json("_id: 1"))))
+            .containsOnly(json("_id: 5"));
+        assertThat(toArray(collection.find(json("tenantId: {$in: ['a', 'b']}, status: 'open'")).projection(json("_id: 1"))))
+            .containsOnly(json("_id: 1"), json("_id: 3"), json("_id: 4"));
+        assertThat(toArray(collection.find(json("tenantId: 'a', status: {$gte: 'o'}")).projection(json("_id: 1"))))
+            .containsOnly(json("_id: 1"), json("_id: 4"));
+        assertThat(toArray(collection.find(json("tenantId: 'a', status: 'open', n: {$gt: 1}")).projection(json("_id: 1"))))
+            .containsOnly(json("_id: 4"));
+        assertThat(toArray(collection.find(and(eq("tenantId", "a"), eq("status", Pattern.compile("^clo")))).projection(json("_id: 1"))))
+            .containsOnly(json("_id: 2"));
+
+        collection.updateOne(json("_id: 1"), set("status", "closed"));
+        collection.deleteOne(json("_id: 4"));
+
+        assertThat(toArray(collection.find(json("tenantId: 'a', status: 'open'")))).isEmpty();
+        assertThat(toArray(collection.find(json("tenantId: 'a', status: 'closed'")).projection(json("_id: 1"))))
+            .containsOnly(json("_id: 1"), json("_id: 2"));
+
+        List<Document> indexInfo = toArray(collection.listIndexes());
+        assertThat(indexInfo).contains(
+            json("name: 'tenantId_1_status_-1_n_1', ns: 'testdb.testcoll', key: {tenantId: 1, status: -1, n: 1}"));
     }
 
     @Test
@@ -0,0 +1,233 @@
+package de.bwaldvogel.mongo.direct;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.AbstractMongoBackend;
+import de.bwaldvogel.mongo.bson.Document;
+import de.bwaldvogel.mongo.bson.ObjectId;
+import de.bwaldvogel.mongo.exception.MongoServerError;
+import de.bwaldvogel.mongo.exception.MongoServerException;
+
+public abstract class AbstractDirectMongoClientTest {
+
+    private AbstractMongoBackend backend;
+    private DirectMongoCollection collection;
+
+    protected abstract AbstractMongoBackend createBackend() throws Exception;
+
+    @Before
+    public void setUp() throws Exception {
+        backend = createBackend();
+        collection = new DirectMongoClient(backend).getDatabase("testdb").getCollection("testcoll");
+    }
+
+    @After
+    public void tearDown() {
+        backend.close();
+    }
+
+    @Test
+    public void testInsertAndFind() throws Exception {
+        assertThat(collection.find(new Document())).isEmpty();
+        assertThat(collection.count()).isZero();
+
+        assertThat(collection.insertOne(new Document("_id", 1).append("value", "a"))).isEqualTo(1);
+        assertThat(collection.insertMany(Arrays.asList(new Document("_id", 2).append("value", "b"),
+                new Document("_id", 3).append("value", "b")))).isEqualTo(2);
+
+        assertThat(collection.count()).isEqualTo(3);
+        assertThat(collection.count(new Document("value", "b"))).isEqualTo(2);
+        assertThat(collection.findOne(new Document("_id", 1))).isEqualTo(new Document("_id", 1).append("value", "a"));
+        assertThat(collection.findOne(new Document("_id", 4))).isNull();
+        assertThat(collection.find(new Document("value", "b")))
+            .containsExactlyInAnyOrder(new Document("_id", 2).append("value", "b"),
+                new Document("_id", 3).append("value", "b"));
+    }
+
+    @Test
+    public void testFindWithSortSkipLimitAndProjection() throws Exception {
+        for (int i = 1; i <= 5; i++) {
+            collection.insertOne(new Document("_id", i).append("value", i * 10).append("other", "x"));
+        }
+
+        List<Document> documents = collection.find(new Document(), new Document("value", -1), 1, 2,
+                new Document("value", 1));
+        assertThat(documents).containsExactly(new Document("_id", 4).append("value", 40),
+                new Document("_id", 3).append("value", 30));
+    }
+
+    @Test
+    public void testInsertGeneratesId() throws Exception {
+        Document document = new Document("value", "a");
+        Object id = collection.insertOne(document);
+        assertThat(id).isInstanceOf(ObjectId.class);
+        assertThat(document).doesNotContainKey("_id");
+        assertThat(collection.findOne(new Document())).isEqualTo(new Document("_id", id).append("value", "a"));
+    }
+
+    @Test
+    public void testInsertedDocumentIsCopied() throws Exception {
+        List<Object> list = new ArrayList<>(Arrays.asList(1, 2));
+        Document document = new Document("_id", 1).append("sub", new Document("a", 1)).append("list", list);
+        collection.insertOne(document);
+
+        document.put("value", "changed");
+        ((Document) document.get("sub")).put("a", 2);
+        list.add(3);
+
+        assertThat(collection.findOne(new Document("_id", 1)))
+            .isEqualTo(new Document("_id", 1).append("sub", new Document("a", 1)).append("list", Arrays.asList(1, 2)));
+    }
+
+    @Test
+    public void testFoundDocumentIsCopied() throws Exception {
+        collection.insertOne(new Document("_id", 1).append("sub", new Document("a", 1)));
+
+        Document document = collection.findOne(new Document("_id", 1));
+        document.put("value", "changed");
+        ((Document) document.get("sub")).put("a", 2);
+
+        assertThat(collection.findOne(new Document("_id", 1)))
+            .isEqualTo(new Document("_id", 1).append("sub", new Document("a", 1)));
+        assertThat(collection.count(new Document("sub.a", 2))).isZero();
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        collection.insertMany(Arrays.asList(new Document("_id", 1).append("n", 1), new Document("_id", 2).append("n", 1)));
+
+        Document result = collection.updateOne(new Document("_id", 1), new Document("$inc", new Document("n", 1)));
+        assertThat(result.get("n")).isEqualTo(1);
+        assertThat(result.get("nModified")).isEqualTo(1);
+
+        result = collection.updateMany(new Document(), new Document("$inc", new Document("n", 1)));
+        assertThat(result.get("nModified")).isEqualTo(2);
+        assertThat(collection.find(new Document(), new Document("_id", 1), 0, 0, null))
+            .containsExactly(new Document("_id", 1).append("n", 3), new Document("_id", 2).append("n", 2));
+    }
+
+    @Test
+    public void testUpsertCopiesUpdate() throws Exception {
+        Document sub = new Document("a", 1);
+        collection.update(new Document("_id", 1), new Document("$set", new Document("sub", sub)), false, true);
+        sub.put("a", 2);
+
+        assertThat(collection.findOne(new Document("_id", 1)))
+            .isEqualTo(new Document("_id", 1).append("sub", new Document("a", 1)));
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        assertThat(collection.deleteMany(new Document())).isZero();
+        for (int i = 1; i <= 3; i++) {
+            collection.insertOne(new Document("_id", i).append("value", "x"));
+        }
+        assertThat(collection.deleteOne(new Document("value", "x"))).isEqualTo(1);
+        assertThat(collection.deleteMany(new Document("value", "x"))).isEqualTo(2);
+        assertThat(collection.count()).isZero();
+    }
+
+    @Test
+    public void testDuplicateKey() throws Exception {
+        collection.insertOne(new Document("_id", 1));
+        try {
+            collection.insertOne(new Document("_id", 1));
+            fail("MongoServerError expected");
+        } catch (MongoServerError e) {
+            assertThat(e.getCode()).isEqualTo(11000);
+        }
+    }
+
+    @Test
+    public void testValueThatCannotBeEncodedIsNotStored() throws Exception {
+        try {
+            collection.insertOne(new Document("_id", 1).append("value", new BigDecimal("1.5")));
+            fail("MongoServerException expected");
+        } catch (MongoServerException e) {
+            assertThat(e.getMessage()).isEqualTo("Failed to calculate document size");
+        }
+        assertThat(collection.count()).isZero();
+        collection.insertOne(new Document("_id", 1).append("value", 1));
+
+        try {
+            collection.updateOne(new Document("_id", 1),
+                new Document("$set", new Document("value", new BigDecimal("1.5"))));
+            fail("MongoServerException expected");
+        } catch (MongoServerException e) {
+            assertThat(e.getMessage()).isEqualTo("Failed to calculate document size");
+        }
+        assertThat(collection.findOne(new Document("value", 1))).isEqualTo(new Document("_id", 1).append("value", 1));
+    }
+
+    @Test
+    public void testIllegalFieldNamesAreRejected() throws Exception {
+        try {
+            collection.insertOne(new Document("_id", 1).append("$set", 1));
+            fail("MongoServerError expected");
+        } catch (MongoServerError e) {
+            assertThat(e.getCode()).isEqualTo(52);
+        }
+        try {
+            collection.insertMany(Arrays.asList(new Document("_id", 2),
+                new Document("_id", 3).append("a", Arrays.asList(new Document("b.c", 1)))));
+            fail("MongoServerError expected");
+        } catch (MongoServerError e) {
+            assertThat(e.getCode()).isEqualTo(57);
+        }
+        assertThat(collection.count()).isZero();
+
+        Document dbRef = new Document("$ref", "other").append("$id", 1);
+        collection.insertOne(new Document("_id", 4).append("ref", dbRef));
+        assertThat(collection.findOne(new Document("_id", 4))).isEqualTo(new Document("_id", 4).append("ref", dbRef));
+    }
+
+    @Test
+    public void testDrop() throws Exception {
+        collection.insertOne(new Document("_id", 1));
+        collection.drop();
+        assertThat(collection.count()).isZero();
+        collection.drop();
+    }
+
+    @Test(timeout = 10000)
+    public void testSharedWithServer() throws Exception {
+        MongoServer server = new MongoServer(backend);
+        try (MongoClient client = new MongoClient(new ServerAddress(server.bind()))) {
+            collection.insertOne(new Document("_id", 1).append("value", "direct"));
+            com.mongodb.client.MongoCollection<org.bson.Document> driverCollection = client.getDatabase("testdb")
+                .getCollection("testcoll");
+            assertThat(driverCollection.find().first())
+                .isEqualTo(new org.bson.Document("_id", 1).append("value", "direct"));
+
+            driverCollection.insertOne(new org.bson.Document("_id", 2).append("value", "driver"));
+            assertThat(collection.findOne(new Document("_id", 2))).isEqualTo(new Document("_id", 2).append("value", "driver"));
+        } finally {
+            server.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSystemCollectionsAreRejected() throws Exception {
+        try {
+            new DirectMongoClient(backend).getDatabase("testdb").getCollection("system.indexes");
+            fail("MongoServerException expected");
+        } catch (MongoServerException e) {
+            assertThat(e.getMessage()).isEqualTo("system collections cannot be accessed directly: system.indexes");
+        }
+    }
+
+}